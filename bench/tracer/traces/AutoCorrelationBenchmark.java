@@ -0,0 +1,84 @@
+/*
+ * AutoCorrelationBenchmark.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package tracer.traces;
+
+import dr.inference.trace.TraceCorrelation;
+import dr.inference.trace.TraceDistribution;
+import dr.inference.trace.TraceType;
+
+import java.util.Random;
+
+/**
+ * Times finding the ACT and ESS lag by lag (as TraceCorrelation) and by FFT (as
+ * AutoCorrelation), on AR(1) traces of 10^5, 10^6 and 10^7 samples.
+ */
+public class AutoCorrelationBenchmark {
+
+    /**
+     * The autocorrelation of the traces can be given as an argument (the default is 0.99).
+     * TraceCorrelation's time for the ACT and ESS is its total time less that of
+     * TraceDistribution.
+     */
+    public static void main(String[] args) {
+        double phi = (args.length > 0 ? Double.parseDouble(args[0]) : 0.99);
+        Random random = new Random(42);
+
+        for (int count = 100000; count <= 10000000; count *= 10) {
+            double[] values = new double[count];
+            double value = 0.0;
+            for (int i = 0; i < count; i++) {
+                value = phi * value + random.nextGaussian();
+                values[i] = value;
+            }
+            DoubleColumn column = DoubleColumn.wrap(values);
+
+            long start = System.nanoTime();
+            TraceDistribution distribution = new TraceDistribution(column.asList(), TraceType.REAL, false);
+            long distributionTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            TraceCorrelation direct = new TraceCorrelation(column.asList(), TraceType.REAL, 1, false);
+            long directTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            TraceCorrelation fft = new FFTTraceCorrelation(column.asList(), TraceType.REAL, 1, false);
+            long fftTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            AutoCorrelation autoCorrelation = new AutoCorrelation(column, distribution.getMean());
+            long autoCorrelationTime = System.nanoTime() - start;
+
+            long directAutoCorrelationTime = Math.max(1, directTime - distributionTime);
+            System.out.println(String.format("%,d samples, window of %d lags: ESS lag by lag %.3fs (%.1f), " +
+                            "by FFT %.3fs (%.1f), %.1fx faster; all the statistics %.3fs and %.3fs, %.1fx faster",
+                    count, autoCorrelation.getMaxLag(),
+                    directAutoCorrelationTime / 1e9, direct.getESS(),
+                    autoCorrelationTime / 1e9, fft.getESS(), (double) directAutoCorrelationTime / autoCorrelationTime,
+                    directTime / 1e9, fftTime / 1e9, (double) directTime / fftTime));
+        }
+    }
+}
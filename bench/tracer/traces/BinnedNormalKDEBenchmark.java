@@ -0,0 +1,79 @@
+/*
+ * BinnedNormalKDEBenchmark.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package tracer.traces;
+
+import dr.math.distributions.NormalKDEDistribution;
+
+import java.util.Random;
+
+/**
+ * Times NormalKDEDistribution and BinnedNormalKDE on 10^5, 10^6 and 10^7 normal and
+ * skewed values and prints the largest difference between their densities, over 1000
+ * points across the range, relative to the greatest density.
+ */
+public class BinnedNormalKDEBenchmark {
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+
+        for (int count = 100000; count <= 10000000; count *= 10) {
+            for (int skewed = 0; skewed < 2; skewed++) {
+                double[] values = new double[count];
+                Double[] boxed = new Double[count];
+                for (int i = 0; i < count; i++) {
+                    double value = random.nextGaussian();
+                    values[i] = (skewed == 1 ? Math.exp(value) : value);
+                    boxed[i] = values[i];
+                }
+
+                long start = System.nanoTime();
+                NormalKDEDistribution normalKDE = new NormalKDEDistribution(boxed);
+                normalKDE.pdf(0.0);
+                long normalTime = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                BinnedNormalKDE binnedKDE = new BinnedNormalKDE(values);
+                long binnedTime = System.nanoTime() - start;
+
+                double lower = normalKDE.getFromPoint();
+                double upper = normalKDE.getToPoint();
+                double maxDensity = 0.0;
+                double maxDifference = 0.0;
+                for (int i = 0; i <= 1000; i++) {
+                    double x = lower + i * (upper - lower) / 1000;
+                    maxDensity = Math.max(maxDensity, normalKDE.pdf(x));
+                    maxDifference = Math.max(maxDifference, Math.abs(normalKDE.pdf(x) - binnedKDE.pdf(x)));
+                }
+                System.out.println(String.format("%,d %s values: NormalKDEDistribution %.3fs, binned %.3fs, " +
+                                "%.1fx faster; bandwidths %.6g and %.6g, largest difference %.2g of the peak",
+                        count, (skewed == 1 ? "log-normal" : "normal"),
+                        normalTime / 1e9, binnedTime / 1e9, (double) normalTime / binnedTime,
+                        normalKDE.getBandWidth(), binnedKDE.getBandwidth(), maxDifference / maxDensity));
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * MomentsBenchmark.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package tracer.traces;
+
+import java.util.Random;
+
+/**
+ * Times the sums of Moments against simple loops over the same values (which they should
+ * match to within rounding), and the sums of the products of the first lags that
+ * AutoCorrelation finds directly, for traces of 10^5, 10^6 and 10^7 samples.
+ */
+public class MomentsBenchmark {
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        for (int count = 100000; count <= 10000000; count *= 10) {
+            double[] x = new double[count];
+            double value = 0.0;
+            for (int i = 0; i < count; i++) {
+                value = 0.99 * value + random.nextGaussian();
+                x[i] = Math.exp(value / 10);
+            }
+            double reference = x[0];
+            int repeats = 50000000 / count;
+            double[] sums = new double[2];
+            double[] simpleSums = new double[2];
+
+            long simpleTime = 0;
+            long kernelTime = 0;
+            long simpleLogTime = 0;
+            long kernelLogTime = 0;
+            long productTime = 0;
+            double logSum = 0.0;
+            double simpleLogSum = 0.0;
+            // the first round warms up
+            for (int round = 0; round < 2; round++) {
+                long start = System.nanoTime();
+                for (int repeat = 0; repeat < repeats; repeat++) {
+                    sumSimply(x, reference, simpleSums);
+                }
+                simpleTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int repeat = 0; repeat < repeats; repeat++) {
+                    Moments.sumDeviations(x, 0, count, reference, sums);
+                }
+                kernelTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int repeat = 0; repeat < repeats; repeat++) {
+                    simpleLogSum = sumLogsSimply(x);
+                }
+                simpleLogTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int repeat = 0; repeat < repeats; repeat++) {
+                    logSum = Moments.sumLogs(x, 0, count);
+                }
+                kernelLogTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int repeat = 0; repeat < repeats; repeat++) {
+                    AutoCorrelation.sumProducts(DoubleColumn.wrap(x), reference, 0, count, AutoCorrelation.DIRECT_LAG_COUNT);
+                }
+                productTime = System.nanoTime() - start;
+            }
+
+            double values = (double) count * repeats;
+            System.out.println(String.format("%,d samples: deviations and squares %.0f and %.0f million values/s " +
+                            "(%.1fx), logs %.0f and %.0f million values/s (%.1fx); relative differences %.1e, %.1e, %.1e; " +
+                            "products of %d lags %.0f million/s",
+                    count, values / simpleTime * 1e3, values / kernelTime * 1e3, (double) simpleTime / kernelTime,
+                    values / simpleLogTime * 1e3, values / kernelLogTime * 1e3, (double) simpleLogTime / kernelLogTime,
+                    Math.abs(sums[0] - simpleSums[0]) / Math.abs(simpleSums[0]),
+                    Math.abs(sums[1] - simpleSums[1]) / simpleSums[1],
+                    Math.abs(logSum - simpleLogSum) / Math.abs(simpleLogSum),
+                    AutoCorrelation.DIRECT_LAG_COUNT, values * AutoCorrelation.DIRECT_LAG_COUNT / productTime * 1e3));
+        }
+    }
+
+    private static void sumSimply(double[] x, double reference, double[] sums) {
+        double sum = 0.0;
+        double squareSum = 0.0;
+        for (double value : x) {
+            double deviation = value - reference;
+            sum += deviation;
+            squareSum += deviation * deviation;
+        }
+        sums[0] = sum;
+        sums[1] = squareSum;
+    }
+
+    private static double sumLogsSimply(double[] x) {
+        double sum = 0.0;
+        for (double value : x) {
+            sum += Math.log(value);
+        }
+        return sum;
+    }
+}
@@ -28,7 +28,6 @@ package tracer.analysis;
 import dr.app.gui.components.RealNumberField;
 import dr.app.gui.components.WholeNumberField;
 import dr.app.gui.util.LongTask;
-import dr.inference.trace.TraceDistribution;
 import dr.inference.trace.TraceList;
 import dr.stats.Variate;
 import jam.framework.DocumentFrame;
@@ -41,6 +40,10 @@ import jebl.evolution.io.NexusImporter;
 import jebl.evolution.io.TreeImporter;
 import jebl.evolution.trees.RootedTree;
 import tracer.exceptions.StateNotMatchException;
+import tracer.traces.DoubleColumn;
+import tracer.traces.GzipFileInputStream;
+import tracer.traces.OrderStatistics;
+import tracer.traces.QuantileSketch;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
@@ -53,7 +56,6 @@ import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -478,8 +480,8 @@ public class BayesianSkylineDialog {
 
         int stateCount;
 
-        ArrayList<ArrayList> popSizes;
-        ArrayList<ArrayList> groupSizes;
+        List<DoubleColumn> popSizes;
+        List<DoubleColumn> groupSizes;
 
         private int lengthOfTask = 0;
         private int current = 0;
@@ -509,13 +511,13 @@ public class BayesianSkylineDialog {
 
             stateCount = traceList.getStateCount();
 
-            popSizes = new ArrayList<ArrayList>();
+            popSizes = new ArrayList<DoubleColumn>();
             for (int i = 0; i < popSizeCount; i++) {
-                popSizes.add(new ArrayList(traceList.getValues(firstPopSize + i)));
+                popSizes.add(DoubleColumn.getValues(traceList, firstPopSize + i));
             }
-            groupSizes = new ArrayList<ArrayList>();
+            groupSizes = new ArrayList<DoubleColumn>();
             for (int i = 0; i < groupSizeCount; i++) {
-                groupSizes.add(new ArrayList(traceList.getValues(firstGroupSize + i)));
+                groupSizes.add(DoubleColumn.getValues(traceList, firstGroupSize + i));
             }
 
         }
@@ -538,15 +540,14 @@ public class BayesianSkylineDialog {
 
         public Object doWork() {
 
-            List<Double> heights = traceList.getValues(traceList.getTraceIndex(rootHeightTrace));
+            OrderStatistics heights = OrderStatistics.getOrderStatistics(traceList,
+                    traceList.getTraceIndex(rootHeightTrace));
+            double[] timeHPD = heights.getHPDInterval(0.95);
 
-            TraceDistribution distribution = new TraceDistribution(heights,
-                    traceList.getTrace(traceList.getTraceIndex(rootHeightTrace)).getTraceType());
-
-            double timeMean = distribution.getMean();
-            double timeMedian = distribution.getMedian();
-            double timeUpper = distribution.getUpperHPD();
-            double timeLower = distribution.getLowerHPD();
+            double timeMean = heights.getMean();
+            double timeMedian = heights.getMedian();
+            double timeUpper = timeHPD[1];
+            double timeLower = timeHPD[0];
 
             double maxHeight = 0.0;
             switch (maxHeightCombo.getSelectedIndex()) {
@@ -609,7 +610,7 @@ public class BayesianSkylineDialog {
             double delta = (maxTime - minTime) / (binCount - 1);
 
             try {
-                BufferedReader reader = new BufferedReader(new FileReader(treeFile));
+                BufferedReader reader = new BufferedReader(GzipFileInputStream.openReader(treeFile));
 
                 String line = reader.readLine();
 
@@ -641,6 +642,9 @@ public class BayesianSkylineDialog {
 //                    importer = new NewickImporter(reader, false);
 //                }
 
+                // the trees that go with a log loaded with sampling
+                TreeStateFilter treeStateFilter = new TreeStateFilter(traceList);
+
                 long burnin = traceList.getBurnIn();
                 int skip = (int) (burnin / traceList.getStepSize());
                 int state = 0;
@@ -684,12 +688,15 @@ public class BayesianSkylineDialog {
 
                 try {
                     while (importer.hasTree()) {
+                        RootedTree tree = (RootedTree) importer.importNextTree();
+                        if (!treeStateFilter.isSampled(tree)) {
+                            continue;
+                        }
+
                         // this validates trees > log samples
                         if (state >= traceList.getStateCount())
                             throw new StateNotMatchException();
 
-                        RootedTree tree = (RootedTree) importer.importNextTree();
-
                         IntervalList intervals = new Intervals(tree);
                         int intervalCount = intervals.getIntervalCount();
                         //tips = tree.getExternalNodes().size();
@@ -701,7 +708,7 @@ public class BayesianSkylineDialog {
                         int groupIndex = 0;
                         int subIndex = 0;
                         if (firstGroupSize > 0) {
-                            double g = (Double) groupSizes.get(groupIndex).get(state);
+                            double g = groupSizes.get(groupIndex).get(state);
                             if (g != Math.round(g)) {
                                 throw new RuntimeException("Group size " + groupIndex + " should be integer but found:" + g);
                             } else groupSize = (int) Math.round(g);
@@ -718,7 +725,7 @@ public class BayesianSkylineDialog {
                                     subIndex = 0;
                                     groupIndex += 1;
                                     if (groupIndex < groupSizeCount) {
-                                        double g = (Double) groupSizes.get(groupIndex).get(state);
+                                        double g = groupSizes.get(groupIndex).get(state);
                                         if (g != Math.round(g)) {
                                             throw new RuntimeException("Group size " + groupIndex + " should be integer but found:" + g);
                                         } else groupSize = (int) Math.round(g);
@@ -754,7 +761,7 @@ public class BayesianSkylineDialog {
                     ex.printStackTrace(System.out);
                 }
 
-                Variate.D[] bins = new Variate.D[binCount];
+                QuantileSketch[] bins = new QuantileSketch[binCount];
                 double height;
                 if (ageOfYoungest > 0.0) {
                     height = ageOfYoungest - maxTime;
@@ -764,7 +771,7 @@ public class BayesianSkylineDialog {
 
 
                 for (int k = 0; k < binCount; k++) {
-                    bins[k] = new Variate.D();
+                    bins[k] = new QuantileSketch();
 
                     if (height >= 0.0 && height <= maxHeight) {
                         for (state = 0; state < groupTimes.length;) {
@@ -847,13 +854,17 @@ public class BayesianSkylineDialog {
                 } else {
                     t = minTime;
                 }
-                for (Variate.D bin : bins) {
+                boolean isApproximate = false;
+                for (QuantileSketch bin : bins) {
                     xData.add(t);
                     if (bin.getCount() > 0) {
+                        // sketched once for all the quantiles, which are exact unless the bin is large
+                        OrderStatistics binStatistics = bin.getOrderStatistics();
+                        isApproximate |= binStatistics.isApproximate();
                         yDataMean.add(bin.getMean());
-                        yDataMedian.add(bin.getQuantile(0.5));
-                        yDataLower.add(bin.getQuantile(0.025));
-                        yDataUpper.add(bin.getQuantile(0.975));
+                        yDataMedian.add(binStatistics.getMedian());
+                        yDataLower.add(binStatistics.getQuantile(0.025));
+                        yDataUpper.add(binStatistics.getQuantile(0.975));
                     } else {
                         yDataMean.add(Double.NaN);
                         yDataMedian.add(Double.NaN);
@@ -867,7 +878,7 @@ public class BayesianSkylineDialog {
                     }
                 }
 
-                frame.addDemographic("Bayesian Skyline: " + traceList.getName(), xData,
+                frame.addDemographic("Bayesian Skyline: " + traceList.getName() + (isApproximate ? " (approximate)" : ""), xData,
                         yDataMean, yDataMedian,
                         yDataUpper, yDataLower,
                         timeMean, timeMedian,
@@ -893,7 +904,7 @@ public class BayesianSkylineDialog {
         }
 
         private double getPopSize(int index, int state) {
-            return (Double) popSizes.get(index).get(state);
+            return popSizes.get(index).get(state);
         }
     }
 
@@ -33,12 +33,14 @@ import dr.evolution.coalescent.ExponentialExponential;
 import dr.evolution.coalescent.MultiEpochExponential;
 import dr.evolution.coalescent.TwoEpochDemographic;
 import dr.evolution.util.Units;
-import dr.inference.trace.TraceDistribution;
 import dr.inference.trace.TraceList;
 import dr.stats.Variate;
 import jam.framework.DocumentFrame;
 import jam.panels.OptionsPanel;
 import jebl.evolution.coalescent.*;
+import tracer.traces.DoubleColumn;
+import tracer.traces.OrderStatistics;
+import tracer.traces.QuantileSketch;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
@@ -456,21 +458,21 @@ public class DemographicDialog {
             current = 0;
 
             int[] argIndices = argumentIndices[demographicCombo.getSelectedIndex()];
-            ArrayList<ArrayList> values = new ArrayList<ArrayList>();
+            List<DoubleColumn> values = new ArrayList<DoubleColumn>();
 
-            Variate.D[] bins = new Variate.D[binCount];
+            QuantileSketch[] bins = new QuantileSketch[binCount];
             for (int k = 0; k < binCount; k++) {
-                bins[k] = new Variate.D();
+                bins[k] = new QuantileSketch();
             }
 
-            List<Double> heights = traceList.getValues(traceList.getTraceIndex(rootHeightTrace));
-            TraceDistribution distribution = new TraceDistribution(heights,
-                    traceList.getTrace(traceList.getTraceIndex(rootHeightTrace)).getTraceType());
+            OrderStatistics heights = OrderStatistics.getOrderStatistics(traceList,
+                    traceList.getTraceIndex(rootHeightTrace));
+            double[] timeHPD = heights.getHPDInterval(0.95);
 
-            double timeMean = distribution.getMean();
-            double timeMedian = distribution.getMedian();
-            double timeUpper = distribution.getUpperHPD();
-            double timeLower = distribution.getLowerHPD();
+            double timeMean = heights.getMean();
+            double timeMedian = heights.getMedian();
+            double timeUpper = timeHPD[1];
+            double timeLower = timeHPD[0];
 
             double maxHeight = 0.0;
             switch (maxHeightCombo.getSelectedIndex()) {
@@ -542,14 +544,14 @@ public class DemographicDialog {
 
             for (int j = 0; j < argIndices.length; j++) {
                 int index = traceList.getTraceIndex(argumentTraces[argIndices[j]]);
-                values.add(new ArrayList(traceList.getValues(index)));
+                values.add(DoubleColumn.getValues(traceList, index));
             }
 
             if (demographicCombo.getSelectedIndex() == 0) { // Constant Size
                 title = "Constant Population Size";
                 ConstantPopulation demo = new ConstantPopulation();
                 for (int i = 0; i < values.get(0).size(); i++) {
-                    demo.setN0((Double) values.get(0).get(i));
+                    demo.setN0(values.get(0).get(i));
 
                     addDemographic(bins, binCount, maxHeight, delta, demo);
                     current++;
@@ -559,8 +561,8 @@ public class DemographicDialog {
                 title = "Exponential Growth";
                 ExponentialGrowth demo = new ExponentialGrowth();
                 for (int i = 0; i < values.get(0).size(); i++) {
-                    demo.setN0((Double) values.get(0).get(i));
-                    demo.setGrowthRate((Double) values.get(1).get(i));
+                    demo.setN0(values.get(0).get(i));
+                    demo.setGrowthRate(values.get(1).get(i));
 
                     addDemographic(bins, binCount, maxHeight, delta, demo);
 
@@ -572,8 +574,8 @@ public class DemographicDialog {
                 title = "Exponential Growth";
                 ExponentialGrowth demo = new ExponentialGrowth();
                 for (int i = 0; i < values.get(0).size(); i++) {
-                    demo.setN0((Double) values.get(0).get(i));
-                    demo.setDoublingTime((Double) values.get(1).get(i));
+                    demo.setN0(values.get(0).get(i));
+                    demo.setDoublingTime(values.get(1).get(i));
 
                     addDemographic(bins, binCount, maxHeight, delta, demo);
                     current++;
@@ -583,9 +585,9 @@ public class DemographicDialog {
                 title = "Logistic t50";
                 LogisticGrowth demo = new LogisticGrowth();
                 for (int i = 0; i < values.get(0).size(); i++) {
-                    demo.setN0((Double) values.get(0).get(i));
-                    demo.setGrowthRate((Double) values.get(1).get(i));
-                    demo.setTime50((Double) values.get(2).get(i));
+                    demo.setN0(values.get(0).get(i));
+                    demo.setGrowthRate(values.get(1).get(i));
+                    demo.setTime50(values.get(2).get(i));
 
                     addDemographic(bins, binCount, maxHeight, delta, demo);
                     current++;
@@ -595,9 +597,9 @@ public class DemographicDialog {
                 title = "Logistic Growth";
                 LogisticGrowth demo = new LogisticGrowth();
                 for (int i = 0; i < values.get(0).size(); i++) {
-                    demo.setN0((Double) values.get(0).get(i));
-                    demo.setDoublingTime((Double) values.get(1).get(i));
-                    demo.setTime50((Double) values.get(2).get(i));
+                    demo.setN0(values.get(0).get(i));
+                    demo.setDoublingTime(values.get(1).get(i));
+                    demo.setTime50(values.get(2).get(i));
 
                     addDemographic(bins, binCount, maxHeight, delta, demo);
                     current++;
@@ -607,9 +609,9 @@ public class DemographicDialog {
                 title = "Expansion";
                 Expansion demo = new Expansion();
                 for (int i = 0; i < values.get(0).size(); i++) {
-                    demo.setN0((Double) values.get(0).get(i));
-                    demo.setProportion((Double) values.get(1).get(i));
-                    demo.setGrowthRate((Double) values.get(2).get(i));
+                    demo.setN0(values.get(0).get(i));
+                    demo.setProportion(values.get(1).get(i));
+                    demo.setGrowthRate(values.get(2).get(i));
 
                     addDemographic(bins, binCount, maxHeight, delta, demo);
                     current++;
@@ -619,9 +621,9 @@ public class DemographicDialog {
                 title = "Expansion";
                 Expansion demo = new Expansion();
                 for (int i = 0; i < values.get(0).size(); i++) {
-                    demo.setN0((Double) values.get(0).get(i));
-                    demo.setProportion((Double) values.get(1).get(i));
-                    demo.setDoublingTime((Double) values.get(2).get(i));
+                    demo.setN0(values.get(0).get(i));
+                    demo.setProportion(values.get(1).get(i));
+                    demo.setDoublingTime(values.get(2).get(i));
 
                     addDemographic(bins, binCount, maxHeight, delta, demo);
                     current++;
@@ -633,9 +635,9 @@ public class DemographicDialog {
 
                 for (int i = 0; i < values.get(0).size(); i++) {
 
-                    double N0 = (Double) values.get(0).get(i);
-                    double time = (Double) values.get(1).get(i);
-                    double r = (Double) values.get(2).get(i);
+                    double N0 = values.get(0).get(i);
+                    double time = values.get(1).get(i);
+                    double r = values.get(2).get(i);
 
                     double N1 = N0 * Math.exp(-r * time);
 
@@ -651,10 +653,10 @@ public class DemographicDialog {
                 title = "Constant-Logistic Growth";
                 ConstLogistic demo = new ConstLogistic();
                 for (int i = 0; i < values.get(0).size(); i++) {
-                    demo.setN0((Double) values.get(0).get(i));
-                    demo.setN1((Double) values.get(1).get(i));
-                    demo.setGrowthRate((Double) values.get(2).get(i));
-                    demo.setTime50((Double) values.get(3).get(i));
+                    demo.setN0(values.get(0).get(i));
+                    demo.setN1(values.get(1).get(i));
+                    demo.setGrowthRate(values.get(2).get(i));
+                    demo.setTime50(values.get(3).get(i));
 
                     addDemographic(bins, binCount, maxHeight, delta, demo);
                     current++;
@@ -664,10 +666,10 @@ public class DemographicDialog {
                 title = "Constant-Exponential-Constant";
                 ConstExpConst demo = new ConstExpConst(ConstExpConst.Parameterization.ANCESTRAL_POPULATION_SIZE, false, Units.Type.YEARS);
                 for (int i = 0; i < values.get(0).size(); i++) {
-                    demo.setN0((Double) values.get(0).get(i));
-                    demo.setN1((Double) values.get(1).get(i));
-                    demo.setTime1((Double) values.get(2).get(i));
-                    demo.setEpochTime((Double) values.get(3).get(i));
+                    demo.setN0(values.get(0).get(i));
+                    demo.setN1(values.get(1).get(i));
+                    demo.setTime1(values.get(2).get(i));
+                    demo.setEpochTime(values.get(3).get(i));
 
                     addDemographic(bins, binCount, maxHeight, delta, demo);
                     current++;
@@ -677,10 +679,10 @@ public class DemographicDialog {
                 title = "Constant-Exponential-Constant";
                 ConstExpConst demo = new ConstExpConst(ConstExpConst.Parameterization.GROWTH_RATE, false, Units.Type.YEARS);
                 for (int i = 0; i < values.get(0).size(); i++) {
-                    demo.setN0((Double) values.get(0).get(i));
-                    demo.setGrowthRate((Double) values.get(1).get(i));
-                    demo.setTime1((Double) values.get(2).get(i));
-                    demo.setEpochTime((Double) values.get(3).get(i));
+                    demo.setN0(values.get(0).get(i));
+                    demo.setGrowthRate(values.get(1).get(i));
+                    demo.setTime1(values.get(2).get(i));
+                    demo.setEpochTime(values.get(3).get(i));
 
                     addDemographic(bins, binCount, maxHeight, delta, demo);
                     current++;
@@ -690,10 +692,10 @@ public class DemographicDialog {
                 title = "Exponential-Exponential Growth";
                 ExponentialExponential demo = new ExponentialExponential(Units.Type.YEARS);
                 for (int i = 0; i < values.get(0).size(); i++) {
-                    demo.setN0((Double) values.get(0).get(i));
-                    demo.setGrowthRate((Double) values.get(1).get(i));
-                    demo.setTransitionTime((Double) values.get(2).get(i));
-                    demo.setAncestralGrowthRate((Double) values.get(3).get(i));
+                    demo.setN0(values.get(0).get(i));
+                    demo.setGrowthRate(values.get(1).get(i));
+                    demo.setTransitionTime(values.get(2).get(i));
+                    demo.setAncestralGrowthRate(values.get(3).get(i));
 
                     addDemographic(bins, binCount, maxHeight, delta, demo);
                     current++;
@@ -703,11 +705,11 @@ public class DemographicDialog {
                 title = "Exponential-Logistic Growth";
                 ExponentialLogistic demo = new ExponentialLogistic();
                 for (int i = 0; i < values.get(0).size(); i++) {
-                    demo.setN0((Double) values.get(0).get(i));
-                    demo.setR2((Double) values.get(1).get(i));
-                    demo.setTime50((Double) values.get(2).get(i));
-                    demo.setTime((Double) values.get(3).get(i));
-                    demo.setGrowthRate((Double) values.get(4).get(i));
+                    demo.setN0(values.get(0).get(i));
+                    demo.setR2(values.get(1).get(i));
+                    demo.setTime50(values.get(2).get(i));
+                    demo.setTime(values.get(3).get(i));
+                    demo.setGrowthRate(values.get(4).get(i));
 
                     addDemographic(bins, binCount, maxHeight, delta, demo);
                     current++;
@@ -717,10 +719,10 @@ public class DemographicDialog {
                 title = "Boom-Bust";
                 CataclysmicDemographic demo = new CataclysmicDemographic();
                 for (int i = 0; i < values.get(0).size(); i++) {
-                    demo.setN0((Double) values.get(0).get(i));
-                    demo.setGrowthRate((Double) values.get(1).get(i));
-                    demo.setCataclysmTime((Double) values.get(3).get(i));
-                    demo.setSpikeFactor((Double) values.get(2).get(i));
+                    demo.setN0(values.get(0).get(i));
+                    demo.setGrowthRate(values.get(1).get(i));
+                    demo.setCataclysmTime(values.get(3).get(i));
+                    demo.setSpikeFactor(values.get(2).get(i));
 
                     addDemographic(bins, binCount, maxHeight, delta, demo);
                     current++;
@@ -730,10 +732,10 @@ public class DemographicDialog {
                 title = "Two Epoch";
                 MultiEpochExponential demo = new MultiEpochExponential(Units.Type.YEARS, 2);
                 for (int i = 0; i < values.get(0).size(); i++) {
-                    demo.setN0((Double) values.get(0).get(i));
-                    demo.setGrowthRate(0, (Double) values.get(1).get(i));
-                    demo.setGrowthRate(1, (Double) values.get(2).get(i));
-                    demo.setTransitionTime(0, (Double) values.get(3).get(i));
+                    demo.setN0(values.get(0).get(i));
+                    demo.setGrowthRate(0, values.get(1).get(i));
+                    demo.setGrowthRate(1, values.get(2).get(i));
+                    demo.setTransitionTime(0, values.get(3).get(i));
 
                     addDemographic(bins, binCount, maxHeight, delta, demo);
 
@@ -743,12 +745,12 @@ public class DemographicDialog {
                 title = "Three Epoch";
                 MultiEpochExponential demo = new MultiEpochExponential(Units.Type.YEARS, 3);
                 for (int i = 0; i < values.get(0).size(); i++) {
-                    demo.setN0((Double) values.get(0).get(i));
-                    demo.setGrowthRate(0, (Double) values.get(1).get(i));
-                    demo.setGrowthRate(1, (Double) values.get(2).get(i));
-                    demo.setGrowthRate(2, (Double) values.get(3).get(i));
-                    demo.setTransitionTime(0, (Double) values.get(4).get(i));
-                    demo.setTransitionTime(1, (Double) values.get(5).get(i));
+                    demo.setN0(values.get(0).get(i));
+                    demo.setGrowthRate(0, values.get(1).get(i));
+                    demo.setGrowthRate(1, values.get(2).get(i));
+                    demo.setGrowthRate(2, values.get(3).get(i));
+                    demo.setTransitionTime(0, values.get(4).get(i));
+                    demo.setTransitionTime(1, values.get(5).get(i));
 
                     addDemographic(bins, binCount, maxHeight, delta, demo);
 
@@ -767,13 +769,17 @@ public class DemographicDialog {
             } else {
                 t = minTime;
             }
-            for (Variate.D bin : bins) {
+            boolean isApproximate = false;
+            for (QuantileSketch bin : bins) {
                 xData.add(t);
                 if (bin.getCount() > 0) {
+                    // sketched once for all the quantiles, which are exact unless the bin is large
+                    OrderStatistics binStatistics = bin.getOrderStatistics();
+                    isApproximate |= binStatistics.isApproximate();
                     yDataMean.add(bin.getMean());
-                    yDataMedian.add(bin.getQuantile(0.5));
-                    yDataLower.add(bin.getQuantile(0.025));
-                    yDataUpper.add(bin.getQuantile(0.975));
+                    yDataMedian.add(binStatistics.getMedian());
+                    yDataLower.add(binStatistics.getQuantile(0.025));
+                    yDataUpper.add(binStatistics.getQuantile(0.975));
                 } else {
                     yDataMean.add(Double.NaN);
                     yDataMedian.add(Double.NaN);
@@ -787,7 +793,7 @@ public class DemographicDialog {
                 }
             }
 
-            frame.addDemographic(title + ": " + traceList.getName(), xData,
+            frame.addDemographic(title + ": " + traceList.getName() + (isApproximate ? " (approximate)" : ""), xData,
                     yDataMean, yDataMedian,
                     yDataUpper, yDataLower,
                     timeMean, timeMedian,
@@ -797,7 +803,7 @@ public class DemographicDialog {
             return null;
         }
 
-        private void addDemographic(Variate[] bins, int binCount, double maxHeight, double delta, DemographicFunction demo) {
+        private void addDemographic(QuantileSketch[] bins, int binCount, double maxHeight, double delta, DemographicFunction demo) {
             double height;
             if (ageOfYoungest > 0.0) {
                 height = ageOfYoungest - maxTime;
@@ -814,7 +820,7 @@ public class DemographicDialog {
             current++;
         }
 
-        private void addDemographic(Variate[] bins, int binCount, double maxHeight, double delta, dr.evolution.coalescent.DemographicFunction demo) {
+        private void addDemographic(QuantileSketch[] bins, int binCount, double maxHeight, double delta, dr.evolution.coalescent.DemographicFunction demo) {
             double height;
             if (ageOfYoungest > 0.0) {
                 height = ageOfYoungest - maxTime;
@@ -28,7 +28,6 @@ package tracer.analysis;
 import dr.app.gui.components.RealNumberField;
 import dr.app.gui.components.WholeNumberField;
 import dr.app.gui.util.LongTask;
-import dr.inference.trace.TraceDistribution;
 import dr.inference.trace.TraceList;
 import dr.stats.Variate;
 import jam.framework.DocumentFrame;
@@ -40,6 +39,10 @@ import jebl.evolution.io.NewickImporter;
 import jebl.evolution.io.NexusImporter;
 import jebl.evolution.io.TreeImporter;
 import jebl.evolution.trees.RootedTree;
+import tracer.traces.DoubleColumn;
+import tracer.traces.GzipFileInputStream;
+import tracer.traces.OrderStatistics;
+import tracer.traces.QuantileSketch;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
@@ -50,7 +53,6 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -427,7 +429,7 @@ public class GMRFSkyrideDialog {
 
         int stateCount;
 
-        ArrayList<ArrayList> popSizes;
+        List<DoubleColumn> popSizes;
 
         private int lengthOfTask = 0;
         private int current = 0;
@@ -449,9 +451,9 @@ public class GMRFSkyrideDialog {
 
             stateCount = traceList.getStateCount();
 
-            popSizes = new ArrayList<ArrayList>();
+            popSizes = new ArrayList<DoubleColumn>();
             for (int i = 0; i < popSizeCount; i++) {
-                popSizes.add(new ArrayList(traceList.getValues(firstPopSize + i)));
+                popSizes.add(DoubleColumn.getValues(traceList, firstPopSize + i));
             }
         }
 
@@ -473,15 +475,14 @@ public class GMRFSkyrideDialog {
 
         public Object doWork() {
 
-            List heights = traceList.getValues(traceList.getTraceIndex(rootHeightTrace));
+            OrderStatistics heights = OrderStatistics.getOrderStatistics(traceList,
+                    traceList.getTraceIndex(rootHeightTrace));
+            double[] timeHPD = heights.getHPDInterval(0.95);
 
-            TraceDistribution distribution = new TraceDistribution(heights,
-                    traceList.getTrace(traceList.getTraceIndex(rootHeightTrace)).getTraceType());
-
-            double timeMean = distribution.getMean();
-            double timeMedian = distribution.getMedian();
-            double timeUpper = distribution.getUpperHPD();
-            double timeLower = distribution.getLowerHPD();
+            double timeMean = heights.getMean();
+            double timeMedian = heights.getMedian();
+            double timeUpper = timeHPD[1];
+            double timeLower = timeHPD[0];
 
             double maxHeight = 0.0;
             switch (maxHeightCombo.getSelectedIndex()) {
@@ -544,7 +545,7 @@ public class GMRFSkyrideDialog {
             double delta = (maxTime - minTime) / (binCount - 1);
 
             try {
-                BufferedReader reader = new BufferedReader(new FileReader(treeFile));
+                BufferedReader reader = new BufferedReader(GzipFileInputStream.openReader(treeFile));
 
                 String line = reader.readLine();
 
@@ -555,8 +556,19 @@ public class GMRFSkyrideDialog {
                     importer = new NewickImporter(reader, false);
                 }
 
-                int treeTotalStates = importer.importTrees().size();
-                int logTotalStates = traceList.getStateCount() + traceList.getBurninStateCount();
+                // the trees that go with a log loaded with sampling
+                TreeStateFilter treeStateFilter = new TreeStateFilter(traceList);
+
+                int treeTotalStates;
+                int logTotalStates;
+                if (treeStateFilter.isSampled()) {
+                    // only the samples after the burn-in can be matched to the trees
+                    treeTotalStates = treeStateFilter.getSampledCount(importer.importTrees());
+                    logTotalStates = traceList.getStateCount();
+                } else {
+                    treeTotalStates = importer.importTrees().size();
+                    logTotalStates = traceList.getStateCount() + traceList.getBurninStateCount();
+                }
 
                 if (treeTotalStates != logTotalStates) {
                     throw new IllegalArgumentException("BEAST log states (" + logTotalStates
@@ -565,7 +577,7 @@ public class GMRFSkyrideDialog {
                 }
 
                 // importer.importTrees() makes point to the end of file, and reader.mark(?) not working for large file
-                reader = new BufferedReader(new FileReader(treeFile));
+                reader = new BufferedReader(GzipFileInputStream.openReader(treeFile));
 
                 line = reader.readLine();
                 if (line.toUpperCase().startsWith("#NEXUS")) {
@@ -591,6 +603,9 @@ public class GMRFSkyrideDialog {
                 try {
                     while (importer.hasTree()) {
                         RootedTree tree = (RootedTree) importer.importNextTree();
+                        if (!treeStateFilter.isSampled(tree)) {
+                            continue;
+                        }
                         IntervalList intervals = new Intervals(tree);
                         int intervalCount = intervals.getIntervalCount();
 
@@ -629,7 +644,7 @@ public class GMRFSkyrideDialog {
                     ex.printStackTrace(System.out);
                 }
 
-                Variate.D[] bins = new Variate.D[binCount];
+                QuantileSketch[] bins = new QuantileSketch[binCount];
                 double height;
                 if (ageOfYoungest > 0.0) {
                     height = ageOfYoungest - maxTime;
@@ -639,7 +654,7 @@ public class GMRFSkyrideDialog {
 
 
                 for (int k = 0; k < binCount; k++) {
-                    bins[k] = new Variate.D();
+                    bins[k] = new QuantileSketch();
 
                     if (height >= 0.0 && height <= maxHeight) {
                         for (state = 0; state < stateCount; state++) {
@@ -686,13 +701,17 @@ public class GMRFSkyrideDialog {
                 } else {
                     t = minTime;
                 }
-                for (Variate.D bin : bins) {
+                boolean isApproximate = false;
+                for (QuantileSketch bin : bins) {
                     xData.add(t);
                     if (bin.getCount() > 0) {
+                        // sketched once for all the quantiles, which are exact unless the bin is large
+                        OrderStatistics binStatistics = bin.getOrderStatistics();
+                        isApproximate |= binStatistics.isApproximate();
                         yDataMean.add(bin.getMean());
-                        yDataMedian.add(bin.getQuantile(0.5));
-                        yDataLower.add(bin.getQuantile(0.025));
-                        yDataUpper.add(bin.getQuantile(0.975));
+                        yDataMedian.add(binStatistics.getMedian());
+                        yDataLower.add(binStatistics.getQuantile(0.025));
+                        yDataUpper.add(binStatistics.getQuantile(0.975));
                     } else {
                         yDataMean.add(Double.NaN);
                         yDataMedian.add(Double.NaN);
@@ -706,7 +725,7 @@ public class GMRFSkyrideDialog {
                     }
                 }
 
-                frame.addDemographic("GMRF Skyride: " + traceList.getName(), xData,
+                frame.addDemographic("GMRF Skyride: " + traceList.getName() + (isApproximate ? " (approximate)" : ""), xData,
                         yDataMean, yDataMedian,
                         yDataUpper, yDataLower,
                         timeMean, timeMedian,
@@ -732,7 +751,7 @@ public class GMRFSkyrideDialog {
         }
 
         private double getPopSize(int index, int state) {
-            return Math.exp((Double) popSizes.get(index).get(state));
+            return Math.exp(popSizes.get(index).get(state));
         }
     }
 }
\ No newline at end of file
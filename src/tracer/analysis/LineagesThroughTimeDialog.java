@@ -28,7 +28,6 @@ package tracer.analysis;
 import dr.app.gui.components.RealNumberField;
 import dr.app.gui.components.WholeNumberField;
 import dr.app.gui.util.LongTask;
-import dr.inference.trace.TraceDistribution;
 import dr.inference.trace.TraceList;
 import dr.stats.Variate;
 import jam.framework.DocumentFrame;
@@ -39,6 +38,9 @@ import jebl.evolution.io.NewickImporter;
 import jebl.evolution.io.NexusImporter;
 import jebl.evolution.io.TreeImporter;
 import jebl.evolution.trees.RootedTree;
+import tracer.traces.GzipFileInputStream;
+import tracer.traces.OrderStatistics;
+import tracer.traces.QuantileSketch;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
@@ -49,7 +51,6 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.util.Arrays;
 import java.util.List;
 
@@ -353,15 +354,14 @@ public class LineagesThroughTimeDialog {
 
         public Object doWork() {
 
-            List heights = traceList.getValues(traceList.getTraceIndex(rootHeightTrace));
+            OrderStatistics heights = OrderStatistics.getOrderStatistics(traceList,
+                    traceList.getTraceIndex(rootHeightTrace));
+            double[] timeHPD = heights.getHPDInterval(0.95);
 
-            TraceDistribution distribution = new TraceDistribution(heights,
-                    traceList.getTrace(traceList.getTraceIndex(rootHeightTrace)).getTraceType());
-
-            double timeMean = distribution.getMean();
-            double timeMedian = distribution.getMedian();
-            double timeUpper = distribution.getUpperHPD();
-            double timeLower = distribution.getLowerHPD();
+            double timeMean = heights.getMean();
+            double timeMedian = heights.getMedian();
+            double timeUpper = timeHPD[1];
+            double timeLower = timeHPD[0];
 
             double maxHeight = 0.0;
             switch (maxHeightCombo.getSelectedIndex()) {
@@ -424,7 +424,7 @@ public class LineagesThroughTimeDialog {
             double delta = (maxTime - minTime) / (binCount - 1);
 
             try {
-                BufferedReader reader = new BufferedReader(new FileReader(treeFile));
+                BufferedReader reader = new BufferedReader(GzipFileInputStream.openReader(treeFile));
 
                 String line = reader.readLine();
 
@@ -435,6 +435,9 @@ public class LineagesThroughTimeDialog {
                     importer = new NewickImporter(reader, false);
                 }
 
+                // the trees that go with a log loaded with sampling
+                TreeStateFilter treeStateFilter = new TreeStateFilter(traceList);
+
                 long burnin = traceList.getBurnIn();
                 int skip = (int) (burnin / traceList.getStepSize());
                 int state = 0;
@@ -454,6 +457,9 @@ public class LineagesThroughTimeDialog {
                 try {
                     while (importer.hasTree()) {
                         RootedTree tree = (RootedTree) importer.importNextTree();
+                        if (!treeStateFilter.isSampled(tree)) {
+                            continue;
+                        }
 
                         branchingTimes[state] = new double[tree.getInternalNodes().size()];
 
@@ -479,7 +485,7 @@ public class LineagesThroughTimeDialog {
                     ex.printStackTrace(System.out);
                 }
 
-                Variate.D[] bins = new Variate.D[binCount];
+                QuantileSketch[] bins = new QuantileSketch[binCount];
                 double height;
                 if (ageOfYoungest > 0.0) {
                     height = ageOfYoungest - maxTime;
@@ -490,7 +496,7 @@ public class LineagesThroughTimeDialog {
                 double n = branchingTimes[0].length;
 
                 for (int k = 0; k < binCount; k++) {
-                    bins[k] = new Variate.D();
+                    bins[k] = new QuantileSketch();
 
                     if (height >= 0.0 && height <= maxHeight) {
                         for (state = 0; state < stateCount; state++) {
@@ -522,13 +528,17 @@ public class LineagesThroughTimeDialog {
                 } else {
                     t = minTime;
                 }
-                for (Variate.D bin : bins) {
+                boolean isApproximate = false;
+                for (QuantileSketch bin : bins) {
                     xData.add(t);
                     if (bin.getCount() > 0) {
+                        // sketched once for all the quantiles, which are exact unless the bin is large
+                        OrderStatistics binStatistics = bin.getOrderStatistics();
+                        isApproximate |= binStatistics.isApproximate();
                         yDataMean.add(bin.getMean());
-                        yDataMedian.add(bin.getQuantile(0.5));
-                        yDataLower.add(bin.getQuantile(0.025));
-                        yDataUpper.add(bin.getQuantile(0.975));
+                        yDataMedian.add(binStatistics.getMedian());
+                        yDataLower.add(binStatistics.getQuantile(0.025));
+                        yDataUpper.add(binStatistics.getQuantile(0.975));
                     } else {
                         yDataMean.add(Double.NaN);
                         yDataMedian.add(Double.NaN);
@@ -542,7 +552,7 @@ public class LineagesThroughTimeDialog {
                     }
                 }
 
-                frame.addDemographic("Lineages Through Time: " + traceList.getName(), xData,
+                frame.addDemographic("Lineages Through Time: " + traceList.getName() + (isApproximate ? " (approximate)" : ""), xData,
                         yDataMean, yDataMedian,
                         yDataUpper, yDataLower,
                         timeMean, timeMedian,
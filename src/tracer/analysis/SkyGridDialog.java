@@ -28,12 +28,12 @@ package tracer.analysis;
 import dr.app.gui.components.RealNumberField;
 import dr.app.gui.components.WholeNumberField;
 import dr.app.gui.util.LongTask;
-import dr.inference.trace.TraceDistribution;
-import dr.inference.trace.TraceType;
 import dr.inference.trace.TraceList;
 import dr.stats.Variate;
 import jam.framework.DocumentFrame;
 import jam.panels.OptionsPanel;
+import tracer.traces.DoubleColumn;
+import tracer.traces.OrderStatistics;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
@@ -423,7 +423,7 @@ public class SkyGridDialog {
 
         int stateCount;
 
-        ArrayList<ArrayList> popSizes;
+        List<DoubleColumn> popSizes;
 
         private int lengthOfTask = 0;
         private int current = 0;
@@ -470,21 +470,19 @@ public class SkyGridDialog {
 
         public Object doWork() {
 
-            popSizes = new ArrayList<ArrayList>();
+            popSizes = new ArrayList<DoubleColumn>();
             for (int i = 0; i < popSizeCount; i++) {
-                ArrayList column = new ArrayList(traceList.getValues(firstPopSize + i));
-                popSizes.add(column);
+                popSizes.add(DoubleColumn.getValues(traceList, firstPopSize + i));
             }
 
-            List heights = traceList.getValues(traceList.getTraceIndex(rootHeightTrace));
+            OrderStatistics heights = OrderStatistics.getOrderStatistics(traceList,
+                    traceList.getTraceIndex(rootHeightTrace));
+            double[] timeHPD = heights.getHPDInterval(0.95);
 
-            TraceDistribution distribution = new TraceDistribution(heights,
-                    traceList.getTrace(traceList.getTraceIndex(rootHeightTrace)).getTraceType());
-
-            double timeMean = distribution.getMean();
-            double timeMedian = distribution.getMedian();
-            double timeUpper = distribution.getUpperHPD();
-            double timeLower = distribution.getLowerHPD();
+            double timeMean = heights.getMean();
+            double timeMedian = heights.getMedian();
+            double timeUpper = timeHPD[1];
+            double timeLower = timeHPD[0];
             double timeGrid = gridHeight;
 
             double maxHeight = 0.0;
@@ -594,11 +592,12 @@ public class SkyGridDialog {
                     if (height >= plotMin && height <= plotMax) {
 
                         xData.add(height);
-                        TraceDistribution dist = new TraceDistribution(popSizes.get(i), TraceType.REAL);
+                        OrderStatistics dist = new OrderStatistics(popSizes.get(i));
+                        double[] hpd = dist.getHPDInterval(0.95);
                         yDataMean.add(transform(dist.getMean()));
                         yDataMedian.add(transform(dist.getMedian()));
-                        yDataUpper.add(transform(dist.getUpperHPD()));
-                        yDataLower.add(transform(dist.getLowerHPD()));
+                        yDataUpper.add(transform(hpd[1]));
+                        yDataLower.add(transform(hpd[0]));
 
                         if (i == popSizeCount - 1) {
 //                        double fillTime = (popSizeCount + 1.5) * gridSpacing;
@@ -606,8 +605,8 @@ public class SkyGridDialog {
                                 xData.add(height);
                                 yDataMean.add(transform(dist.getMean()));
                                 yDataMedian.add(transform(dist.getMedian()));
-                                yDataUpper.add(transform(dist.getUpperHPD()));
-                                yDataLower.add(transform(dist.getLowerHPD()));
+                                yDataUpper.add(transform(hpd[1]));
+                                yDataLower.add(transform(hpd[0]));
                                 height += delta;
                             }
                         }
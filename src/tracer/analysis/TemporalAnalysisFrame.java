@@ -345,6 +345,11 @@ public class TemporalAnalysisFrame extends AuxilaryFrame implements TracerFileMe
         return (calendar.getTimeInMillis()) + ms;
     }
 
+    @Override
+    public Action getImportWithSamplingAction() {
+        return null;
+    }
+
     @Override
     public Action getReloadAction() {
         return null;
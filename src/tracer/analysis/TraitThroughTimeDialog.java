@@ -28,7 +28,6 @@ package tracer.analysis;
 import dr.app.gui.components.RealNumberField;
 import dr.app.gui.components.WholeNumberField;
 import dr.app.gui.util.LongTask;
-import dr.inference.trace.TraceDistribution;
 import dr.inference.trace.TraceList;
 import dr.stats.Variate;
 import jam.framework.DocumentFrame;
@@ -39,6 +38,9 @@ import jebl.evolution.io.NewickImporter;
 import jebl.evolution.io.NexusImporter;
 import jebl.evolution.io.TreeImporter;
 import jebl.evolution.trees.RootedTree;
+import tracer.traces.GzipFileInputStream;
+import tracer.traces.OrderStatistics;
+import tracer.traces.QuantileSketch;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
@@ -49,7 +51,6 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.util.List;
 
 public class TraitThroughTimeDialog {
@@ -370,15 +371,14 @@ public class TraitThroughTimeDialog {
 
         public Object doWork() {
 
-            List heights = traceList.getValues(traceList.getTraceIndex(rootHeightTrace));
+            OrderStatistics heights = OrderStatistics.getOrderStatistics(traceList,
+                    traceList.getTraceIndex(rootHeightTrace));
+            double[] timeHPD = heights.getHPDInterval(0.95);
 
-            TraceDistribution distribution = new TraceDistribution(heights,
-                    traceList.getTrace(traceList.getTraceIndex(rootHeightTrace)).getTraceType());
-
-            double timeMean = distribution.getMean();
-            double timeMedian = distribution.getMedian();
-            double timeUpper = distribution.getUpperHPD();
-            double timeLower = distribution.getLowerHPD();
+            double timeMean = heights.getMean();
+            double timeMedian = heights.getMedian();
+            double timeUpper = timeHPD[1];
+            double timeLower = timeHPD[0];
 
             double maxHeight = 0.0;
             switch (maxHeightCombo.getSelectedIndex()) {
@@ -441,7 +441,7 @@ public class TraitThroughTimeDialog {
             double delta = (maxTime - minTime) / (binCount - 1);
 
             try {
-                BufferedReader reader = new BufferedReader(new FileReader(treeFile));
+                BufferedReader reader = new BufferedReader(GzipFileInputStream.openReader(treeFile));
 
                 String line = reader.readLine();
 
@@ -452,6 +452,9 @@ public class TraitThroughTimeDialog {
                     importer = new NewickImporter(reader, false);
                 }
 
+                // the trees that go with a log loaded with sampling
+                TreeStateFilter treeStateFilter = new TreeStateFilter(traceList);
+
                 long burnin = traceList.getBurnIn();
                 int skip = (int) (burnin / traceList.getStepSize());
                 int state = 0;
@@ -463,9 +466,9 @@ public class TraitThroughTimeDialog {
 
                 current = 0;
 
-                Variate.D[] bins = new Variate.D[binCount];
+                QuantileSketch[] bins = new QuantileSketch[binCount];
                 for (int k = 0; k < binCount; k++) {
-                    bins[k] = new Variate.D();
+                    bins[k] = new QuantileSketch();
                 }
 
                 double startHeight;
@@ -482,6 +485,9 @@ public class TraitThroughTimeDialog {
                     while (importer.hasTree()) {
                         boolean traitFound = false;
                         RootedTree tree = (RootedTree) importer.importNextTree();
+                        if (!treeStateFilter.isSampled(tree)) {
+                            continue;
+                        }
 
                         for (Node node : tree.getNodes()) {
                             if (!tree.isRoot(node)) {
@@ -538,13 +544,17 @@ public class TraitThroughTimeDialog {
                 } else {
                     t = minTime;
                 }
-                for (Variate.D bin : bins) {
+                boolean isApproximate = false;
+                for (QuantileSketch bin : bins) {
                     xData.add(t);
                     if (bin.getCount() > 0) {
+                        // sketched once for all the quantiles, which are exact unless the bin is large
+                        OrderStatistics binStatistics = bin.getOrderStatistics();
+                        isApproximate |= binStatistics.isApproximate();
                         yDataMean.add(bin.getMean());
-                        yDataMedian.add(bin.getQuantile(0.5));
-                        yDataLower.add(bin.getQuantile(0.025));
-                        yDataUpper.add(bin.getQuantile(0.975));
+                        yDataMedian.add(binStatistics.getMedian());
+                        yDataLower.add(binStatistics.getQuantile(0.025));
+                        yDataUpper.add(binStatistics.getQuantile(0.975));
                     } else {
                         yDataMean.add(Double.NaN);
                         yDataMedian.add(Double.NaN);
@@ -558,7 +568,7 @@ public class TraitThroughTimeDialog {
                     }
                 }
 
-                frame.addDemographic("Trait Through Time: " + traceList.getName(), xData,
+                frame.addDemographic("Trait Through Time: " + traceList.getName() + (isApproximate ? " (approximate)" : ""), xData,
                         yDataMean, yDataMedian,
                         yDataUpper, yDataLower,
                         timeMean, timeMedian,
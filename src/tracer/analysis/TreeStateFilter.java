@@ -0,0 +1,107 @@
+/*
+ * TreeStateFilter.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package tracer.analysis;
+
+import dr.inference.trace.TraceList;
+import jebl.evolution.trees.Tree;
+import tracer.traces.ColumnarLogFileTraces;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Picks out the trees in a tree file that go with the samples of a log that was loaded
+ * with sampling (thinned or for a range of states), using the state in each tree's name
+ * (STATE_n). The tree file has all the samples so the trees can't simply be read in step
+ * with the log.
+ *
+ * For logs loaded in full, and trees without a state in their name, every tree is used.
+ */
+class TreeStateFilter {
+
+    private final static Pattern pattern = Pattern.compile("STATE_(\\d+)");
+
+    TreeStateFilter(TraceList traceList) {
+        isSampled = traceList instanceof ColumnarLogFileTraces && ((ColumnarLogFileTraces) traceList).isSampled();
+        stepSize = traceList.getStepSize();
+        // the states kept after the burn-in are evenly spaced up to the last one
+        lastState = traceList.getMaxState();
+        firstState = lastState - (traceList.getStateCount() - 1) * stepSize;
+    }
+
+    /**
+     * @return true if the trees have to be filtered
+     */
+    boolean isSampled() {
+        return isSampled;
+    }
+
+    /**
+     * @return true if the tree is for one of the log's samples after the burn-in
+     */
+    boolean isSampled(Tree tree) {
+        if (!isSampled) {
+            return true;
+        }
+        Object name = tree.getAttribute("name");
+        long state = (name != null ? parseState(name.toString()) : -1);
+        if (state < 0) {
+            return true;
+        }
+        return state >= firstState && state <= lastState && (state - firstState) % stepSize == 0;
+    }
+
+    /**
+     * @return the number of trees that are for samples of the log after the burn-in
+     */
+    int getSampledCount(List<Tree> trees) {
+        int count = 0;
+        for (Tree tree : trees) {
+            if (isSampled(tree)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long parseState(String label) {
+        Matcher matcher = pattern.matcher(label);
+        try {
+            if (matcher.matches()) {
+                return Long.parseLong(matcher.group(1));
+            }
+        } catch (NumberFormatException nfe) {
+            // do nothing
+        }
+        return -1;
+    }
+
+    private final boolean isSampled;
+    private final long stepSize;
+    private final long firstState;
+    private final long lastState;
+}
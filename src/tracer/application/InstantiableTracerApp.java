@@ -29,6 +29,7 @@ import dr.app.util.OSType;
 import dr.inference.trace.LogFileTraces;
 import jam.framework.DocumentFrame;
 import jam.framework.SingleDocApplication;
+import tracer.traces.ColumnarLogFileTraces;
 
 import javax.swing.*;
 import java.awt.*;
@@ -167,7 +168,7 @@ public class InstantiableTracerApp extends SingleDocApplication {
                     app.initialize();
 
                     File file = new File(fileName);
-                    LogFileTraces[] traces = { new LogFileTraces(fileName, file) };
+                    LogFileTraces[] traces = { new ColumnarLogFileTraces(fileName, file) };
                     traces[0].setBurnIn((int) burnin);
                     frame.processTraces(traces);
                 }
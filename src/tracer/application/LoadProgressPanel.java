@@ -0,0 +1,130 @@
+/*
+ * LoadProgressPanel.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package tracer.application;
+
+import tracer.traces.LogFileParser;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * A panel showing a progress bar for each file that is being loaded. Each file has a
+ * button to cancel its loading.
+ */
+public class LoadProgressPanel extends JPanel {
+
+    private static final int PROGRESS_MAXIMUM = 1000;
+
+    public LoadProgressPanel() {
+        setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+        setOpaque(false);
+    }
+
+    /**
+     * Adds a progress bar for a file. Can be called from any thread.
+     *
+     * @return a progress listener that can be passed to the parser
+     */
+    public FileProgress addFile(String name) {
+        return addProgress("Loading " + name + ":");
+    }
+
+    /**
+     * Adds a progress bar with the given label, for other work on a file such as reading
+     * some of its columns. Can be called from any thread.
+     */
+    public FileProgress addProgress(String label) {
+        final FileProgress fileProgress = new FileProgress(label);
+        EventQueue.invokeLater(new Runnable() {
+            public void run() {
+                add(fileProgress.panel);
+                revalidate();
+                repaint();
+            }
+        });
+        return fileProgress;
+    }
+
+    /**
+     * Removes the progress bar for a file. Can be called from any thread.
+     */
+    public void removeFile(final FileProgress fileProgress) {
+        EventQueue.invokeLater(new Runnable() {
+            public void run() {
+                remove(fileProgress.panel);
+                revalidate();
+                repaint();
+            }
+        });
+    }
+
+    public class FileProgress implements LogFileParser.ProgressListener {
+
+        FileProgress(String label) {
+            progressBar = new JProgressBar(0, PROGRESS_MAXIMUM);
+            progressBar.setIndeterminate(true);
+
+            JButton cancelButton = new JButton("Cancel");
+            cancelButton.putClientProperty("JButton.buttonType", "roundRect");
+            cancelButton.addActionListener(new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    cancelled = true;
+                    progressBar.setIndeterminate(true);
+                }
+            });
+
+            panel = new JPanel(new BorderLayout(6, 0));
+            panel.setOpaque(false);
+            panel.setBorder(BorderFactory.createEmptyBorder(6, 0, 0, 0));
+            panel.add(new JLabel(label), BorderLayout.NORTH);
+            panel.add(progressBar, BorderLayout.CENTER);
+            panel.add(cancelButton, BorderLayout.EAST);
+        }
+
+        public void progress(final long bytesParsed, final long totalBytes) {
+            if (totalBytes > 0) {
+                EventQueue.invokeLater(new Runnable() {
+                    public void run() {
+                        if (!cancelled) {
+                            progressBar.setIndeterminate(false);
+                            progressBar.setValue((int) (PROGRESS_MAXIMUM * bytesParsed / totalBytes));
+                        }
+                    }
+                });
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private final JPanel panel;
+        private final JProgressBar progressBar;
+        private volatile boolean cancelled = false;
+    }
+}
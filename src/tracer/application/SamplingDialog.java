@@ -0,0 +1,131 @@
+/*
+ * SamplingDialog.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package tracer.application;
+
+import dr.app.gui.components.WholeNumberField;
+import jam.panels.OptionsPanel;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+
+/**
+ * Asks which samples of a log file to load: a range of states and how much to thin the
+ * samples in it. This is for files too big to load in full (see
+ * ColumnarLogFileTraces.setSampling).
+ */
+public class SamplingDialog {
+
+    private JFrame frame;
+
+    private WholeNumberField thinningField = new WholeNumberField(1, Integer.MAX_VALUE);
+    private WholeNumberField minStateField = new WholeNumberField(0L, Long.MAX_VALUE);
+    private WholeNumberField maxStateField = new WholeNumberField(0L, Long.MAX_VALUE);
+
+    private OptionsPanel optionPanel;
+
+    public SamplingDialog(JFrame frame) {
+        this.frame = frame;
+
+        thinningField.setValue(10);
+        thinningField.setColumns(12);
+        minStateField.setColumns(12);
+        maxStateField.setColumns(12);
+
+        optionPanel = new OptionsPanel(12, 12);
+    }
+
+    public int showDialog() {
+
+        setArguments();
+
+        final JOptionPane optionPane = new JOptionPane(optionPanel,
+                JOptionPane.QUESTION_MESSAGE,
+                JOptionPane.OK_CANCEL_OPTION,
+                null,
+                null,
+                null);
+        optionPane.setBorder(new EmptyBorder(12, 12, 12, 12));
+
+        final JDialog dialog = optionPane.createDialog(frame, "Import with Sampling");
+        dialog.pack();
+
+        int result = JOptionPane.CANCEL_OPTION;
+
+        dialog.setVisible(true);
+
+        Integer value = (Integer) optionPane.getValue();
+        if (value != null && value != -1) {
+            result = value;
+        }
+
+        if (result == JOptionPane.OK_OPTION && getMinState() > getMaxState()) {
+            JOptionPane.showMessageDialog(frame, "The first state to load is after the last.",
+                    "Import with Sampling",
+                    JOptionPane.ERROR_MESSAGE);
+            result = JOptionPane.CANCEL_OPTION;
+        }
+
+        return result;
+    }
+
+    private void setArguments() {
+        optionPanel.removeAll();
+
+        optionPanel.addComponentWithLabel("Keep every nth sample, n:", thinningField);
+
+        optionPanel.addSeparator();
+        optionPanel.addComponentWithLabel("From state:", minStateField);
+        optionPanel.addComponentWithLabel("To state:", maxStateField);
+        JLabel label = new JLabel(
+                "<html>Only the samples kept are read into memory. Leave the states<br>" +
+                        "blank to load from the start or to the end of the file. The<br>" +
+                        "burn-in is still a state, so samples before the first state<br>" +
+                        "loaded count as burn-in.</html>");
+        label.setFont(label.getFont().deriveFont(((float) label.getFont().getSize() - 2)));
+        optionPanel.addSpanningComponent(label);
+    }
+
+    public int getThinning() {
+        Integer thinning = thinningField.getValue();
+        return thinning != null ? Math.max(1, thinning) : 1;
+    }
+
+    public long getMinState() {
+        return getState(minStateField, Long.MIN_VALUE);
+    }
+
+    public long getMaxState() {
+        return getState(maxStateField, Long.MAX_VALUE);
+    }
+
+    private long getState(WholeNumberField field, long defaultState) {
+        if (field.getText().trim().length() == 0) {
+            return defaultState;
+        }
+        Long state = field.getLongValue();
+        return state != null ? state : defaultState;
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * TraceAnalysisScheduler.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package tracer.application;
+
+import dr.inference.trace.TraceList;
+import tracer.traces.CombinedTraces;
+import tracer.traces.LogFileParser;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Analyses the traces of trace lists on a work-stealing pool with a thread per core, so
+ * the traces of a file are analysed in parallel and several files are analysed at once.
+ *
+ * The traces of a list are taken in turn by the threads analysing it, the priority
+ * traces (those the user can see or has selected) first and then the rest in order. The
+ * priority traces can be changed while a list is being analysed, for instance as the
+ * user scrolls.
+ *
+ * A trace list is only analysed by one job at a time. If it is asked to be analysed
+ * again while it is being analysed (for instance because its burn-in or filters have
+ * changed) the running job is cancelled: its threads finish the traces they are on but
+ * don't take any more, and the list is analysed again once they have stopped, so the
+ * statistics are always from the last analysis.
+ *
+ * The statistics of combined traces are put together from those of the trace lists they
+ * combine, so they wait for those to be analysed first.
+ */
+class TraceAnalysisScheduler {
+
+    /**
+     * @param listener told (on an analysis thread) each time a trace has been analysed
+     */
+    TraceAnalysisScheduler(Runnable listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Analyses all the traces of a trace list in the background.
+     */
+    synchronized void analyse(TraceList traceList) {
+        Job job = jobs.get(traceList);
+        if (job == null) {
+            if (!waiting.contains(traceList)) {
+                start(new Job(traceList));
+            }
+        } else {
+            job.cancel();
+            pending.add(traceList);
+        }
+    }
+
+    /**
+     * Stops analysing a trace list, for instance because it has been removed.
+     */
+    synchronized void cancel(TraceList traceList) {
+        pending.remove(traceList);
+        waiting.remove(traceList);
+        Job job = jobs.get(traceList);
+        if (job != null) {
+            job.cancel();
+        }
+    }
+
+    /**
+     * Sets the traces to analyse first, by name, in the order given. This applies to the
+     * trace lists being analysed now as well as to those analysed later.
+     */
+    synchronized void setPriorityTraces(List<String> traceNames) {
+        priorityTraceNames = new ArrayList<String>(traceNames);
+        for (Job job : jobs.values()) {
+            job.setPriorityTraces(getPriorityTraces(job.traceList));
+        }
+    }
+
+    /**
+     * @return the trace lists that are being analysed, in the order they were started,
+     * and then those waiting to be
+     */
+    synchronized List<TraceList> getTraceLists() {
+        List<TraceList> traceLists = new ArrayList<TraceList>(jobs.keySet());
+        traceLists.addAll(waiting);
+        return traceLists;
+    }
+
+    /**
+     * @return the fraction of the traces of a trace list that have been analysed, or -1
+     * if it isn't being analysed
+     */
+    synchronized double getProgress(TraceList traceList) {
+        Job job = jobs.get(traceList);
+        if (job == null) {
+            return waiting.contains(traceList) ? 0.0 : -1;
+        }
+        return job.traceCount > 0 ? (double) job.analysedCount.get() / job.traceCount : 1.0;
+    }
+
+    /**
+     * @return the number of traces in the trace lists being analysed
+     */
+    synchronized int getTraceCount() {
+        int count = 0;
+        for (Job job : jobs.values()) {
+            count += job.traceCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of traces in the trace lists being analysed that have been
+     * analysed so far
+     */
+    synchronized int getAnalysedCount() {
+        int count = 0;
+        for (Job job : jobs.values()) {
+            count += job.analysedCount.get();
+        }
+        return count;
+    }
+
+    private void start(Job job) {
+        if (isWaiting(job.traceList)) {
+            waiting.add(job.traceList);
+            return;
+        }
+        jobs.put(job.traceList, job);
+        job.setPriorityTraces(getPriorityTraces(job.traceList));
+        int threadCount = Math.min(job.traceCount, pool.getParallelism());
+        if (threadCount == 0) {
+            finished(job);
+        } else {
+            job.runningCount.set(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                pool.execute(new AnalyseTraces(job));
+            }
+        }
+    }
+
+    private synchronized void finished(Job job) {
+        if (jobs.get(job.traceList) == job) {
+            jobs.remove(job.traceList);
+        }
+        if (pending.remove(job.traceList)) {
+            start(new Job(job.traceList));
+        }
+        for (TraceList traceList : new ArrayList<TraceList>(waiting)) {
+            if (!isWaiting(traceList)) {
+                waiting.remove(traceList);
+                start(new Job(traceList));
+            }
+        }
+    }
+
+    /**
+     * @return true if a trace list combines others that are being analysed
+     */
+    private boolean isWaiting(TraceList traceList) {
+        if (traceList instanceof CombinedTraces) {
+            CombinedTraces combinedTraces = (CombinedTraces) traceList;
+            for (int i = 0; i < combinedTraces.getTraceListCount(); i++) {
+                TraceList combined = combinedTraces.getTraceList(i);
+                if (jobs.containsKey(combined) || pending.contains(combined)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the indices of the priority traces in a trace list
+     */
+    private int[] getPriorityTraces(TraceList traceList) {
+        int[] indices = new int[priorityTraceNames.size()];
+        int count = 0;
+        for (String traceName : priorityTraceNames) {
+            int index = traceList.getTraceIndex(traceName);
+            if (index >= 0 && index < traceList.getTraceCount()) {
+                indices[count++] = index;
+            }
+        }
+        return Arrays.copyOf(indices, count);
+    }
+
+    /**
+     * The analysis of all the traces of a trace list.
+     */
+    private class Job {
+        Job(TraceList traceList) {
+            this.traceList = traceList;
+            this.traceCount = traceList.getTraceCount();
+            this.takenTraces = new BitSet(traceCount);
+        }
+
+        void cancel() {
+            isCancelled = true;
+        }
+
+        synchronized void setPriorityTraces(int[] priorityTraces) {
+            this.priorityTraces = priorityTraces;
+            priorityPosition = 0;
+        }
+
+        /**
+         * @return the index of the next trace to analyse, or -1 if there are none left or
+         * the job has been cancelled
+         */
+        synchronized int takeTrace() {
+            if (isCancelled) {
+                return -1;
+            }
+            while (priorityPosition < priorityTraces.length) {
+                int index = priorityTraces[priorityPosition++];
+                if (index < traceCount && !takenTraces.get(index)) {
+                    takenTraces.set(index);
+                    return index;
+                }
+            }
+            nextTrace = takenTraces.nextClearBit(nextTrace);
+            if (nextTrace >= traceCount) {
+                return -1;
+            }
+            takenTraces.set(nextTrace);
+            return nextTrace++;
+        }
+
+        void analyse(int index) {
+            try {
+                traceList.analyseTrace(index);
+            } catch (Exception e) {
+                // the burn-in or filters of a cancelled job may have been changed under
+                // it, which doesn't matter as the list is analysed again
+                if (!isCancelled) {
+                    e.printStackTrace();
+                }
+            }
+            analysedCount.incrementAndGet();
+            listener.run();
+        }
+
+        final TraceList traceList;
+        final int traceCount;
+        final AtomicInteger analysedCount = new AtomicInteger(0);
+
+        // the number of threads still taking traces from the job
+        final AtomicInteger runningCount = new AtomicInteger(0);
+        volatile boolean isCancelled = false;
+
+        private final BitSet takenTraces;
+        private int[] priorityTraces = new int[0];
+        private int priorityPosition = 0;
+        private int nextTrace = 0;
+    }
+
+    /**
+     * Takes traces from a job and analyses them until there are none left. A thread per
+     * core runs one of these for each job.
+     */
+    private class AnalyseTraces implements Runnable {
+        AnalyseTraces(Job job) {
+            this.job = job;
+        }
+
+        public void run() {
+            try {
+                for (int index = job.takeTrace(); index >= 0; index = job.takeTrace()) {
+                    job.analyse(index);
+                }
+            } finally {
+                if (job.runningCount.decrementAndGet() == 0) {
+                    finished(job);
+                }
+            }
+        }
+
+        private final Job job;
+    }
+
+    private final ForkJoinPool pool = new ForkJoinPool(LogFileParser.THREAD_COUNT,
+            new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("TraceAnalysis-" + thread.getPoolIndex());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, null, false);
+
+    private final Runnable listener;
+
+    // the trace lists being analysed, and those to analyse again when they have been
+    private final Map<TraceList, Job> jobs = new LinkedHashMap<TraceList, Job>();
+    private final Set<TraceList> pending = new LinkedHashSet<TraceList>();
+
+    // combined traces waiting for the trace lists they combine to be analysed
+    private final Set<TraceList> waiting = new LinkedHashSet<TraceList>();
+
+    private List<String> priorityTraceNames = new ArrayList<String>();
+}
@@ -28,6 +28,7 @@ package tracer.application;
 import dr.app.util.OSType;
 import dr.inference.trace.LogFileTraces;
 import jam.framework.*;
+import tracer.traces.ColumnarLogFileTraces;
 
 import javax.swing.*;
 import java.awt.*;
@@ -159,7 +160,7 @@ public class TracerApp extends MultiDocApplication {
                 for (String fileName : args) {
 
                     File file = new File(fileName);
-                    LogFileTraces[] traces = {new LogFileTraces(fileName, file)};
+                    LogFileTraces[] traces = {new ColumnarLogFileTraces(fileName, file)};
 
                     frame.processTraces(traces);
                 }
@@ -70,6 +70,12 @@ public class TracerDefaultFileMenuFactory implements MenuFactory {
                 menu.add(item);
             }
 
+            action = ((TracerFileMenuHandler)frame).getImportWithSamplingAction();
+            if (action != null) {
+                item = new JMenuItem(action);
+                menu.add(item);
+            }
+
             action = ((TracerFileMenuHandler)frame).getReloadAction();
             if (action != null) {
                 item = new JMenuItem(action);
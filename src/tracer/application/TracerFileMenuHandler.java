@@ -34,6 +34,8 @@ import javax.swing.*;
  */
 public interface TracerFileMenuHandler {
 
+	Action getImportWithSamplingAction();
+
 	Action getReloadAction();
 
 	Action getExportRawDataAction();
@@ -34,7 +34,6 @@ import com.lowagie.text.pdf.PdfWriter;
 import dr.app.gui.FileDrop;
 import dr.app.gui.chart.ChartRuntimeException;
 import dr.app.gui.table.TableEditorStopper;
-import dr.app.gui.util.LongTask;
 import dr.app.util.OSType;
 import dr.inference.trace.*;
 import jam.framework.DocumentFrame;
@@ -42,13 +41,19 @@ import jam.panels.ActionPanel;
 import jam.table.TableRenderer;
 import jam.toolbar.Toolbar;
 import tracer.analysis.*;
+import tracer.traces.ColumnarLogFileTraces;
 import tracer.traces.CombinedTraces;
+import tracer.traces.ConvergenceDiagnostics;
 import tracer.traces.FilterDialog;
 import tracer.traces.FilterListPanel;
+import tracer.traces.LogFileParser;
+import tracer.traces.TraceMemoryManager;
 import tracer.traces.TracePanel;
 
 import javax.swing.*;
 import javax.swing.border.Border;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
@@ -62,11 +67,19 @@ import java.io.*;
 import java.text.DecimalFormat;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler, AnalysisMenuHandler {
 
     private final String[] columnToolTips = {null, null, null,
-            "Trace Type: real(R), ordinal(O) or categorical(C)"};
+            "Trace Type: real(R), ordinal(O) or categorical(C)",
+            "Rank-normalised split R-hat of the combined trace files",
+            "ESS of the combined trace files for the bulk of the distribution",
+            "ESS of the combined trace files for the 5% and 95% quantiles",
+            "Variance between the means of the trace files split in half",
+            "Mean of the variances within the trace files split in half"};
 
     private TracePanel tracePanel = null;
 
@@ -81,9 +94,26 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
     private JScrollPane scrollPane1 = null;
     private JScrollPane scrollPane2 = null;
 
+    private LoadProgressPanel loadProgressPanel;
+
+    private static final String[] FOLLOW_INTERVAL_NAMES = {"5 sec", "10 sec", "30 sec", "1 min", "5 min", "15 min"};
+    private static final int[] FOLLOW_INTERVALS = {5, 10, 30, 60, 300, 900}; // seconds
+    private static final int DEFAULT_FOLLOW_INTERVAL = 3;
+
+    private JCheckBox followCheckBox;
+    private JComboBox followIntervalCombo;
+    private javax.swing.Timer followTimer;
+    private SwingWorker<List<LogFileTraces>, Void> followWorker = null;
     private JLabel progressLabel;
     private JProgressBar progressBar;
 
+    // how often the memory use is shown and kept within the budget
+    private static final int MEMORY_INTERVAL = 2000; // milliseconds
+
+    private final TraceMemoryManager memoryManager = new TraceMemoryManager();
+    private SwingWorker<Long, Void> memoryWorker = null;
+    private JLabel memoryLabel;
+
     private final List<LogFileTraces> traceLists = new ArrayList<LogFileTraces>();
     private final List<TraceList> currentTraceLists = new ArrayList<TraceList>();
     // allTraceLists not used except deleting and adding log, traceLists did all jobs
@@ -114,6 +144,7 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
     private LineagesThroughTimeDialog lineagesThroughTimeDialog = null;
     private TraitThroughTimeDialog traitThroughTimeDialog = null;
     private NewTemporalAnalysisDialog createTemporalAnalysisDialog = null;
+    private SamplingDialog samplingDialog = null;
 
 //    private FilterDialog filterDialog;
 
@@ -168,6 +199,8 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
         traceTable.getColumnModel().getColumn(1).setCellRenderer(renderer);
         traceTable.getColumnModel().getColumn(2).setPreferredWidth(50);
         traceTable.getColumnModel().getColumn(2).setCellRenderer(renderer);
+        traceTable.getColumnModel().getColumn(3).setPreferredWidth(50);
+        traceTable.getColumnModel().getColumn(3).setCellRenderer(renderer);
         traceTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
 
         traceTable.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
@@ -192,15 +225,66 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
         reloadButton.setToolTipText("Reload the selected log file(s)");
         getReloadAction().setEnabled(false);
 
+        followCheckBox = new JCheckBox("Follow");
+        followCheckBox.setToolTipText("Read rows added to the log files by runs that are still going");
+        followCheckBox.setFont(UIManager.getFont("SmallSystemFont"));
+        followIntervalCombo = new JComboBox(FOLLOW_INTERVAL_NAMES);
+        followIntervalCombo.setSelectedIndex(DEFAULT_FOLLOW_INTERVAL);
+        followIntervalCombo.setToolTipText("How often to check the log files for new rows");
+        followIntervalCombo.setFont(UIManager.getFont("SmallSystemFont"));
+
+        followTimer = new javax.swing.Timer(FOLLOW_INTERVALS[DEFAULT_FOLLOW_INTERVAL] * 1000, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                followTraceLists();
+            }
+        });
+        followCheckBox.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent e) {
+                if (followCheckBox.isSelected()) {
+                    followTimer.start();
+                } else {
+                    followTimer.stop();
+                }
+            }
+        });
+        followIntervalCombo.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent e) {
+                int interval = FOLLOW_INTERVALS[followIntervalCombo.getSelectedIndex()] * 1000;
+                followTimer.setDelay(interval);
+                followTimer.setInitialDelay(interval);
+                if (followTimer.isRunning()) {
+                    followTimer.restart();
+                }
+            }
+        });
+
         controlPanel1.add(actionPanel1);
         controlPanel1.addFlexibleSpace();
+        controlPanel1.add(followCheckBox);
+        controlPanel1.add(followIntervalCombo);
         controlPanel1.add(reloadButton);
         controlPanel1.setFloatable(false);
         controlPanel1.setBorder(BorderFactory.createEmptyBorder());
 
         topPanel = new JPanel(new BorderLayout(0, 0));
         topPanel.setBorder(new BorderUIResource.EmptyBorderUIResource(new java.awt.Insets(0, 0, 6, 0)));
-        topPanel.add(new JLabel("Trace Files:"), BorderLayout.NORTH);
+        memoryLabel = new JLabel();
+        memoryLabel.setFont(UIManager.getFont("SmallSystemFont"));
+        memoryLabel.setToolTipText("<html>The memory used by Tracer. Trace files that haven't been selected<br>" +
+                "recently are moved to disk when they use more than the budget.</html>");
+        JPanel labelPanel = new JPanel(new BorderLayout(0, 0));
+        labelPanel.add(new JLabel("Trace Files:"), BorderLayout.WEST);
+        labelPanel.add(memoryLabel, BorderLayout.EAST);
+        updateMemoryLabel();
+
+        javax.swing.Timer memoryTimer = new javax.swing.Timer(MEMORY_INTERVAL, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                balanceMemory();
+            }
+        });
+        memoryTimer.start();
+
+        topPanel.add(labelPanel, BorderLayout.NORTH);
         topPanel.add(scrollPane1, BorderLayout.CENTER);
         topPanel.add(controlPanel1, BorderLayout.SOUTH);
 
@@ -218,16 +302,7 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
                 };
             }
         };
-        statisticTable.getColumnModel().getColumn(0).setPreferredWidth(150);
-        statisticTable.getColumnModel().getColumn(0).setCellRenderer(renderer);
-        statisticTable.getColumnModel().getColumn(1).setPreferredWidth(70);
-        statisticTable.getColumnModel().getColumn(1).setCellRenderer(renderer);
-        statisticTable.getColumnModel().getColumn(2).setPreferredWidth(70);
-        statisticTable.getColumnModel().getColumn(2).setCellRenderer(renderer);
-//        ComboBoxRenderer comboBoxRenderer = new ComboBoxRenderer(TraceFactory.TraceType.values());
-//        comboBoxRenderer.putClientProperty("JComboBox.isTableCellEditor", Boolean.TRUE);
-        statisticTable.getColumnModel().getColumn(3).setPreferredWidth(20);
-        statisticTable.getColumnModel().getColumn(3).setCellRenderer(renderer);
+        setStatisticTableColumns();
         statisticTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
 
         statisticTable.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
@@ -241,6 +316,11 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
 
         scrollPane2 = new JScrollPane(statisticTable, JScrollPane.VERTICAL_SCROLLBAR_ALWAYS,
                 JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+        scrollPane2.getViewport().addChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent e) {
+                updateAnalysisPriorities();
+            }
+        });
 
         JPanel bottomPanel = new JPanel(new BorderLayout(0, 0));
 //        bottomPanel.setBorder(new BorderUIResource.EmptyBorderUIResource(new java.awt.Insets(6, 0, 0, 0)));
@@ -315,10 +395,12 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
         splitPane1.setBorder(null);
 
         JPanel progressPanel = new JPanel(new BorderLayout(0, 0));
+        loadProgressPanel = new LoadProgressPanel();
         progressLabel = new JLabel("");
         progressBar = new JProgressBar();
-        progressPanel.add(progressLabel, BorderLayout.NORTH);
-        progressPanel.add(progressBar, BorderLayout.CENTER);
+        progressPanel.add(loadProgressPanel, BorderLayout.NORTH);
+        progressPanel.add(progressLabel, BorderLayout.CENTER);
+        progressPanel.add(progressBar, BorderLayout.SOUTH);
         progressPanel.setBorder(new BorderUIResource.EmptyBorderUIResource(new java.awt.Insets(6, 0, 0, 0)));
 
         leftPanel.add(splitPane1, BorderLayout.CENTER);
@@ -334,7 +416,7 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
         splitPane1.setBorder(BorderFactory.createEmptyBorder(2, 2, 2, 2));
         new FileDrop(null, splitPane1, focusBorder, new FileDrop.Listener() {
             public void filesDropped(java.io.File[] files) {
-                importFiles(files);
+                importFiles(files, false);
             }   // end filesDropped
         }); // end FileDrop.Listener
 
@@ -466,6 +548,9 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
         int[] selRows = traceTable.getSelectedRows();
 
         traceLists.add(traceList);
+        if (traceList instanceof ColumnarLogFileTraces) {
+            memoryManager.add((ColumnarLogFileTraces) traceList);
+        }
 
         updateCombinedTraces();
 
@@ -501,6 +586,12 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
         }
         for (LogFileTraces tl : tls) {
             traceLists.remove(tl);
+            if (tl instanceof ColumnarLogFileTraces) {
+                memoryManager.remove((ColumnarLogFileTraces) tl);
+            }
+            if (analysisScheduler != null) {
+                analysisScheduler.cancel(tl);
+            }
 //            allTraceLists.remove(tl);
         }
 
@@ -516,6 +607,7 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
 
             currentTraceLists.clear();
 //            allTraceLists.clear();
+            updateStatisticTableColumns();
             statisticTableModel.fireTableDataChanged();
 
             tracePanel.setTraces(null, null);
@@ -538,6 +630,46 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
     // reload all logs
     private void refreshTraceList() {
 
+        // logs that have only had rows added since they were read (which is checked with
+        // their row index, in the background) just have the new rows read
+        if (followWorker == null) {
+            List<ColumnarLogFileTraces> selected = new ArrayList<ColumnarLogFileTraces>();
+            for (int row : traceTable.getSelectedRows()) {
+                if (row < traceLists.size() && traceLists.get(row) instanceof ColumnarLogFileTraces) {
+                    selected.add((ColumnarLogFileTraces) traceLists.get(row));
+                }
+            }
+            if (selected.size() > 0 && selected.size() == traceTable.getSelectedRows().length) {
+                updateTraceLists(selected, false);
+                return;
+            }
+        }
+
+        reloadTraceLists();
+    }
+
+    /**
+     * Reloads the trace lists in full, when updateTraceLists has found they have changed
+     * other than by having rows added, after selecting them again in case the selection
+     * has changed meanwhile.
+     */
+    private void reloadTraceLists(List<ColumnarLogFileTraces> checked) {
+        traceTable.getSelectionModel().clearSelection();
+        for (ColumnarLogFileTraces traces : checked) {
+            // the file may have been removed while it was being checked
+            int row = traceLists.indexOf(traces);
+            if (row >= 0) {
+                traceTable.getSelectionModel().addSelectionInterval(row, row);
+            }
+        }
+        if (traceTable.getSelectedRows().length > 0) {
+            reloadTraceLists();
+        }
+    }
+
+    // reload the selected logs in full
+    private void reloadTraceLists() {
+
         final int[] statsSelRows = statisticTable.getSelectedRows();
 
         Rectangle rect = statisticTable.getVisibleRect();
@@ -553,7 +685,12 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
             final LogFileTraces[] newTls = new LogFileTraces[tls.length];
 
             for (int i = 0; i < tls.length; i++) {
-                newTls[i] = new LogFileTraces(tls[i].getName(), tls[i].getFile());
+                ColumnarLogFileTraces columnarTraces = new ColumnarLogFileTraces(tls[i].getName(), tls[i].getFile());
+                if (tls[i] instanceof ColumnarLogFileTraces) {
+                    // reloaded with the same samples
+                    columnarTraces.setSampling((ColumnarLogFileTraces) tls[i]);
+                }
+                newTls[i] = columnarTraces;
             }
 
             SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
@@ -591,6 +728,116 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
 
     }
 
+    /**
+     * Reads any rows that have been added to the loaded log files since they were loaded
+     * or last followed. Only the new part of each file is read, in the background, and
+     * the files that have changed are then analysed again.
+     */
+    private void followTraceLists() {
+        if (followWorker != null) {
+            // the previous check is still going
+            return;
+        }
+
+        final List<ColumnarLogFileTraces> followed = new ArrayList<ColumnarLogFileTraces>();
+        for (LogFileTraces traces : traceLists) {
+            if (traces instanceof ColumnarLogFileTraces && ((ColumnarLogFileTraces) traces).isUpdatable()) {
+                followed.add((ColumnarLogFileTraces) traces);
+            }
+        }
+        if (followed.size() == 0) {
+            return;
+        }
+
+        updateTraceLists(followed, true);
+    }
+
+    /**
+     * Reads the rows appended to the files of the trace lists in the background and then
+     * analyses the lists that have changed.
+     *
+     * @param following true if this is for following the files, in which case following
+     *                  is turned off if there is an error. Otherwise the lists are being
+     *                  reloaded, and are first checked (in the background, as the rows are
+     *                  read from the files) to have only had rows added: if any of them
+     *                  have changed otherwise they are all reloaded in full.
+     */
+    private void updateTraceLists(final List<ColumnarLogFileTraces> followed, final boolean following) {
+        followWorker = new SwingWorker<List<LogFileTraces>, Void>() {
+            @Override
+            protected List<LogFileTraces> doInBackground() throws Exception {
+                if (!following) {
+                    for (ColumnarLogFileTraces traces : followed) {
+                        try {
+                            if (!traces.hasUnchangedRows()) {
+                                return null;
+                            }
+                        } catch (IOException ioe) {
+                            // read it again
+                            return null;
+                        }
+                    }
+                }
+
+                List<LogFileTraces> updated = new ArrayList<LogFileTraces>();
+                for (ColumnarLogFileTraces traces : followed) {
+                    try {
+                        if (traces.updateTraces()) {
+                            updated.add(traces);
+                        }
+                    } catch (TraceException te) {
+                        errorMessage = traces.getName() + ":\n" + te.getMessage();
+                    } catch (IOException ioe) {
+                        errorMessage = traces.getName() + ":\n" + ioe.getMessage();
+                    }
+                }
+                return updated;
+            }
+
+            @Override
+            protected void done() {
+                followWorker = null;
+
+                List<LogFileTraces> updated;
+                try {
+                    updated = get();
+                } catch (Exception e) {
+                    return;
+                }
+                if (updated == null) {
+                    reloadTraceLists(followed);
+                    return;
+                }
+
+                boolean hasChanged = false;
+                for (LogFileTraces traces : updated) {
+                    // the file may have been removed while it was being read
+                    if (traceLists.contains(traces)) {
+                        analyseTraceList(traces);
+                        hasChanged = true;
+                    }
+                }
+                if (hasChanged) {
+                    updateCombinedTraces();
+                    updateTraceTables();
+                }
+
+                if (errorMessage != null) {
+                    if (following) {
+                        followCheckBox.setSelected(false);
+                    }
+                    JOptionPane.showMessageDialog(TracerFrame.this,
+                            "Unable to " + (following ? "follow" : "reload") + " trace file " + errorMessage,
+                            "Error reading file",
+                            JOptionPane.ERROR_MESSAGE);
+                }
+            }
+
+            private String errorMessage = null;
+        };
+        followWorker.execute();
+    }
+
     public void setBurnIn(int index, long burnIn) {
         LogFileTraces trace = traceLists.get(index);
         trace.setBurnIn(burnIn);
@@ -600,6 +847,12 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
     }
 
     public void updateCombinedTraces() {
+        if (combinedTraces != null && analysisScheduler != null) {
+            // replaced below
+            analysisScheduler.cancel(combinedTraces);
+        }
+        // the convergence diagnostics are still found if they are being shown
+        boolean isDiagnosed = combinedTraces != null && combinedTraces.isDiagnosed();
         if (traceLists.size() > 1) {
             LogFileTraces[] traces = new LogFileTraces[traceLists.size()];
             try {
@@ -612,6 +865,7 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
             }
             try {
                 combinedTraces = new CombinedTraces("Combined", traces);
+                combinedTraces.setDiagnosed(isDiagnosed);
 
                 analyseTraceList(combinedTraces);
             } catch (TraceException te) {
@@ -640,6 +894,80 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
         }
     }
 
+    /**
+     * @return the loaded trace lists that are selected, or all of them if the combined
+     * traces are selected
+     */
+    private List<ColumnarLogFileTraces> getSelectedTraceLists() {
+        List<ColumnarLogFileTraces> selected = new ArrayList<ColumnarLogFileTraces>();
+        for (int row : traceTable.getSelectedRows()) {
+            if (row == traceLists.size()) {
+                selected.clear();
+                for (LogFileTraces traces : traceLists) {
+                    if (traces instanceof ColumnarLogFileTraces) {
+                        selected.add((ColumnarLogFileTraces) traces);
+                    }
+                }
+                break;
+            }
+            if (row < traceLists.size() && traceLists.get(row) instanceof ColumnarLogFileTraces) {
+                selected.add((ColumnarLogFileTraces) traceLists.get(row));
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Spills the trace files that haven't been selected recently if they use more than
+     * the memory budget. This is done in the background as it writes them to disk.
+     */
+    private void balanceMemory() {
+        updateMemoryLabel();
+        if (memoryWorker != null) {
+            return;
+        }
+
+        final List<ColumnarLogFileTraces> selected = getSelectedTraceLists();
+        memoryWorker = new SwingWorker<Long, Void>() {
+            @Override
+            protected Long doInBackground() throws Exception {
+                return memoryManager.balance(selected);
+            }
+
+            @Override
+            protected void done() {
+                memoryWorker = null;
+                try {
+                    if (get() > 0) {
+                        updateMemoryLabel();
+                    }
+                } catch (Exception e) {
+                    // the trace files are left in memory
+                }
+                traceTable.repaint();
+            }
+        };
+        memoryWorker.execute();
+    }
+
+    private void updateMemoryLabel() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        memoryLabel.setText("Memory: " + formatBytes(used) + " of " + formatBytes(runtime.maxMemory()) +
+                " (traces " + formatBytes(memoryManager.getFootprint()) +
+                " of " + formatBytes(memoryManager.getBudget()) + ")");
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1L << 20) {
+            return (bytes >> 10) + " KB";
+        }
+        if (bytes < 1L << 30) {
+            return new DecimalFormat("0.0").format((double) bytes / (1L << 20)) + " MB";
+        }
+        return new DecimalFormat("0.0").format((double) bytes / (1L << 30)) + " GB";
+    }
+
     public void traceTableSelectionChanged() {
 
         if (traceLists.size() == 0) {
@@ -662,6 +990,8 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
 
         currentTraceLists.clear();
 
+        memoryManager.use(getSelectedTraceLists());
+
         // Check for and add the combined trace first so it is underneath the
         // individual traces.
         for (int row : selRows) {
@@ -722,6 +1052,7 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
 
         int[] rows = statisticTable.getSelectedRows();
 
+        updateStatisticTableColumns();
         statisticTableModel.fireTableDataChanged();
 
         if (rows.length > 0) {
@@ -830,6 +1161,8 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
 
         int[] selRows = statisticTable.getSelectedRows();
 
+        updateAnalysisPriorities();
+
         boolean isIncomplete = false;
         for (TraceList tl : currentTraceLists) {
             if (tl == null || tl.getTraceCount() == 0 || tl.getStateCount() == 0)
@@ -844,7 +1177,12 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
             TraceList[] tl = new TraceList[currentTraceLists.size()];
             currentTraceLists.toArray(tl);
             try {
-                tracePanel.setTraces(tl, selectedTraceNames);
+                if (loadColumns(tl, selectedTraceNames)) {
+                    tracePanel.setTraces(tl, selectedTraceNames);
+                } else {
+                    // shown once their columns have been read
+                    tracePanel.setTraces(null, selectedTraceNames);
+                }
             } catch (ChartRuntimeException cre) {
                 JOptionPane.showMessageDialog(this, "One or more traces contain invalid values and \rare not able to be displayed.",
                         "Problem reading trace file",
@@ -858,6 +1196,117 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
         temporalButton.setEnabled(selRows.length > 0);
     }
 
+    /**
+     * Reads the columns of the selected traces from any files that were indexed rather
+     * than parsed because they have so many traces. Reading them is a pass through the
+     * whole file so it is done in the background, with a progress bar that can cancel it,
+     * and their statistics are found there too. The selection is then shown if it hasn't
+     * changed meanwhile.
+     *
+     * @return true if there are no columns to read, so the traces can be shown now
+     */
+    private boolean loadColumns(final TraceList[] traceLists, final List<String> traceNames) {
+        List<ColumnarLogFileTraces> indexedTraceLists = new ArrayList<ColumnarLogFileTraces>();
+        for (TraceList traceList : traceLists) {
+            if (traceList instanceof CombinedTraces) {
+                CombinedTraces combinedTraces = (CombinedTraces) traceList;
+                for (int i = 0; i < combinedTraces.getTraceListCount(); i++) {
+                    if (combinedTraces.getTraceList(i) instanceof ColumnarLogFileTraces) {
+                        indexedTraceLists.add((ColumnarLogFileTraces) combinedTraces.getTraceList(i));
+                    }
+                }
+            } else if (traceList instanceof ColumnarLogFileTraces) {
+                indexedTraceLists.add((ColumnarLogFileTraces) traceList);
+            }
+        }
+
+        final Map<ColumnarLogFileTraces, int[]> unloadedColumns = new LinkedHashMap<ColumnarLogFileTraces, int[]>();
+        for (ColumnarLogFileTraces traceList : indexedTraceLists) {
+            List<Integer> indices = new ArrayList<Integer>();
+            for (String traceName : traceNames) {
+                int index = traceList.getTraceIndex(traceName);
+                if (index >= 0 && !traceList.isLoaded(index)) {
+                    indices.add(index);
+                }
+            }
+            if (indices.isEmpty()) {
+                continue;
+            }
+
+            int[] columnIndices = new int[indices.size()];
+            for (int i = 0; i < columnIndices.length; i++) {
+                columnIndices[i] = indices.get(i);
+            }
+            unloadedColumns.put(traceList, columnIndices);
+        }
+        if (unloadedColumns.isEmpty()) {
+            return true;
+        }
+
+        loaderExecutor.execute(new Runnable() {
+            public void run() {
+                String errorMessage = null;
+                boolean isCancelled = false;
+                for (Map.Entry<ColumnarLogFileTraces, int[]> entry : unloadedColumns.entrySet()) {
+                    ColumnarLogFileTraces traceList = entry.getKey();
+                    LoadProgressPanel.FileProgress fileProgress =
+                            loadProgressPanel.addProgress("Reading traces from " + traceList.getName() + ":");
+                    try {
+                        traceList.loadColumns(entry.getValue(), fileProgress);
+                        for (int index : entry.getValue()) {
+                            traceList.analyseTrace(index);
+                        }
+                    } catch (InterruptedIOException iioe) {
+                        // the cancel button was pressed
+                        isCancelled = true;
+                        break;
+                    } catch (TraceException te) {
+                        errorMessage = traceList.getName() + ":\n" + te.getMessage();
+                        break;
+                    } catch (IOException ioe) {
+                        errorMessage = traceList.getName() + ":\n" + ioe.getMessage();
+                        break;
+                    } finally {
+                        loadProgressPanel.removeFile(fileProgress);
+                    }
+                }
+                final String message = errorMessage;
+                final boolean isLoaded = (errorMessage == null && !isCancelled);
+                if (isLoaded) {
+                    // the combined traces' statistics from those of the files just found
+                    for (TraceList traceList : traceLists) {
+                        if (traceList instanceof CombinedTraces) {
+                            for (String traceName : traceNames) {
+                                int index = traceList.getTraceIndex(traceName);
+                                if (index >= 0) {
+                                    traceList.analyseTrace(index);
+                                }
+                            }
+                        }
+                    }
+                }
+
+                EventQueue.invokeLater(new Runnable() {
+                    public void run() {
+                        if (message != null) {
+                            JOptionPane.showMessageDialog(TracerFrame.this, "Unable to read traces from " + message,
+                                    "Problem reading trace file",
+                                    JOptionPane.ERROR_MESSAGE);
+                        }
+                        // show the statistics of the traces that have just been read
+                        statisticTable.repaint();
+                        // a cancelled or failed read isn't tried again until the selection changes
+                        if (isLoaded && traceNames.equals(getSelectedTraces()) &&
+                                Arrays.asList(traceLists).equals(currentTraceLists)) {
+                            statisticTableSelectionChanged();
+                        }
+                    }
+                });
+            }
+        });
+        return false;
+    }
+
     // get names of selected traces
     public List<String> getSelectedTraces() {
 
@@ -876,138 +1325,133 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
         return selectedTraces;
     }
 
+    /**
+     * Analyses the traces of a trace list in the background (see TraceAnalysisScheduler).
+     */
     public void analyseTraceList(TraceList job) {
 
-        if (analyseTask == null) {
-            analyseTask = new AnalyseTraceTask();
+        if (analysisScheduler == null) {
+            analysisScheduler = new TraceAnalysisScheduler(new Runnable() {
+                public void run() {
+                    repaint();
+                }
+            });
 
-            javax.swing.Timer timer = new javax.swing.Timer(1000, new ActionListener() {
+            javax.swing.Timer timer = new javax.swing.Timer(500, new ActionListener() {
                 public void actionPerformed(ActionEvent evt) {
-                    progressBar.setMaximum(analyseTask.getLengthOfTask());
-                    progressBar.setValue(analyseTask.getCurrent());
+                    updateAnalysisProgress();
                 }
             });
-
-            analyseTask.go();
             timer.start();
         }
 
-        analyseTask.add(job);
+        updateAnalysisPriorities();
+        analysisScheduler.analyse(job);
+        updateAnalysisProgress();
     }
 
-    AnalyseTraceTask analyseTask = null;
-
-    class AnalyseTraceTask extends LongTask {
-
-        class AnalysisStack<T> {
-            private final java.util.List<T> jobs = new ArrayList<T>();
-
-            public synchronized void add(T job) {
-                jobs.add(job);
-            }
-
-            public synchronized int getCount() {
-                return jobs.size();
-            }
-
-            public synchronized T get(int index) {
-                return jobs.get(index);
-            }
-
-            public synchronized void remove(int index) {
-                jobs.remove(index);
-            }
-        }
-
-        private final AnalysisStack<TraceList> analysisStack = new AnalysisStack<TraceList>();
-
-        public AnalyseTraceTask() {
-        }
-
-        public void add(TraceList job) {
-            analysisStack.add(job);
-            current = 0;
-        }
-
-        public int getCurrent() {
-            return current;
+    /**
+     * Sets the widths and renderers of the statistic table's columns, which are made
+     * again when the convergence diagnostics columns are shown or hidden.
+     */
+    private void setStatisticTableColumns() {
+        TableRenderer renderer = new TableRenderer(SwingConstants.LEFT, new Insets(0, 4, 0, 4));
+        statisticTable.getColumnModel().getColumn(0).setPreferredWidth(150);
+        statisticTable.getColumnModel().getColumn(0).setCellRenderer(renderer);
+        statisticTable.getColumnModel().getColumn(1).setPreferredWidth(70);
+        statisticTable.getColumnModel().getColumn(1).setCellRenderer(renderer);
+        statisticTable.getColumnModel().getColumn(2).setPreferredWidth(70);
+        statisticTable.getColumnModel().getColumn(2).setCellRenderer(renderer);
+//        ComboBoxRenderer comboBoxRenderer = new ComboBoxRenderer(TraceFactory.TraceType.values());
+//        comboBoxRenderer.putClientProperty("JComboBox.isTableCellEditor", Boolean.TRUE);
+        statisticTable.getColumnModel().getColumn(3).setPreferredWidth(20);
+        statisticTable.getColumnModel().getColumn(3).setCellRenderer(renderer);
+        for (int i = 4; i < statisticTable.getColumnCount(); i++) {
+            statisticTable.getColumnModel().getColumn(i).setPreferredWidth(50);
+            statisticTable.getColumnModel().getColumn(i).setCellRenderer(renderer);
         }
+    }
 
-        public int getLengthOfTask() {
-            int count = 0;
-            for (int i = 0; i < analysisStack.getCount(); i++) {
-                count += analysisStack.get(i).getTraceCount();
+    /**
+     * Shows the convergence diagnostics columns if the combined trace files are selected,
+     * and hides them if not. The table's selection is cleared if they change.
+     *
+     * The diagnostics are only found while they are shown, as they need all the values of
+     * the trace files ranked together, so the combined traces are analysed again for them
+     * in the background when they are first shown.
+     */
+    private void updateStatisticTableColumns() {
+        if (statisticTable.getColumnCount() != statisticTableModel.getColumnCount()) {
+            statisticTableModel.fireTableStructureChanged();
+            setStatisticTableColumns();
+        }
+
+        if (combinedTraces != null) {
+            boolean isDiagnosed = currentTraceLists.size() > 0 && currentTraceLists.get(0) == combinedTraces;
+            if (isDiagnosed != combinedTraces.isDiagnosed()) {
+                combinedTraces.setDiagnosed(isDiagnosed);
+                if (isDiagnosed) {
+                    analyseTraceList(combinedTraces);
+                }
             }
-            return count;
         }
+    }
 
-        public void stop() {
+    /**
+     * Has the statistics the user has selected, and then those they can see, analysed
+     * first.
+     */
+    private void updateAnalysisPriorities() {
+        if (analysisScheduler == null) {
+            return;
         }
 
-        public boolean done() {
-            return false;
+        List<String> traceNames = new ArrayList<String>();
+        for (int row : statisticTable.getSelectedRows()) {
+            if (row < commonTraceNames.size()) {
+                traceNames.add(commonTraceNames.get(row));
+            }
         }
 
-        public String getDescription() {
-            return "Analysing Trace File...";
+        Rectangle rect = statisticTable.getVisibleRect();
+        int firstRow = statisticTable.rowAtPoint(rect.getLocation());
+        int lastRow = statisticTable.rowAtPoint(new Point(rect.x, rect.y + rect.height - 1));
+        if (firstRow >= 0) {
+            if (lastRow < 0) {
+                lastRow = statisticTable.getRowCount() - 1;
+            }
+            for (int row = firstRow; row <= lastRow && row < commonTraceNames.size(); row++) {
+                traceNames.add(commonTraceNames.get(row));
+            }
         }
+        analysisScheduler.setPriorityTraces(traceNames);
+    }
 
-        public String getMessage() {
-            return null;
+    /**
+     * Shows the progress of the analysis of each trace file being analysed.
+     */
+    private void updateAnalysisProgress() {
+        StringBuilder message = new StringBuilder();
+        for (TraceList traceList : analysisScheduler.getTraceLists()) {
+            double progress = analysisScheduler.getProgress(traceList);
+            if (progress >= 0) {
+                message.append(message.length() == 0 ? "Analysing " : ", ");
+                message.append(traceList.getName()).append(" (").append((int) (progress * 100)).append("%)");
+            }
         }
+        progressLabel.setText(message.toString());
 
-        public Object doWork() {
-
-            current = 0;
-            boolean textCleared = true;
-
-            do {
-                if (analysisStack.getCount() > 0) {
-                    Object job = analysisStack.get(0);
-                    TraceList tl = (TraceList) job;
-
-                    try {
-                        for (int i = 0; i < tl.getTraceCount(); i++) {
-                            progressLabel.setText("Analysing " + tl.getName() + ":");
-                            textCleared = false;
-                            tl.analyseTrace(i);
-                            repaint();
-                            current += 1;
-                        }
-                    } catch (final Exception ex) {
-                        // do nothing. An exception is sometimes fired when burnin is changed whilst in the
-                        // middle of an analysis. This doesn't seem to matter as the analysis is restarted.
-
-                        ex.printStackTrace();
-//                        EventQueue.invokeLater (
-//								new Runnable () {
-//									public void run () {
-//										JOptionPane.showMessageDialog(TracerFrame.this, "Fatal exception: " + ex.getMessage(),
-//												"Error reading file",
-//												JOptionPane.ERROR_MESSAGE);
-//									}
-//								});
-                    }
-                    analysisStack.remove(0);
-                } else {
-                    if (!textCleared) {
-                        progressLabel.setText("");
-                        textCleared = true;
-                    }
-                    try {
-                        Thread.sleep(500);
-                    } catch (InterruptedException ie) {
-                        // do nothing
-                    }
-                }
-            } while (true);
+        int traceCount = analysisScheduler.getTraceCount();
+        if (traceCount > 0) {
+            progressBar.setMaximum(traceCount);
+            progressBar.setValue(analysisScheduler.getAnalysedCount());
+        } else {
+            progressBar.setValue(progressBar.getMaximum());
         }
-
-        //private int lengthOfTask = 0;
-        private int current = 0;
-        //private String message;
     }
 
+    private TraceAnalysisScheduler analysisScheduler = null;
+
     public final void doExportData(boolean rawData) {
 
         FileDialog dialog = new FileDialog(this,
@@ -1190,33 +1634,54 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
 
 
     public final void doImport() {
+        doImport(false);
+    }
+
+    /**
+     * @param withSampling if true ask which samples to load once the files are chosen
+     */
+    private void doImport(boolean withSampling) {
 
         if (OSType.isMac()) {
             FileDialog dialog = new FileDialog(this, "Import trace file...", FileDialog.LOAD);
             dialog.setVisible(true);
             if (dialog.getFile() != null) {
-                importFiles(new File[] {  new File(dialog.getDirectory(), dialog.getFile()) });
+                importFiles(new File[] {  new File(dialog.getDirectory(), dialog.getFile()) }, withSampling);
             }
         } else {
             final JFileChooser chooser = new JFileChooser(openDefaultDirectory);
             chooser.setMultiSelectionEnabled(true);
 
-            FileNameExtensionFilter filter = new FileNameExtensionFilter("BEAST log (*.log) Files", "log", "txt");
+            FileNameExtensionFilter filter = new FileNameExtensionFilter("BEAST log (*.log, *.log.gz) Files", "log", "txt", "gz");
             chooser.setFileFilter(filter);
 
             final int returnVal = chooser.showOpenDialog(this);
             if (returnVal == JFileChooser.APPROVE_OPTION) {
                 File[] files = chooser.getSelectedFiles();
-                importFiles(files);
+                importFiles(files, withSampling);
             }
         }
     }
 
-    private void importFiles(File[] files) {
+    private void importFiles(File[] files, boolean withSampling) {
+        if (withSampling) {
+            if (samplingDialog == null) {
+                samplingDialog = new SamplingDialog(this);
+            }
+            if (samplingDialog.showDialog() != JOptionPane.OK_OPTION) {
+                return;
+            }
+        }
+
         LogFileTraces[] traces = new LogFileTraces[files.length];
 
         for (int i = 0; i < files.length; i++) {
-            traces[i] = new LogFileTraces(files[i].getName(), files[i]);
+            ColumnarLogFileTraces columnarTraces = new ColumnarLogFileTraces(files[i].getName(), files[i]);
+            if (withSampling) {
+                columnarTraces.setSampling(samplingDialog.getMinState(), samplingDialog.getMaxState(),
+                        samplingDialog.getThinning());
+            }
+            traces[i] = columnarTraces;
         }
 
         processTraces(traces);
@@ -1241,28 +1706,100 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
         setDefaultDir(tracesArray[tracesArray.length - 1].getFile());
 
         if (tracesArray.length == 1) {
-            try {
-                final LogFileTraces traces = tracesArray[0];
+            final LogFileTraces traces = tracesArray[0];
+
+            final ProgressMonitor progressMonitor = new ProgressMonitor(
+                    this,
+                    "Reading " + traces.getName(),
+                    null, 0, PROGRESS_MAXIMUM);
+            progressMonitor.setMillisToDecideToPopup(0);
+            progressMonitor.setMillisToPopup(0);
+
+            Thread readThread = new Thread() {
+                public void run() {
+                    try {
+                        loadTraces(traces, new LogFileParser.ProgressListener() {
+                            public void progress(final long bytesParsed, final long totalBytes) {
+                                if (totalBytes > 0) {
+                                    EventQueue.invokeLater(
+                                            new Runnable() {
+                                                public void run() {
+                                                    progressMonitor.setProgress((int) (PROGRESS_MAXIMUM * bytesParsed / totalBytes));
+                                                }
+                                            });
+                                }
+                            }
 
-                final ProgressMonitorInputStream in = new ProgressMonitorInputStream(
-                        this,
-                        "Reading " + traces.getName(),
-                        new FileInputStream(traces.getFile()));
-                in.getProgressMonitor().setMillisToDecideToPopup(0);
-                in.getProgressMonitor().setMillisToPopup(0);
+                            public boolean isCancelled() {
+                                return progressMonitor.isCanceled();
+                            }
+                        });
 
-//                final Reader reader = new InputStreamReader(in);
+                        EventQueue.invokeLater(
+                                new Runnable() {
+                                    public void run() {
+                                        analyseTraceList(traces);
+                                        checkForUniqueNames(traces);
+                                        addTraceList(traces);
+                                    }
+                                });
 
-                Thread readThread = new Thread() {
+                    } catch (final TraceException te) {
+                        EventQueue.invokeLater(
+                                new Runnable() {
+                                    public void run() {
+                                        JOptionPane.showMessageDialog(frame, "Problem with trace file: " + te.getMessage(),
+                                                "Problem with trace file",
+                                                JOptionPane.ERROR_MESSAGE);
+                                    }
+                                });
+                    } catch (final InterruptedIOException iioex) {
+                        // The cancel dialog button was pressed - do nothing
+                    } catch (final FileNotFoundException fnfe) {
+                        EventQueue.invokeLater(
+                                new Runnable() {
+                                    public void run() {
+                                        JOptionPane.showMessageDialog(frame, "Unable to open file: File not found",
+                                                "Unable to open file",
+                                                JOptionPane.ERROR_MESSAGE);
+                                    }
+                                });
+                    } catch (final IOException ioex) {
+                        EventQueue.invokeLater(
+                                new Runnable() {
+                                    public void run() {
+                                        JOptionPane.showMessageDialog(frame, "File I/O Error: " + ioex.getMessage(),
+                                                "File I/O Error",
+                                                JOptionPane.ERROR_MESSAGE);
+                                    }
+                                });
+                    } finally {
+                        EventQueue.invokeLater(
+                                new Runnable() {
+                                    public void run() {
+                                        progressMonitor.close();
+                                    }
+                                });
+                    }
+
+                }
+            };
+            readThread.start();
+
+        } else {
+            // the files are loaded concurrently and each one is added as soon as it is ready
+            for (final LogFileTraces traces : tracesArray) {
+                final LoadProgressPanel.FileProgress fileProgress = loadProgressPanel.addFile(traces.getName());
+
+                loaderExecutor.execute(new Runnable() {
                     public void run() {
                         try {
-                            traces.loadTraces(in);
+                            loadTraces(traces, fileProgress);
 
                             EventQueue.invokeLater(
                                     new Runnable() {
                                         public void run() {
                                             analyseTraceList(traces);
-                                            checkForUniqueNames(traces);
                                             addTraceList(traces);
                                         }
                                     });
@@ -1271,92 +1808,55 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
                             EventQueue.invokeLater(
                                     new Runnable() {
                                         public void run() {
-                                            JOptionPane.showMessageDialog(frame, "Problem with trace file: " + te.getMessage(),
+                                            JOptionPane.showMessageDialog(frame, "Problem with trace file " + traces.getName() + ": " + te.getMessage(),
                                                     "Problem with trace file",
                                                     JOptionPane.ERROR_MESSAGE);
                                         }
                                     });
                         } catch (final InterruptedIOException iioex) {
-                            // The cancel dialog button was pressed - do nothing
+                            // The cancel button was pressed - do nothing
                         } catch (final IOException ioex) {
                             EventQueue.invokeLater(
                                     new Runnable() {
                                         public void run() {
-                                            JOptionPane.showMessageDialog(frame, "File I/O Error: " + ioex.getMessage(),
+                                            JOptionPane.showMessageDialog(frame, "File I/O Error reading " + traces.getName() + ": " + ioex.getMessage(),
                                                     "File I/O Error",
                                                     JOptionPane.ERROR_MESSAGE);
                                         }
                                     });
+                        } finally {
+                            loadProgressPanel.removeFile(fileProgress);
                         }
-
                     }
-                };
-                readThread.start();
-
-            } catch (FileNotFoundException fnfe) {
-                JOptionPane.showMessageDialog(this, "Unable to open file: File not found",
-                        "Unable to open file",
-                        JOptionPane.ERROR_MESSAGE);
-            } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this, "Fatal exception: " + ex,
-                        "Error reading file",
-                        JOptionPane.ERROR_MESSAGE);
+                });
             }
+        }
+    }
 
+    /**
+     * Loads a trace file reporting the number of bytes parsed to the progress listener.
+     * Files are loaded with the parallel parser where possible.
+     */
+    private void loadTraces(LogFileTraces traces, LogFileParser.ProgressListener progressListener) throws TraceException, IOException {
+        if (traces instanceof ColumnarLogFileTraces) {
+            ((ColumnarLogFileTraces) traces).loadTraces(progressListener);
         } else {
-            Thread readThread = new Thread() {
-                public void run() {
-                    try {
-                        for (final LogFileTraces traces : tracesArray) {
-//                            final Reader reader = new FileReader(traces.getFile());
-                            traces.loadTraces();
+            traces.loadTraces();
+        }
+    }
 
-                            EventQueue.invokeLater(
-                                    new Runnable() {
-                                        public void run() {
-                                            analyseTraceList(traces);
-                                            addTraceList(traces);
-                                        }
-                                    });
-                        }
+    private static final int PROGRESS_MAXIMUM = 1000;
 
-                    } catch (final TraceException te) {
-                        EventQueue.invokeLater(
-                                new Runnable() {
-                                    public void run() {
-                                        JOptionPane.showMessageDialog(frame, "Problem with trace file: " + te.getMessage(),
-                                                "Problem with trace file",
-                                                JOptionPane.ERROR_MESSAGE);
-                                    }
-                                });
-                    } catch (final InterruptedIOException iioex) {
-                        // The cancel dialog button was pressed - do nothing
-                    } catch (final IOException ioex) {
-                        EventQueue.invokeLater(
-                                new Runnable() {
-                                    public void run() {
-                                        JOptionPane.showMessageDialog(frame, "File I/O Error: " + ioex.getMessage(),
-                                                "File I/O Error",
-                                                JOptionPane.ERROR_MESSAGE);
-                                    }
-                                });
-//                    } catch (final Exception ex) {
-//                        EventQueue.invokeLater (
-//                                new Runnable () {
-//                                    public void run () {
-//                                        JOptionPane.showMessageDialog(frame, "Fatal exception: " + ex.getMessage(),
-//                                                "Error reading file",
-//                                                JOptionPane.ERROR_MESSAGE);
-//                                    }
-//                                });
-                    }
-
-                }
-            };
-            readThread.start();
+    // the number of files that are loaded at the same time
+    private static final int LOADER_THREAD_COUNT = 4;
 
+    private static final ExecutorService loaderExecutor = Executors.newFixedThreadPool(LOADER_THREAD_COUNT, new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "TraceLoader");
+            thread.setDaemon(true);
+            return thread;
         }
-    }
+    });
 
     protected boolean readFromFile(File file) throws IOException {
         throw new RuntimeException("Cannot read file - use import instead");
@@ -1658,6 +2158,17 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
                     FilterDialog filterDialog = new FilterDialog(this);
                     message = "  " + filterDialog.showDialog(filterListPanel, filterStatus.getText());
                     filterStatus.setText(message);
+
+                    // the filtered statistics are found in the background
+                    if (combinedTraces == null) {
+                        analyseTraceList(currentTraceLists.get(0));
+                    } else {
+                        for (LogFileTraces traceList : traceLists) {
+                            analyseTraceList(traceList);
+                        }
+                        analyseTraceList(combinedTraces);
+                    }
+                    updateTraceTables();
                 } catch (RuntimeException e) {
                     JOptionPane.showMessageDialog(this, "Error : " + e.getMessage(),
                             "Filter Error", JOptionPane.ERROR_MESSAGE);
@@ -1671,7 +2182,7 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
     }
 
     class TraceTableModel extends AbstractTableModel {
-        final String[] columnNames = {"Trace File", "States", "Burn-In"};
+        final String[] columnNames = {"Trace File", "States", "Burn-In", "Memory"};
 
         public int getColumnCount() {
             return columnNames.length;
@@ -1698,6 +2209,8 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
                         return "";
                     case 2:
                         return "";
+                    case 3:
+                        return "";
                 }
             } else if (row == traceLists.size()) {
                 traceList = combinedTraces;
@@ -1708,6 +2221,8 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
                         return traceList.getMaxState();
                     case 2:
                         return "-";
+                    case 3:
+                        return "-";
                 }
             } else {
                 traceList = traceLists.get(row);
@@ -1718,12 +2233,22 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
                         return traceList.getMaxState();
                     case 2:
                         return traceList.getBurnIn();
+                    case 3:
+                        return getMemoryText(traceList);
                 }
             }
 
             return null;
         }
 
+        private String getMemoryText(TraceList traceList) {
+            if (!(traceList instanceof ColumnarLogFileTraces)) {
+                return "-";
+            }
+            long footprint = ((ColumnarLogFileTraces) traceList).getFootprint();
+            return footprint > 0 ? formatBytes(footprint) : "on disk";
+        }
+
         public void setValueAt(Object value, int row, int col) {
             if (col == 2) {
                 setBurnIn(row, (Long) value);
@@ -1751,16 +2276,32 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
     }
 
     class StatisticTableModel extends AbstractTableModel {
-        final String[] columnNames = {"Statistic", "Mean", "ESS", "Type"};
+        final String[] columnNames = {"Statistic", "Mean", "ESS", "Type",
+                "R-hat", "Bulk ESS", "Tail ESS", "B var", "W var"};
+
+        // the columns shown unless the combined trace files are selected
+        private static final int TRACE_COLUMN_COUNT = 4;
 
         private final DecimalFormat formatter = new DecimalFormat("0.###E0");
         private final DecimalFormat formatter2 = new DecimalFormat("####0.###");
+        private final DecimalFormat formatter3 = new DecimalFormat("0.000");
 
         private int firstVisibleRow = 0;
         private int lastVisibleRow = 0;
 
         public int getColumnCount() {
-            return columnNames.length;
+            if (hasConvergenceDiagnostics()) {
+                return columnNames.length;
+            }
+            return TRACE_COLUMN_COUNT;
+        }
+
+        /**
+         * @return true if the combined trace files are selected, so the convergence
+         * diagnostics of the trace files as chains are shown
+         */
+        private boolean hasConvergenceDiagnostics() {
+            return currentTraceLists.size() > 0 && currentTraceLists.get(0) instanceof CombinedTraces;
         }
 
         public int getRowCount() {
@@ -1783,8 +2324,15 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
                 return "n/a";
             }
 
+            if (!ColumnarLogFileTraces.isLoaded(currentTraceLists.get(0), row)) {
+                // not read until it is selected
+                return "-";
+            }
             TraceCorrelation td = currentTraceLists.get(0).getCorrelationStatistics(row);
             if (td == null) return "-";
+            if (col >= TRACE_COLUMN_COUNT) {
+                return getConvergenceDiagnostic(row, col);
+            }
             if (col == 3) {
                 if (td.isConstant()) {
                     return "*";
@@ -1813,11 +2361,51 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
                     break;
             }
 
+            return format(value, warning, extremeWarning);
+        }
+
+        private Object getConvergenceDiagnostic(int row, int col) {
+            ConvergenceDiagnostics cd = ((CombinedTraces) currentTraceLists.get(0)).getConvergenceDiagnostics(row);
+            if (cd == null) return "-";
+
+            double value = 0.0;
+            boolean warning = false;
+            boolean extremeWarning = false;
+            switch (col) {
+                case 4:
+                    value = cd.getRHat();
+                    if (Double.isNaN(value)) return "-";
+                    if (value > 1.01) warning = true;
+                    if (value > 1.1) extremeWarning = true;
+                    return highlight(formatter3.format(value), warning, extremeWarning);
+                case 5:
+                case 6:
+                    value = (col == 5 ? cd.getBulkESS() : cd.getTailESS());
+                    if (Double.isNaN(value) || value < 1) return "-";
+                    if (value < 200.0) warning = true;
+                    if (value < 100.0) extremeWarning = true;
+                    value = Math.round(value);
+                    break;
+                case 7:
+                    value = cd.getBetweenChainVariance();
+                    break;
+                case 8:
+                    value = cd.getWithinChainVariance();
+                    break;
+            }
+            return format(value, warning, extremeWarning);
+        }
+
+        private String format(double value, boolean warning, boolean extremeWarning) {
             String string;
             if (Math.abs(value) < 0.1 || Math.abs(value) >= 100000.0) {
                 string = formatter.format(value);
             } else string = formatter2.format(value);
 
+            return highlight(string, warning, extremeWarning);
+        }
+
+        private String highlight(String string, boolean warning, boolean extremeWarning) {
             if (warning) {
                 return "<html><font color=\"" + (extremeWarning ? "#EE0000" : "#EEAA00") + "\">" + string + "</font></html> ";
             }
@@ -1869,6 +2457,10 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
         }
     }
 
+    public Action getImportWithSamplingAction() {
+        return importWithSamplingAction;
+    }
+
     public Action getReloadAction() {
         return reloadAction;
     }
@@ -2029,6 +2621,12 @@ public class TracerFrame extends DocumentFrame implements TracerFileMenuHandler,
         }
     };
 
+    private final AbstractAction importWithSamplingAction = new AbstractAction("Import Trace File with Sampling...") {
+        public void actionPerformed(ActionEvent ae) {
+            doImport(true);
+        }
+    };
+
     private final AbstractAction reloadAction = new AbstractAction("Reload Trace File(s)...") {
         public void actionPerformed(ActionEvent ae) {
             refreshTraceList();
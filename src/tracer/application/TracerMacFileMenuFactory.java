@@ -73,6 +73,16 @@ public class TracerMacFileMenuFactory implements MenuFactory {
                 menu.add(item);
             }
 
+            action = ((TracerFileMenuHandler)frame).getImportWithSamplingAction();
+            if (action != null) {
+                item = new JMenuItem(action);
+                menu.add(item);
+            } else {
+                item = new JMenuItem("Import Trace File with Sampling...");
+                item.setEnabled(false);
+                menu.add(item);
+            }
+
             action = ((TracerFileMenuHandler)frame).getReloadAction();
             if (action != null) {
                 item = new JMenuItem(action);
@@ -108,6 +118,10 @@ public class TracerMacFileMenuFactory implements MenuFactory {
             item.setEnabled(false);
             menu.add(item);
 
+            item = new JMenuItem("Import Trace File with Sampling...");
+            item.setEnabled(false);
+            menu.add(item);
+
             item = new JMenuItem("Reload Trace File...");
             item.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_R, MenuBarFactory.MENU_MASK));
             item.setEnabled(false);
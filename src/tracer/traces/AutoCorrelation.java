@@ -0,0 +1,383 @@
+/*
+ * AutoCorrelation.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package tracer.traces;
+
+import java.util.Arrays;
+
+/**
+ * The autocorrelation time (ACT) and effective sample size (ESS) of a trace, with the
+ * autocovariances found by FFT rather than by summing each lag in turn.
+ *
+ * The autocovariances are summed up to an automatic window, Geyer's initial monotone
+ * sequence: the sums of adjacent pairs of autocovariances are added while they are
+ * positive, each limited to the one before, which is the same window as TraceCorrelation
+ * but made monotone and without its limit of 2000 lags.
+ *
+ * The autocovariances of the first few lags are summed directly, which is quickest for
+ * traces that mix well. If the window hasn't closed by then, the autocovariances are
+ * found block by block, correlating each block of the trace with itself and the block
+ * after by FFT, so the time taken is O(n log(lags)) and the memory O(lags). If the window
+ * still hasn't closed by the last lag found, the number of lags is increased and they are
+ * found again.
+ */
+public class AutoCorrelation {
+
+    // the number of lags summed directly, the number first found by FFT and the most
+    // that will be found
+    static final int DIRECT_LAG_COUNT = 64;
+    private static final int INITIAL_LAG_COUNT = 1 << 11;
+    static final int MAX_LAG_COUNT = 1 << 16;
+
+    // the number of values whose products are summed directly at a time
+    private static final int DIRECT_CHUNK_SIZE = 1 << 12;
+
+    // how much the number of lags is increased by if the window hasn't closed
+    private static final int LAG_COUNT_FACTOR = 8;
+
+    /**
+     * Analyses the values of a trace.
+     *
+     * @param values the values
+     * @param mean   the mean of the values
+     */
+    public AutoCorrelation(DoubleColumn values, double mean) {
+        this.count = values.size();
+
+        int lagCount = DIRECT_LAG_COUNT;
+        while (!sumAutoCovariances(getAutoCovariances(values, mean, lagCount), lagCount)
+                && lagCount < count - 1 && lagCount < MAX_LAG_COUNT) {
+            lagCount = getNextLagCount(lagCount);
+        }
+    }
+
+    /**
+     * For autocovariances that are summed elsewhere (see TraceSummary).
+     *
+     * @param count the number of values
+     */
+    AutoCorrelation(int count) {
+        this.count = count;
+    }
+
+    /**
+     * @return the number of lags to try if the window didn't close within lagCount,
+     * which is more than lagCount unless it is the most that will be found
+     */
+    static int getNextLagCount(int lagCount) {
+        if (lagCount < INITIAL_LAG_COUNT) {
+            return INITIAL_LAG_COUNT;
+        }
+        return Math.min(lagCount * LAG_COUNT_FACTOR, MAX_LAG_COUNT);
+    }
+
+    /**
+     * @return the variance of the values (the autocovariance at lag 0)
+     */
+    public double getVariance() {
+        return variance;
+    }
+
+    /**
+     * @return the autocovariances summed over the window, counting each lag but 0 twice
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * @return the lag at which the window closed
+     */
+    public int getMaxLag() {
+        return maxLag;
+    }
+
+    /**
+     * @return the autocorrelation time in states
+     */
+    public double getACT(long stepSize) {
+        return variance == 0 ? 0 : stepSize * sum / variance;
+    }
+
+    /**
+     * @return the effective sample size
+     */
+    public double getESS(long stepSize) {
+        double act = getACT(stepSize);
+        return act == 0 ? 1 : stepSize * count / act;
+    }
+
+    public double getStdErrorOfMean() {
+        return Math.sqrt(sum / count);
+    }
+
+    /**
+     * Sums the autocovariances of a number of lags over the window.
+     *
+     * @return true if the window closed within the lags
+     */
+    boolean sumAutoCovariances(double[] autoCovariances, int lagCount) {
+        int lastLag = Math.min(count - 1, lagCount);
+
+        variance = autoCovariances[0];
+        sum = variance;
+        maxLag = lastLag;
+        double previousPair = Double.POSITIVE_INFINITY;
+        for (int lag = 2; lag < lastLag; lag += 2) {
+            double pair = autoCovariances[lag - 1] + autoCovariances[lag];
+            if (pair <= 0) {
+                maxLag = lag;
+                return true;
+            }
+            pair = Math.min(pair, previousPair);
+            sum += 2.0 * pair;
+            previousPair = pair;
+        }
+        return false;
+    }
+
+    /**
+     * @return the autocovariances of the first lagCount lags, each divided by the number
+     * of pairs of values at that lag
+     */
+    private double[] getAutoCovariances(DoubleColumn values, double mean, int lagCount) {
+        double[] autoCovariances = sumProducts(values, mean, 0, count, lagCount);
+        if (autoCovariances.length > count) {
+            autoCovariances = Arrays.copyOf(autoCovariances, count);
+        }
+        for (int lag = 0; lag < autoCovariances.length; lag++) {
+            autoCovariances[lag] /= count - lag;
+        }
+        return autoCovariances;
+    }
+
+    /**
+     * Sums the products of the deviations from the mean of the values in a range with
+     * those of the values each lag after them, which may be past the end of the range
+     * but not of the column. The sums for the values of a trace can so be added up range
+     * by range. The first few lags are summed directly and more by FFT.
+     *
+     * @param from     the index of the first value in the range
+     * @param to       the index after the last value in the range
+     * @param lagCount the number of lags, from 0
+     * @return the sums of the lags, 0 for lags with no pairs of values
+     */
+    static double[] sumProducts(DoubleColumn values, double mean, int from, int to, int lagCount) {
+        if (from >= to) {
+            return new double[lagCount];
+        }
+        if (lagCount <= DIRECT_LAG_COUNT) {
+            return sumDirectProducts(values, mean, from, to, lagCount);
+        }
+        return sumFFTProducts(values, mean, from, to, lagCount);
+    }
+
+    /**
+     * Sums the products a chunk of values at a time, with their deviations taken once
+     * into a buffer along with those of the lags after the chunk. Four lags are summed
+     * at once, so each deviation is loaded once for the four products it is in and the
+     * additions (into eight sums) don't wait on each other.
+     */
+    private static double[] sumDirectProducts(DoubleColumn values, double mean, int from, int to, int lagCount) {
+        double[] x = values.getArray();
+        int offset = values.getOffset();
+        int count = values.size();
+
+        double[] sums = new double[lagCount];
+        double[] deviations = new double[Math.min(DIRECT_CHUNK_SIZE, to - from) + lagCount];
+        for (int start = from; start < to; start += DIRECT_CHUNK_SIZE) {
+            int chunkSize = Math.min(DIRECT_CHUNK_SIZE, to - start);
+            int deviationCount = Math.min(start + chunkSize + lagCount, count) - start;
+            for (int i = 0; i < deviationCount; i++) {
+                deviations[i] = x[offset + start + i] - mean;
+            }
+
+            int lag = 0;
+            for (; lag + 3 < lagCount; lag += 4) {
+                double sum0 = 0.0;
+                double sum1 = 0.0;
+                double sum2 = 0.0;
+                double sum3 = 0.0;
+                double sum4 = 0.0;
+                double sum5 = 0.0;
+                double sum6 = 0.0;
+                double sum7 = 0.0;
+                // the values that have a value each of the four lags after them
+                int end = Math.max(0, Math.min(chunkSize, deviationCount - lag - 3));
+                int i = 0;
+                for (; i + 1 < end; i += 2) {
+                    double deviation0 = deviations[i];
+                    double deviation1 = deviations[i + 1];
+                    sum0 += deviation0 * deviations[i + lag];
+                    sum1 += deviation0 * deviations[i + lag + 1];
+                    sum2 += deviation0 * deviations[i + lag + 2];
+                    sum3 += deviation0 * deviations[i + lag + 3];
+                    sum4 += deviation1 * deviations[i + lag + 1];
+                    sum5 += deviation1 * deviations[i + lag + 2];
+                    sum6 += deviation1 * deviations[i + lag + 3];
+                    sum7 += deviation1 * deviations[i + lag + 4];
+                }
+                sums[lag] += sum0 + sum4;
+                sums[lag + 1] += sum1 + sum5;
+                sums[lag + 2] += sum2 + sum6;
+                sums[lag + 3] += sum3 + sum7;
+                // and the rest of the values, with however many of the lags they have
+                for (int k = 0; k < 4; k++) {
+                    int lagEnd = Math.min(chunkSize, deviationCount - lag - k);
+                    double sum = 0.0;
+                    for (int j = i; j < lagEnd; j++) {
+                        sum += deviations[j] * deviations[j + lag + k];
+                    }
+                    sums[lag + k] += sum;
+                }
+            }
+            for (; lag < lagCount; lag++) {
+                int lagEnd = Math.min(chunkSize, deviationCount - lag);
+                double sum = 0.0;
+                for (int j = 0; j < lagEnd; j++) {
+                    sum += deviations[j] * deviations[j + lag];
+                }
+                sums[lag] += sum;
+            }
+        }
+        return sums;
+    }
+
+    private static double[] sumFFTProducts(DoubleColumn values, double mean, int from, int to, int lagCount) {
+        double[] x = values.getArray();
+        int offset = values.getOffset();
+        int count = values.size();
+
+        // each block is correlated with itself and the lags after it, zero padded so the
+        // correlation doesn't wrap round. The FFT is four times the number of lags so each
+        // block is three times it, or less for a shorter range.
+        int lags = Integer.highestOneBit(Math.max(1, lagCount - 1)) << 1;
+        int fftSize = Math.min(lags * 4, Integer.highestOneBit(to - from + lags - 1) << 1);
+        int blockSize = fftSize - lags;
+        FFT fft = new FFT(fftSize);
+        double[] re = new double[fftSize];
+        double[] im = new double[fftSize];
+        double[] spectrumRe = new double[fftSize];
+        double[] spectrumIm = new double[fftSize];
+
+        for (int start = from; start < to; start += blockSize) {
+            // the block in the real part and the block and the lags after it in the
+            // imaginary part
+            for (int i = 0; i < fftSize; i++) {
+                double value = (start + i < count ? x[offset + start + i] - mean : 0.0);
+                re[i] = (i < blockSize && start + i < to ? value : 0.0);
+                im[i] = value;
+            }
+            fft.transform(re, im, false);
+
+            // separate the transforms of the two real sequences and add the first's
+            // conjugate times the second to the cross spectrum. The transform is linear
+            // so the spectra of the blocks are summed and only transformed back once.
+            for (int k = 0; k < fftSize; k++) {
+                int j = (fftSize - k) & (fftSize - 1);
+                double ar = (re[k] + re[j]) * 0.5;
+                double ai = (im[k] - im[j]) * 0.5;
+                double cr = (im[k] + im[j]) * 0.5;
+                double ci = (re[j] - re[k]) * 0.5;
+                spectrumRe[k] += ar * cr + ai * ci;
+                spectrumIm[k] += ar * ci - ai * cr;
+            }
+        }
+        fft.transform(spectrumRe, spectrumIm, true);
+
+        double[] sums = new double[lagCount];
+        for (int lag = 0; lag < lagCount; lag++) {
+            sums[lag] = spectrumRe[lag] / fftSize;
+        }
+        return sums;
+    }
+
+    /**
+     * An in-place radix 2 FFT of complex values held in separate real and imaginary
+     * arrays, with the twiddle factors and bit reversal worked out once for its size.
+     * The inverse transform is not scaled.
+     */
+    static class FFT {
+
+        FFT(int size) {
+            this.size = size;
+            cos = new double[size / 2];
+            sin = new double[size / 2];
+            for (int k = 0; k < size / 2; k++) {
+                double angle = 2.0 * Math.PI * k / size;
+                cos[k] = Math.cos(angle);
+                sin[k] = Math.sin(angle);
+            }
+            reversed = new int[size];
+            int bits = Integer.numberOfTrailingZeros(size);
+            for (int i = 0; i < size; i++) {
+                reversed[i] = (bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits));
+            }
+        }
+
+        void transform(double[] re, double[] im, boolean inverse) {
+            for (int i = 0; i < size; i++) {
+                int j = reversed[i];
+                if (j > i) {
+                    double t = re[i];
+                    re[i] = re[j];
+                    re[j] = t;
+                    t = im[i];
+                    im[i] = im[j];
+                    im[j] = t;
+                }
+            }
+
+            double sign = (inverse ? 1.0 : -1.0);
+            for (int half = 1; half < size; half <<= 1) {
+                int step = size / (half << 1);
+                for (int start = 0; start < size; start += half << 1) {
+                    for (int j = 0, w = 0; j < half; j++, w += step) {
+                        double wr = cos[w];
+                        double wi = sign * sin[w];
+                        int i = start + j;
+                        int k = i + half;
+                        double tr = wr * re[k] - wi * im[k];
+                        double ti = wr * im[k] + wi * re[k];
+                        re[k] = re[i] - tr;
+                        im[k] = im[i] - ti;
+                        re[i] += tr;
+                        im[i] += ti;
+                    }
+                }
+            }
+        }
+
+        private final int size;
+        private final double[] cos;
+        private final double[] sin;
+        private final int[] reversed;
+    }
+
+    private final int count;
+    private double variance;
+    private double sum;
+    private int maxLag;
+}
@@ -0,0 +1,85 @@
+/*
+ * BinnedKDEDensityPlot.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package tracer.traces;
+
+import dr.app.gui.chart.KDENumericalDensityPlot;
+import dr.stats.Variate;
+
+import java.util.List;
+
+/**
+ * A KDENumericalDensityPlot with its density from a BinnedNormalKDE, which is the same
+ * curve but quicker to find for long traces.
+ */
+public class BinnedKDEDensityPlot extends KDENumericalDensityPlot {
+
+    private static final int DEFAULT_KDE_BINS = 5000;
+
+    public BinnedKDEDensityPlot(List<Double> data) {
+        this(data, DEFAULT_KDE_BINS);
+    }
+
+    public BinnedKDEDensityPlot(List<Double> data, int minimumBinCount) {
+        super(data, minimumBinCount);
+    }
+
+    /**
+     * Called from the super class's constructor, so kde is set before this class's fields
+     * are initialised and mustn't be given an initial value.
+     */
+    @Override
+    public void setData(Variate.D data, int minimumBinCount) {
+        setRawData(data);
+        kde = new BinnedNormalKDE(data);
+
+        Variate.D xData = new Variate.D();
+        Variate.D yData = new Variate.D();
+        kde.addCoordinates(getFrequencyDistribution(data, minimumBinCount), xData, yData);
+        setData(xData, yData);
+    }
+
+    @Override
+    protected Variate getYCoordinates(Variate.D xData) {
+        Double[] y = new Double[xData.getCount()];
+        for (int i = 0; i < y.length; i++) {
+            y[i] = kde.pdf(xData.get(i));
+        }
+        return new Variate.D(y);
+    }
+
+    @Override
+    protected double getQuantile(double p) {
+        return kde.quantile(p);
+    }
+
+    @Override
+    protected double getDensity(double x) {
+        return kde.pdf(x);
+    }
+
+    private BinnedNormalKDE kde;
+}
@@ -0,0 +1,325 @@
+/*
+ * BinnedNormalKDE.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package tracer.traces;
+
+import dr.stats.Variate;
+import dr.util.FrequencyDistribution;
+
+/**
+ * A Gaussian kernel density estimate of a trace's values, binned onto a grid and convolved
+ * with the kernel by FFT as NormalKDEDistribution does (the algorithm of R's density()),
+ * with the same bandwidth (Scott's rule of thumb, bw.nrd), grid and range, so the densities
+ * are the same to rounding.
+ *
+ * NormalKDEDistribution finds the quartiles for the bandwidth by sorting an array of boxed
+ * values with an index heap sort, which takes most of its time for long traces. Here the
+ * values are copied once into an array and the quartiles are found by selection, so the
+ * estimate takes O(n + m log m) for n values on a grid of m points, and the density at a
+ * point is interpolated from the grid in constant time.
+ */
+class BinnedNormalKDE {
+
+    private static final int GRID_SIZE = 512;
+
+    // the number of bandwidths the density is found beyond the smallest and largest values
+    // and the further number the grid is widened by so the ends don't wrap round
+    private static final double CUT = 3.0;
+    private static final double GRID_EXTENSION = 4.0;
+
+    // the density below which the plotted curve is ended and the boundary it isn't
+    // extended past, as KDENumericalDensityPlot
+    private static final double MIN_DENSITY = 1.0E-5;
+    private static final double LOWER_BOUNDARY = 0.0;
+
+    BinnedNormalKDE(Variate.D values) {
+        this(toArray(values));
+    }
+
+    BinnedNormalKDE(double[] values) {
+        int n = values.length;
+        if (n == 0) {
+            throw new IllegalArgumentException("No values to estimate the density of");
+        }
+
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : values) {
+            if (value < min) {
+                min = value;
+            }
+            if (value > max) {
+                max = value;
+            }
+        }
+        this.min = min;
+
+        bandwidth = getBandwidth(values);
+        lowerGrid = min - (CUT + GRID_EXTENSION) * bandwidth;
+        upperGrid = max + (CUT + GRID_EXTENSION) * bandwidth;
+        gridStep = (upperGrid - lowerGrid) / (GRID_SIZE - 1);
+
+        density = getDensities(values, bandwidth, lowerGrid, upperGrid);
+    }
+
+    /**
+     * @return the density at x, interpolated between the grid points either side
+     */
+    double pdf(double x) {
+        double position = (x - lowerGrid) / gridStep;
+        if (!(position >= 0.0 && position <= GRID_SIZE - 1)) {
+            return 0.0;
+        }
+        int i = Math.min((int) position, GRID_SIZE - 2);
+        double fraction = position - i;
+        return density[i] + fraction * (density[i + 1] - density[i]);
+    }
+
+    /**
+     * @return the value below which a proportion p of the density lies, found from the
+     * cumulative density over the grid
+     */
+    double quantile(double p) {
+        if (cumulative == null) {
+            cumulative = new double[GRID_SIZE];
+            for (int i = 1; i < GRID_SIZE; i++) {
+                cumulative[i] = cumulative[i - 1] + 0.5 * (density[i - 1] + density[i]) * gridStep;
+            }
+        }
+        double target = p * cumulative[GRID_SIZE - 1];
+        int i = 1;
+        while (i < GRID_SIZE - 1 && cumulative[i] < target) {
+            i++;
+        }
+        double area = cumulative[i] - cumulative[i - 1];
+        double fraction = (area > 0.0 ? (target - cumulative[i - 1]) / area : 0.0);
+        return lowerGrid + (i - 1 + Math.max(0.0, Math.min(1.0, fraction))) * gridStep;
+    }
+
+    double getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * Adds the points of the density curve for a density plot as KDENumericalDensityPlot,
+     * at the centres of the frequency distribution's bins and as many more bins either side
+     * as the density is above the minimum, starting and ending at zero.
+     */
+    void addCoordinates(FrequencyDistribution frequency, Variate.D xData, Variate.D yData) {
+        double binSize = frequency.getBinSize();
+        double x = frequency.getLowerBound() - (binSize / 2.0);
+        int extraBinsOnEdges = 0;
+        while (pdf(x) > MIN_DENSITY && x > LOWER_BOUNDARY) {
+            x -= binSize;
+            extraBinsOnEdges += 1;
+        }
+        xData.add(min >= LOWER_BOUNDARY && x < LOWER_BOUNDARY ? LOWER_BOUNDARY : x);
+        yData.add(0.0);
+        x += binSize;
+        for (int i = 0; i < frequency.getBinCount() + extraBinsOnEdges; i++) {
+            xData.add(x);
+            yData.add(pdf(x));
+            x += binSize;
+        }
+        while (pdf(x) > MIN_DENSITY) {
+            xData.add(x);
+            yData.add(pdf(x));
+            x += binSize;
+        }
+        xData.add(x);
+        yData.add(0.0);
+    }
+
+    /**
+     * @return the densities at the grid points from the values binned onto the grid by
+     * linear interpolation and convolved with the kernel by FFT. The FFT is twice the size
+     * of the grid so the convolution doesn't wrap round.
+     */
+    private static double[] getDensities(double[] values, double bandwidth, double lower, double upper) {
+        int size = 2 * GRID_SIZE;
+
+        double[] binnedRe = new double[size];
+        double[] binnedIm = new double[size];
+        double step = (upper - lower) / (GRID_SIZE - 1);
+        int lastBin = GRID_SIZE - 2;
+        double weight = 1.0 / values.length;
+        for (double value : values) {
+            double position = (value - lower) / step;
+            if (Double.isInfinite(position) || Double.isNaN(position)) {
+                continue;
+            }
+            int bin = (int) Math.floor(position);
+            double fraction = position - bin;
+            if (bin >= 0 && bin <= lastBin) {
+                binnedRe[bin] += (1.0 - fraction) * weight;
+                binnedRe[bin + 1] += fraction * weight;
+            } else if (bin == -1) {
+                binnedRe[0] += fraction * weight;
+            } else if (bin == lastBin + 1) {
+                binnedRe[bin] += (1.0 - fraction) * weight;
+            }
+        }
+
+        // the kernel at the distances of the points of the FFT, wrapping round to the
+        // negative distances in the second half
+        double[] kernelRe = new double[size];
+        double[] kernelIm = new double[size];
+        double kernelStep = 2.0 * (upper - lower) / (size - 1);
+        double scale = 1.0 / (Math.sqrt(2.0 * Math.PI) * bandwidth);
+        for (int i = 0; i <= GRID_SIZE; i++) {
+            double distance = i * kernelStep / bandwidth;
+            kernelRe[i] = scale * Math.exp(-0.5 * distance * distance);
+        }
+        for (int i = GRID_SIZE + 1; i < size; i++) {
+            kernelRe[i] = kernelRe[size - i];
+        }
+
+        AutoCorrelation.FFT fft = new AutoCorrelation.FFT(size);
+        fft.transform(binnedRe, binnedIm, false);
+        fft.transform(kernelRe, kernelIm, false);
+        for (int i = 0; i < size; i++) {
+            double re = binnedRe[i] * kernelRe[i] + binnedIm[i] * kernelIm[i];
+            double im = binnedIm[i] * kernelRe[i] - binnedRe[i] * kernelIm[i];
+            binnedRe[i] = re;
+            binnedIm[i] = im;
+        }
+        fft.transform(binnedRe, binnedIm, true);
+
+        double[] density = new double[GRID_SIZE];
+        for (int i = 0; i < GRID_SIZE; i++) {
+            density[i] = Math.max(0.0, binnedRe[i] / size);
+        }
+        return density;
+    }
+
+    /**
+     * @return Scott's rule of thumb bandwidth, 1.06 times the smaller of the standard deviation
+     * and the interquartile range over 1.34, times n^-1/5. If that is zero (more than half
+     * the values are the same) the standard deviation is used instead, or failing that the
+     * size of the values, as R's bw.nrd0, rather than a bandwidth of zero.
+     */
+    private static double getBandwidth(double[] values) {
+        int n = values.length;
+
+        double sum = 0.0;
+        int count = 0;
+        for (double value : values) {
+            if (!Double.isNaN(value)) {
+                sum += value;
+                count++;
+            }
+        }
+        double mean = sum / count;
+        double squares = 0.0;
+        for (double value : values) {
+            double deviation = value - mean;
+            squares += deviation * deviation;
+        }
+        double sd = Math.sqrt(squares / (n > 1 ? n - 1 : 1));
+
+        // the quartiles are the values at ceil(q * n) in order, as DiscreteStatistics
+        double[] copy = values.clone();
+        int upperIndex = (int) Math.ceil(0.75 * n) - 1;
+        int lowerIndex = (int) Math.ceil(0.25 * n) - 1;
+        double upperQuartile = select(copy, 0, n, upperIndex);
+        // selection leaves the values before the upper quartile no greater than it
+        double lowerQuartile = select(copy, 0, upperIndex + 1, lowerIndex);
+
+        double spread = Math.min(sd, (upperQuartile - lowerQuartile) / 1.34);
+        if (!(spread > 0.0)) {
+            spread = sd;
+            if (!(spread > 0.0)) {
+                spread = Math.abs(values[0]);
+                if (!(spread > 0.0)) {
+                    spread = 1.0;
+                }
+            }
+        }
+        return 1.06 * spread * Math.pow(n, -0.2);
+    }
+
+    /**
+     * Finds the kth smallest of values[from, to) by quickselect, partially reordering them so
+     * the values before k are no greater than it and those after no smaller.
+     */
+    private static double select(double[] values, int from, int to, int k) {
+        int left = from;
+        int right = to - 1;
+        while (left < right) {
+            int middle = (left + right) >>> 1;
+            double pivot = medianOf(values[left], values[middle], values[right]);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    double swap = values[i];
+                    values[i] = values[j];
+                    values[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return values[k];
+            }
+        }
+        return values[k];
+    }
+
+    private static double medianOf(double a, double b, double c) {
+        if (a < b) {
+            return (b < c ? b : (a < c ? c : a));
+        } else {
+            return (a < c ? a : (b < c ? c : b));
+        }
+    }
+
+    private static double[] toArray(Variate.D values) {
+        double[] array = new double[values.getCount()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    private final double min;
+    private final double bandwidth;
+    private final double lowerGrid;
+    private final double upperGrid;
+    private final double gridStep;
+    private final double[] density;
+    private double[] cumulative;
+}
@@ -0,0 +1,62 @@
+/*
+ * CachedJChart.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package tracer.traces;
+
+import dr.app.gui.chart.Axis;
+import dr.app.gui.chart.JChart;
+
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+/**
+ * A JChart that keeps its plots as an image (see ChartRaster) so that repaints which
+ * change nothing, such as a dialog being moved over it, do not draw every plot again.
+ */
+public class CachedJChart extends JChart {
+
+    public CachedJChart(Axis xAxis, Axis yAxis) {
+        super(xAxis, yAxis);
+
+        // clicks can select points, which the image would not show otherwise
+        addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent e) {
+                raster.invalidate();
+            }
+        });
+    }
+
+    protected void paintContents(Graphics2D g2) {
+        raster.paint(g2, new ChartRaster.Layer() {
+            public void paint(Graphics2D g2) {
+                CachedJChart.super.paintContents(g2);
+            }
+        });
+    }
+
+    private final ChartRaster raster = new ChartRaster(this);
+}
@@ -0,0 +1,153 @@
+/*
+ * ChartRaster.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package tracer.traces;
+
+import dr.app.gui.chart.Axis;
+import dr.app.gui.chart.JChart;
+import dr.app.gui.chart.Plot;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An off-screen image of the data drawn by a chart, so that repainting the chart when
+ * nothing about it has changed (a window moved over it, say) just copies the image
+ * rather than drawing every plot again. The image is redrawn when anything it depends on
+ * changes: the size of the chart, the plot bounds, the axes and their ranges, the plots
+ * and their line styles, and anything else the chart adds to the key. The frame, axes
+ * and legend are still drawn by JChart on top.
+ *
+ * Printing and exporting draw the plots directly so they stay vector graphics.
+ */
+final class ChartRaster {
+
+    public static final String DISABLE_RASTER_PROPERTY = "tracer.chart.raster.disable";
+
+    /**
+     * Draws the layer that is kept in the image.
+     */
+    interface Layer {
+        void paint(Graphics2D g2);
+    }
+
+    ChartRaster(JChart chart) {
+        this.chart = chart;
+    }
+
+    /**
+     * Draws the layer into the image if the key has changed since it was last drawn
+     * and then copies the image to the chart.
+     *
+     * @param extraKey anything the layer depends on apart from the plots and axes
+     */
+    void paint(Graphics2D g2, Layer layer, Object... extraKey) {
+        AffineTransform transform = g2.getTransform();
+        double scaleX = transform.getScaleX();
+        double scaleY = transform.getScaleY();
+        if (Boolean.getBoolean(DISABLE_RASTER_PROPERTY) || chart.isPaintingForPrint() ||
+                transform.getShearX() != 0.0 || transform.getShearY() != 0.0 || !(scaleX > 0.0) || !(scaleY > 0.0)) {
+            image = null;
+            key = null;
+            layer.paint(g2);
+            return;
+        }
+
+        Dimension size = chart.getSize();
+        int width = (int) Math.ceil(size.width * scaleX);
+        int height = (int) Math.ceil(size.height * scaleY);
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+            key = null;
+        }
+
+        List<Object> newKey = getKey(scaleX, scaleY, extraKey);
+        if (!newKey.equals(key)) {
+            Graphics2D imageG2 = image.createGraphics();
+            imageG2.setComposite(AlphaComposite.Clear);
+            imageG2.fillRect(0, 0, width, height);
+            imageG2.setComposite(AlphaComposite.SrcOver);
+            imageG2.setRenderingHints(g2.getRenderingHints());
+            imageG2.scale(scaleX, scaleY);
+            imageG2.setClip(g2.getClip());
+            imageG2.setFont(g2.getFont());
+            imageG2.setPaint(g2.getPaint());
+            imageG2.setStroke(g2.getStroke());
+            layer.paint(imageG2);
+            imageG2.dispose();
+            key = newKey;
+        }
+
+        // the image is in device pixels with its origin at the chart's origin
+        g2.drawImage(image, AffineTransform.getScaleInstance(1.0 / scaleX, 1.0 / scaleY), null);
+    }
+
+    /**
+     * Redraws the image on the next paint, for changes the key does not show such as
+     * points being selected.
+     */
+    void invalidate() {
+        key = null;
+    }
+
+    private List<Object> getKey(double scaleX, double scaleY, Object[] extraKey) {
+        List<Object> key = new ArrayList<Object>();
+        key.add(chart.getSize());
+        key.add(scaleX);
+        key.add(scaleY);
+        key.add(chart.getPlotBounds() != null ? chart.getPlotBounds().clone() : null);
+        addAxis(key, chart.getXAxis());
+        addAxis(key, chart.getYAxis());
+        for (Plot plot : chart.getPlots()) {
+            key.add(plot);
+            key.add(plot.getLineColor());
+            key.add(plot.getLineStroke());
+        }
+        for (Object object : extraKey) {
+            key.add(object);
+        }
+        return key;
+    }
+
+    private static void addAxis(List<Object> key, Axis axis) {
+        key.add(axis);
+        if (axis != null) {
+            key.add(axis.getMinAxis());
+            key.add(axis.getMaxAxis());
+        }
+    }
+
+    private final JChart chart;
+
+    private BufferedImage image = null;
+    private List<Object> key = null;
+}
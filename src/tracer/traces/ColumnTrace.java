@@ -0,0 +1,526 @@
+/*
+ * ColumnTrace.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package tracer.traces;
+
+import dr.inference.trace.Trace;
+import dr.inference.trace.TraceType;
+import dr.util.Pair;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.*;
+
+/**
+ * A Trace that keeps its values in a primitive double array rather than a list of
+ * boxed Doubles. Categorical values are stored as their category index, exactly as
+ * Trace does, with the labels held in the category label map.
+ *
+ * The lists returned by getValues are read-only views onto the array (see DoubleColumn)
+ * so handing them out does not copy the trace.
+ *
+ * A subclass can create the trace before its values have been read, in which case
+ * loadValues is called the first time the values or the type are needed.
+ *
+ * The values can be spilled to a SpillFile to free the memory they use, and are read
+ * back from it when they are next needed. Lists handed out before the trace was spilled
+ * stay valid.
+ */
+public class ColumnTrace extends Trace {
+
+    private static final int MAX_UNIQUE_VALUES = 100;
+
+    public ColumnTrace(String name, TraceType traceType) {
+        this(name, traceType, new double[16], 0, null);
+    }
+
+    /**
+     * Wraps an already parsed column. The array is used as is (not copied).
+     *
+     * @param name             the trace name
+     * @param traceType        the trace type
+     * @param values           the values (category indices for categorical traces)
+     * @param valueCount       the number of values in use at the start of the array
+     * @param categoryLabelMap the category index to label map, or null if not categorical
+     */
+    public ColumnTrace(String name, TraceType traceType, double[] values, int valueCount, Map<Integer, String> categoryLabelMap) {
+        super(name, traceType);
+        this.values = values;
+        this.valueCount = valueCount;
+        setCategoryLabelMap(categoryLabelMap);
+    }
+
+    /**
+     * Creates a trace whose values have not been read yet. The subclass must implement
+     * loadValues to call setValues.
+     *
+     * @param name       the trace name
+     * @param valueCount the number of values the trace will have
+     */
+    protected ColumnTrace(String name, int valueCount) {
+        super(name, TraceType.REAL);
+        this.values = null;
+        this.valueCount = valueCount;
+    }
+
+    /**
+     * Called when the values of a trace created without them are first needed.
+     */
+    protected void loadValues() {
+        throw new IllegalStateException("The values of trace " + getName() + " have not been loaded");
+    }
+
+    /**
+     * Sets the values of a trace created without them.
+     */
+    protected void setValues(TraceType traceType, double[] values, Map<Integer, String> categoryLabelMap) {
+        if (values.length < valueCount) {
+            throw new IllegalArgumentException("Expected " + valueCount + " values in trace " + getName());
+        }
+        setTraceType(traceType);
+        setCategoryLabelMap(categoryLabelMap);
+        this.values = values;
+    }
+
+    /**
+     * @return false if the trace was created without its values and they haven't been
+     * needed yet. A trace that has been spilled is loaded.
+     */
+    public boolean isLoaded() {
+        return values != null || spillFile != null;
+    }
+
+    /**
+     * @return true if the values are in memory
+     */
+    public boolean isInMemory() {
+        return values != null;
+    }
+
+    /**
+     * @return the number of bytes used by the values
+     */
+    public long getFootprint() {
+        double[] values = this.values;
+        return values != null ? (long) values.length * 8 : 0;
+    }
+
+    /**
+     * Frees the memory used by the values, writing them to a spill file unless they are
+     * already there from an earlier spill and haven't changed since.
+     *
+     * @return the number of bytes freed
+     */
+    synchronized long spill(SpillFile spillFile) throws IOException {
+        if (values == null) {
+            return 0;
+        }
+        if (this.spillFile != spillFile) {
+            spillOffset = spillFile.write(values, valueCount);
+            this.spillFile = spillFile;
+        }
+        long footprint = getFootprint();
+        values = null;
+        return footprint;
+    }
+
+    /**
+     * Reads the values back from the spill file if they have been spilled.
+     */
+    private synchronized void unspill() {
+        if (values == null && spillFile != null) {
+            try {
+                values = spillFile.read(spillOffset, valueCount, valueCount);
+            } catch (IOException ioe) {
+                throw new RuntimeException("Unable to read trace " + getName() + ": " + ioe.getMessage(), ioe);
+            }
+        }
+    }
+
+    /**
+     * @return the values, reading them if they haven't been or have been spilled
+     */
+    private double[] ensureLoaded() {
+        double[] values = this.values;
+        if (values == null) {
+            if (spillFile != null) {
+                unspill();
+            } else {
+                loadValues();
+            }
+            values = this.values;
+        }
+        return values;
+    }
+
+    /**
+     * Called before the values are changed, after which any spilled copy is out of date.
+     * The methods that change the values are synchronized so they don't overlap a spill.
+     */
+    private void ensureModifiable() {
+        ensureLoaded();
+        spillFile = null;
+        summary = null;
+        orderStatistics = null;
+    }
+
+    /**
+     * @param keep if false the order statistics are only kept if they already were
+     * @return the order statistics of the values from a row on, kept (softly) until the
+     * values change or they are asked for from another row
+     */
+    synchronized OrderStatistics getOrderStatistics(int fromRow, boolean keep) {
+        OrderStatistics orderStatistics = (this.orderStatistics != null ? this.orderStatistics.get() : null);
+        if (orderStatistics == null || orderStatisticsRow != fromRow || orderStatisticsCount != valueCount) {
+            DoubleColumn values = getColumn(0, valueCount, null);
+            // the values of a summarised trace only need the blocks' sorted runs (or
+            // sketches) merged
+            TraceSummary summary = (fromRow < valueCount && getTraceType().isContinuous() ? getSummary() : null);
+            if (summary != null) {
+                orderStatistics = summary.getOrderStatistics(values, fromRow);
+            } else {
+                orderStatistics = new OrderStatistics(values.slice(fromRow, valueCount));
+            }
+            if (!keep) {
+                return orderStatistics;
+            }
+            this.orderStatistics = new SoftReference<OrderStatistics>(orderStatistics);
+            orderStatisticsRow = fromRow;
+            orderStatisticsCount = valueCount;
+        }
+        return orderStatistics;
+    }
+
+    /**
+     * @return the summary of all the values of a continuous trace, made again if the
+     * values have changed or it has been collected, or null if they can't be summarised
+     */
+    synchronized TraceSummary getSummary() {
+        TraceSummary summary = (this.summary != null ? this.summary.get() : null);
+        if ((summary == null || summary.getCount() != valueCount) && unsummarisedCount != valueCount) {
+            summary = TraceSummary.create(getColumn(0, valueCount, null));
+            this.summary = (summary != null ? new SoftReference<TraceSummary>(summary) : null);
+            unsummarisedCount = (summary != null ? -1 : valueCount);
+        }
+        return summary;
+    }
+
+    private void setCategoryLabelMap(Map<Integer, String> categoryLabelMap) {
+        if (categoryLabelMap != null) {
+            this.categoryLabelMap = new HashMap<Integer, String>(categoryLabelMap);
+            for (int i = 0; i < categoryLabelMap.size(); i++) {
+                categoryValueList.add(categoryLabelMap.get(i));
+            }
+        }
+    }
+
+    @Override
+    public TraceType getTraceType() {
+        // the type of a spilled trace is still known
+        if (!isLoaded()) {
+            ensureLoaded();
+        }
+        return super.getTraceType();
+    }
+
+    public synchronized void add(double value) {
+        ensureModifiable();
+        if (valueCount == values.length) {
+            values = Arrays.copyOf(values, Math.max(16, values.length + (values.length >> 1)));
+        }
+        values[valueCount] = value;
+        valueCount++;
+    }
+
+    /**
+     * Adds the first count values of an array.
+     */
+    public synchronized void add(double[] newValues, int count) {
+        ensureModifiable();
+        if (valueCount + count > values.length) {
+            values = Arrays.copyOf(values, Math.max(valueCount + count, values.length + (values.length >> 1)));
+        }
+        System.arraycopy(newValues, 0, values, valueCount, count);
+        valueCount += count;
+    }
+
+    /**
+     * Removes the values after the first valueCount.
+     */
+    public synchronized void truncate(int valueCount) {
+        ensureModifiable();
+        if (valueCount < 0 || valueCount > this.valueCount) {
+            throw new IndexOutOfBoundsException("Value count: " + valueCount + ", Size: " + this.valueCount);
+        }
+        this.valueCount = valueCount;
+    }
+
+    @Override
+    public void add(Double value) {
+        add(value.doubleValue());
+    }
+
+    @Override
+    public void add(Double[] values) {
+        for (Double value : values) {
+            add(value.doubleValue());
+        }
+    }
+
+    @Override
+    public void add(Integer value) {
+        add(value.doubleValue());
+    }
+
+    @Override
+    public synchronized void add(String value) {
+        ensureModifiable();
+        int index = categoryValueList.indexOf(value);
+        if (index < 0) {
+            categoryValueList.add(value);
+            index = categoryValueList.size() - 1;
+            if (categoryLabelMap == null) {
+                categoryLabelMap = new HashMap<Integer, String>();
+            }
+            categoryLabelMap.put(index, value);
+        }
+        add((double) index);
+    }
+
+    @Override
+    public void add(String[] values) {
+        for (String value : values) {
+            add(value);
+        }
+    }
+
+    @Override
+    public List<Integer> getCategoryOrder() {
+        return categoryOrder;
+    }
+
+    @Override
+    public void setOrderType(OrderType orderType) {
+        switch (orderType) {
+            case DEFAULT:
+                categoryOrder = new ArrayList<Integer>();
+                for (int i = 0; i < getUniqueValueCount(); i++) {
+                    categoryOrder.add(i);
+                }
+                break;
+            case NATURAL:
+                categoryOrder = getNaturalOrder();
+                break;
+            case FREQUENCY:
+                categoryOrder = getFrequencyCounter().getOrderByFrequency();
+                break;
+        }
+    }
+
+    private List<Integer> getNaturalOrder() {
+        List<Integer> order;
+        if (getTraceType() == TraceType.CATEGORICAL) {
+            List<Pair<Comparable, Integer>> pairs = new ArrayList<Pair<Comparable, Integer>>();
+            int i = 0;
+            for (Integer value : getFrequencyCounter().getUniqueValues()) {
+                if (categoryLabelMap != null) {
+                    pairs.add(new Pair<Comparable, Integer>(categoryLabelMap.get(value), i));
+                } else {
+                    pairs.add(new Pair<Comparable, Integer>(value, i));
+                }
+                i++;
+            }
+            Collections.sort(pairs, new Comparator<Pair<Comparable, Integer>>() {
+                @SuppressWarnings("unchecked")
+                public int compare(Pair<Comparable, Integer> p1, Pair<Comparable, Integer> p2) {
+                    return p1.fst.compareTo(p2.fst);
+                }
+            });
+            order = new ArrayList<Integer>();
+            for (Pair<Comparable, Integer> pair : pairs) {
+                order.add(pair.snd);
+            }
+        } else {
+            order = new ArrayList<Integer>(getFrequencyCounter().getUniqueValues());
+            Collections.sort(order);
+        }
+        return order;
+    }
+
+    @Override
+    public int getValueCount() {
+        return valueCount;
+    }
+
+    /**
+     * @return the number of distinct integer values, counted up to a maximum of 100
+     * as Trace does.
+     */
+    @Override
+    public int getUniqueValueCount() {
+        double[] values = ensureLoaded();
+        if (uniqueValueCountSize != valueCount) {
+            Set<Integer> uniqueValues = new HashSet<Integer>();
+            for (int i = 0; i < valueCount && uniqueValues.size() < MAX_UNIQUE_VALUES; i++) {
+                uniqueValues.add((int) values[i]);
+            }
+            uniqueValueCount = uniqueValues.size();
+            uniqueValueCountSize = valueCount;
+        }
+        return uniqueValueCount;
+    }
+
+    @Override
+    public double getValue(int index) {
+        double[] values = ensureLoaded();
+        if (index >= valueCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + valueCount);
+        }
+        return values[index];
+    }
+
+    @Override
+    public int getCategory(int index) {
+        return (int) getValue(index);
+    }
+
+    @Override
+    public String getCategoryLabel(int index) {
+        return categoryLabelMap.get(getCategory(index));
+    }
+
+    @Override
+    public Map<Integer, String> getCategoryLabelMap() {
+        if (!isLoaded()) {
+            ensureLoaded();
+        }
+        return categoryLabelMap;
+    }
+
+    @Override
+    public double[] getRange() {
+        double[] values = ensureLoaded();
+        if (valueCount < 1) {
+            throw new IllegalArgumentException("Cannot find values in trace " + getName());
+        }
+        if (!getTraceType().isNumber()) {
+            throw new UnsupportedOperationException("cannot call getRange for categorical data");
+        }
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < valueCount; i++) {
+            if (values[i] < min) {
+                min = values[i];
+            }
+            if (values[i] > max) {
+                max = values[i];
+            }
+        }
+        return new double[]{min, max};
+    }
+
+    @Override
+    public List<Double> getValues(int fromIndex, int toIndex) {
+        return getValues(fromIndex, toIndex, null);
+    }
+
+    @Override
+    public List<Double> getValues(int fromIndex, int toIndex, boolean[] filtered) {
+        return getColumn(fromIndex, toIndex, filtered).asList();
+    }
+
+    /**
+     * Returns the values in a range as a column. Without filters this is a view of the
+     * trace's own array, otherwise the values that pass the filters are copied.
+     */
+    public DoubleColumn getColumn(int fromIndex, int toIndex, boolean[] filtered) {
+        double[] values = ensureLoaded();
+        if (toIndex > valueCount || fromIndex > toIndex) {
+            throw new RuntimeException("Invalid index : fromIndex = " + fromIndex + "; toIndex = " + toIndex
+                    + "; List size = " + valueCount + "; in Trace " + getName());
+        }
+
+        if (filtered == null || filtered.length < 1) {
+            return new DoubleColumn(values, fromIndex, toIndex - fromIndex);
+        }
+
+        double[] unfiltered = new double[toIndex - fromIndex];
+        int count = 0;
+        for (int i = fromIndex; i < toIndex; i++) {
+            if (!filtered[i]) {
+                unfiltered[count] = values[i];
+                count++;
+            }
+        }
+        if (count < 1) {
+            throw new RuntimeException("There is no value left after all filters are applied !");
+        }
+        return new DoubleColumn(unfiltered, 0, count);
+    }
+
+    /**
+     * @return true if every value in the trace is the same.
+     */
+    @Override
+    public boolean isConstant() {
+        double[] values = ensureLoaded();
+        if (isConstantSize != valueCount) {
+            isConstant = true;
+            for (int i = 1; i < valueCount && isConstant; i++) {
+                if (values[i] != values[0]) {
+                    isConstant = false;
+                }
+            }
+            isConstantSize = valueCount;
+        }
+        return isConstant;
+    }
+
+    // null if the values haven't been read or have been spilled
+    private volatile double[] values;
+    private int valueCount;
+
+    // where the values were last spilled, or null if they have changed since
+    private volatile SpillFile spillFile = null;
+    private long spillOffset = 0;
+
+    // see getSummary, with the number of values when they last couldn't be summarised
+    private SoftReference<TraceSummary> summary = null;
+    private int unsummarisedCount = -1;
+
+    // see getOrderStatistics, with the row they are from and the number of values then
+    private SoftReference<OrderStatistics> orderStatistics = null;
+    private int orderStatisticsRow = -1;
+    private int orderStatisticsCount = -1;
+
+    private final List<String> categoryValueList = new ArrayList<String>();
+    private Map<Integer, String> categoryLabelMap = null;
+    private List<Integer> categoryOrder = null;
+
+    private int uniqueValueCount = 0;
+    private int uniqueValueCountSize = -1;
+    private boolean isConstant = true;
+    private int isConstantSize = -1;
+}
@@ -0,0 +1,850 @@
+/*
+ * ColumnarLogFileTraces.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package tracer.traces;
+
+import dr.inference.trace.Filter;
+import dr.inference.trace.LogFileTraces;
+import dr.inference.trace.Trace;
+import dr.inference.trace.TraceCorrelation;
+import dr.inference.trace.TraceException;
+import dr.inference.trace.TraceList;
+import dr.inference.trace.TraceType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A LogFileTraces that is loaded with the parallel LogFileParser and keeps each trace in
+ * a primitive column (ColumnTrace).
+ *
+ * If it was loaded from a file, rows added to the file afterwards can be appended to the
+ * traces with updateTraces. Files are cached by TraceCache so they can be opened again
+ * without being parsed or analysed.
+ *
+ * Files with more than getIndexTraceCount() traces are indexed rather than parsed (see
+ * LogFileParser.index) and each column is only read, and analysed, when it is first used.
+ *
+ * Gzip compressed files are inflated by GzipFileInputStream as they are parsed. They are
+ * always parsed in full and can't be updated.
+ *
+ * A file that is too big to hold in memory can be loaded with sampling (see setSampling),
+ * keeping only a range of states and every so many samples. The burn-in is still a
+ * state, so samples before the first state loaded count as burnt in.
+ *
+ * The columns can be spilled to a temporary file to free memory while the trace list
+ * isn't being looked at (see TraceMemoryManager). They are read back as they are used.
+ *
+ * The statistics of the traces are kept in a StatisticsCache shared by all the trace
+ * lists, so that they are shown straight away when a burn-in or filters used before are
+ * used again.
+ */
+public class ColumnarLogFileTraces extends LogFileTraces {
+
+    public static final String INDEX_TRACE_COUNT_PROPERTY = "tracer.index.traces";
+
+    private static final int DEFAULT_INDEX_TRACE_COUNT = 1000;
+
+    public ColumnarLogFileTraces(String name, File file) {
+        super(name, file);
+    }
+
+    @Override
+    public long getMaxState() {
+        return lastState;
+    }
+
+    @Override
+    public int getStateCount() {
+        // This is done as two integer divisions to ensure the same rounding for
+        // the burnin...
+        return (int) (((lastState - firstState) / stepSize) - getBurninStateCount() + 1);
+    }
+
+    @Override
+    public int getBurninStateCount() {
+        // the first state is only after 0 if the file was loaded with a state range
+        return (int) (Math.max(0, getBurnIn() - firstState) / stepSize);
+    }
+
+    @Override
+    public long getStepSize() {
+        return stepSize;
+    }
+
+    @Override
+    public long getBurnIn() {
+        return burnIn;
+    }
+
+    @Override
+    public int getTraceCount() {
+        return traces.size();
+    }
+
+    @Override
+    public int getTraceIndex(String name) {
+        for (int i = 0; i < traces.size(); i++) {
+            if (name.equals(getTraceName(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String getTraceName(int index) {
+        return getTrace(index).getName();
+    }
+
+    @Override
+    public Trace getTrace(int index) {
+        return traces.get(index);
+    }
+
+    @Override
+    public void setBurnIn(long burnIn) {
+        this.burnIn = burnIn;
+        for (Trace trace : traces) {
+            trace.setTraceStatistics(null);
+        }
+    }
+
+    @Override
+    public double getStateValue(int trace, int index) {
+        return getTrace(trace).getValue(index + getBurninStateCount());
+    }
+
+    @Override
+    public void getStateValues(int index, double[] destination, int offset) {
+        if (parser != null && parser.isIndexed()) {
+            // read all the columns in one pass rather than one at a time
+            int[] indices = new int[destination.length];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = i + offset;
+            }
+            try {
+                loadColumns(indices);
+            } catch (TraceException te) {
+                throw new RuntimeException("Unable to read traces: " + te.getMessage(), te);
+            } catch (IOException ioe) {
+                throw new RuntimeException("Unable to read traces: " + ioe.getMessage(), ioe);
+            }
+        }
+        int valueIndex = index + getBurninStateCount();
+        for (int i = 0; i < destination.length; i++) {
+            destination[i] = getTrace(i + offset).getValue(valueIndex);
+        }
+    }
+
+    @Override
+    public List<Double> getValues(int index, int fromIndex, int toIndex) {
+        List<Double> values = null;
+        try {
+            values = getTrace(index).getValues(fromIndex, toIndex, filtered);
+        } catch (IndexOutOfBoundsException e) {
+            System.err.println("getValues error: trace index = " + index);
+        }
+        return values;
+    }
+
+    /**
+     * @return the order statistics of the values of a trace after the burn-in, which are
+     * shared until the values, burn-in or filters change
+     */
+    public OrderStatistics getOrderStatistics(int index) {
+        return getOrderStatistics(index, true);
+    }
+
+    /**
+     * @param keep if false the order statistics are only shared if they already were
+     */
+    OrderStatistics getOrderStatistics(int index, boolean keep) {
+        if (hasAnyFilter()) {
+            return new OrderStatistics(getValues(index));
+        }
+        return traces.get(index).getOrderStatistics(getBurninStateCount(), keep);
+    }
+
+    @Override
+    public List<Double> getValues(int index) {
+        return getValues(index, getBurninStateCount(), getTrace(index).getValueCount());
+    }
+
+    @Override
+    public List<Double> getBurninValues(int index) {
+        return getValues(index, 0, getBurninStateCount());
+    }
+
+    @Override
+    public void loadTraces() throws TraceException, IOException {
+        loadTraces((LogFileParser.ProgressListener) null);
+    }
+
+    @Override
+    public void loadTraces(File file) throws TraceException, IOException {
+        loadTraces(file, null);
+    }
+
+    /**
+     * Loads the file, reporting progress (in bytes) to the given listener.
+     */
+    public void loadTraces(LogFileParser.ProgressListener progressListener) throws TraceException, IOException {
+        loadTraces(file, progressListener);
+    }
+
+    /**
+     * Loads the traces from the cache if the file has not changed since it was cached,
+     * otherwise parses the file and caches it.
+     */
+    private void loadTraces(File file, LogFileParser.ProgressListener progressListener) throws TraceException, IOException {
+        // the cache and the index are of the whole file
+        boolean isCached = TraceCache.isEnabled() && !isSampled();
+        TraceCache.Columns columns = (isCached ? TraceCache.readColumns(file) : null);
+        // a compressed file can't be indexed as its rows can't be read in place
+        boolean isGzip = GzipFileInputStream.isGzip(file);
+        if (columns == null && !isGzip && !isSampled() && LogFileParser.readTraceNames(file).length > getIndexTraceCount()) {
+            LogFileParser parser = new LogFileParser(progressListener);
+            parser.index(file);
+
+            String[] names = parser.getTraceNames();
+            traces.clear();
+            for (int i = 0; i < names.length; i++) {
+                traces.add(new IndexedColumnTrace(names[i], i, parser.getRowCount()));
+            }
+            firstState = parser.getFirstState();
+            lastState = parser.getLastState();
+            stepSize = parser.getStepSize();
+            burnIn = lastState / 10;
+            parser.clearRows();
+
+            this.parser = parser;
+            cacheKey = null;
+        } else if (columns != null) {
+            LogFileParser parser = columns.parser;
+            traces.clear();
+            traces.addAll(columns.traces);
+            firstState = parser.getFirstState();
+            lastState = parser.getLastState();
+            stepSize = parser.getStepSize();
+            burnIn = lastState / 10;
+
+            this.parser = parser;
+            cacheKey = TraceCache.getKey(file);
+        } else {
+            // taken before parsing so a change made during parsing makes the cache out of date
+            long lastModified = file.lastModified();
+
+            LogFileParser parser = new LogFileParser(progressListener);
+            parser.setSampling(minState, maxState, thinning);
+            long parsedLength;
+            if (isGzip) {
+                InputStream in = new GzipFileInputStream(file);
+                try {
+                    parser.parse(in, -1);
+                } finally {
+                    in.close();
+                }
+                parsedLength = file.length();
+            } else {
+                parser.parse(file);
+                parsedLength = parser.getParsedLength();
+            }
+            setTraces(parser);
+
+            this.parser = parser;
+            cacheKey = null;
+            if (isCached) {
+                cacheKey = new TraceCache.Key(file, parsedLength, lastModified);
+                TraceCache.writeColumns(file, cacheKey, parser, traces);
+            }
+        }
+        this.parsedFile = file;
+        synchronized (analysedTraces) {
+            cachedStatistics = null;
+            cachedStatisticsBurnIn = -1;
+        }
+        generation++;
+    }
+
+    @Override
+    public void loadTraces(InputStream in) throws TraceException, IOException {
+        LogFileParser parser = new LogFileParser(null);
+        parser.setSampling(minState, maxState, thinning);
+        parser.parse(in, -1);
+        setTraces(parser);
+        this.parser = null;
+        this.parsedFile = null;
+        cacheKey = null;
+        generation++;
+    }
+
+    /**
+     * Sets which samples are kept when the traces are loaded, so that very long logs can
+     * be loaded in less memory. The rows left out are skipped by the parser before any
+     * values are stored, and getStepSize returns the spacing of the samples kept.
+     *
+     * @param minState the first state to load, or Long.MIN_VALUE for the start of the file
+     * @param maxState the last state to load, or Long.MAX_VALUE for the end of the file
+     * @param thinning keep every thinning-th sample
+     */
+    public void setSampling(long minState, long maxState, int thinning) {
+        if (thinning < 1) {
+            throw new IllegalArgumentException("The thinning must be at least 1");
+        }
+        if (minState > maxState) {
+            throw new IllegalArgumentException("The first state is after the last");
+        }
+        this.minState = minState;
+        this.maxState = maxState;
+        this.thinning = thinning;
+    }
+
+    /**
+     * @return true if only some of the samples in the file are loaded
+     */
+    public boolean isSampled() {
+        return thinning > 1 || minState != Long.MIN_VALUE || maxState != Long.MAX_VALUE;
+    }
+
+    /**
+     * Uses the same sampling as another set of traces, such as when a file is reloaded.
+     */
+    public void setSampling(ColumnarLogFileTraces traces) {
+        setSampling(traces.minState, traces.maxState, traces.thinning);
+    }
+
+    /**
+     * @return true if the traces were loaded from an uncompressed file so can be updated
+     * with rows added to it since. Files loaded with sampling can't be updated.
+     */
+    public boolean isUpdatable() {
+        return parser != null && parser.getRowIndex() != null && !parser.isIndexed();
+    }
+
+    /**
+     * @return the positions of the rows in the file, or null if it was read from a stream
+     */
+    public RowIndex getRowIndex() {
+        return parser != null ? parser.getRowIndex() : null;
+    }
+
+    /**
+     * Checks with the row index that the rows that have been read are still in the file,
+     * so that it has at most had rows added to it and can be brought up to date with
+     * updateTraces rather than being loaded again.
+     */
+    public boolean hasUnchangedRows() throws IOException {
+        return isUpdatable() && parser.hasUnchangedRows(parsedFile, CHECKED_ROW_COUNT);
+    }
+
+    /**
+     * @return the number of traces above which files are indexed rather than parsed.
+     * This can be set with the tracer.index.traces property.
+     */
+    public static int getIndexTraceCount() {
+        return Integer.getInteger(INDEX_TRACE_COUNT_PROPERTY, DEFAULT_INDEX_TRACE_COUNT);
+    }
+
+    /**
+     * @return false if the file was indexed and the column of the trace has not been read
+     */
+    public boolean isLoaded(int index) {
+        return traces.get(index).isLoaded();
+    }
+
+    /**
+     * @return false if the trace list, or any of the trace lists it combines, has not read
+     * the column of the trace yet. Getting the statistics of the trace will read it.
+     */
+    public static boolean isLoaded(TraceList traceList, int index) {
+        if (traceList instanceof ColumnarLogFileTraces) {
+            return ((ColumnarLogFileTraces) traceList).isLoaded(index);
+        }
+        if (traceList instanceof CombinedTraces) {
+            CombinedTraces combinedTraces = (CombinedTraces) traceList;
+            for (int i = 0; i < combinedTraces.getTraceListCount(); i++) {
+                if (!isLoaded(combinedTraces.getTraceList(i), index)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the columns of the given traces if the file was indexed, in a single pass
+     * through the file. Columns that have already been read are skipped.
+     */
+    public void loadColumns(int[] indices) throws TraceException, IOException {
+        loadColumns(indices, null);
+    }
+
+    /**
+     * Reads the columns as loadColumns(indices), reporting the progress of the pass
+     * through the file to the listener, which can also cancel it.
+     */
+    public synchronized void loadColumns(int[] indices, LogFileParser.ProgressListener progressListener) throws TraceException, IOException {
+        boolean[] selected = new boolean[traces.size()];
+        List<Integer> unloaded = new ArrayList<Integer>();
+        for (int index : indices) {
+            if (!traces.get(index).isLoaded() && !selected[index]) {
+                selected[index] = true;
+                unloaded.add(index);
+            }
+        }
+        if (unloaded.isEmpty()) {
+            return;
+        }
+
+        int[] columnIndices = new int[unloaded.size()];
+        for (int i = 0; i < columnIndices.length; i++) {
+            columnIndices[i] = unloaded.get(i);
+        }
+        parser.setProgressListener(progressListener);
+        try {
+            parser.readColumns(parsedFile, columnIndices);
+        } finally {
+            parser.setProgressListener(null);
+        }
+        for (int index : columnIndices) {
+            traces.get(index).setValues(parser.getTraceType(index),
+                    parser.getColumn(index), parser.getCategoryLabelMap(index));
+        }
+        parser.clearRows();
+    }
+
+    /**
+     * @return the number of bytes used by the columns in memory
+     */
+    public long getFootprint() {
+        long footprint = 0;
+        for (ColumnTrace trace : getColumnTraces()) {
+            footprint += trace.getFootprint();
+        }
+        return footprint;
+    }
+
+    /**
+     * Writes the columns in memory to the spill file, and frees them, until they are
+     * next used.
+     *
+     * @return the number of bytes freed
+     */
+    public long spill() throws IOException {
+        List<ColumnTrace> columnTraces;
+        SpillFile spillFile;
+        synchronized (this) {
+            if (this.spillFile == null) {
+                this.spillFile = new SpillFile();
+            }
+            columnTraces = new ArrayList<ColumnTrace>(traces);
+            spillFile = this.spillFile;
+        }
+        long freed = 0;
+        for (ColumnTrace trace : columnTraces) {
+            freed += trace.spill(spillFile);
+        }
+        return freed;
+    }
+
+    /**
+     * Deletes the spill file. Called when the trace list is closed so the columns must
+     * not be used afterwards.
+     */
+    public synchronized void deleteSpillFile() {
+        if (spillFile != null) {
+            spillFile.delete();
+            spillFile = null;
+        }
+    }
+
+    private synchronized List<ColumnTrace> getColumnTraces() {
+        return new ArrayList<ColumnTrace>(traces);
+    }
+
+    @Override
+    public TraceCorrelation getCorrelationStatistics(int index) {
+        ColumnTrace trace = traces.get(index);
+        if (!trace.isLoaded()) {
+            // the column is read and analysed when its statistics are first asked for
+            analyseTrace(index, true);
+        } else if (trace.getTraceStatistics() == null && parser != null && parser.isIndexed()) {
+            // or if it was read after the trace list was analysed
+            analyseTrace(index, true);
+        }
+        return super.getCorrelationStatistics(index);
+    }
+
+    /**
+     * Reads any rows that have been added to the end of the file since it was loaded or
+     * last updated and appends them to the traces. Only the new part of the file is read.
+     * The statistics of the traces are cleared so they need to be analysed again.
+     *
+     * If the burn-in has not been changed from the default of 10% it is moved to stay at
+     * 10% of the new length.
+     *
+     * @return true if the traces have changed
+     */
+    public synchronized boolean updateTraces() throws TraceException, IOException {
+        if (parser == null || !parser.parseAppended(parsedFile)) {
+            return false;
+        }
+
+        boolean isDefaultBurnIn = (burnIn == lastState / 10);
+
+        int rowCount = parser.getRowCount();
+        for (int i = 0; i < traces.size(); i++) {
+            ColumnTrace trace = traces.get(i);
+            if (parser.getReplacedRowCount() > 0) {
+                trace.truncate(trace.getValueCount() - parser.getReplacedRowCount());
+            }
+
+            double[] values = parser.getColumn(i);
+            String[] labels = parser.getLabels(i);
+            if (labels != null && !trace.getTraceType().isCategorical()) {
+                trace = toCategorical(trace);
+                traces.set(i, trace);
+            }
+
+            if (trace.getTraceType().isCategorical()) {
+                for (int j = 0; j < rowCount; j++) {
+                    trace.add(labels != null ? labels[j] : Double.toString(values[j]));
+                }
+            } else {
+                trace.add(values, rowCount);
+                if (trace.getTraceType() == TraceType.INTEGER && parser.getTraceType(i) == TraceType.REAL) {
+                    trace.setTraceType(TraceType.REAL);
+                }
+            }
+            trace.setTraceStatistics(null);
+        }
+
+        firstState = parser.getFirstState();
+        lastState = parser.getLastState();
+        stepSize = parser.getStepSize();
+        if (isDefaultBurnIn) {
+            burnIn = lastState / 10;
+        }
+
+        parser.clearRows();
+
+        // the caches are of the file as it was when it was loaded
+        cacheKey = null;
+        generation++;
+        return true;
+    }
+
+    /**
+     * Uses the cached statistics of a continuous trace if the file was loaded (or cached)
+     * with the same burn-in and there are no filters. Once every trace has been analysed
+     * the statistics are cached if they were not read from the cache.
+     *
+     * Different traces can be analysed at the same time by different threads.
+     */
+    @Override
+    public void analyseTrace(int index) {
+        analyseTrace(index, false);
+    }
+
+    /**
+     * Only works out which values the filters leave and clears the statistics, as
+     * setBurnIn, so the traces show as not yet analysed rather than with their unfiltered
+     * statistics. The statistics aren't found again here, all at once, when the filters
+     * change: the trace list is analysed again in the background by whoever changed them
+     * (see TracerFrame).
+     */
+    @Override
+    protected void refreshStatistics() {
+        updateFlag();
+        for (Trace trace : traces) {
+            trace.setTraceStatistics(null);
+        }
+        StringBuilder signature = new StringBuilder();
+        for (int i = 0; i < traces.size(); i++) {
+            Filter filter = traces.get(i).getFilter();
+            if (filter != null) {
+                String[] in = filter.getIn().clone();
+                Arrays.sort(in);
+                signature.append(i).append('=').append(Arrays.toString(in)).append(';');
+            }
+        }
+        filterSignature = signature.toString();
+    }
+
+    /**
+     * @return the configuration of the trace list that its statistics depend on, besides
+     * the type of each trace: which trace list and version of its values, and its burn-in
+     * and filters (see StatisticsCache)
+     */
+    String getStatisticsConfiguration() {
+        return id + "/" + generation + "/" + burnIn + "/" + filterSignature;
+    }
+
+    /**
+     * @return the cache of the statistics of the traces of all the trace lists
+     */
+    public static StatisticsCache<TraceCorrelation> getStatisticsCache() {
+        return statisticsCache;
+    }
+
+    /**
+     * @param load if false a trace whose column has not been read yet is not analysed
+     */
+    private void analyseTrace(int index, boolean load) {
+        ColumnTrace trace = traces.get(index);
+        if (!load && !trace.isLoaded()) {
+            return;
+        }
+
+        TraceCache.Key key = cacheKey;
+        if (key == null || hasAnyFilter()) {
+            analyseStatistics(trace, index);
+            return;
+        }
+
+        long burnIn = this.burnIn;
+        TraceCorrelation[] cachedStatistics = getCachedStatistics(key, burnIn);
+
+        TraceCorrelation statistics = null;
+        if (cachedStatistics != null && trace.getTraceType().isContinuous()) {
+            statistics = cachedStatistics[index];
+        }
+        if (statistics != null && statistics.getTraceType() == trace.getTraceType()) {
+            trace.setTraceStatistics(statistics);
+        } else {
+            analyseStatistics(trace, index);
+        }
+
+        if (cachedStatistics == null && setAnalysed(index)) {
+            TraceCache.writeStatistics(parsedFile, key, burnIn, stepSize, traces);
+        }
+    }
+
+    /**
+     * Uses the statistics of the trace in the StatisticsCache if they are there, otherwise
+     * finds them and puts them in it (unless the configuration changed meanwhile).
+     */
+    private void analyseStatistics(ColumnTrace trace, int index) {
+        String configuration = getStatisticsConfiguration();
+        TraceCorrelation statistics = statisticsCache.get(configuration, index);
+        if (statistics != null && statistics.getTraceType() == trace.getTraceType()) {
+            trace.setTraceStatistics(statistics);
+            return;
+        }
+        findStatistics(trace, index);
+        if (configuration.equals(getStatisticsConfiguration())) {
+            statisticsCache.put(configuration, index, trace.getTraceStatistics());
+        }
+    }
+
+    /**
+     * Calculates the statistics of a trace, finding the ESS of continuous traces by FFT
+     * (see FFTTraceCorrelation). Without filters, the statistics of continuous traces are
+     * put together from a summary of the whole trace (see TraceSummary) so they are quick
+     * to find again when the burn-in changes.
+     */
+    private void findStatistics(ColumnTrace trace, int index) {
+        if (trace.getTraceType().isContinuous()) {
+            TraceCorrelation statistics = null;
+            int fromRow = getBurninStateCount();
+            if (!hasAnyFilter() && fromRow < trace.getValueCount()) {
+                // the values are taken first in case they change while being summarised
+                DoubleColumn values = trace.getColumn(0, trace.getValueCount(), null);
+                TraceSummary summary = trace.getSummary();
+                if (summary != null && summary.getCount() == values.size()) {
+                    statistics = new FFTTraceCorrelation(summary, values, fromRow, trace.getTraceType(),
+                            getStepSize(), trace.isConstant());
+                }
+            }
+            if (statistics == null) {
+                statistics = new FFTTraceCorrelation(getValues(index), trace.getTraceType(),
+                        getStepSize(), trace.isConstant());
+            }
+            trace.setTraceStatistics(statistics);
+        } else {
+            super.analyseTrace(index);
+        }
+    }
+
+    /**
+     * @return the statistics cached for the burn-in, or null if there aren't any
+     */
+    private TraceCorrelation[] getCachedStatistics(TraceCache.Key key, long burnIn) {
+        synchronized (analysedTraces) {
+            if (cachedStatisticsBurnIn != burnIn) {
+                cachedStatistics = TraceCache.readStatistics(parsedFile, key, burnIn, stepSize, traces.size());
+                cachedStatisticsBurnIn = burnIn;
+                analysedTraces.clear();
+            }
+            return cachedStatistics;
+        }
+    }
+
+    /**
+     * Records that a trace has been analysed.
+     *
+     * @return true if every trace has now been analysed, after which they start being
+     * counted again
+     */
+    private boolean setAnalysed(int index) {
+        synchronized (analysedTraces) {
+            analysedTraces.set(index);
+            if (analysedTraces.cardinality() < traces.size()) {
+                return false;
+            }
+            analysedTraces.clear();
+            return true;
+        }
+    }
+
+    private void setTraces(LogFileParser parser) {
+        String[] names = parser.getTraceNames();
+        traces.clear();
+        for (int i = 0; i < names.length; i++) {
+            traces.add(new ColumnTrace(names[i], parser.getTraceType(i), parser.getColumn(i),
+                    parser.getRowCount(), parser.getCategoryLabelMap(i)));
+        }
+
+        firstState = parser.getFirstState();
+        lastState = parser.getLastState();
+        stepSize = parser.getStepSize();
+
+        burnIn = lastState / 10;
+
+        parser.clearRows();
+    }
+
+    @Override
+    public Trace changeTraceType(int id, TraceType newType) throws TraceException {
+        if (id >= getTraceCount() || id < 0) {
+            throw new TraceException("Invalid trace id : " + id + ", which should 0 < and >= " + getTraceCount());
+        }
+
+        Trace trace = getTrace(id);
+        if (trace.getTraceType() == newType) {
+            return trace;
+        }
+
+        if (trace.getTraceType().isCategorical()) {
+            throw new TraceException("A categorical type cannot be changed to anything else.");
+        }
+
+        if (newType.isDiscrete() && trace.getUniqueValueCount() > MAX_UNIQUE_VALUES) {
+            throw new TraceException("Type change is failed, because too many unique values (>" +
+                    MAX_UNIQUE_VALUES + ") are found !");
+        }
+
+        if (newType.isCategorical()) {
+            ColumnTrace newTrace = toCategorical(trace);
+            traces.set(id, newTrace);
+            return newTrace;
+        }
+
+        trace.setTraceType(newType);
+        return trace;
+    }
+
+    /**
+     * @return a categorical trace with the values of a numerical trace as its labels
+     */
+    private ColumnTrace toCategorical(Trace trace) {
+        ColumnTrace newTrace = new ColumnTrace(trace.getName(), TraceType.CATEGORICAL);
+        for (int i = 0; i < trace.getValueCount(); i++) {
+            newTrace.add(Double.toString(trace.getValue(i)));
+        }
+        return newTrace;
+    }
+
+    /**
+     * A trace of an indexed file that reads its column when its values are first needed.
+     */
+    private class IndexedColumnTrace extends ColumnTrace {
+
+        IndexedColumnTrace(String name, int index, int valueCount) {
+            super(name, valueCount);
+            this.index = index;
+        }
+
+        @Override
+        protected void loadValues() {
+            try {
+                loadColumns(new int[]{index});
+            } catch (TraceException te) {
+                throw new RuntimeException("Unable to read trace " + getName() + ": " + te.getMessage(), te);
+            } catch (IOException ioe) {
+                throw new RuntimeException("Unable to read trace " + getName() + ": " + ioe.getMessage(), ioe);
+            }
+        }
+
+        private final int index;
+    }
+
+    private static final int MAX_UNIQUE_VALUES = 200;
+
+    // the number of rows checked by hasUnchangedRows
+    private static final int CHECKED_ROW_COUNT = 64;
+
+    private static final StatisticsCache<TraceCorrelation> statisticsCache = new StatisticsCache<TraceCorrelation>();
+    private static final AtomicLong nextId = new AtomicLong();
+
+    private final List<ColumnTrace> traces = new ArrayList<ColumnTrace>();
+
+    // kept after loading a file to read rows appended to it
+    private LogFileParser parser = null;
+    private File parsedFile = null;
+
+    // the columns are written to this when they are spilled
+    private SpillFile spillFile = null;
+
+    // the version of the file that the traces are cached as, or null if they aren't
+    private TraceCache.Key cacheKey = null;
+    private TraceCorrelation[] cachedStatistics = null;
+    private long cachedStatisticsBurnIn = -1;
+    // the traces analysed since the statistics were last cached
+    private final BitSet analysedTraces = new BitSet();
+
+    // the samples kept when loading
+    private long minState = Long.MIN_VALUE;
+    private long maxState = Long.MAX_VALUE;
+    private int thinning = 1;
+
+    // which trace list and version of its values the cached statistics are of, and a
+    // description of the filters (see getStatisticsConfiguration)
+    private final long id = nextId.getAndIncrement();
+    private volatile int generation = 0;
+    private volatile String filterSignature = "";
+
+    private volatile long burnIn = -1;
+    private long firstState = -1;
+    private long lastState = -1;
+    private long stepSize = -1;
+}
@@ -27,7 +27,6 @@ package tracer.traces;
 
 import dr.inference.trace.*;
 
-import java.util.ArrayList;
 import java.util.List;
 
 
@@ -155,11 +154,19 @@ public class CombinedTraces extends FilteredTraceList { //implements TraceList {
     }
 
     public List<Double> getValues(int index) {
-        List<Double> valuesList = new ArrayList<Double>();
-        for (LogFileTraces traceList : traceLists) {
-            valuesList.addAll(traceList.getValues(index));
+        return getValueColumn(index).asList();
+    }
+
+    /**
+     * @return the values of all the trace lists joined into one column. If there is
+     * only one trace list its column is returned without copying.
+     */
+    public DoubleColumn getValueColumn(int index) {
+        DoubleColumn[] columns = new DoubleColumn[traceLists.length];
+        for (int i = 0; i < traceLists.length; i++) {
+            columns[i] = DoubleColumn.getValues(traceLists[i], index);
         }
-        return valuesList;
+        return DoubleColumn.concatenate(columns);
     }
 
     public List<Double> getBurninValues(int index) {
@@ -183,24 +190,162 @@ public class CombinedTraces extends FilteredTraceList { //implements TraceList {
             // this can happen if the ESS has not been calculated yet.
 //	    throw new RuntimeException("No ESS for combined traces? This is not supposed to happen.");
         }
+        if (traceStatistics[index] == null && !ColumnarLogFileTraces.isLoaded(this, index)) {
+            // the trace is in an indexed file so is read and analysed when first needed
+            analyseTrace(index, true);
+        }
         return traceStatistics[index];
     }
 
     public void analyseTrace(int index) {
+        analyseTrace(index, false);
+    }
+
+    /**
+     * @param load if false a trace whose column has not been read from an indexed file
+     *             is not analysed
+     */
+    private void analyseTrace(int index, boolean load) {
         // no offset: burnin is handled inside each TraceList we own and invisible to us.
-        if (traceStatistics == null) {
-            traceStatistics = new TraceCorrelation[getTraceCount()];
+        TraceCorrelation[] traceStatistics = getTraceStatistics();
+
+        if (!load && !ColumnarLogFileTraces.isLoaded(this, index)) {
+            traceStatistics[index] = null;
+            convergenceDiagnostics[index] = null;
+            return;
         }
 
         Trace trace = getTrace(index);
 
         if (trace != null) {
-            if (trace.getTraceType() == TraceType.CATEGORICAL) {
-                traceStatistics[index] = new TraceCorrelation(getValues(index), trace.getCategoryLabelMap(), trace.getCategoryOrder(), getStepSize(), trace.isConstant());
-            } else {
-                traceStatistics[index] = new TraceCorrelation(getValues(index), trace.getTraceType(), getStepSize(), trace.isConstant());
+            // the statistics of the same trace lists with the same burn-ins and filters are
+            // kept in case the trace lists are combined again
+            String configuration = getStatisticsConfiguration();
+            CombinedStatistics statistics = statisticsCache.get(configuration, index);
+            if (statistics == null || statistics.traceStatistics.getTraceType() != trace.getTraceType()) {
+                statistics = findStatistics(index, trace);
+                if (configuration != null && configuration.equals(getStatisticsConfiguration())) {
+                    statisticsCache.put(configuration, index, statistics);
+                }
+            }
+            traceStatistics[index] = statistics.traceStatistics;
+            if (isDiagnosed && statistics.hasChains && statistics.convergenceDiagnostics == null) {
+                statistics.convergenceDiagnostics = findConvergenceDiagnostics(index);
+            }
+            convergenceDiagnostics[index] = statistics.convergenceDiagnostics;
+        }
+    }
+
+    private CombinedStatistics findStatistics(int index, Trace trace) {
+        if (trace.getTraceType().isContinuous()) {
+            TraceCorrelation statistics = analyseChains(index, trace);
+            if (statistics != null) {
+                return new CombinedStatistics(statistics, true);
+            }
+        }
+
+        List<Double> values = getValues(index);
+        if (trace.getTraceType() == TraceType.CATEGORICAL) {
+            return new CombinedStatistics(new TraceCorrelation(values, trace.getCategoryLabelMap(), trace.getCategoryOrder(), getStepSize(), trace.isConstant()), false);
+        } else if (trace.getTraceType().isContinuous()) {
+            return new CombinedStatistics(new FFTTraceCorrelation(values, trace.getTraceType(), getStepSize(), trace.isConstant()), false);
+        } else {
+            return new CombinedStatistics(new TraceCorrelation(values, trace.getTraceType(), getStepSize(), trace.isConstant()), false);
+        }
+    }
+
+    /**
+     * Puts the statistics of a continuous trace together from those of each trace list
+     * (see FFTTraceCorrelation), analysing any that haven't been analysed since their
+     * burn-in changed. The quantiles and HPD intervals are from the summaries of each trace
+     * list's order statistics merged, so this takes time in the number of trace lists
+     * rather than values. The values are only joined and analysed as one if the trace
+     * lists are filtered, or if the trace is constant in some but not others.
+     *
+     * @return the statistics, or null if they can't be put together
+     */
+    private TraceCorrelation analyseChains(int index, Trace trace) {
+        TraceCorrelation[] chains = new TraceCorrelation[traceLists.length];
+        OrderStatistics[] summaries = new OrderStatistics[traceLists.length];
+        for (int i = 0; i < traceLists.length; i++) {
+            if (!(traceLists[i] instanceof ColumnarLogFileTraces) || traceLists[i].hasAnyFilter()) {
+                return null;
+            }
+            ColumnarLogFileTraces traceList = (ColumnarLogFileTraces) traceLists[i];
+            if (traceList.getTrace(index).getTraceStatistics() == null) {
+                traceList.analyseTrace(index);
+            }
+            chains[i] = traceList.getTrace(index).getTraceStatistics();
+            if (chains[i] == null || chains[i].isConstant()) {
+                return null;
+            }
+            if (chains[i] instanceof FFTTraceCorrelation) {
+                summaries[i] = ((FFTTraceCorrelation) chains[i]).getQuantileSummary();
             }
+            if (summaries[i] == null) {
+                summaries[i] = traceList.getOrderStatistics(index, false).getSummary(FFTTraceCorrelation.SUMMARY_SIZE);
+            }
+        }
+        return new FFTTraceCorrelation(chains, OrderStatistics.merge(summaries), trace.getTraceType(), getStepSize(), trace.isConstant());
+    }
+
+    /**
+     * Finds the convergence diagnostics of the trace lists as chains. These need the
+     * values of all the chains ranked together so they are only found for the traces of
+     * combined traces whose diagnostics are shown (see setDiagnosed).
+     */
+    private ConvergenceDiagnostics findConvergenceDiagnostics(int index) {
+        OrderStatistics[] orderStatistics = new OrderStatistics[traceLists.length];
+        DoubleColumn[] values = new DoubleColumn[traceLists.length];
+        boolean isApproximate = false;
+        for (int i = 0; i < traceLists.length; i++) {
+            ColumnarLogFileTraces traceList = (ColumnarLogFileTraces) traceLists[i];
+            orderStatistics[i] = traceList.getOrderStatistics(index, false);
+            isApproximate |= orderStatistics[i].isApproximate();
+            values[i] = DoubleColumn.getValues(traceList, index);
+        }
+        // the values are ranked from the exact order statistics if the chains have them
+        return ConvergenceDiagnostics.create(values, isApproximate ? null : OrderStatistics.merge(orderStatistics));
+    }
+
+    /**
+     * Sets whether the convergence diagnostics are found when the traces are analysed,
+     * which they should be while they are shown. The traces should then be analysed
+     * again for them to be found: the statistics are kept so only the diagnostics are.
+     */
+    public void setDiagnosed(boolean isDiagnosed) {
+        this.isDiagnosed = isDiagnosed;
+    }
+
+    /**
+     * @return true if the convergence diagnostics are found when the traces are analysed
+     */
+    public boolean isDiagnosed() {
+        return isDiagnosed;
+    }
+
+    /**
+     * @return the convergence diagnostics of the trace lists as chains of the trace with
+     * the given index, or null if they haven't been found (see setDiagnosed) or the trace
+     * isn't continuous, is constant or is filtered
+     */
+    public ConvergenceDiagnostics getConvergenceDiagnostics(int index) {
+        if (convergenceDiagnostics == null) {
+            return null;
         }
+        return convergenceDiagnostics[index];
+    }
+
+    /**
+     * @return the statistics array, created with the convergence diagnostics array when
+     * the first trace is analysed (which may be by several threads at once)
+     */
+    private synchronized TraceCorrelation[] getTraceStatistics() {
+        if (traceStatistics == null) {
+            convergenceDiagnostics = new ConvergenceDiagnostics[getTraceCount()];
+            traceStatistics = new TraceCorrelation[getTraceCount()];
+        }
+        return traceStatistics;
     }
 
     public Trace getTrace(int index) {
@@ -212,6 +357,49 @@ public class CombinedTraces extends FilteredTraceList { //implements TraceList {
         return traceLists[0].getTrace(index);
     }
 
+    /**
+     * @return the configurations of the trace lists joined (see
+     * ColumnarLogFileTraces.getStatisticsConfiguration), or null if any of them isn't a
+     * ColumnarLogFileTraces
+     */
+    private String getStatisticsConfiguration() {
+        StringBuilder configuration = new StringBuilder();
+        for (LogFileTraces traceList : traceLists) {
+            if (!(traceList instanceof ColumnarLogFileTraces)) {
+                return null;
+            }
+            configuration.append(((ColumnarLogFileTraces) traceList).getStatisticsConfiguration()).append('|');
+        }
+        return configuration.toString();
+    }
+
+    /**
+     * @return the cache of the statistics of the traces of combined trace lists
+     */
+    public static StatisticsCache<CombinedStatistics> getStatisticsCache() {
+        return statisticsCache;
+    }
+
+    /**
+     * The statistics of a trace of combined trace lists, as kept in the StatisticsCache,
+     * with its convergence diagnostics once they have been found.
+     */
+    static class CombinedStatistics {
+
+        /**
+         * @param hasChains true if the statistics were put together from those of the
+         *                  trace lists, so the convergence diagnostics can be found
+         */
+        CombinedStatistics(TraceCorrelation traceStatistics, boolean hasChains) {
+            this.traceStatistics = traceStatistics;
+            this.hasChains = hasChains;
+        }
+
+        final TraceCorrelation traceStatistics;
+        final boolean hasChains;
+        volatile ConvergenceDiagnostics convergenceDiagnostics = null;
+    }
+
     /**
      * @return the number of trace lists that make up this combined
      */
@@ -231,10 +419,17 @@ public class CombinedTraces extends FilteredTraceList { //implements TraceList {
     // private methods
     //************************************************************************
 
+    private static final StatisticsCache<CombinedStatistics> statisticsCache = new StatisticsCache<CombinedStatistics>();
+
     private LogFileTraces[] traceLists = null;
 
     private TraceCorrelation[] traceStatistics = null;
 
+    private ConvergenceDiagnostics[] convergenceDiagnostics = null;
+
+    // whether the convergence diagnostics are found when the traces are analysed
+    private volatile boolean isDiagnosed = false;
+
     private String name;
 
     //************* Filter ******************
@@ -273,10 +468,18 @@ public class CombinedTraces extends FilteredTraceList { //implements TraceList {
         this.refreshStatistics();
     }
 
+    /**
+     * Clears the statistics so the traces show as not yet analysed rather than with their
+     * unfiltered statistics. They aren't found again here, all at once, when the filters
+     * change: the trace lists are analysed again in the background by whoever changed them.
+     * The arrays are replaced rather than emptied in place so an analysis already under way
+     * can't leave its statistics for the old filters in them.
+     */
     @Override
-    protected void refreshStatistics() {
-        for (int i = 0; i < getTraceCount(); i++) {
-            analyseTrace(i);
+    protected synchronized void refreshStatistics() {
+        if (traceStatistics != null) {
+            convergenceDiagnostics = new ConvergenceDiagnostics[getTraceCount()];
+            traceStatistics = new TraceCorrelation[getTraceCount()];
         }
     }
 }
\ No newline at end of file
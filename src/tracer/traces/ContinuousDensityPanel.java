@@ -37,6 +37,7 @@ import java.awt.event.ActionEvent;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
@@ -113,17 +114,17 @@ public class ContinuousDensityPanel extends TraceChartPanel {
 
         setOpaque(false);
 
-        kdeChart = new JChart(new LinearAxis2(Axis.AT_MAJOR_TICK_PLUS, Axis.AT_MAJOR_TICK_PLUS), new LinearAxis2());
+        kdeChart = new CachedJChart(new LinearAxis2(Axis.AT_MAJOR_TICK_PLUS, Axis.AT_MAJOR_TICK_PLUS), new LinearAxis2());
         kdeChartPanel = new JChartPanel(kdeChart, "","","");
         kdeToolBar = createToolBar(Type.KDE, currentSettings);
         densityChartSetupDialog = new ChartSetupDialog(frame, true, false, true, false,
                 Axis.AT_MAJOR_TICK, Axis.AT_MAJOR_TICK, Axis.AT_ZERO, Axis.AT_MAJOR_TICK);
 
-        histogramChart = new JChart(new LinearAxis2(Axis.AT_MAJOR_TICK_PLUS, Axis.AT_MAJOR_TICK_PLUS), new LinearAxis2());
+        histogramChart = new CachedJChart(new LinearAxis2(Axis.AT_MAJOR_TICK_PLUS, Axis.AT_MAJOR_TICK_PLUS), new LinearAxis2());
         histogramChartPanel = new JChartPanel(histogramChart, "","","");
         histogramToolBar = createToolBar(Type.HISTOGRAM, currentSettings);
 
-        violinChart = new JParallelChart(false, new LinearAxis2(Axis.AT_MAJOR_TICK_PLUS, Axis.AT_MAJOR_TICK_PLUS));
+        violinChart = new CachedJParallelChart(false, new LinearAxis2(Axis.AT_MAJOR_TICK_PLUS, Axis.AT_MAJOR_TICK_PLUS));
         violinChartPanel = new JChartPanel(violinChart, "","","");
         violinToolBar = createToolBar(Type.VIOLIN, currentSettings);
         violinChartSetupDialog = new ChartSetupDialog(frame, false, true, false, true,
@@ -245,11 +246,11 @@ public class ContinuousDensityPanel extends TraceChartPanel {
     }
 
     protected Plot createKDEPlot(List values) {
-        return new KDENumericalDensityPlot(values);
+        return new BinnedKDEDensityPlot(values);
     }
 
     protected Plot createViolinPlot(List values, double lower, double upper) {
-        return new ViolinPlot(true, 0.8, lower, upper, false, values);
+        return new BinnedViolinPlot(true, 0.8, lower, upper, false, values);
     }
 
     protected Plot createBoxPlot(double lower, double upper, double lowerTail, double upperTail, double mean) {
@@ -264,6 +265,8 @@ public class ContinuousDensityPanel extends TraceChartPanel {
 
         getChartPanel().getChart().removeAllPlots();
 
+        final List<PreviewPlot> previews = new ArrayList<PreviewPlot>();
+
         TraceList[] traceLists = getTraceLists();
         for (int i = 0; i < traceLists.length; i++) {
             TraceList tl = traceLists[i];
@@ -293,16 +296,20 @@ public class ContinuousDensityPanel extends TraceChartPanel {
 
                     switch (currentSettings.type) {
                         case KDE:
-                            plot = createKDEPlot(values);
-                            break;
                         case HISTOGRAM:
-                            plot = createHistogramPlot(values);
-                            ((NumericalDensityPlot) plot).setRelativeDensity(currentSettings.relativeDensity);
-                            break;
                         case VIOLIN: {
-                            double lower = trace.getTraceStatistics().getLowerHPD();
-                            double upper = trace.getTraceStatistics().getUpperHPD();
-                            plot = createViolinPlot(values, lower, upper);
+                            double lower = 0.0;
+                            double upper = 0.0;
+                            if (currentSettings.type == Type.VIOLIN) {
+                                lower = trace.getTraceStatistics().getLowerHPD();
+                                upper = trace.getTraceStatistics().getUpperHPD();
+                            }
+                            if (isPreviewed(values)) {
+                                plot = createPlot(currentSettings.type, getPreviewValues(values), lower, upper);
+                                previews.add(new PreviewPlot(plot, values, lower, upper));
+                            } else {
+                                plot = createPlot(currentSettings.type, values, lower, upper);
+                            }
                             break;
                         }
                         case BOX_AND_WHISKER: {
@@ -347,10 +354,80 @@ public class ContinuousDensityPanel extends TraceChartPanel {
         }
         setLegend(currentSettings.legendAlignment);
 
+        if (!previews.isEmpty()) {
+            startFullPlots(currentSettings.type, previews);
+        }
+
         validate();
         repaint();
     }
 
+    /**
+     * A plot made from a sample of a trace's values, shown while the plot of all of them
+     * is made in the background.
+     */
+    private static class PreviewPlot {
+        PreviewPlot(Plot plot, List values, double lower, double upper) {
+            this.plot = plot;
+            this.values = values;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        final Plot plot;
+        final List values;
+        final double lower;
+        final double upper;
+    }
+
+    private Plot createPlot(Type type, List values, double lower, double upper) {
+        switch (type) {
+            case KDE:
+                return createKDEPlot(values);
+            case HISTOGRAM:
+                Plot plot = createHistogramPlot(values);
+                ((NumericalDensityPlot) plot).setRelativeDensity(currentSettings.relativeDensity);
+                return plot;
+            case VIOLIN:
+                return createViolinPlot(values, lower, upper);
+            default:
+                throw new IllegalArgumentException("Not a plot of the values: " + type);
+        }
+    }
+
+    /**
+     * Makes the plots of all the values of the previewed traces in the background and
+     * swaps them for the previews, in the same style.
+     */
+    private void startFullPlots(final Type type, final List<PreviewPlot> previews) {
+        startPlotTask(new PlotTask<List<Plot>>() {
+            protected List<Plot> prepare() {
+                List<Plot> plots = new ArrayList<Plot>();
+                for (PreviewPlot preview : previews) {
+                    plots.add(createPlot(type, preview.values, preview.lower, preview.upper));
+                }
+                return plots;
+            }
+
+            protected void show(List<Plot> plots) {
+                JChart chart = getChartPanel().getChart();
+                List<Plot> allPlots = new ArrayList<Plot>(chart.getPlots());
+                for (int i = 0; i < previews.size(); i++) {
+                    Plot preview = previews.get(i).plot;
+                    Plot plot = plots.get(i);
+                    plot.setName(preview.getName());
+                    plot.setLineStyle(preview.getLineStroke(), preview.getLineColor());
+                    allPlots.set(allPlots.indexOf(preview), plot);
+                }
+                // adding the plots again recalculates the ranges of the axes
+                chart.removeAllPlots();
+                for (Plot plot : allPlots) {
+                    chart.addPlot(plot);
+                }
+            }
+        });
+    }
+
 
     /**
      * set x labs using <code>setXAxisTitle</code> when x-axis allows multiple traces
@@ -0,0 +1,578 @@
+/*
+ * ConvergenceDiagnostics.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package tracer.traces;
+
+import java.util.Arrays;
+
+/**
+ * Convergence diagnostics for several chains of the same trace: the rank-normalised split
+ * R-hat, the bulk and tail ESS, and the between- and within-chain variances (Vehtari,
+ * Gelman, Simpson, Carpenter and Burkner, 2021, Rank-normalization, folding, and
+ * localization: an improved R-hat for assessing convergence of MCMC).
+ *
+ * Each chain is split in half, so a chain that is still drifting looks like two chains
+ * that disagree. The values are replaced by the normal scores of their ranks among all
+ * the values of the chains, so that the diagnostics are the same for any monotone
+ * transformation of the trace and don't depend on it having a finite variance. The R-hat
+ * is the larger of that of the scores and that of the scores of the distances from the
+ * median (which catches chains with the same location but different spreads). The bulk
+ * ESS is the ESS of the scores over all the chains; the tail ESS is the smaller of those
+ * of the indicators of the values being below the 5% and 95% quantiles.
+ *
+ * The ranks are found by merging the halves, each sorted, along the values of all the
+ * chains sorted, which a CombinedTraces already has from merging the order statistics of
+ * each chain.
+ */
+public class ConvergenceDiagnostics {
+
+    // the quantiles below and above which the tail ESS is found
+    private static final double TAIL_PROBABILITY = 0.05;
+
+    // the coefficients of the normal quantile's approximation, and the probabilities
+    // in each tail for which those of the tails are used
+    private static final double[] A = {-3.969683028665376e+01, 2.209460984245205e+02,
+            -2.759285104469687e+02, 1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+    private static final double[] B = {-5.447609879822406e+01, 1.615858368580409e+02,
+            -1.556989798598866e+02, 6.680131188771972e+01, -1.328068155288572e+01};
+    private static final double[] C = {-7.784894002430293e-03, -3.223964580411365e-01,
+            -2.400758277161838e+00, -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+    private static final double[] D = {7.784695709041462e-03, 3.224671290700398e-01,
+            2.445134137142996e+00, 3.754408661907416e+00};
+    private static final double NORMAL_TAIL = 0.02425;
+
+    // the number of lags first summed for an ESS, fewer than for a single trace as the
+    // scores and indicators of chains that mix well are mostly uncorrelated after a few
+    private static final int INITIAL_LAG_COUNT = 16;
+
+    // the fewest values in each half of a chain
+    private static final int MIN_SPLIT_SIZE = 4;
+
+    /**
+     * @param chains the values of each chain after its burn-in, without filters. If they
+     *               are of different lengths, the last states of each are used, as many
+     *               as there are in the shortest.
+     * @param pooled the order statistics of all the values of the chains, or null to sort
+     *               them here (as they are if the order statistics are approximate)
+     * @return the diagnostics, or null if the chains are too short to split
+     */
+    static ConvergenceDiagnostics create(DoubleColumn[] chains, OrderStatistics pooled) {
+        int count = Integer.MAX_VALUE;
+        for (DoubleColumn chain : chains) {
+            count = Math.min(count, chain.size() / 2);
+        }
+        if (count < MIN_SPLIT_SIZE) {
+            return null;
+        }
+
+        double[][] splits = new double[chains.length * 2][];
+        boolean isTruncated = false;
+        for (int i = 0; i < chains.length; i++) {
+            int size = chains[i].size();
+            DoubleColumn chain = chains[i].slice(size - 2 * count, size);
+            splits[2 * i] = chain.slice(0, count).toArray();
+            splits[2 * i + 1] = chain.slice(count, 2 * count).toArray();
+            isTruncated |= (size != 2 * count);
+        }
+        if (pooled == null || pooled.isApproximate() || isTruncated) {
+            OrderStatistics[] parts = new OrderStatistics[chains.length];
+            for (int i = 0; i < chains.length; i++) {
+                int size = chains[i].size();
+                parts[i] = new OrderStatistics(chains[i].slice(size - 2 * count, size));
+            }
+            pooled = OrderStatistics.merge(parts);
+        }
+        return new ConvergenceDiagnostics(splits, pooled);
+    }
+
+    /**
+     * @param splits the halves of each chain, which are overwritten
+     * @param pooled the order statistics of all the values in the halves
+     */
+    private ConvergenceDiagnostics(double[][] splits, OrderStatistics pooled) {
+        chainCount = splits.length / 2;
+
+        double[] means = getMeans(splits);
+        double[] variances = getVariances(splits, means);
+        betweenChainVariance = getVariance(means);
+        withinChainVariance = getMean(variances);
+
+        double[] sorted = pooled.getSortedValues();
+        double lowerQuantile = pooled.getQuantile(TAIL_PROBABILITY);
+        double upperQuantile = pooled.getQuantile(1.0 - TAIL_PROBABILITY);
+        double median = pooled.getMedian();
+
+        // the indicators are worked out first as the values are overwritten after
+        double[][] indicators = new double[splits.length][];
+        for (int i = 0; i < splits.length; i++) {
+            indicators[i] = new double[splits[i].length];
+            for (int j = 0; j < splits[i].length; j++) {
+                indicators[i][j] = (splits[i][j] <= lowerQuantile ? 1.0 : 0.0);
+            }
+        }
+        double lowerTailESS = getESS(indicators);
+        for (int i = 0; i < splits.length; i++) {
+            for (int j = 0; j < splits[i].length; j++) {
+                indicators[i][j] = (splits[i][j] <= upperQuantile ? 1.0 : 0.0);
+            }
+        }
+        double upperTailESS = getESS(indicators);
+        tailESS = Math.min(lowerTailESS, upperTailESS);
+
+        // the distances from the median are scored in the indicators' arrays
+        double[][] folded = indicators;
+        for (int i = 0; i < splits.length; i++) {
+            for (int j = 0; j < splits[i].length; j++) {
+                folded[i][j] = Math.abs(splits[i][j] - median);
+            }
+        }
+
+        setNormalScores(splits, folded, sorted, getSortedDistances(sorted, median), median);
+        bulkESS = getESS(splits);
+        double bulkRHat = getRHat(splits);
+        double foldedRHat = getRHat(folded);
+
+        rHat = (Double.isNaN(foldedRHat) ? bulkRHat : Math.max(bulkRHat, foldedRHat));
+    }
+
+    /**
+     * @return the number of chains (before they were split)
+     */
+    public int getChainCount() {
+        return chainCount;
+    }
+
+    /**
+     * @return the rank-normalised split R-hat, which is close to 1 if the chains agree
+     */
+    public double getRHat() {
+        return rHat;
+    }
+
+    /**
+     * @return the ESS of the chains for the location of the trace
+     */
+    public double getBulkESS() {
+        return bulkESS;
+    }
+
+    /**
+     * @return the ESS of the chains for the 5% and 95% quantiles of the trace
+     */
+    public double getTailESS() {
+        return tailESS;
+    }
+
+    /**
+     * @return the variance of the means of the split chains
+     */
+    public double getBetweenChainVariance() {
+        return betweenChainVariance;
+    }
+
+    /**
+     * @return the mean of the variances of the split chains
+     */
+    public double getWithinChainVariance() {
+        return withinChainVariance;
+    }
+
+    /**
+     * Replaces each value, and each distance from the median, by the normal score of its
+     * fractional rank among the sorted values (or distances), ties taking their average
+     * rank.
+     *
+     * The values of each half are sorted (remembering their positions) and the halves are
+     * merged, so their ranks are found in one pass along the sorted values rather than
+     * each value being searched for, which would mostly wait on memory for a long trace.
+     * The scores are then put back in the order of the states. The distances of each half
+     * are sorted by merging those of its values below the median with those above.
+     */
+    private static void setNormalScores(double[][] splits, double[][] folded, double[] sorted,
+                                        double[] sortedDistances, double median) {
+        int count = splits[0].length;
+        long[][] orders = new long[splits.length][count];
+        int[] belowMedianCounts = new int[splits.length];
+        double[] buffer = new double[count];
+        for (int i = 0; i < splits.length; i++) {
+            sortPositions(splits[i], orders[i]);
+            gather(splits[i], orders[i], buffer);
+            gather(folded[i], orders[i], buffer);
+            while (belowMedianCounts[i] < count && splits[i][belowMedianCounts[i]] < median) {
+                belowMedianCounts[i]++;
+            }
+        }
+
+        setNormalScores(splits, sorted);
+
+        long[] foldedOrder = new long[count];
+        for (int i = 0; i < splits.length; i++) {
+            long[] order = orders[i];
+            double[] distances = folded[i];
+            int below = belowMedianCounts[i] - 1;
+            int above = belowMedianCounts[i];
+            for (int j = 0; j < count; j++) {
+                if (above >= count || (below >= 0 && distances[below] < distances[above])) {
+                    buffer[j] = distances[below];
+                    foldedOrder[j] = order[below--];
+                } else {
+                    buffer[j] = distances[above];
+                    foldedOrder[j] = order[above++];
+                }
+            }
+            System.arraycopy(buffer, 0, distances, 0, count);
+
+            scatter(splits[i], order, buffer);
+            System.arraycopy(foldedOrder, 0, order, 0, count);
+        }
+
+        setNormalScores(folded, sortedDistances);
+
+        for (int i = 0; i < splits.length; i++) {
+            scatter(folded[i], orders[i], buffer);
+        }
+    }
+
+    /**
+     * Merges sorted halves, with a heap of the next value of each, to replace their values
+     * by their scores.
+     */
+    private static void setNormalScores(double[][] splits, double[] sorted) {
+        int count = splits[0].length;
+        int[] next = new int[splits.length];
+        double[] heads = new double[splits.length];
+        int[] heap = new int[splits.length];
+        for (int i = 0; i < splits.length; i++) {
+            heads[i] = splits[i][0];
+            heap[i] = i;
+        }
+        int heapSize = splits.length;
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(heap, heapSize, heads, i);
+        }
+
+        int below = 0;
+        int belowOrEqual = 0;
+        double score = 0.0;
+        double previous = Double.NaN;
+        while (heapSize > 0) {
+            int split = heap[0];
+            double value = heads[split];
+            if (value != previous) {
+                below = countValues(sorted, value, belowOrEqual, false);
+                belowOrEqual = countValues(sorted, value, below, true);
+                double rank = (below + 1 + belowOrEqual) * 0.5;
+                score = getNormalQuantile((rank - 0.375) / (sorted.length + 0.25));
+                previous = value;
+            }
+            splits[split][next[split]] = score;
+
+            next[split]++;
+            if (next[split] < count) {
+                heads[split] = splits[split][next[split]];
+            } else {
+                heapSize--;
+                heap[0] = heap[heapSize];
+            }
+            siftDown(heap, heapSize, heads, 0);
+        }
+    }
+
+    private static void siftDown(int[] heap, int heapSize, double[] heads, int index) {
+        int item = heap[index];
+        while (2 * index + 1 < heapSize) {
+            int child = 2 * index + 1;
+            if (child + 1 < heapSize && heads[heap[child + 1]] < heads[heap[child]]) {
+                child++;
+            }
+            if (heads[heap[child]] >= heads[item]) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = item;
+    }
+
+    /**
+     * Puts the values in order, using a buffer of the same length.
+     */
+    private static void gather(double[] values, long[] order, double[] buffer) {
+        for (int j = 0; j < values.length; j++) {
+            buffer[j] = values[(int) order[j]];
+        }
+        System.arraycopy(buffer, 0, values, 0, values.length);
+    }
+
+    /**
+     * Puts values that were put in order back in their positions.
+     */
+    private static void scatter(double[] values, long[] order, double[] buffer) {
+        for (int j = 0; j < values.length; j++) {
+            buffer[(int) order[j]] = values[j];
+        }
+        System.arraycopy(buffer, 0, values, 0, values.length);
+    }
+
+    /**
+     * Puts the positions of the values in the order of the values, each in the low 32 bits
+     * of a key. The high bits are the value rounded to a float (so that the keys can be
+     * sorted as primitives) and the runs of keys with the same float are then sorted by
+     * the values themselves.
+     */
+    private static void sortPositions(double[] values, long[] keys) {
+        for (int i = 0; i < values.length; i++) {
+            int bits = Float.floatToIntBits((float) values[i]);
+            // flip the bits of negative floats so they sort as ints
+            bits ^= (bits >> 31) & 0x7fffffff;
+            keys[i] = ((long) bits << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        int start = 0;
+        while (start < keys.length) {
+            int end = start + 1;
+            while (end < keys.length && (keys[end] >>> 32) == (keys[start] >>> 32)) {
+                end++;
+            }
+            for (int i = start + 1; i < end; i++) {
+                long key = keys[i];
+                double value = values[(int) key];
+                int j = i - 1;
+                while (j >= start && values[(int) keys[j]] > value) {
+                    keys[j + 1] = keys[j];
+                    j--;
+                }
+                keys[j + 1] = key;
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Gallops forward from a count known to be at most the one wanted, which is only a
+     * step or two for values found in order.
+     *
+     * @param equal whether values equal to the value are counted
+     * @return the number of sorted values below (or equal to) a value
+     */
+    private static int countValues(double[] sorted, double value, int from, boolean equal) {
+        int low = from;
+        int high = from;
+        int step = 1;
+        while (high < sorted.length && (sorted[high] < value || (equal && sorted[high] == value))) {
+            low = high + 1;
+            high += step;
+            step <<= 1;
+        }
+        high = Math.min(high, sorted.length);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] < value || (equal && sorted[middle] == value)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the standard normal quantile of a probability, by Acklam's rational
+     * approximation (to a relative error of about 1e-9), which only needs a logarithm in
+     * the tails
+     */
+    private static double getNormalQuantile(double p) {
+        if (p < NORMAL_TAIL) {
+            double q = Math.sqrt(-2.0 * Math.log(p));
+            return getNormalTailQuantile(q);
+        }
+        if (p > 1.0 - NORMAL_TAIL) {
+            double q = Math.sqrt(-2.0 * Math.log(1.0 - p));
+            return -getNormalTailQuantile(q);
+        }
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((A[0] * r + A[1]) * r + A[2]) * r + A[3]) * r + A[4]) * r + A[5]) * q /
+                (((((B[0] * r + B[1]) * r + B[2]) * r + B[3]) * r + B[4]) * r + 1.0);
+    }
+
+    private static double getNormalTailQuantile(double q) {
+        return (((((C[0] * q + C[1]) * q + C[2]) * q + C[3]) * q + C[4]) * q + C[5]) /
+                ((((D[0] * q + D[1]) * q + D[2]) * q + D[3]) * q + 1.0);
+    }
+
+    /**
+     * @return the distances of the sorted values from the median, sorted by merging those
+     * below it with those above
+     */
+    private static double[] getSortedDistances(double[] sorted, double median) {
+        int split = 0;
+        while (split < sorted.length && sorted[split] < median) {
+            split++;
+        }
+        double[] distances = new double[sorted.length];
+        int below = split - 1;
+        int above = split;
+        for (int i = 0; i < distances.length; i++) {
+            if (above >= sorted.length || (below >= 0 && median - sorted[below] < sorted[above] - median)) {
+                distances[i] = median - sorted[below--];
+            } else {
+                distances[i] = sorted[above++] - median;
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * @return the split R-hat, the square root of the ratio of the pooled variance
+     * estimate to the within-chain variance
+     */
+    private static double getRHat(double[][] splits) {
+        int count = splits[0].length;
+        double[] means = getMeans(splits);
+        double withinVariance = getMean(getVariances(splits, means));
+        double pooledVariance = withinVariance * (count - 1) / count + getVariance(means);
+        return Math.sqrt(pooledVariance / withinVariance);
+    }
+
+    /**
+     * The ESS of the chains together, with the autocorrelations of each chain combined
+     * with the variance between them (so chains that disagree give a small ESS), summed
+     * over Geyer's initial monotone sequence as in Stan.
+     */
+    private static double getESS(double[][] splits) {
+        int chainCount = splits.length;
+        int count = splits[0].length;
+        double[] means = getMeans(splits);
+        double withinVariance = getMean(getVariances(splits, means));
+        double pooledVariance = withinVariance * (count - 1) / count + getVariance(means);
+        if (!(pooledVariance > 0.0)) {
+            return Double.NaN;
+        }
+
+        DoubleColumn[] columns = new DoubleColumn[chainCount];
+        for (int i = 0; i < chainCount; i++) {
+            columns[i] = DoubleColumn.wrap(splits[i]);
+        }
+
+        int lagCount = INITIAL_LAG_COUNT;
+        while (true) {
+            int lags = Math.min(lagCount, count);
+            double[] autoCovariances = new double[lags];
+            for (int i = 0; i < chainCount; i++) {
+                double[] sums = AutoCorrelation.sumProducts(columns[i], means[i], 0, count, lags);
+                for (int lag = 0; lag < lags; lag++) {
+                    autoCovariances[lag] += sums[lag] / count / chainCount;
+                }
+            }
+
+            double[] rho = new double[lags];
+            rho[0] = 1.0;
+            double even = 1.0;
+            double odd = 1.0 - (withinVariance - autoCovariances[1]) / pooledVariance;
+            rho[1] = odd;
+            int lag = 1;
+            boolean isClosed = true;
+            while (lag < count - 4 && even + odd > 0.0) {
+                if (lag + 3 >= lags) {
+                    isClosed = false;
+                    break;
+                }
+                even = 1.0 - (withinVariance - autoCovariances[lag + 1]) / pooledVariance;
+                odd = 1.0 - (withinVariance - autoCovariances[lag + 2]) / pooledVariance;
+                if (even + odd >= 0.0) {
+                    rho[lag + 1] = even;
+                    rho[lag + 2] = odd;
+                }
+                lag += 2;
+            }
+
+            if (isClosed || lagCount >= count - 1 || lagCount >= AutoCorrelation.MAX_LAG_COUNT) {
+                int maxLag = lag;
+                if (even > 0.0 && maxLag + 1 < lags) {
+                    rho[maxLag + 1] = even;
+                }
+                for (lag = 1; lag <= maxLag - 3; lag += 2) {
+                    if (rho[lag + 1] + rho[lag + 2] > rho[lag - 1] + rho[lag]) {
+                        rho[lag + 1] = (rho[lag - 1] + rho[lag]) / 2.0;
+                        rho[lag + 2] = rho[lag + 1];
+                    }
+                }
+                double sum = 0.0;
+                for (lag = 0; lag < maxLag; lag++) {
+                    sum += rho[lag];
+                }
+                double totalCount = (double) chainCount * count;
+                double act = -1.0 + 2.0 * sum + (maxLag + 1 < lags ? rho[maxLag + 1] : 0.0);
+                return Math.min(totalCount / act, totalCount * Math.log10(totalCount));
+            }
+            if (lagCount < AutoCorrelation.DIRECT_LAG_COUNT) {
+                lagCount = AutoCorrelation.DIRECT_LAG_COUNT;
+            } else {
+                lagCount = AutoCorrelation.getNextLagCount(lagCount);
+            }
+        }
+    }
+
+    private static double[] getMeans(double[][] splits) {
+        double[] means = new double[splits.length];
+        for (int i = 0; i < splits.length; i++) {
+            means[i] = Moments.sum(splits[i], 0, splits[i].length) / splits[i].length;
+        }
+        return means;
+    }
+
+    private static double[] getVariances(double[][] splits, double[] means) {
+        double[] variances = new double[splits.length];
+        double[] sums = new double[2];
+        for (int i = 0; i < splits.length; i++) {
+            Moments.sumDeviations(splits[i], 0, splits[i].length, means[i], sums);
+            variances[i] = sums[1] / (splits[i].length - 1);
+        }
+        return variances;
+    }
+
+    private static double getMean(double[] values) {
+        return Moments.sum(values, 0, values.length) / values.length;
+    }
+
+    private static double getVariance(double[] values) {
+        double mean = getMean(values);
+        double sum = 0.0;
+        for (double value : values) {
+            sum += (value - mean) * (value - mean);
+        }
+        return sum / (values.length - 1);
+    }
+
+    private final int chainCount;
+    private final double rHat;
+    private final double bulkESS;
+    private final double tailESS;
+    private final double betweenChainVariance;
+    private final double withinChainVariance;
+}
@@ -194,34 +194,33 @@ public class DiscreteContinuousJointDensityPanel extends TraceChartPanel {
             valueMap.put(value, new ArrayList<Double>());
         }
 
-        List<Double> discreteValues = discreteTraceList.getValues(discreteTraceIndex);
-        List<Double> continuousValues = continuousTraceList.getValues(continuousTraceIndex);
+        DoubleColumn discreteValues = DoubleColumn.getValues(discreteTraceList, discreteTraceIndex);
+        DoubleColumn continuousValues = DoubleColumn.getValues(continuousTraceList, continuousTraceIndex);
 
-        int i = 0;
-        for (double value : discreteValues) {
-            valueMap.get((int)value).add(continuousValues.get(i));
-            i++;
+        for (int i = 0; i < discreteValues.size(); i++) {
+            valueMap.get((int) discreteValues.get(i)).add(continuousValues.get(i));
         }
 
         Plot plot;
 
         for (int discreteValue : tc.getFrequencyCounter().getUniqueValues()) {
             List<Double> values = valueMap.get(discreteValue);
-            TraceDistribution td = new TraceDistribution(values, TraceType.REAL);
+            OrderStatistics orderStatistics = new OrderStatistics(values);
+            double[] hpd = orderStatistics.getHPDInterval(0.95);
 
             switch (currentSettings.show) {
                 case VIOLIN:
-                    ViolinPlot violinPlot = new ViolinPlot(true, 0.8, td.getLowerHPD(), td.getUpperHPD(), true, values);
+                    ViolinPlot violinPlot = new BinnedViolinPlot(true, 0.8, hpd[0], hpd[1], true, values);
                     violinPlot.setLineStyle(new BasicStroke(1.0f), getSettings().palette[0]);
                     plot = violinPlot;
 
                     break;
                 case BOX_AND_WHISKER:
-                    double lowerTail = td.getMinimum();
-                    double upperTail = td.getMaximum();
-                    double mean = td.getMean();
+                    double lowerTail = orderStatistics.getMinimum();
+                    double upperTail = orderStatistics.getMaximum();
+                    double mean = orderStatistics.getMean();
 
-                    BoxPlot boxPlot = new BoxPlot(true, 0.6, td.getLowerHPD(), td.getUpperHPD(), lowerTail, upperTail, mean);
+                    BoxPlot boxPlot = new BoxPlot(true, 0.6, hpd[0], hpd[1], lowerTail, upperTail, mean);
                     boxPlot.setLineStyle(new BasicStroke(1.0f), getSettings().palette[0]);
                     boxPlot.setMeanLineStyle(new BasicStroke(2.0f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER), getSettings().palette[0]);
 
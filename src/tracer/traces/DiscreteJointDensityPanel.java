@@ -157,8 +157,8 @@ public class DiscreteJointDensityPanel extends TraceChartPanel {
     }
 
     private void createDiscreteBubblePlot(TraceList traceList1, int traceIndex1, TraceList traceList2, int traceIndex2) {
-        List<Double> values1 = traceList1.getValues(traceIndex1);
-        List<Double> values2 = traceList2.getValues(traceIndex2);
+        DoubleColumn values1 = DoubleColumn.getValues(traceList1, traceIndex1);
+        DoubleColumn values2 = DoubleColumn.getValues(traceList2, traceIndex2);
         int maxCount = Math.max(values1.size(), values2.size());
         int minCount = Math.min(values1.size(), values2.size());
 
@@ -167,14 +167,14 @@ public class DiscreteJointDensityPanel extends TraceChartPanel {
         int k = 0;
         List<Double> samples1 = new ArrayList<Double>();
         for (int i = 0; i < sampleSize; i++) {
-            samples1.add(i, ((Number) values1.get(k)).doubleValue());
+            samples1.add(i, values1.get(k));
             k += minCount / sampleSize;
         }
 
         k = 0;
         List<Double> samples2 = new ArrayList<Double>();
         for (int i = 0; i < sampleSize; i++) {
-            samples2.add(i, ((Number) values2.get(k)).doubleValue());
+            samples2.add(i, values2.get(k));
             k += minCount / sampleSize;
         }
 
@@ -0,0 +1,204 @@
+/*
+ * DoubleColumn.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package tracer.traces;
+
+import dr.inference.trace.TraceList;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read-only view of a range of a primitive double array. Slices and list views share
+ * the array with the column they were made from so none of them copy the values.
+ *
+ * The backing array is exposed by getArray for loops that want to index it directly;
+ * it must not be modified.
+ */
+public final class DoubleColumn {
+
+    public static final DoubleColumn EMPTY = new DoubleColumn(new double[0], 0, 0);
+
+    public DoubleColumn(double[] values, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > values.length) {
+            throw new IndexOutOfBoundsException("offset = " + offset + ", length = " + length
+                    + ", array length = " + values.length);
+        }
+        this.values = values;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public static DoubleColumn wrap(double[] values) {
+        return new DoubleColumn(values, 0, values.length);
+    }
+
+    /**
+     * Returns a column holding the values of a list. If the list is a view of a column
+     * (as returned by asList) then that column is returned, otherwise the values are copied.
+     */
+    public static DoubleColumn valueOf(List<Double> values) {
+        if (values instanceof ColumnList) {
+            return ((ColumnList) values).column;
+        }
+        double[] array = new double[values.size()];
+        int i = 0;
+        for (Double value : values) {
+            array[i] = value;
+            i++;
+        }
+        return wrap(array);
+    }
+
+    /**
+     * @return the values of a trace after the burn-in with any filters applied. This does
+     * not copy the values if the trace list keeps them in columns.
+     */
+    public static DoubleColumn getValues(TraceList traceList, int index) {
+        return valueOf(traceList.getValues(index));
+    }
+
+    /**
+     * @return the values of a trace within the burn-in.
+     */
+    public static DoubleColumn getBurninValues(TraceList traceList, int index) {
+        return valueOf(traceList.getBurninValues(index));
+    }
+
+    /**
+     * Concatenates columns into a single new column.
+     */
+    public static DoubleColumn concatenate(DoubleColumn... columns) {
+        if (columns.length == 1) {
+            return columns[0];
+        }
+        int length = 0;
+        for (DoubleColumn column : columns) {
+            length += column.length;
+        }
+        double[] array = new double[length];
+        int offset = 0;
+        for (DoubleColumn column : columns) {
+            column.copyTo(array, offset);
+            offset += column.length;
+        }
+        return wrap(array);
+    }
+
+    public int size() {
+        return length;
+    }
+
+    public double get(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + length);
+        }
+        return values[offset + index];
+    }
+
+    /**
+     * @return the backing array. The column starts at getOffset() and is size() long.
+     */
+    public double[] getArray() {
+        return values;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public DoubleColumn slice(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > length || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("fromIndex = " + fromIndex + ", toIndex = " + toIndex
+                    + ", Size: " + length);
+        }
+        return new DoubleColumn(values, offset + fromIndex, toIndex - fromIndex);
+    }
+
+    /**
+     * @return a copy of the values
+     */
+    public double[] toArray() {
+        return Arrays.copyOfRange(values, offset, offset + length);
+    }
+
+    public void copyTo(double[] destination, int destinationOffset) {
+        System.arraycopy(values, offset, destination, destinationOffset, length);
+    }
+
+    /**
+     * @return the minimum and maximum value, ignoring NaNs
+     */
+    public double[] getRange() {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = offset; i < offset + length; i++) {
+            if (values[i] < min) {
+                min = values[i];
+            }
+            if (values[i] > max) {
+                max = values[i];
+            }
+        }
+        return new double[]{min, max};
+    }
+
+    /**
+     * @return a read-only list view of the column. Values are boxed as they are read.
+     */
+    public List<Double> asList() {
+        return new ColumnList(this);
+    }
+
+    private static class ColumnList extends AbstractList<Double> implements RandomAccess {
+
+        ColumnList(DoubleColumn column) {
+            this.column = column;
+        }
+
+        @Override
+        public Double get(int index) {
+            return column.get(index);
+        }
+
+        @Override
+        public int size() {
+            return column.length;
+        }
+
+        @Override
+        public List<Double> subList(int fromIndex, int toIndex) {
+            return new ColumnList(column.slice(fromIndex, toIndex));
+        }
+
+        private final DoubleColumn column;
+    }
+
+    private final double[] values;
+    private final int offset;
+    private final int length;
+}
@@ -0,0 +1,287 @@
+/*
+ * FFTTraceCorrelation.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package tracer.traces;
+
+import dr.inference.trace.TraceCorrelation;
+import dr.inference.trace.TraceDistribution;
+import dr.inference.trace.TraceType;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The statistics of a continuous trace, as TraceCorrelation, but with the ACT and ESS
+ * found by AutoCorrelation in O(n log n) rather than lag by lag, and the quantiles and
+ * HPD intervals from the values sorted by Arrays.sort (see OrderStatistics) rather than
+ * by an index heap sort. For traces too long to sort the quantiles and HPD intervals are
+ * approximate, from sketches of the values (see TraceSummary).
+ *
+ * The statistics of the values after a burn-in can also be put together from a
+ * TraceSummary of the whole trace, so that changing the burn-in doesn't mean going over
+ * all the values again.
+ *
+ * TraceCorrelation calculates its statistics when it is constructed so this is
+ * constructed with a single value and then has the statistics filled in (as with the
+ * statistics read by TraceCache).
+ */
+public class FFTTraceCorrelation extends TraceCorrelation {
+
+    public FFTTraceCorrelation(List<Double> values, TraceType traceType, long stepSize, boolean isConstant) {
+        this(traceType, isConstant);
+
+        DoubleColumn column = DoubleColumn.valueOf(values);
+        double[] sorted = column.toArray();
+        Arrays.sort(sorted);
+        if (sorted.length == 0 || Double.isNaN(sorted[sorted.length - 1])) {
+            // TraceDistribution skips NaNs in some statistics and not others
+            setDistribution(new TraceDistribution(values, traceType, isConstant));
+        } else {
+            double[] x = column.getArray();
+            int from = column.getOffset();
+            int to = from + column.size();
+            double average = Moments.sum(x, from, to) / column.size();
+            double[] sums = new double[2];
+            Moments.sumDeviations(x, from, to, average, sums);
+            // the logs are only used if the values are all positive
+            double logSum = (sorted[0] > 0 ? Moments.sumLogs(x, from, to) : Double.NaN);
+            setDistribution(column.get(0), OrderStatistics.wrapSorted(sorted), average, sums[1] / (column.size() < 2 ? 1 : column.size() - 1),
+                    logSum / column.size());
+        }
+
+        if (stepSize > 0 && !isConstant()) {
+            setAutoCorrelation(new AutoCorrelation(column, mean), stepSize);
+        }
+    }
+
+    /**
+     * Puts the statistics of the values after a burn-in together from a summary.
+     *
+     * @param summary the summary of the values of the whole trace
+     * @param values  the values of the whole trace
+     * @param fromRow the first value after the burn-in
+     */
+    FFTTraceCorrelation(TraceSummary summary, DoubleColumn values, int fromRow, TraceType traceType, long stepSize, boolean isConstant) {
+        this(traceType, isConstant);
+
+        OrderStatistics orderStatistics = summary.getOrderStatistics(values, fromRow);
+        double average = summary.getMean(values, fromRow);
+        double logMean = (orderStatistics.getMinimum() > 0 ? summary.getLogMean(values, fromRow) : Double.NaN);
+        setDistribution(values.get(fromRow), orderStatistics, average, summary.getVariance(values, fromRow, average), logMean);
+
+        if (stepSize > 0 && !isConstant()) {
+            setAutoCorrelation(summary.getAutoCorrelation(values, fromRow, mean), stepSize);
+        }
+    }
+
+    /**
+     * Puts the statistics of several chains of the same trace together as if their values
+     * were joined into one: the moments are pooled, the ESS is the sum of the chains' and
+     * the quantiles and HPD intervals are from summaries of their order statistics merged
+     * (see getQuantileSummary), so this takes time in the number of chains rather than
+     * values.
+     *
+     * @param chains          the statistics of each chain, none constant
+     * @param orderStatistics the summaries of the order statistics of the chains merged
+     */
+    FFTTraceCorrelation(TraceCorrelation[] chains, OrderStatistics orderStatistics, TraceType traceType, long stepSize, boolean isConstant) {
+        this(traceType, isConstant);
+
+        long count = 0;
+        double sum = 0.0;
+        for (TraceCorrelation chain : chains) {
+            count += chain.getSize();
+            sum += chain.getSize() * chain.getMean();
+        }
+        double average = sum / count;
+
+        double squareSum = 0.0;
+        double logSum = 0.0;
+        double essSum = 0.0;
+        double errorSum = 0.0;
+        for (TraceCorrelation chain : chains) {
+            double deviation = chain.getMean() - average;
+            squareSum += (chain.getSize() - 1) * chain.getVariance() + chain.getSize() * deviation * deviation;
+            logSum += (chain.hasGeometricMean() ? chain.getSize() * Math.log(chain.getGeometricMean()) : Double.NaN);
+            essSum += chain.getESS();
+            double error = chain.getSize() * chain.getStdErrorOfMean();
+            errorSum += error * error;
+        }
+
+        setDistribution(chains[0].getMean(), orderStatistics, average,
+                squareSum / (count < 2 ? 1 : count - 1), logSum / count);
+
+        if (stepSize > 0 && !isConstant()) {
+            stdErrorOfMean = Math.sqrt(errorSum) / count;
+            ESS = essSum;
+            ACT = stepSize * count / essSum;
+        }
+    }
+
+    private FFTTraceCorrelation(TraceType traceType, boolean isConstant) {
+        super(Collections.singletonList(0.0), traceType, 0, true);
+        if (!traceType.isContinuous()) {
+            throw new IllegalArgumentException("FFTTraceCorrelation is only for continuous traces");
+        }
+        this.isConstant = isConstant;
+        stdErrorOfMean = 0.0;
+        ACT = Double.NaN;
+        ESS = Double.NaN;
+    }
+
+    private void setDistribution(TraceDistribution distribution) {
+        size = distribution.getSize();
+        minimum = distribution.getMinimum();
+        maximum = distribution.getMaximum();
+        mean = distribution.getMean();
+        median = distribution.getMedian();
+        q1 = distribution.getQ1();
+        q3 = distribution.getQ3();
+        hasGeometricMean = distribution.hasGeometricMean();
+        geometricMean = distribution.getGeometricMean();
+        stdError = distribution.getStdError();
+        variance = distribution.getVariance();
+        cpdLower = distribution.getLowerCPD();
+        cpdUpper = distribution.getUpperCPD();
+        hpdLower = distribution.getLowerHPD();
+        hpdUpper = distribution.getUpperHPD();
+        hpdLowerCustom = distribution.getHpdLowerCustom();
+        hpdUpperCustom = distribution.getHpdUpperCustom();
+        isConstant = distribution.isConstant();
+    }
+
+    /**
+     * Sets the statistics as TraceDistribution.analyseDistributionNumeric does.
+     *
+     * @param firstValue      the first of the values, for the statistics of constant values
+     * @param orderStatistics the order statistics of the values
+     * @param logMean         the mean of the logs of the values, used if they are all positive
+     */
+    private void setDistribution(double firstValue, OrderStatistics orderStatistics, double mean, double variance, double logMean) {
+        size = orderStatistics.getSize();
+        minimum = orderStatistics.getMinimum();
+        maximum = orderStatistics.getMaximum();
+        if (maximum == minimum) {
+            isConstant = true;
+        }
+        if (isConstant) {
+            this.mean = firstValue;
+            minimum = firstValue;
+            maximum = firstValue;
+            stdError = 0.0;
+            this.variance = 0.0;
+            return;
+        }
+
+        this.mean = mean;
+        this.variance = variance;
+        stdError = Math.sqrt(variance);
+        if (minimum > 0) {
+            geometricMean = Math.exp(logMean);
+            hasGeometricMean = true;
+        }
+
+        isApproximate = orderStatistics.isApproximate();
+        quantileSummary = new SoftReference<OrderStatistics>(orderStatistics.getSummary(SUMMARY_SIZE));
+        median = orderStatistics.getMedian();
+        cpdLower = orderStatistics.getQuantile(0.025);
+        cpdUpper = orderStatistics.getQuantile(0.975);
+        q1 = orderStatistics.getQuantile(0.25);
+        q3 = orderStatistics.getQuantile(0.75);
+
+        double[] hpd = orderStatistics.getHPDInterval(0.95);
+        hpdLower = hpd[0];
+        hpdUpper = hpd[1];
+        hpd = orderStatistics.getHPDInterval(0.5);
+        hpdLowerCustom = hpd[0];
+        hpdUpperCustom = hpd[1];
+    }
+
+    private void setAutoCorrelation(AutoCorrelation autoCorrelation, long stepSize) {
+        stdErrorOfMean = autoCorrelation.getStdErrorOfMean();
+        ACT = autoCorrelation.getACT(stepSize);
+        ESS = autoCorrelation.getESS(stepSize);
+    }
+
+    /**
+     * @return true if the quantiles and HPD intervals are from a sketch of the values
+     * (see QuantileSketch) and so are approximate
+     */
+    public boolean isApproximate() {
+        return isApproximate;
+    }
+
+    /**
+     * @return true if the statistics are those of a FFTTraceCorrelation with approximate
+     * quantiles and HPD intervals
+     */
+    public static boolean isApproximate(TraceDistribution statistics) {
+        return statistics instanceof FFTTraceCorrelation && ((FFTTraceCorrelation) statistics).isApproximate();
+    }
+
+    /**
+     * @return a summary of the order statistics of the values (see
+     * OrderStatistics.getSummary), or null if the trace is constant or the summary has
+     * been let go to free memory
+     */
+    OrderStatistics getQuantileSummary() {
+        return (quantileSummary != null ? quantileSummary.get() : null);
+    }
+
+    @Override
+    public boolean isConstant() {
+        return isConstant;
+    }
+
+    @Override
+    public double getStdErrorOfMean() {
+        return stdErrorOfMean;
+    }
+
+    @Override
+    public double getACT() {
+        return ACT;
+    }
+
+    @Override
+    public double getESS() {
+        return ESS;
+    }
+
+    // the number of values kept in the summaries of the order statistics, enough for the
+    // quantiles of merged summaries to be within half a sketch's rank error
+    static final int SUMMARY_SIZE = (int) Math.ceil(2.0 / QuantileSketch.getDefaultRankError());
+
+    private boolean isConstant;
+    private boolean isApproximate = false;
+    private double stdErrorOfMean;
+    private double ACT;
+    private double ESS;
+
+    // kept softly as there is one for each trace of each trace list
+    private SoftReference<OrderStatistics> quantileSummary = null;
+}
@@ -34,6 +34,7 @@ import dr.inference.trace.TraceType;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.util.List;
 import java.util.Set;
 
 
@@ -142,17 +143,14 @@ public class FrequencyPanel extends TraceChartPanel {
 
             TraceType traceType = trace.getTraceType();
             if (traceType.isContinuous()) {
-                HistogramPlot histogramPlot = new HistogramPlot(traceList.getValues(traceIndex), currentSettings.minimumBins, td);
-
-                histogramPlot.setLineStroke(new BasicStroke(0.5F));
-                histogramPlot.setPaints(BAR_PAINT, QUANTILE_PAINT);
-
-                if (td != null) {
-                    histogramPlot.setIntervals(td.getUpperHPD(), td.getLowerHPD());
+                List values = traceList.getValues(traceIndex);
+                if (isPreviewed(values)) {
+                    plot = createHistogramPlot(getPreviewValues(values), td);
+                    startFullPlot(values, td);
+                } else {
+                    plot = createHistogramPlot(values, td);
                 }
                 getChartPanel().getChart().setXAxis(new LinearAxis2(Axis.AT_MAJOR_TICK_PLUS, Axis.AT_MAJOR_TICK_PLUS));
-
-                plot = histogramPlot;
             } else if (traceType.isDiscrete()) {
                 ColumnPlot columnPlot;
 
@@ -201,6 +199,35 @@ public class FrequencyPanel extends TraceChartPanel {
         setXLabel(traceList.getTraceName(traceIndex));
     }
 
+    private HistogramPlot createHistogramPlot(List values, TraceCorrelation td) {
+        HistogramPlot histogramPlot = new HistogramPlot(values, currentSettings.minimumBins, td);
+
+        histogramPlot.setLineStroke(new BasicStroke(0.5F));
+        histogramPlot.setPaints(BAR_PAINT, QUANTILE_PAINT);
+
+        if (td != null) {
+            histogramPlot.setIntervals(td.getUpperHPD(), td.getLowerHPD());
+        }
+        return histogramPlot;
+    }
+
+    /**
+     * Makes the histogram of all the values in the background to replace the preview
+     * made from a sample of them.
+     */
+    private void startFullPlot(final List values, final TraceCorrelation td) {
+        startPlotTask(new PlotTask<Plot>() {
+            protected Plot prepare() {
+                return createHistogramPlot(values, td);
+            }
+
+            protected void show(Plot plot) {
+                getChartPanel().getChart().removeAllPlots();
+                getChartPanel().getChart().addPlot(plot);
+            }
+        });
+    }
+
     protected void setBinsComponents(TraceType traceType) {
 
         if (traceType.isContinuous()) {
@@ -35,7 +35,10 @@ import dr.stats.Variate;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A panel that displays a grid of correlation plots for multiple traces
@@ -165,6 +168,7 @@ public class GridJointDensityPanel extends TraceChartPanel {
         getChartPanel().getChart().removeAllPlots();
 
         correlationData.clear();
+        boolean hasPreview = false;
 
         TraceList[] traceLists = getTraceLists();
         for (int i = 0; i < traceLists.length; i++) {
@@ -191,6 +195,9 @@ public class GridJointDensityPanel extends TraceChartPanel {
                         name = i + "-" + name;
 
                     List values = tl.getValues(traceIndex);
+                    if (isPreviewed(values)) {
+                        hasPreview = true;
+                    }
 
                     //collect all traceNames and values while looping here
                     correlationData.add(name, values);
@@ -205,17 +212,8 @@ public class GridJointDensityPanel extends TraceChartPanel {
             //adding this here and not yet combining data for multiple .log files
             //TODO combine for multiple .log files once it's working for a single .log file
 
-            int y = 0;
-            for (String one : correlationData.getTraceNames()) {
-                int x = 0;
-                for (String two : correlationData.getTraceNames()) {
-                    Plot plot = new CorrelationPlot(two, correlationData.getDataForKey(one), correlationData.getDataForKey(two), showPoints);
-                    //plot.setLineStyle(new BasicStroke(2.0f), currentSettings.palette[0]);
-                    plot.setLocation(x, y);
-                    getChartPanel().getChart().addPlot(plot);
-                    x ++;
-                }
-                y ++;
+            for (Plot plot : createCorrelationPlots(getCorrelationValues(true), showPoints)) {
+                getChartPanel().getChart().addPlot(plot);
             }
 
 //            y = 0;
@@ -237,6 +235,59 @@ public class GridJointDensityPanel extends TraceChartPanel {
 
 //        correlationChart.setDimensions(rowCount, columnCount);
 
+        if (hasPreview) {
+            startFullPlots(getCorrelationValues(false), pointsCheckBox.isSelected());
+        }
+    }
+
+    /**
+     * @param preview whether to take a sample of the values of long traces
+     * @return the values of each trace in the order they are plotted, so the plots can be
+     * made in the background while correlationData is set up again
+     */
+    private Map<String, List<Double>> getCorrelationValues(boolean preview) {
+        Map<String, List<Double>> values = new LinkedHashMap<String, List<Double>>();
+        for (String name : correlationData.getTraceNames()) {
+            List<Double> data = correlationData.getDataForKey(name);
+            values.put(name, preview ? getPreviewValues(data) : data);
+        }
+        return values;
+    }
+
+    private List<Plot> createCorrelationPlots(Map<String, List<Double>> values, boolean showPoints) {
+        List<Plot> plots = new ArrayList<Plot>();
+        int y = 0;
+        for (String one : values.keySet()) {
+            int x = 0;
+            for (String two : values.keySet()) {
+                Plot plot = new CorrelationPlot(two, values.get(one), values.get(two), showPoints);
+                //plot.setLineStyle(new BasicStroke(2.0f), currentSettings.palette[0]);
+                plot.setLocation(x, y);
+                plots.add(plot);
+                x ++;
+            }
+            y ++;
+        }
+        return plots;
+    }
+
+    /**
+     * Makes the plots of all the values in the background to replace the previews made
+     * from a sample of them.
+     */
+    private void startFullPlots(final Map<String, List<Double>> values, final boolean showPoints) {
+        startPlotTask(new PlotTask<List<Plot>>() {
+            protected List<Plot> prepare() {
+                return createCorrelationPlots(values, showPoints);
+            }
+
+            protected void show(List<Plot> plots) {
+                getChartPanel().getChart().removeAllPlots();
+                for (Plot plot : plots) {
+                    getChartPanel().getChart().addPlot(plot);
+                }
+            }
+        });
     }
 
     // Called by exportDataTable
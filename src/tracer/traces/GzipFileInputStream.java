@@ -0,0 +1,596 @@
+/*
+ * GzipFileInputStream.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package tracer.traces;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a gzip compressed file, inflating it on several threads where the file allows.
+ *
+ * A gzip file is a sequence of one or more members, each of which can be inflated on its
+ * own. Block gzip (BGZF) files say how long each member is in its header, so they are
+ * split into runs of members of about TASK_SIZE bytes that are inflated in parallel. In
+ * other files the members are found by scanning ahead for gzip headers and runs starting
+ * at each candidate are inflated in parallel. A candidate that is not really the start of
+ * a member just has its output thrown away, as the output of a run is only used if the
+ * previous run ended exactly where it starts. The CRC of each member is checked.
+ *
+ * A file with a single member (as written by gzip) can only be inflated in sequence. This
+ * is done on the thread reading the stream, which with LogFileParser still leaves the
+ * parsing to the worker threads.
+ */
+public class GzipFileInputStream extends InputStream {
+
+    // the compressed size of the runs of members inflated by each task
+    private static final int TASK_SIZE = 1 << 20;
+    // runs that inflate to more than this are left to be inflated in sequence
+    private static final int MAX_TASK_OUTPUT = 16 << 20;
+    private static final int MAX_TASKS = 2 * LogFileParser.THREAD_COUNT;
+
+    // how far ahead of the current position to scan for gzip headers
+    private static final long SCAN_AHEAD = 256L << 20;
+    private static final int SCAN_BLOCK_SIZE = 4 << 20;
+
+    private static final int READ_SIZE = 1 << 16;
+    private static final int STREAM_BLOCK_SIZE = 1 << 20;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    // returned by nextBoundary
+    private static final long NOT_YET = -1;
+    private static final long END = -2;
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(LogFileParser.THREAD_COUNT, new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "GzipFileInputStream-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+        private final AtomicInteger threadNumber = new AtomicInteger(0);
+    });
+
+    /**
+     * @return true if the file starts with the gzip magic number
+     */
+    public static boolean isGzip(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Opens a file, inflating it as it is read if it is gzip compressed.
+     */
+    public static InputStream open(File file) throws IOException {
+        if (isGzip(file)) {
+            return new GzipFileInputStream(file);
+        }
+        return new FileInputStream(file);
+    }
+
+    /**
+     * Opens a text file (in the platform's default encoding, as FileReader does),
+     * inflating it as it is read if it is gzip compressed.
+     */
+    public static Reader openReader(File file) throws IOException {
+        return new InputStreamReader(open(file));
+    }
+
+    public GzipFileInputStream(File file) throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "r");
+        channel = randomAccessFile.getChannel();
+        length = channel.size();
+        if (!isMemberStart(0)) {
+            randomAccessFile.close();
+            throw new IOException("Not in gzip format");
+        }
+        isBlockGzip = getBlockSize(0) >= 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (buffer == null || bufferOffset == bufferLength) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, bufferLength - bufferOffset);
+        System.arraycopy(buffer, bufferOffset, b, off, count);
+        bufferOffset += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<Run> future : tasks.values()) {
+            future.cancel(true);
+        }
+        tasks.clear();
+        if (streaming != null) {
+            streaming.end();
+            streaming = null;
+        }
+        randomAccessFile.close();
+    }
+
+    /**
+     * Fills the buffer with the next inflated bytes.
+     *
+     * @return false at the end of the file
+     */
+    private boolean nextBlock() throws IOException {
+        while (true) {
+            if (streaming != null) {
+                if (streamBuffer == null) {
+                    streamBuffer = new byte[STREAM_BLOCK_SIZE];
+                }
+                int count = streaming.inflate(streamBuffer, 0, streamBuffer.length);
+                if (count > 0) {
+                    setBuffer(streamBuffer, count);
+                    submitTasks();
+                    return true;
+                }
+                position = streaming.getEnd();
+                streaming = null;
+            }
+
+            submitTasks();
+
+            // tasks that start before the position started at something that looked
+            // like a gzip header but was inside a member
+            Iterator<Map.Entry<Long, Future<Run>>> iterator = tasks.headMap(position).entrySet().iterator();
+            while (iterator.hasNext()) {
+                iterator.next().getValue().cancel(true);
+                iterator.remove();
+            }
+
+            if (position >= length || !isMemberStart(position)) {
+                // anything after the last member is ignored, as GZIPInputStream does
+                return false;
+            }
+
+            Future<Run> future = tasks.remove(position);
+            if (future != null) {
+                Run run = getRun(future);
+                if (run != null && run.output != null) {
+                    setBuffer(run.output, run.outputLength);
+                    position = run.end;
+                    return true;
+                }
+            }
+
+            // no task started here, or it was too big, so inflate it here
+            streaming = new MemberInflater(position);
+        }
+    }
+
+    private void setBuffer(byte[] buffer, int length) {
+        this.buffer = buffer;
+        bufferOffset = 0;
+        bufferLength = length;
+    }
+
+    private Run getRun(Future<Run> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException("Reading interrupted");
+        } catch (ExecutionException ee) {
+            // inflated again in sequence, which will report the error if there is one
+            return null;
+        }
+    }
+
+    /**
+     * Starts tasks to inflate the runs of members ahead of the current position.
+     */
+    private void submitTasks() throws IOException {
+        while (tasks.size() < MAX_TASKS) {
+            if (nextStart < 0) {
+                nextStart = nextBoundary();
+                if (nextStart < 0) {
+                    return;
+                }
+            }
+            long stop = nextBoundary();
+            if (stop == NOT_YET) {
+                // the end of the run is not known yet
+                return;
+            }
+
+            final long start = nextStart;
+            final long end = (stop == END ? length : stop);
+            if (start >= position) {
+                tasks.put(start, executor.submit(new Callable<Run>() {
+                    public Run call() throws Exception {
+                        return inflateRun(start, end);
+                    }
+                }));
+            }
+            nextStart = stop;
+        }
+    }
+
+    /**
+     * @return the start of the next run of members, NOT_YET if it has not been found
+     * within the look ahead or END if there are no more
+     */
+    private long nextBoundary() throws IOException {
+        if (isBlockGzip) {
+            if (blockPosition >= length) {
+                return END;
+            }
+            long start = blockPosition;
+            while (blockPosition < length && blockPosition - start < TASK_SIZE) {
+                int blockSize = getBlockSize(blockPosition);
+                if (blockSize < 0) {
+                    // not block gzip after all so leave the rest as one run
+                    blockPosition = length;
+                } else {
+                    blockPosition += blockSize;
+                }
+            }
+            return start;
+        }
+
+        if (lastBoundary < 0) {
+            lastBoundary = 0;
+            return 0;
+        }
+
+        while (true) {
+            while (!candidates.isEmpty()) {
+                long candidate = candidates.poll();
+                if (candidate >= lastBoundary + TASK_SIZE) {
+                    lastBoundary = candidate;
+                    return candidate;
+                }
+            }
+            if (scanPosition >= length) {
+                return END;
+            }
+            long limit = (streaming != null ? streaming.getInputPosition() : position) + SCAN_AHEAD;
+            if (scanPosition >= limit) {
+                return NOT_YET;
+            }
+            scan();
+        }
+    }
+
+    /**
+     * Scans the next block of the file for the headers of members. The header fields
+     * after the magic number are checked to reduce the number of false candidates.
+     */
+    private void scan() throws IOException {
+        int headerLength = 10;
+        ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(SCAN_BLOCK_SIZE + headerLength, length - scanPosition));
+        readFully(bytes, scanPosition);
+        int count = bytes.position();
+        for (int i = 0; i + headerLength <= count && i < SCAN_BLOCK_SIZE; i++) {
+            if (bytes.get(i) == (byte) 0x1f && bytes.get(i + 1) == (byte) 0x8b && bytes.get(i + 2) == 8 &&
+                    (bytes.get(i + 3) & 0xe0) == 0) {
+                int extraFlags = bytes.get(i + 8) & 0xff;
+                int os = bytes.get(i + 9) & 0xff;
+                if ((extraFlags == 0 || extraFlags == 2 || extraFlags == 4) && (os <= 13 || os == 255)) {
+                    long candidate = scanPosition + i;
+                    if (candidate > lastBoundary) {
+                        candidates.add(candidate);
+                    }
+                }
+            }
+        }
+        scanPosition += Math.min(SCAN_BLOCK_SIZE, count);
+        if (count < headerLength + SCAN_BLOCK_SIZE) {
+            // a header can't start in the last few bytes
+            scanPosition = length;
+        }
+    }
+
+    /**
+     * Inflates the members from start until one ends at or after end.
+     *
+     * @return the inflated run, which has no output if it was more than MAX_TASK_OUTPUT
+     */
+    private Run inflateRun(long start, long end) throws IOException {
+        byte[] output = new byte[Math.min(MAX_TASK_OUTPUT, 4 * (int) Math.min(Integer.MAX_VALUE / 4, end - start))];
+        int outputLength = 0;
+
+        long memberStart = start;
+        do {
+            MemberInflater inflater = new MemberInflater(memberStart);
+            try {
+                while (true) {
+                    if (outputLength == output.length) {
+                        if (output.length >= MAX_TASK_OUTPUT) {
+                            return new Run(start, -1, null, 0);
+                        }
+                        output = java.util.Arrays.copyOf(output, Math.min(MAX_TASK_OUTPUT, 2 * output.length));
+                    }
+                    int count = inflater.inflate(output, outputLength, output.length - outputLength);
+                    if (count < 0) {
+                        break;
+                    }
+                    outputLength += count;
+                    if (Thread.interrupted()) {
+                        throw new InterruptedIOException();
+                    }
+                }
+            } finally {
+                inflater.end();
+            }
+            memberStart = inflater.getEnd();
+        } while (memberStart < end && isMemberStart(memberStart));
+
+        return new Run(start, memberStart, output, outputLength);
+    }
+
+    private boolean isMemberStart(long position) throws IOException {
+        if (position + 10 > length) {
+            return false;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(3);
+        readFully(bytes, position);
+        return bytes.get(0) == (byte) 0x1f && bytes.get(1) == (byte) 0x8b && bytes.get(2) == 8;
+    }
+
+    /**
+     * @return the total size of the BGZF block at the position, or -1 if it isn't one
+     */
+    private int getBlockSize(long position) throws IOException {
+        if (position + 18 > length) {
+            return -1;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(18);
+        readFully(bytes, position);
+        if (bytes.get(0) != (byte) 0x1f || bytes.get(1) != (byte) 0x8b || bytes.get(2) != 8 ||
+                (bytes.get(3) & FEXTRA) == 0 || bytes.get(12) != 'B' || bytes.get(13) != 'C' ||
+                bytes.get(14) != 2 || bytes.get(15) != 0) {
+            return -1;
+        }
+        return ((bytes.get(16) & 0xff) | ((bytes.get(17) & 0xff) << 8)) + 1;
+    }
+
+    private void readFully(ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            int count = channel.read(bytes, position + bytes.position());
+            if (count < 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * The output of a task: the inflated members from start up to end.
+     */
+    private static class Run {
+        Run(long start, long end, byte[] output, int outputLength) {
+            this.start = start;
+            this.end = end;
+            this.output = output;
+            this.outputLength = outputLength;
+        }
+
+        final long start;
+        final long end;
+        final byte[] output;
+        final int outputLength;
+    }
+
+    /**
+     * Inflates a single member, reading it from the file as needed.
+     */
+    private class MemberInflater {
+
+        MemberInflater(long start) throws IOException {
+            inputPosition = start;
+            readHeader();
+            inflater.setInput(input, inputOffset, inputLength - inputOffset);
+            inputOffset = inputLength;
+        }
+
+        /**
+         * @return the number of bytes inflated, or -1 at the end of the member
+         */
+        int inflate(byte[] b, int off, int len) throws IOException {
+            if (end >= 0) {
+                return -1;
+            }
+            try {
+                while (true) {
+                    int count = inflater.inflate(b, off, len);
+                    if (count > 0) {
+                        crc.update(b, off, count);
+                        size += count;
+                        return count;
+                    }
+                    if (inflater.finished()) {
+                        inputOffset = inputLength - inflater.getRemaining();
+                        readTrailer();
+                        end();
+                        return -1;
+                    }
+                    if (inflater.needsDictionary()) {
+                        throw new IOException("Corrupt gzip file: a dictionary is needed");
+                    }
+                    if (inflater.needsInput()) {
+                        fill();
+                        if (inputLength == 0) {
+                            throw new EOFException("Unexpected end of gzip file");
+                        }
+                        inflater.setInput(input, 0, inputLength);
+                        inputOffset = inputLength;
+                    }
+                }
+            } catch (DataFormatException dfe) {
+                throw new IOException("Corrupt gzip file: " + dfe.getMessage());
+            }
+        }
+
+        /**
+         * @return the position just after the member, once it has been inflated
+         */
+        long getEnd() {
+            return end;
+        }
+
+        /**
+         * @return how far through the file the member has been read
+         */
+        long getInputPosition() {
+            return inputPosition + inputOffset;
+        }
+
+        void end() {
+            inflater.end();
+        }
+
+        private void readHeader() throws IOException {
+            if (readByte() != 0x1f || readByte() != 0x8b || readByte() != 8) {
+                throw new IOException("Not in gzip format");
+            }
+            int flags = readByte();
+            for (int i = 0; i < 6; i++) {
+                // modification time, extra flags and operating system
+                readByte();
+            }
+            if ((flags & FEXTRA) != 0) {
+                int extraLength = readByte() | (readByte() << 8);
+                for (int i = 0; i < extraLength; i++) {
+                    readByte();
+                }
+            }
+            if ((flags & FNAME) != 0) {
+                while (readByte() != 0) {
+                    // skip the file name
+                }
+            }
+            if ((flags & FCOMMENT) != 0) {
+                while (readByte() != 0) {
+                    // skip the comment
+                }
+            }
+            if ((flags & FHCRC) != 0) {
+                readByte();
+                readByte();
+            }
+        }
+
+        private void readTrailer() throws IOException {
+            long expectedCrc = readInt() & 0xffffffffL;
+            long expectedSize = readInt() & 0xffffffffL;
+            if (expectedCrc != crc.getValue() || expectedSize != (size & 0xffffffffL)) {
+                throw new IOException("Corrupt gzip file: the check sum does not match");
+            }
+            end = inputPosition + inputOffset;
+        }
+
+        private int readInt() throws IOException {
+            return readByte() | (readByte() << 8) | (readByte() << 16) | (readByte() << 24);
+        }
+
+        private int readByte() throws IOException {
+            if (inputOffset == inputLength) {
+                fill();
+                if (inputLength == 0) {
+                    throw new EOFException("Unexpected end of gzip file");
+                }
+            }
+            int b = input[inputOffset] & 0xff;
+            inputOffset++;
+            return b;
+        }
+
+        /**
+         * Reads the next part of the file into the input buffer.
+         */
+        private void fill() throws IOException {
+            inputPosition += inputLength;
+            ByteBuffer bytes = ByteBuffer.wrap(input);
+            readFully(bytes, inputPosition);
+            inputLength = bytes.position();
+            inputOffset = 0;
+        }
+
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] input = new byte[READ_SIZE];
+        private long inputPosition;
+        private int inputOffset = 0;
+        private int inputLength = 0;
+        private long size = 0;
+        private long end = -1;
+    }
+
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final long length;
+    private final boolean isBlockGzip;
+
+    // the start of the next member to be read
+    private long position = 0;
+    private MemberInflater streaming = null;
+    private byte[] streamBuffer = null;
+
+    private byte[] buffer = null;
+    private int bufferOffset = 0;
+    private int bufferLength = 0;
+
+    private final TreeMap<Long, Future<Run>> tasks = new TreeMap<Long, Future<Run>>();
+    private long nextStart = -1;
+
+    // for finding the members
+    private long blockPosition = 0;
+    private long lastBoundary = -1;
+    private long scanPosition = 0;
+    private final ArrayDeque<Long> candidates = new ArrayDeque<Long>();
+}
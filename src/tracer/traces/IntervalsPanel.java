@@ -174,7 +174,7 @@ public class IntervalsPanel extends TraceChartPanel {
 
                         switch (currentSettings.show) {
                             case VIOLIN:
-                                plot = new ViolinPlot(true, 0.6, lower, upper, true, tl.getValues(traceIndex), DEFAULT_KDE_BINS);
+                                plot = new BinnedViolinPlot(true, 0.6, lower, upper, true, tl.getValues(traceIndex), DEFAULT_KDE_BINS);
                                 plot.setLineStyle(new BasicStroke(1.0f), BAR_PAINT);
                                 break;
                             case BOX_AND_WHISKER:
@@ -190,6 +190,10 @@ public class IntervalsPanel extends TraceChartPanel {
                                 break;
                         }
 
+                        if (FFTTraceCorrelation.isApproximate(trace.getTraceStatistics())) {
+                            // the HPD interval is from a sketch of the values
+                            name += " (approx. HPD)";
+                        }
                         plot.setName(name);
 
                     } else if (traceType.isDiscrete()) {
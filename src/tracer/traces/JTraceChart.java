@@ -27,13 +27,22 @@ package tracer.traces;
 
 import dr.app.gui.chart.Axis;
 import dr.app.gui.chart.JChart;
+import dr.app.gui.chart.LinearAxis;
 import dr.app.gui.chart.Plot;
 import dr.stats.Variate;
 
+import javax.swing.*;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Todo: Multiple levels of inheritence should be discouraged.
@@ -44,10 +53,29 @@ public class JTraceChart extends JChart {
 
     private static final int SAMPLE_POINTS = 1000;
 
+    // traces with more values than this per pixel column are drawn decimated
+    private static final int DECIMATION_VALUES_PER_PIXEL = 4;
+    // traces with more values than this find the extremes in each pixel column with a pyramid
+    private static final int PYRAMID_VALUE_COUNT = 1 << 16;
+
+    private static final ExecutorService pyramidExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "TracePyramids");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // drags narrower than this are taken as clicks rather than a state window to zoom to
+    private static final int MIN_ZOOM_PIXELS = 4;
+
     private boolean useSample = false;
     private boolean isLinePlot = true;
     private static final int BURNIN_TRANSLUCENCY = 72;
 
+    private static final Stroke LINE_STROKE = new BasicStroke(0.5f);
+    private static final Stroke POINT_STROKE = new BasicStroke(2.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_MITER);
+    private static final Paint DRAG_PAINT = new Color(0, 0, 128, 32);
+
     private class Trace {
         long stateStart;
         long stateStep;
@@ -55,10 +83,15 @@ public class JTraceChart extends JChart {
         int sampleCount;
         int sampleStep;
 
-        List<Double> states = new ArrayList<Double>();
-        List<Double> values;
+        // the values are a view of the trace's column so the chart does not copy them
+        // and the states are calculated from the start and step.
+        DoubleColumn values;
+
+        // built in the background when the trace is first drawn and kept while it is shown
+        MinMaxPyramid pyramid;
+        boolean isPyramidStarted = false;
 
-        Trace(long stateStart, long stateStep, List<Double> values) {
+        Trace(long stateStart, long stateStep, DoubleColumn values) {
 
             this.stateStart = stateStart;
             this.stateStep = stateStep;
@@ -71,12 +104,109 @@ public class JTraceChart extends JChart {
                 sampleStep *= 2;
                 sampleCount = values.size() / sampleStep;
             }
+        }
+
+        // the indices of the values drawn when the trace is decimated, and the mapping to
+        // the plot they were chosen for
+        int[] decimatedIndices;
+        int decimatedCount;
+        double decimatedX0 = Double.NaN;
+        double decimatedXn = Double.NaN;
+        Rectangle2D decimatedBounds;
+
+        double getState(int index) {
+            return stateStart + (double) index * stateStep;
+        }
+
+        /**
+         * Picks the values to draw so that no more than a few are drawn for each pixel
+         * column of the plot: the first, the lowest, the highest and the last value in the
+         * column, in order. Drawn as a line these look the same as all the values would, so
+         * no excursion is hidden however many values there are. The values off the plot on
+         * either side are kept as one column each so the line still runs to the edge, and
+         * a zoomed in plot only draws what is in view.
+         *
+         * The choice only depends on where the states fall on the x axis so it is kept
+         * until that or the plot bounds change.
+         *
+         * @param x0 the x pixel of the first value
+         * @param xn the x pixel of the last value
+         * @return true if the trace is decimated, false if it should be drawn in full
+         */
+        boolean decimate(double x0, double xn, Rectangle2D bounds) {
+            int n = values.size();
+            if (n < 2 || bounds == null || !(xn > x0)) {
+                return false;
+            }
+            double left = Math.floor(bounds.getMinX());
+            double right = Math.ceil(bounds.getMaxX());
+            int columnCount = (int) (right - left) + 2;
+            if (n <= columnCount * DECIMATION_VALUES_PER_PIXEL) {
+                return false;
+            }
+            if (decimatedIndices != null && x0 == decimatedX0 && xn == decimatedXn && bounds.equals(decimatedBounds)) {
+                return true;
+            }
+
+            double dx = (xn - x0) / (n - 1);
+            if (decimatedIndices == null || decimatedIndices.length < columnCount * 4) {
+                decimatedIndices = new int[columnCount * 4];
+            }
+            decimatedCount = 0;
+
+            int[] extremes = new int[2];
+
+            int from = 0;
+            for (int column = 0; column < columnCount && from < n; column++) {
+                // the first index whose pixel is past the column
+                int to;
+                if (column == columnCount - 1) {
+                    to = n;
+                } else {
+                    double index = Math.ceil((left + column - x0) / dx);
+                    to = (int) Math.max(from, Math.min(n, index));
+                }
+                if (to > from) {
+                    addColumn(from, to, extremes);
+                    from = to;
+                }
+            }
+
+            decimatedX0 = x0;
+            decimatedXn = xn;
+            decimatedBounds = (Rectangle2D) bounds.clone();
+            return true;
+        }
 
-            double ix = stateStart;
-            for (int j = 0; j < values.size(); j++) {
-                this.states.add(j, ix);
-                ix += stateStep;
+        private void addColumn(int from, int to, int[] extremes) {
+            int min = from;
+            int max = from;
+            if (pyramid != null) {
+                pyramid.findExtremes(from, to, extremes);
+                min = extremes[0];
+                max = extremes[1];
+            } else {
+                double[] array = values.getArray();
+                int offset = values.getOffset();
+                for (int i = from + 1; i < to; i++) {
+                    double value = array[offset + i];
+                    if (value < array[offset + min]) {
+                        min = i;
+                    } else if (value > array[offset + max]) {
+                        max = i;
+                    }
+                }
+            }
+            addIndex(from);
+            addIndex(Math.min(min, max));
+            addIndex(Math.max(min, max));
+            addIndex(to - 1);
+        }
 
+        private void addIndex(int index) {
+            if (decimatedCount == 0 || decimatedIndices[decimatedCount - 1] != index) {
+                decimatedIndices[decimatedCount] = index;
+                decimatedCount++;
             }
         }
     }
@@ -84,8 +214,71 @@ public class JTraceChart extends JChart {
     private final ArrayList<Trace> traces = new ArrayList<Trace>();
     private final ArrayList<Trace> burninTraces = new ArrayList<Trace>();
 
+    private final ChartRaster raster = new ChartRaster(this);
+    private final List<Future<?>> pyramidFutures = new ArrayList<Future<?>>();
+
+    // while zoomed in the x axis is replaced by one for the state window
+    private Axis zoomAxis = null;
+    private Axis unzoomedXAxis = null;
+
     public JTraceChart(Axis xAxis, Axis yAxis) {
         super(xAxis, yAxis);
+
+        // drag across the plot to zoom in to a window of states, drag with shift down to
+        // pan and double click to zoom out again
+        MouseAdapter zoomListener = new MouseAdapter() {
+            public void mousePressed(MouseEvent e) {
+                if (!hasContents() || getPlotBounds() == null) {
+                    return;
+                }
+                dragStart = e.getX();
+                isPanning = e.isShiftDown();
+                panMinState = getXAxis().getMinAxis();
+                panMaxState = getXAxis().getMaxAxis();
+            }
+
+            public void mouseDragged(MouseEvent e) {
+                if (dragStart < 0) {
+                    return;
+                }
+                Rectangle2D bounds = getPlotBounds();
+                if (isPanning) {
+                    double shift = (dragStart - e.getX()) * (panMaxState - panMinState) / bounds.getWidth();
+                    zoomTo(panMinState + shift, panMaxState + shift);
+                } else {
+                    double x1 = Math.max(bounds.getMinX(), Math.min(dragStart, e.getX()));
+                    double x2 = Math.min(bounds.getMaxX(), Math.max(dragStart, e.getX()));
+                    setDragRectangle(new Rectangle2D.Double(x1, bounds.getMinY(), Math.max(0.0, x2 - x1), bounds.getHeight()));
+                    repaint();
+                }
+            }
+
+            public void mouseReleased(MouseEvent e) {
+                Rectangle2D dragRectangle = getDragRectangle();
+                if (dragRectangle != null) {
+                    setDragRectangle(null);
+                    if (dragRectangle.getWidth() >= MIN_ZOOM_PIXELS) {
+                        zoomTo(getStateAt(dragRectangle.getMinX()), getStateAt(dragRectangle.getMaxX()));
+                    } else {
+                        repaint();
+                    }
+                }
+                dragStart = -1;
+            }
+
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    resetZoom();
+                }
+            }
+
+            private int dragStart = -1;
+            private boolean isPanning;
+            private double panMinState;
+            private double panMaxState;
+        };
+        addMouseListener(zoomListener);
+        addMouseMotionListener(zoomListener);
     }
 
     public void setUseSample(boolean useSample) {
@@ -106,17 +299,16 @@ public class JTraceChart extends JChart {
      * @param paint
      * @return double[4] : minX, maxX, minY, maxY
      */
-    public double[] addTrace(String name, long stateStart, long stateStep, List<Double> values, List<Double> burninValues, Paint paint) {
+    public double[] addTrace(String name, long stateStart, long stateStep, DoubleColumn values, DoubleColumn burninValues, Paint paint) {
         double[] minMax = new double[4];
 
-//        Variate.D yd = new Variate.D(values);
-        Variate.D yData = new Variate.D(values);
+        double[] range = values.getRange();
 
         // minX, maxX, minY, maxY
         minMax[0] = 0;
         minMax[1] = stateStart + (values.size() * stateStep) - stateStep;
-        minMax[2] = yData.getMin();
-        minMax[3] = yData.getMax();
+        minMax[2] = range[0];
+        minMax[3] = range[1];
         getXAxis().addRange(minMax[0], minMax[1]);
         getYAxis().addRange(minMax[2], minMax[3]);
 
@@ -126,10 +318,12 @@ public class JTraceChart extends JChart {
             burninTraces.add(new Trace(0, stateStep, burninValues));
         }
 
-        Variate.D xData = new Variate.D(trace.states);
         // must setData(xData, yData), otherwise ChartSetupDialog will crash,
         // because applySettings(JChart chart) need xData and yData to avoid
-        // to reset minData and maxData to INF.
+        // to reset minData and maxData to INF. Only the range of the data is
+        // used so just the extremes are given rather than a copy of the trace.
+        Variate.D xData = new Variate.D(new Double[]{(double) stateStart, minMax[1]});
+        Variate.D yData = new Variate.D(new Double[]{range[0], range[1]});
         Plot plot = new Plot.AbstractPlot(xData, yData) {
             // create a dummy plot to store paint styles
             protected void paintData(Graphics2D g2, Variate.N xData, Variate.N yData) {
@@ -154,17 +348,61 @@ public class JTraceChart extends JChart {
         repaint();
     }
 
-    public List<Double> getTraceStates(int index) {
+    /**
+     * Shows just the states from minState to maxState. Long traces are drawn from their
+     * pyramids (see MinMaxPyramid) so this stays quick however many states there are.
+     */
+    public void zoomTo(double minState, double maxState) {
+        if (!(maxState > minState)) {
+            return;
+        }
+        if (zoomAxis == null) {
+            unzoomedXAxis = getXAxis();
+            zoomAxis = new LinearAxis(Axis.AT_VALUE, Axis.AT_VALUE);
+            setXAxis(zoomAxis);
+        }
+        zoomAxis.setManualRange(minState, maxState);
+        zoomAxis.setRange(minState, maxState);
+        recalibrate();
+        repaint();
+    }
+
+    /**
+     * Shows all the states again after zoomTo.
+     */
+    public void resetZoom() {
+        if (zoomAxis != null) {
+            setXAxis(unzoomedXAxis);
+            zoomAxis = null;
+            unzoomedXAxis = null;
+            recalibrate();
+            repaint();
+        }
+    }
+
+    private double getStateAt(double x) {
+        Rectangle2D bounds = getPlotBounds();
+        double minState = getXAxis().getMinAxis();
+        double maxState = getXAxis().getMaxAxis();
+        return minState + (x - bounds.getMinX()) * (maxState - minState) / bounds.getWidth();
+    }
+
+    public double getTraceState(int index, int valueIndex) {
         Trace trace = traces.get(index);
-        return trace.states;
+        return trace.getState(valueIndex);
     }
 
-    public List<Double> getTraceValues(int index) {
+    public DoubleColumn getTraceValues(int index) {
         Trace trace = traces.get(index);
         return trace.values;
     }
 
     public void removeAllTraces() {
+        resetZoom();
+        for (Future<?> future : pyramidFutures) {
+            future.cancel(true);
+        }
+        pyramidFutures.clear();
         traces.clear();
         burninTraces.clear();
         getXAxis().setRange(Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
@@ -182,11 +420,26 @@ public class JTraceChart extends JChart {
     }
 
     protected void paintContents(Graphics2D g2) {
+        // the traces are kept as an image so repaints that change nothing just copy it
+        raster.paint(g2, new ChartRaster.Layer() {
+            public void paint(Graphics2D g2) {
+                paintTraces(g2);
+            }
+        }, useSample, isLinePlot);
+
+        Rectangle2D dragRectangle = getDragRectangle();
+        if (dragRectangle != null) {
+            g2.setPaint(DRAG_PAINT);
+            g2.fill(dragRectangle);
+        }
+    }
+
+    private void paintTraces(Graphics2D g2) {
 
         if (!isLinePlot) {
-            g2.setStroke(new BasicStroke(2.0f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_MITER));
+            g2.setStroke(POINT_STROKE);
         } else {
-            g2.setStroke(new BasicStroke(0.5f));
+            g2.setStroke(LINE_STROKE);
         }
 
 
@@ -196,7 +449,7 @@ public class JTraceChart extends JChart {
             int sampleFrequency = 1;
 
             if (useSample) {
-                sampleFrequency = trace.states.size() / trace.sampleCount;
+                sampleFrequency = trace.values.size() / trace.sampleCount;
             }
 
             paintTrace(g2, trace, getPlot(i).getLineColor(), sampleFrequency);
@@ -212,7 +465,21 @@ public class JTraceChart extends JChart {
     }
 
     private void paintTrace(Graphics2D g2, Trace trace, Paint paint, int sampleFrequency) {
-        float x = (float) transformX(trace.states.get(0));
+        if (sampleFrequency == 1 && trace.pyramid == null && trace.values.size() > PYRAMID_VALUE_COUNT) {
+            // a preview from a sample of the values until the pyramid has been built
+            startPyramid(trace);
+            sampleFrequency = trace.values.size() / trace.sampleCount;
+        }
+        if (sampleFrequency == 1) {
+            double x0 = transformX(trace.getState(0));
+            double xn = transformX(trace.getState(trace.values.size() - 1));
+            if (trace.decimate(x0, xn, getPlotBounds())) {
+                paintDecimatedTrace(g2, trace, paint);
+                return;
+            }
+        }
+
+        float x = (float) transformX(trace.getState(0));
         float y = (float) transformY(trace.values.get(0));
 
         GeneralPath path = new GeneralPath();
@@ -223,9 +490,9 @@ public class JTraceChart extends JChart {
 
         int k = sampleFrequency;
 
-        for (int j = 1; j < trace.states.size(); j++) {
+        for (int j = 1; j < trace.values.size(); j++) {
 
-            x = (float) transformX(trace.states.get(k));
+            x = (float) transformX(trace.getState(k));
             y = (float) transformY(trace.values.get(k));
 
             if (!isLinePlot) {
@@ -234,7 +501,7 @@ public class JTraceChart extends JChart {
             path.lineTo(x, y);
 
             k += sampleFrequency;
-            if (k >= trace.states.size()) {
+            if (k >= trace.values.size()) {
                 break;
             }
         }
@@ -243,4 +510,44 @@ public class JTraceChart extends JChart {
         g2.draw(path);
     }
 
-}
\ No newline at end of file
+    /**
+     * Builds the trace's pyramid in the background and then draws the trace again.
+     */
+    private void startPyramid(final Trace trace) {
+        if (trace.isPyramidStarted) {
+            return;
+        }
+        trace.isPyramidStarted = true;
+        pyramidFutures.add(pyramidExecutor.submit(new Runnable() {
+            public void run() {
+                final MinMaxPyramid pyramid = new MinMaxPyramid(trace.values);
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        if (traces.contains(trace) || burninTraces.contains(trace)) {
+                            trace.pyramid = pyramid;
+                            raster.invalidate();
+                            repaint();
+                        }
+                    }
+                });
+            }
+        }));
+    }
+
+    private void paintDecimatedTrace(Graphics2D g2, Trace trace, Paint paint) {
+        GeneralPath path = new GeneralPath(GeneralPath.WIND_NON_ZERO, trace.decimatedCount * 2);
+        for (int j = 0; j < trace.decimatedCount; j++) {
+            int index = trace.decimatedIndices[j];
+            float x = (float) transformX(trace.getState(index));
+            float y = (float) transformY(trace.values.get(index));
+
+            if (j == 0 || !isLinePlot) {
+                path.moveTo(x, y);
+            }
+            path.lineTo(x, y);
+        }
+
+        g2.setPaint(paint);
+        g2.draw(path);
+    }
+}
@@ -0,0 +1,1741 @@
+/*
+ * LogFileParser.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package tracer.traces;
+
+import dr.inference.trace.NumberUtils;
+import dr.inference.trace.TraceException;
+import dr.inference.trace.TraceType;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parses tab-delimited BEAST log files into primitive columns using all available
+ * processors.
+ *
+ * Files are memory mapped and the data section split into chunks at line boundaries.
+ * The rows in each chunk are counted in parallel so that the columns can be allocated
+ * at their final size, then the chunks are parsed in parallel directly into the column
+ * arrays. Streams (which cannot be mapped) are read in line aligned blocks that are
+ * parsed as they arrive.
+ *
+ * The file format is interpreted in the same way as LogFileTraces: comment lines
+ * starting with '#' or '[' precede a header of trace names, the first column is the
+ * state number and the data stops at the first blank line.
+ *
+ * After a file has been parsed, rows that are later appended to it (by a run that is
+ * still going) can be read with parseAppended, which starts from where the previous
+ * parse finished.
+ *
+ * Very wide files can instead be indexed, which reads the states and records where each
+ * row starts without parsing any values. Columns are then parsed when they are needed
+ * with readColumns, which only scans each row as far as the last column asked for.
+ *
+ * A parse can be limited to a range of states and thinned with setSampling, in which
+ * case the rows that are left out are skipped without being parsed and the columns are
+ * only allocated for the rows that are kept.
+ */
+public class LogFileParser {
+
+    public interface ProgressListener {
+        /**
+         * Called periodically from the thread that called parse.
+         *
+         * @param bytesParsed the amount of work done, in bytes
+         * @param totalBytes  the total amount of work, in bytes, or -1 if not known
+         */
+        void progress(long bytesParsed, long totalBytes);
+
+        /**
+         * @return true if the parse should be abandoned
+         */
+        boolean isCancelled();
+    }
+
+    public static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+    private static final int MAX_CHUNK_SIZE = 32 << 20;
+    private static final int MAX_LINE_LENGTH = 64 << 20;
+
+    // how many rows are parsed between progress updates and cancellation checks
+    private static final int ROWS_PER_UPDATE = 8192;
+    private static final long PROGRESS_INTERVAL = 100; // milliseconds
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "LogFileParser-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+        private final AtomicInteger threadNumber = new AtomicInteger(0);
+    });
+
+    public LogFileParser(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Sets the listener for the work done from now on, such as reading the columns of an
+     * indexed file long after it was indexed.
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Only keeps some of the rows of the file when it is parsed: those with states from
+     * minState to maxState and, of those, every thinning-th one. As the states of the rows
+     * kept are still evenly spaced, getStepSize returns the spacing in the file times the
+     * thinning.
+     *
+     * A sampled parse can't be followed with parseAppended, and a file can't be indexed
+     * with sampling.
+     *
+     * @param minState the first state to keep, or Long.MIN_VALUE for the start of the file
+     * @param maxState the last state to keep, or Long.MAX_VALUE for the end of the file
+     * @param thinning keep every thinning-th row in the range
+     */
+    public void setSampling(long minState, long maxState, int thinning) {
+        if (thinning < 1) {
+            throw new IllegalArgumentException("The thinning must be at least 1");
+        }
+        if (minState > maxState) {
+            throw new IllegalArgumentException("The first state is after the last");
+        }
+        this.minState = minState;
+        this.maxState = maxState;
+        this.thinning = thinning;
+    }
+
+    /**
+     * @return true if only some of the rows are kept (see setSampling)
+     */
+    public boolean isSampled() {
+        return thinning > 1 || minState != Long.MIN_VALUE || maxState != Long.MAX_VALUE;
+    }
+
+    /**
+     * Parses a log file by memory mapping it.
+     */
+    public void parse(File file) throws TraceException, IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            channel = randomAccessFile.getChannel();
+            long length = channel.size();
+            if (length == 0) {
+                throw new TraceException("Trace file is empty.");
+            }
+
+            ByteBuffer headerBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(length, MAX_LINE_LENGTH));
+            int dataStart = readHeader(headerBuffer, length <= MAX_LINE_LENGTH);
+            if (dataStart < 0) {
+                throw new TraceException("Header line is too long");
+            }
+
+            setSampledRows(headerBuffer, dataStart, headerBuffer.limit(), length <= MAX_LINE_LENGTH);
+
+            // each byte is read twice, once when counting rows and once when parsing
+            totalWork = 2 * (length - dataStart);
+
+            List<Chunk> chunks = createChunks(dataStart, length);
+
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (final Chunk chunk : chunks) {
+                tasks.add(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        countRows(chunk, chunk.getBuffer());
+                        return null;
+                    }
+                });
+            }
+            runTasks(tasks);
+
+            chunks = setRowOffsets(chunks);
+            states = new long[rowCount];
+            columns = new double[traceNames.length][rowCount];
+            if (!isSampled()) {
+                if (rowIndex == null) {
+                    rowIndex = new RowIndex();
+                }
+                rowIndex.setRowCount(previousRowCount + rowCount);
+            }
+
+            tasks.clear();
+            for (final Chunk chunk : chunks) {
+                tasks.add(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        parseRows(chunk, chunk.getBuffer(), states, columns, chunk.rowOffset);
+                        return null;
+                    }
+                });
+            }
+            runTasks(tasks);
+
+            setDataEnd(chunks, length);
+            if (rowCount == 0) {
+                throw new TraceException("Incorrect file format, no sample is found !");
+            }
+            finish(chunks);
+        } finally {
+            channel = null;
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Reads just the header of a log file.
+     *
+     * @return the names of the traces in the file
+     */
+    public static String[] readTraceNames(File file) throws TraceException, IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long length = channel.size();
+            if (length == 0) {
+                throw new TraceException("Trace file is empty.");
+            }
+            ByteBuffer headerBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(length, MAX_LINE_LENGTH));
+            LogFileParser parser = new LogFileParser(null);
+            if (parser.readHeader(headerBuffer, length <= MAX_LINE_LENGTH) < 0) {
+                throw new TraceException("Header line is too long");
+            }
+            return parser.traceNames;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Reads the header and the states of a log file and records where each row starts,
+     * without parsing any of the trace values. The columns can then be read when they
+     * are needed with readColumns. The types of the traces are not known (getTraceType
+     * returns null) until their columns have been read.
+     *
+     * A last row without a line break is ignored as it may still be being written. An
+     * indexed file cannot be followed with parseAppended.
+     */
+    public void index(File file) throws TraceException, IOException {
+        if (isSampled()) {
+            throw new IllegalStateException("A file can't be indexed with sampling");
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            channel = randomAccessFile.getChannel();
+            long length = channel.size();
+            if (length == 0) {
+                throw new TraceException("Trace file is empty.");
+            }
+
+            ByteBuffer headerBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(length, MAX_LINE_LENGTH));
+            int dataStart = readHeader(headerBuffer, length <= MAX_LINE_LENGTH);
+            if (dataStart < 0) {
+                throw new TraceException("Header line is too long");
+            }
+
+            totalWork = 2 * (length - dataStart);
+
+            List<Chunk> chunks = createChunks(dataStart, length);
+
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (final Chunk chunk : chunks) {
+                tasks.add(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        countRows(chunk, chunk.getBuffer());
+                        return null;
+                    }
+                });
+            }
+            runTasks(tasks);
+
+            chunks = setRowOffsets(chunks);
+            states = new long[rowCount];
+            rowStarts = new long[rowCount];
+
+            tasks.clear();
+            for (final Chunk chunk : chunks) {
+                tasks.add(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        indexRows(chunk, chunk.getBuffer());
+                        return null;
+                    }
+                });
+            }
+            runTasks(tasks);
+
+            setDataEnd(chunks, length);
+            if (rowCount == 0) {
+                throw new TraceException("Incorrect file format, no sample is found !");
+            }
+            if (rowCount < rowStarts.length) {
+                rowStarts = Arrays.copyOf(rowStarts, rowCount);
+            }
+            rowIndex = new RowIndex();
+            rowIndex.setRowCount(rowCount);
+            for (int i = 0; i < rowCount; i += RowIndex.STRIDE) {
+                rowIndex.setRowOffset(i, rowStarts[i]);
+            }
+
+            traceTypes = new TraceType[traceNames.length];
+            categoryLabelMaps = new ArrayList<Map<Integer, String>>(Collections.<Map<Integer, String>>nCopies(traceNames.length, null));
+            checkStates();
+
+            // the columns are read from the start of the file so their rows are numbered
+            // from there
+            previousRowCount = 0;
+        } finally {
+            channel = null;
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * @return true if the file was indexed rather than parsed
+     */
+    public boolean isIndexed() {
+        return rowStarts != null;
+    }
+
+    /**
+     * Parses the given columns of a file that has been indexed. Afterwards getColumn,
+     * getTraceType and getCategoryLabelMap return the values, type and labels of each
+     * of the traces read (getColumn returns null for the others).
+     *
+     * @param indices the indices of the traces to read
+     */
+    public void readColumns(File file, int[] indices) throws TraceException, IOException {
+        if (rowStarts == null) {
+            throw new IllegalStateException("The file must be indexed before its columns can be read");
+        }
+
+        int columnLimit = 0;
+        for (int index : indices) {
+            columnLimit = Math.max(columnLimit, index + 1);
+        }
+        // a previous read may have been cancelled
+        aborted = false;
+
+        // the rows are only scanned up to the last column being read
+        rowCount = rowStarts.length;
+        columns = new double[columnLimit][];
+        for (int index : indices) {
+            columns[index] = new double[rowCount];
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            channel = randomAccessFile.getChannel();
+            if (channel.size() < dataEnd) {
+                throw new TraceException("Trace file is shorter than when it was indexed");
+            }
+
+            totalWork = dataEnd - rowStarts[0];
+            workDone.set(0);
+
+            List<Chunk> chunks = createIndexedChunks();
+
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (final Chunk chunk : chunks) {
+                tasks.add(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        parseRows(chunk, chunk.getBuffer(), null, columns, chunk.rowOffset);
+                        return null;
+                    }
+                });
+            }
+            runTasks(tasks);
+
+            setTraceTypes(chunks);
+        } finally {
+            channel = null;
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Parses the rows that have been added to the end of a file since it was last parsed
+     * by this parser. The rows read replace those from the previous parse in getStates,
+     * getColumn and getLabels.
+     *
+     * A last line without a line break may still be being written so if the previous
+     * parse ended with one it is read again, and getReplacedRowCount returns 1 to say that
+     * the last row previously read should be discarded.
+     *
+     * @return true if any rows were read
+     */
+    public boolean parseAppended(File file) throws TraceException, IOException {
+        if (dataEnd < 0 || rowStarts != null) {
+            throw new IllegalStateException("The file must be parsed before appended rows can be read");
+        }
+        if (isSampled()) {
+            throw new IllegalStateException("Appended rows can't be read after a sampled parse");
+        }
+
+        clearRows();
+        replacedRowCount = 0;
+        if (terminated) {
+            // the data ended with a blank line so anything after it is ignored
+            return false;
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            channel = randomAccessFile.getChannel();
+            long length = channel.size();
+            if (length < parsedLength) {
+                throw new TraceException("Trace file is shorter than when it was last read");
+            }
+            if (length == parsedLength) {
+                return false;
+            }
+
+            if (lastRowIncomplete) {
+                // go back to the state before the incomplete row was read
+                firstState = incompleteRowState[0];
+                secondState = incompleteRowState[1];
+                lastState = incompleteRowState[2];
+                stepSize = incompleteRowState[3];
+                previousRowCount--;
+                replacedRowCount = 1;
+            }
+
+            totalWork = 2 * (length - dataEnd);
+            workDone.set(0);
+
+            List<Chunk> chunks = createChunks(dataEnd, length);
+
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (final Chunk chunk : chunks) {
+                tasks.add(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        countRows(chunk, chunk.getBuffer());
+                        return null;
+                    }
+                });
+            }
+            runTasks(tasks);
+
+            chunks = setRowOffsets(chunks);
+            states = new long[rowCount];
+            columns = new double[traceNames.length][rowCount];
+            if (rowIndex == null) {
+                rowIndex = new RowIndex();
+            }
+            rowIndex.setRowCount(previousRowCount + rowCount);
+
+            tasks.clear();
+            for (final Chunk chunk : chunks) {
+                tasks.add(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        parseRows(chunk, chunk.getBuffer(), states, columns, chunk.rowOffset);
+                        return null;
+                    }
+                });
+            }
+            runTasks(tasks);
+
+            setDataEnd(chunks, length);
+            finishAppended(chunks);
+        } finally {
+            channel = null;
+            randomAccessFile.close();
+        }
+        return rowCount > 0 || replacedRowCount > 0;
+    }
+
+    /**
+     * Parses a log file from a stream. The stream is read in line aligned blocks that are
+     * handed to the worker threads as they are read.
+     *
+     * @param in     the stream
+     * @param length the length of the stream, in bytes, for progress reporting or -1 if not known
+     */
+    public void parse(InputStream in, long length) throws TraceException, IOException {
+        totalWork = length;
+
+        byte[] block = new byte[MIN_CHUNK_SIZE];
+        int blockLength = readFully(in, block, 0);
+        int dataStart = readHeader(ByteBuffer.wrap(block, 0, blockLength), blockLength < block.length);
+        while (dataStart < 0) {
+            // make sure the whole header has been read
+            if (block.length >= MAX_LINE_LENGTH) {
+                throw new TraceException("Header line is too long");
+            }
+            block = Arrays.copyOf(block, block.length * 2);
+            blockLength += readFully(in, block, blockLength);
+            headerLineCount = 0;
+            dataStart = readHeader(ByteBuffer.wrap(block, 0, blockLength), blockLength < block.length);
+        }
+        long bytesRead = blockLength;
+
+        setSampledRows(ByteBuffer.wrap(block, 0, blockLength), dataStart, blockLength, blockLength < block.length);
+
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        long lineOffset = 0;
+        int rowOffset = 0;
+        int waited = 0;
+
+        byte[] carry = Arrays.copyOfRange(block, dataStart, blockLength);
+        boolean endOfStream = blockLength < block.length;
+        while (carry.length > 0 || !endOfStream) {
+            block = Arrays.copyOf(carry, Math.max(MAX_CHUNK_SIZE, carry.length * 2));
+            blockLength = carry.length;
+            if (!endOfStream) {
+                int count = readFully(in, block, blockLength);
+                bytesRead += count;
+                blockLength += count;
+                endOfStream = blockLength < block.length;
+            }
+
+            int end = endOfStream ? blockLength : lastIndexOf(block, blockLength, (byte) '\n') + 1;
+            if (end == 0) {
+                if (block.length >= MAX_LINE_LENGTH) {
+                    throw new TraceException("Line is too long at byte " + bytesRead);
+                }
+                // no complete line in the block yet so read some more
+                carry = Arrays.copyOf(block, blockLength);
+                continue;
+            }
+            carry = Arrays.copyOfRange(block, end, blockLength);
+
+            // counting is quick so is done here to know where each block's rows go
+            final ByteBuffer buffer = ByteBuffer.wrap(block, 0, end).slice();
+            final Chunk chunk = new Chunk(buffer);
+            countRows(chunk, buffer);
+            setSampledRowCount(chunk, lineOffset);
+            lineOffset += chunk.lineCount;
+            chunk.rowOffset = rowOffset;
+            rowOffset += chunk.rowCount;
+            chunks.add(chunk);
+
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    chunk.states = new long[chunk.rowCount];
+                    chunk.columns = new double[traceNames.length][chunk.rowCount];
+                    parseRows(chunk, buffer, chunk.states, chunk.columns, 0);
+                    return null;
+                }
+            }));
+
+            if (chunk.terminated) {
+                break;
+            }
+
+            // keep a bounded number of blocks in memory
+            while (futures.size() - waited > 2 * THREAD_COUNT) {
+                waitFor(futures.subList(waited, waited + 1), bytesRead);
+                waited++;
+            }
+            reportProgress(bytesRead);
+        }
+        waitFor(futures, bytesRead);
+
+        chunks = setRowOffsets(chunks);
+        if (rowCount == 0) {
+            throw new TraceException("Incorrect file format, no sample is found !");
+        }
+        states = new long[rowCount];
+        columns = new double[traceNames.length][rowCount];
+        for (Chunk chunk : chunks) {
+            System.arraycopy(chunk.states, 0, states, chunk.rowOffset, chunk.rowCount);
+            for (int i = 0; i < columns.length; i++) {
+                System.arraycopy(chunk.columns[i], 0, columns[i], chunk.rowOffset, chunk.rowCount);
+            }
+            chunk.states = null;
+            chunk.columns = null;
+        }
+
+        finish(chunks);
+    }
+
+    public String[] getTraceNames() {
+        return traceNames;
+    }
+
+    /**
+     * @return the number of rows read by the last parse
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public long[] getStates() {
+        return states;
+    }
+
+    public double[] getColumn(int index) {
+        return index < columns.length ? columns[index] : null;
+    }
+
+    public TraceType getTraceType(int index) {
+        return traceTypes[index];
+    }
+
+    public Map<Integer, String> getCategoryLabelMap(int index) {
+        return categoryLabelMaps.get(index);
+    }
+
+    /**
+     * @return the labels of the rows read by parseAppended if the trace is categorical,
+     * otherwise null. The values in getColumn are not category indices in this case.
+     */
+    public String[] getLabels(int index) {
+        return labels == null ? null : labels[index];
+    }
+
+    /**
+     * @return the number of rows from the previous parse that have been read again by
+     * parseAppended because the last one was incomplete.
+     */
+    public int getReplacedRowCount() {
+        return replacedRowCount;
+    }
+
+    /**
+     * Releases the rows of the last parse. The state of the parser needed by
+     * parseAppended is kept.
+     */
+    public void clearRows() {
+        rowCount = 0;
+        states = null;
+        columns = null;
+        labels = null;
+    }
+
+    public long getFirstState() {
+        return firstState;
+    }
+
+    public long getLastState() {
+        return lastState;
+    }
+
+    /**
+     * @return the spacing of the states of the rows. If only two rows have been read it is
+     * the difference of their states, and if only one, the spacing in the file times the
+     * thinning if the sampling found it, or else 1.
+     */
+    public long getStepSize() {
+        if (stepSize > 0) {
+            return stepSize;
+        }
+        if (secondState > firstState) {
+            // only two states
+            return secondState - firstState;
+        }
+        return fileStepSize > 0 ? fileStepSize * thinning : 1;
+    }
+
+    /**
+     * @return the positions of the rows read so far, or null if the file was read from
+     * a stream
+     */
+    public RowIndex getRowIndex() {
+        return rowIndex;
+    }
+
+    /**
+     * Checks that the rows read so far are still in the file where they were read from,
+     * by going to a sample of them with the row index and reading their states. A file
+     * that has only had rows added to it since will pass, one that has been overwritten
+     * (such as by a new run) almost certainly won't.
+     *
+     * @param sampleCount the number of rows to check
+     * @return true if the rows are unchanged, false if they have changed or if there is
+     * no row index
+     */
+    public boolean hasUnchangedRows(File file, int sampleCount) throws IOException {
+        if (rowIndex == null || rowIndex.getRowCount() == 0) {
+            return false;
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() < dataEnd) {
+                return false;
+            }
+
+            int rows = rowIndex.getRowCount();
+            int step = Math.max(1, rows / sampleCount);
+            NumberScanner scanner = new NumberScanner();
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            for (int row = 0; row < rows; row += step) {
+                if (!hasState(channel, row, scanner, buffer)) {
+                    return false;
+                }
+            }
+            return hasState(channel, rows - 1, scanner, buffer);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * @return true if the row starts with the state it had when it was read
+     */
+    private boolean hasState(FileChannel channel, int row, NumberScanner scanner, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        int length = channel.read(buffer, rowIndex.getRowOffset(channel, row));
+        if (length <= 0) {
+            return false;
+        }
+        int start = 0;
+        while (start < length && buffer.get(start) <= ' ') {
+            start++;
+        }
+        int end = start;
+        while (end < length && buffer.get(end) > ' ') {
+            end++;
+        }
+        if (!scanner.scan(buffer, start, end)) {
+            return false;
+        }
+        long state = (long) scanner.value;
+
+        if (row == 0) {
+            // the state of the first row of a MrBayes log is changed from 1 to 0
+            return state == firstState || (firstState == 0 && state == 1);
+        }
+        if (row == 1) {
+            return state == secondState;
+        }
+        return state == secondState + (row - 1) * stepSize;
+    }
+
+    /**
+     * @return the number of bytes of the file that the rows read so far came from
+     */
+    public long getParsedLength() {
+        return parsedLength;
+    }
+
+    /**
+     * @return true if the last row read was not terminated by a new line, so may be
+     * replaced by the next call to parseAppended
+     */
+    boolean isLastRowIncomplete() {
+        return lastRowIncomplete;
+    }
+
+    /**
+     * Writes the state that parseAppended needs to carry on from the last parse, so that
+     * a file can be followed after its traces have been read from a cache.
+     */
+    void writeState(DataOutput out) throws IOException {
+        out.writeInt(traceNames.length);
+        for (int i = 0; i < traceNames.length; i++) {
+            out.writeUTF(traceNames[i]);
+            out.writeUTF(traceTypes[i].name());
+        }
+        out.writeInt(headerLineCount);
+        out.writeInt(previousRowCount);
+        out.writeLong(firstState);
+        out.writeLong(secondState);
+        out.writeLong(lastState);
+        out.writeLong(stepSize);
+        out.writeLong(dataEnd);
+        out.writeLong(parsedLength);
+        out.writeBoolean(terminated);
+        out.writeBoolean(lastRowIncomplete);
+        if (lastRowIncomplete) {
+            for (long value : incompleteRowState) {
+                out.writeLong(value);
+            }
+        }
+        out.writeBoolean(rowIndex != null);
+        if (rowIndex != null) {
+            rowIndex.write(out);
+        }
+    }
+
+    /**
+     * Creates a parser in the state written by writeState.
+     */
+    static LogFileParser readState(DataInput in) throws IOException {
+        LogFileParser parser = new LogFileParser(null);
+        int traceCount = in.readInt();
+        parser.traceNames = new String[traceCount];
+        parser.traceTypes = new TraceType[traceCount];
+        parser.categoryLabelMaps = new ArrayList<Map<Integer, String>>();
+        for (int i = 0; i < traceCount; i++) {
+            parser.traceNames[i] = in.readUTF();
+            parser.traceTypes[i] = TraceType.valueOf(in.readUTF());
+            parser.categoryLabelMaps.add(null);
+        }
+        parser.headerLineCount = in.readInt();
+        parser.previousRowCount = in.readInt();
+        parser.firstState = in.readLong();
+        parser.secondState = in.readLong();
+        parser.lastState = in.readLong();
+        parser.stepSize = in.readLong();
+        parser.dataEnd = in.readLong();
+        parser.parsedLength = in.readLong();
+        parser.terminated = in.readBoolean();
+        parser.lastRowIncomplete = in.readBoolean();
+        if (parser.lastRowIncomplete) {
+            parser.incompleteRowState = new long[4];
+            for (int i = 0; i < 4; i++) {
+                parser.incompleteRowState[i] = in.readLong();
+            }
+        }
+        if (in.readBoolean()) {
+            parser.rowIndex = RowIndex.read(in);
+        }
+        return parser;
+    }
+
+    /**
+     * Reads the comment lines and the header from the start of the buffer.
+     *
+     * @return the position of the first data line or -1 if the buffer ends before the header does
+     */
+    private int readHeader(ByteBuffer buffer, boolean complete) throws TraceException {
+        int position = 0;
+        int length = buffer.limit();
+        while (position < length) {
+            int end = indexOf(buffer, position, length, (byte) '\n');
+            if (end == length && !complete) {
+                return -1;
+            }
+            headerLineCount++;
+
+            String line = decode(buffer, position, end).trim();
+            position = Math.min(end + 1, length);
+
+            StringTokenizer tokens = new StringTokenizer(line, "\t");
+            if (!tokens.hasMoreTokens()) {
+                continue;
+            }
+            String token = tokens.nextToken();
+            if (token.startsWith("[") || token.startsWith("#")) {
+                continue;
+            }
+
+            // the first column is the state number
+            List<String> names = new ArrayList<String>();
+            while (tokens.hasMoreTokens()) {
+                names.add(tokens.nextToken());
+            }
+            traceNames = names.toArray(new String[names.size()]);
+            return position;
+        }
+        throw new TraceException("Trace file is empty.");
+    }
+
+    /**
+     * Splits the data section of the mapped file into chunks that start and end on line
+     * boundaries.
+     */
+    private List<Chunk> createChunks(long dataStart, long length) throws TraceException, IOException {
+        long chunkSize = (length - dataStart) / (4 * THREAD_COUNT);
+        chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        long start = dataStart;
+        while (start < length) {
+            long end = start + chunkSize;
+            if (end >= length) {
+                end = length;
+            } else {
+                // move the end forward to just after the next new line
+                int window = (int) Math.min(MAX_LINE_LENGTH, length - (end - 1));
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, end - 1, window);
+                int index = indexOf(buffer, 0, window, (byte) '\n');
+                if (index == window && end - 1 + window < length) {
+                    throw new TraceException("Line is too long at byte " + end);
+                }
+                end = end + index;
+            }
+            chunks.add(new Chunk(start, (int) (end - start)));
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Counts the number of rows in the chunk, stopping at the first blank line.
+     */
+    private void countRows(Chunk chunk, ByteBuffer buffer) throws IOException {
+        int length = buffer.limit();
+        int position = 0;
+        int rows = 0;
+        while (position < length) {
+            int end = indexOf(buffer, position, length, (byte) '\n');
+            if (isBlank(buffer, position, end)) {
+                // a blank line that is still being written may not stay blank
+                chunk.terminated = (end < length);
+                break;
+            }
+            rows++;
+            chunk.lastRowIncomplete = (end == length);
+            if (!chunk.lastRowIncomplete) {
+                chunk.dataLength = end + 1;
+            }
+            position = end + 1;
+
+            if (rows % ROWS_PER_UPDATE == 0) {
+                checkAborted();
+            }
+        }
+        chunk.lineCount = rows;
+        chunk.rowCount = rows;
+        if (channel != null) {
+            workDone.addAndGet(chunk.length);
+        }
+    }
+
+    /**
+     * Works out where each chunk's rows go in the columns. Chunks after the first blank
+     * line are dropped.
+     */
+    private List<Chunk> setRowOffsets(List<Chunk> chunks) throws TraceException {
+        List<Chunk> dataChunks = new ArrayList<Chunk>();
+        long lineOffset = 0;
+        long offset = 0;
+        for (Chunk chunk : chunks) {
+            setSampledRowCount(chunk, lineOffset);
+            lineOffset += chunk.lineCount;
+            chunk.rowOffset = (int) offset;
+            offset += chunk.rowCount;
+            dataChunks.add(chunk);
+            if (chunk.terminated) {
+                break;
+            }
+        }
+        if (offset > Integer.MAX_VALUE) {
+            throw new TraceException("Too many states in log file (" + offset + ")");
+        }
+        rowCount = (int) offset;
+        return dataChunks;
+    }
+
+    /**
+     * Works out which rows the state range of a sampled parse covers from the states of
+     * the first few rows, as the states are evenly spaced.
+     *
+     * @param buffer   a buffer holding the start of the data
+     * @param position where the data starts in the buffer
+     * @param limit    the end of the data in the buffer
+     * @param isEnd    true if the limit is the end of the file
+     */
+    private void setSampledRows(ByteBuffer buffer, int position, int limit, boolean isEnd) throws TraceException {
+        firstSampledRow = 0;
+        lastSampledRow = Long.MAX_VALUE;
+        if (minState == Long.MIN_VALUE && maxState == Long.MAX_VALUE) {
+            return;
+        }
+
+        NumberScanner scanner = new NumberScanner();
+        long[] firstStates = new long[3];
+        int count = 0;
+        while (count < firstStates.length && position < limit) {
+            int end = indexOf(buffer, position, limit, (byte) '\n');
+            if (isBlank(buffer, position, end)) {
+                break;
+            }
+            int tokenEnd = position;
+            while (tokenEnd < end && buffer.get(tokenEnd) != '\t') {
+                tokenEnd++;
+            }
+            if (!scanner.scan(buffer, position, tokenEnd)) {
+                // reported when the row is parsed
+                break;
+            }
+            if (end == limit && !isEnd) {
+                throw new TraceException("Line is too long at line " + (headerLineCount + count + 1));
+            }
+            firstStates[count] = (long) scanner.value;
+            count++;
+            position = end + 1;
+        }
+        if (count > 0 && firstStates[0] == 1) {
+            // MrBayes starts its logs at state 1, which is read as 0
+            firstStates[0] = 0;
+        }
+
+        if (count < firstStates.length) {
+            // there are too few rows to have a spacing so look at them one by one
+            firstSampledRow = count;
+            lastSampledRow = -1;
+            for (int i = 0; i < count; i++) {
+                if (firstStates[i] >= minState && firstSampledRow == count) {
+                    firstSampledRow = i;
+                }
+                if (firstStates[i] <= maxState) {
+                    lastSampledRow = i;
+                }
+            }
+        } else if (firstStates[2] > firstStates[1]) {
+            // the first row may be spaced differently from the rest
+            long spacing = firstStates[2] - firstStates[1];
+            fileStepSize = spacing;
+            if (minState <= firstStates[0]) {
+                firstSampledRow = 0;
+            } else if (minState <= firstStates[1]) {
+                firstSampledRow = 1;
+            } else {
+                firstSampledRow = 1 + (minState - firstStates[1] + spacing - 1) / spacing;
+            }
+            if (maxState == Long.MAX_VALUE) {
+                lastSampledRow = Long.MAX_VALUE;
+            } else if (maxState < firstStates[0]) {
+                lastSampledRow = -1;
+            } else if (maxState < firstStates[1]) {
+                lastSampledRow = 0;
+            } else {
+                lastSampledRow = 1 + (maxState - firstStates[1]) / spacing;
+            }
+        }
+        // otherwise the states are not evenly spaced, which is reported when the rows are parsed
+
+        if (lastSampledRow < firstSampledRow) {
+            throw new TraceException("There are no states from " + minState + " to " + maxState);
+        }
+    }
+
+    /**
+     * Sets the number of rows in a chunk that are kept by the sampling, given the number
+     * of lines before it.
+     */
+    private void setSampledRowCount(Chunk chunk, long lineOffset) {
+        chunk.lineOffset = lineOffset;
+        if (!isSampled()) {
+            chunk.rowCount = chunk.lineCount;
+            return;
+        }
+        long first = Math.max(lineOffset, firstSampledRow);
+        long last = Math.min(lineOffset + chunk.lineCount - 1, lastSampledRow);
+        if (last < first) {
+            chunk.rowCount = 0;
+        } else {
+            long firstSample = (first - firstSampledRow + thinning - 1) / thinning;
+            long lastSample = (last - firstSampledRow) / thinning;
+            chunk.rowCount = (int) Math.max(0, lastSample - firstSample + 1);
+        }
+    }
+
+    /**
+     * @param line the number of the line from the start of the data
+     * @return true if the sampling keeps the line
+     */
+    private boolean isSampledRow(long line) {
+        return line >= firstSampledRow && line <= lastSampledRow && (line - firstSampledRow) % thinning == 0;
+    }
+
+    /**
+     * Records where the rows that have been read end so that parseAppended can carry on
+     * from there.
+     */
+    private void setDataEnd(List<Chunk> chunks, long length) {
+        if (chunks.isEmpty()) {
+            return;
+        }
+        Chunk last = chunks.get(chunks.size() - 1);
+        // the last row may have been dropped by parseRows
+        rowCount = last.rowOffset + last.rowCount;
+        terminated = last.terminated;
+        lastRowIncomplete = last.lastRowIncomplete;
+        dataEnd = last.start + last.dataLength;
+        parsedLength = length;
+        if (rowIndex != null) {
+            rowIndex.setRowCount(previousRowCount + rowCount);
+        }
+    }
+
+    /**
+     * Splits the rows of an indexed file into chunks of about the same size as
+     * createChunks does.
+     */
+    private List<Chunk> createIndexedChunks() {
+        int rows = rowStarts.length;
+        long chunkSize = (dataEnd - rowStarts[0]) / (4 * THREAD_COUNT);
+        chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        int first = 0;
+        while (first < rows) {
+            long start = rowStarts[first];
+            int next = Arrays.binarySearch(rowStarts, first + 1, rows, start + chunkSize);
+            if (next < 0) {
+                next = -next - 1;
+            }
+            long end = (next < rows ? rowStarts[next] : dataEnd);
+
+            Chunk chunk = new Chunk(start, (int) (end - start));
+            chunk.rowOffset = first;
+            chunk.rowCount = next - first;
+            chunk.lineOffset = first;
+            chunk.lineCount = chunk.rowCount;
+            chunks.add(chunk);
+            first = next;
+        }
+        return chunks;
+    }
+
+    /**
+     * Records the position of each row in a chunk and reads its state.
+     */
+    private void indexRows(Chunk chunk, ByteBuffer buffer) throws TraceException, IOException {
+        NumberScanner scanner = new NumberScanner();
+        int length = buffer.limit();
+
+        int position = 0;
+        for (int i = 0; i < chunk.rowCount; i++) {
+            int row = chunk.rowOffset + i;
+            int end = indexOf(buffer, position, length, (byte) '\n');
+
+            if (i == chunk.rowCount - 1 && chunk.lastRowIncomplete) {
+                // the values of the row aren't read here so it can't be checked and is
+                // left out in case it is still being written
+                chunk.rowCount--;
+                chunk.lineCount--;
+                chunk.lastRowIncomplete = false;
+                break;
+            }
+
+            rowStarts[row] = chunk.start + position;
+
+            int tokenStart = position;
+            while (tokenStart < end && buffer.get(tokenStart) <= ' ') {
+                tokenStart++;
+            }
+            int tokenEnd = tokenStart;
+            while (tokenEnd < end && buffer.get(tokenEnd) != '\t') {
+                tokenEnd++;
+            }
+            if (!scanner.scan(buffer, tokenStart, tokenEnd)) {
+                throw new TraceException("Unable to parse state number in column 1 (Line " +
+                        (headerLineCount + row + 1) + ")");
+            }
+            states[row] = (long) scanner.value;
+            position = end + 1;
+
+            if ((i + 1) % ROWS_PER_UPDATE == 0) {
+                checkAborted();
+            }
+        }
+        workDone.addAndGet(chunk.length);
+    }
+
+    /**
+     * Parses the rows of a chunk into the state and column arrays starting at the given
+     * row. Values that are not numbers are kept as strings until all the chunks are done.
+     *
+     * The states are not read if the state array is null, and columns that are null are
+     * skipped. Only as many values as there are columns are read from each row.
+     */
+    private void parseRows(Chunk chunk, ByteBuffer buffer, long[] states, double[][] columns, int firstRow) throws TraceException, IOException {
+        int traceCount = columns.length;
+        NumberScanner scanner = new NumberScanner();
+
+        chunk.hasDecimalPoint = new boolean[traceCount];
+        chunk.categories = new String[traceCount][];
+
+        int position = 0;
+        int lastPosition = 0;
+        int i = 0;
+        for (int line = 0; line < chunk.lineCount; line++) {
+            if (line > 0 && line % ROWS_PER_UPDATE == 0) {
+                checkAborted();
+                if (channel != null) {
+                    workDone.addAndGet(position - lastPosition);
+                    lastPosition = position;
+                }
+            }
+
+            int end = indexOf(buffer, position, buffer.limit(), (byte) '\n');
+            int next = end + 1;
+            boolean isLastLine = (line == chunk.lineCount - 1);
+
+            if (isSampled() && !isSampledRow(chunk.lineOffset + line)) {
+                // left out by the sampling so not parsed
+                position = next;
+                continue;
+            }
+
+            int row = firstRow + i;
+            int lineNumber = headerLineCount + previousRowCount + (int) chunk.lineOffset + line + 1;
+
+            int fileRow = previousRowCount + chunk.rowOffset + i;
+            if (states != null && chunk.start >= 0 && rowIndex != null && RowIndex.isIndexed(fileRow)) {
+                rowIndex.setRowOffset(fileRow, chunk.start + position);
+            }
+
+            // trim the line
+            while (position < end && buffer.get(position) <= ' ') {
+                position++;
+            }
+            while (end > position && buffer.get(end - 1) <= ' ') {
+                end--;
+            }
+
+            int column = -1;
+            while (position < end && column < traceCount) {
+                int tokenStart = position;
+                while (position < end && buffer.get(position) != '\t') {
+                    position++;
+                }
+                int tokenEnd = position;
+                position++;
+
+                if (tokenEnd == tokenStart) {
+                    // adjacent tabs are treated as a single delimiter
+                    continue;
+                }
+
+                if (column < 0) {
+                    // the states of an indexed file have already been read
+                    if (states != null) {
+                        if (!scanner.scan(buffer, tokenStart, tokenEnd)) {
+                            if (isLastLine && chunk.lastRowIncomplete) {
+                                // leave it to the check for an incomplete row below
+                                break;
+                            }
+                            throw new TraceException("Unable to parse state number in column 1 (Line " + lineNumber + ")");
+                        }
+                        states[row] = (long) scanner.value;
+                    }
+                } else if (columns[column] == null) {
+                    // not being read
+                } else if (chunk.categories[column] == null && scanner.scan(buffer, tokenStart, tokenEnd)) {
+                    columns[column][row] = scanner.value;
+                    if (scanner.hasDecimalPoint) {
+                        chunk.hasDecimalPoint[column] = true;
+                    }
+                } else {
+                    // once a column has a non-numeric value all its values are kept as labels
+                    if (chunk.categories[column] == null) {
+                        chunk.categories[column] = new String[chunk.rowCount];
+                    }
+                    chunk.categories[column][i] = decode(buffer, tokenStart, tokenEnd).trim();
+                }
+                column++;
+            }
+
+            if (column < traceCount) {
+                if (isLastLine && chunk.lastRowIncomplete) {
+                    // the last line of the file has no line break and is too short so it
+                    // is assumed to be still being written and is left until it is complete
+                    chunk.rowCount--;
+                    chunk.lineCount--;
+                    chunk.lastRowIncomplete = false;
+                    break;
+                }
+                throw new TraceException((states != null ? "State " + states[row] + ": missing" : "Missing") +
+                        " values at line " + lineNumber);
+            }
+
+            position = next;
+            i++;
+        }
+        if (channel != null) {
+            workDone.addAndGet(chunk.length - lastPosition);
+        }
+    }
+
+    /**
+     * Sets the trace types, converts non-numeric columns into category indices and checks
+     * that the states are evenly spaced.
+     */
+    private void finish(List<Chunk> chunks) throws TraceException {
+        int traceCount = traceNames.length;
+        traceTypes = new TraceType[traceCount];
+        categoryLabelMaps = new ArrayList<Map<Integer, String>>(Collections.<Map<Integer, String>>nCopies(traceCount, null));
+
+        setTraceTypes(chunks);
+        checkStates();
+    }
+
+    /**
+     * Sets the types of the traces whose columns have been read and converts the
+     * non-numeric ones into category indices.
+     */
+    private void setTraceTypes(List<Chunk> chunks) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] == null) {
+                continue;
+            }
+
+            boolean hasDecimalPoint = false;
+            boolean isCategorical = false;
+            for (Chunk chunk : chunks) {
+                hasDecimalPoint |= chunk.hasDecimalPoint[i];
+                isCategorical |= chunk.categories[i] != null;
+            }
+
+            Map<Integer, String> categoryLabelMap = null;
+            if (isCategorical) {
+                traceTypes[i] = TraceType.CATEGORICAL;
+                categoryLabelMap = createCategories(chunks, i);
+            } else if (hasDecimalPoint) {
+                traceTypes[i] = TraceType.REAL;
+            } else {
+                traceTypes[i] = TraceType.INTEGER;
+            }
+            categoryLabelMaps.set(i, categoryLabelMap);
+        }
+    }
+
+    /**
+     * Collects the labels of categorical traces from appended rows and checks that the
+     * states carry on with the same spacing. A trace that was numeric becomes categorical
+     * if a value that is not a number appears, and an integer trace becomes real if a
+     * value with a decimal point appears.
+     */
+    private void finishAppended(List<Chunk> chunks) throws TraceException {
+        labels = new String[traceNames.length][];
+        for (int i = 0; i < traceNames.length; i++) {
+            boolean hasDecimalPoint = false;
+            boolean isCategorical = traceTypes[i] == TraceType.CATEGORICAL;
+            for (Chunk chunk : chunks) {
+                hasDecimalPoint |= chunk.hasDecimalPoint[i];
+                isCategorical |= chunk.categories[i] != null;
+            }
+
+            if (isCategorical) {
+                traceTypes[i] = TraceType.CATEGORICAL;
+                labels[i] = new String[rowCount];
+                for (Chunk chunk : chunks) {
+                    String[] chunkLabels = chunk.categories[i];
+                    for (int j = 0; j < chunk.rowCount; j++) {
+                        int row = chunk.rowOffset + j;
+                        labels[i][row] = (chunkLabels != null && chunkLabels[j] != null ?
+                                chunkLabels[j] : Double.toString(columns[i][row]));
+                    }
+                    chunk.categories[i] = null;
+                }
+            } else if (hasDecimalPoint && traceTypes[i] == TraceType.INTEGER) {
+                traceTypes[i] = TraceType.REAL;
+            }
+        }
+
+        checkStates();
+    }
+
+    /**
+     * Checks that the states of the rows just read are evenly spaced, carrying on from
+     * any rows read before.
+     */
+    private void checkStates() throws TraceException {
+        for (int i = 0; i < rowCount; i++) {
+            long state = states[i];
+            if (i == rowCount - 1 && lastRowIncomplete) {
+                incompleteRowState = new long[]{firstState, secondState, lastState, stepSize};
+            }
+            if (previousRowCount == 0 && i == 0 && state == 1) {
+                // MrBayes starts its logs at state 1
+                state = 0;
+                states[i] = state;
+            }
+
+            if (firstState < 0) {
+                firstState = state;
+            } else if (secondState < 0) {
+                secondState = state;
+            } else if (stepSize < 0) {
+                stepSize = state - secondState;
+            } else if (state - lastState != stepSize) {
+                throw new TraceException("State " + state + " is not consistent with previous spacing (Line " +
+                        (headerLineCount + previousRowCount + i + 1) + ")");
+            }
+            lastState = state;
+        }
+        previousRowCount += rowCount;
+    }
+
+    /**
+     * Numbers each distinct label in the order it first appears in the column. Numeric
+     * values that precede the first label are converted to labels.
+     */
+    private Map<Integer, String> createCategories(List<Chunk> chunks, int index) {
+        double[] column = columns[index];
+        Map<String, Integer> categoryMap = new HashMap<String, Integer>();
+        Map<Integer, String> categoryLabelMap = new HashMap<Integer, String>();
+
+        for (Chunk chunk : chunks) {
+            String[] labels = chunk.categories[index];
+            for (int i = 0; i < chunk.rowCount; i++) {
+                int row = chunk.rowOffset + i;
+                String label = (labels != null && labels[i] != null ? labels[i] : Double.toString(column[row]));
+                Integer category = categoryMap.get(label);
+                if (category == null) {
+                    category = categoryMap.size();
+                    categoryMap.put(label, category);
+                    categoryLabelMap.put(category, label);
+                }
+                column[row] = category;
+            }
+            chunk.categories[index] = null;
+        }
+        return categoryLabelMap;
+    }
+
+    /**
+     * Runs the tasks on the worker threads, reporting progress from this thread while
+     * waiting.
+     */
+    private void runTasks(List<Callable<Void>> tasks) throws TraceException, IOException {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (Callable<Void> task : tasks) {
+            futures.add(executor.submit(task));
+        }
+        waitFor(futures, -1);
+    }
+
+    private void waitFor(List<Future<Void>> futures, long bytesRead) throws TraceException, IOException {
+        try {
+            for (Future<Void> future : futures) {
+                while (true) {
+                    try {
+                        future.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException te) {
+                        reportProgress(bytesRead);
+                    }
+                }
+            }
+            reportProgress(bytesRead);
+        } catch (InterruptedException ie) {
+            aborted = true;
+            throw new InterruptedIOException("Loading interrupted");
+        } catch (ExecutionException ee) {
+            aborted = true;
+            Throwable cause = ee.getCause();
+            if (cause instanceof TraceException) {
+                throw (TraceException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private void reportProgress(long bytesRead) throws InterruptedIOException {
+        if (progressListener != null) {
+            if (progressListener.isCancelled()) {
+                aborted = true;
+                throw new InterruptedIOException("Loading cancelled");
+            }
+            progressListener.progress(bytesRead < 0 ? workDone.get() : bytesRead, totalWork);
+        }
+    }
+
+    private void checkAborted() throws InterruptedIOException {
+        if (aborted) {
+            throw new InterruptedIOException("Loading cancelled");
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int offset) throws IOException {
+        int total = 0;
+        while (offset + total < buffer.length) {
+            int count = in.read(buffer, offset + total, buffer.length - offset - total);
+            if (count < 0) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    private static int lastIndexOf(byte[] bytes, int length, byte b) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the byte in the range, or end if it is not found
+     */
+    private static int indexOf(ByteBuffer buffer, int start, int end, byte b) {
+        int i = start;
+        while (i < end && buffer.get(i) != b) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isBlank(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, CHARSET);
+    }
+
+    /**
+     * A contiguous range of whole lines in the data section.
+     */
+    private class Chunk {
+        Chunk(long start, int length) {
+            this.start = start;
+            this.length = length;
+        }
+
+        Chunk(ByteBuffer buffer) {
+            this.start = -1;
+            this.length = buffer.limit();
+            this.buffer = buffer;
+        }
+
+        ByteBuffer getBuffer() throws IOException {
+            if (buffer != null) {
+                return buffer;
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+
+        final long start;
+        final int length;
+        ByteBuffer buffer = null;
+
+        // the rows kept (all of them unless the parse is sampled) and where they go
+        int rowCount = 0;
+        int rowOffset = 0;
+        // the lines of data in the chunk and the number of lines before it
+        int lineCount = 0;
+        long lineOffset = 0;
+        boolean terminated = false;
+
+        // the length of the complete rows and whether there is a row after them without a
+        // line break
+        int dataLength = 0;
+        boolean lastRowIncomplete = false;
+
+        boolean[] hasDecimalPoint;
+        String[][] categories;
+
+        // used when parsing a stream as the total number of rows is not known in advance
+        long[] states;
+        double[][] columns;
+    }
+
+    /**
+     * Converts decimal numbers in a byte buffer to doubles without creating strings. Values
+     * that can be represented exactly from their significand and a power of ten are
+     * calculated directly, anything else is passed to Double.parseDouble.
+     */
+    static class NumberScanner {
+
+        private static final double[] POWERS_OF_TEN = {
+                1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+                1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+        };
+
+        private static final long MAX_EXACT_SIGNIFICAND = 1L << 53;
+
+        /**
+         * @return true if the bytes are a number, in which case value and hasDecimalPoint are set.
+         */
+        boolean scan(ByteBuffer buffer, int start, int end) {
+            while (start < end && buffer.get(start) <= ' ') {
+                start++;
+            }
+            while (end > start && buffer.get(end - 1) <= ' ') {
+                end--;
+            }
+            if (start == end) {
+                return false;
+            }
+
+            int i = start;
+            byte c = buffer.get(i);
+            boolean negative = false;
+            if (c == '-' || c == '+') {
+                negative = (c == '-');
+                i++;
+            }
+
+            long significand = 0;
+            int significantDigits = 0;
+            int digits = 0;
+            int exponent = 0;
+            boolean decimalPoint = false;
+            boolean exact = true;
+            while (i < end) {
+                c = buffer.get(i);
+                if (c >= '0' && c <= '9') {
+                    digits++;
+                    if (significantDigits < 18) {
+                        significand = significand * 10 + (c - '0');
+                        if (significand != 0) {
+                            significantDigits++;
+                        }
+                        if (decimalPoint) {
+                            exponent--;
+                        }
+                    } else {
+                        if (c != '0') {
+                            exact = false;
+                        }
+                        if (!decimalPoint) {
+                            exponent++;
+                        }
+                    }
+                } else if (c == '.' && !decimalPoint) {
+                    decimalPoint = true;
+                } else {
+                    break;
+                }
+                i++;
+            }
+            if (digits == 0) {
+                return scanString(buffer, start, end);
+            }
+
+            if (i < end && (c == 'e' || c == 'E')) {
+                i++;
+                boolean negativeExponent = false;
+                if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                    negativeExponent = (buffer.get(i) == '-');
+                    i++;
+                }
+                int e = 0;
+                int exponentDigits = 0;
+                while (i < end && (c = buffer.get(i)) >= '0' && c <= '9') {
+                    if (e < 100000) {
+                        e = e * 10 + (c - '0');
+                    }
+                    exponentDigits++;
+                    i++;
+                }
+                if (exponentDigits == 0) {
+                    return scanString(buffer, start, end);
+                }
+                exponent += (negativeExponent ? -e : e);
+            }
+            if (i != end) {
+                return scanString(buffer, start, end);
+            }
+
+            if (exact && significand == 0) {
+                value = (negative ? -0.0 : 0.0);
+            } else if (exact && significand < MAX_EXACT_SIGNIFICAND && exponent >= -22 && exponent <= 22) {
+                double v = significand;
+                if (exponent < 0) {
+                    v /= POWERS_OF_TEN[-exponent];
+                } else {
+                    v *= POWERS_OF_TEN[exponent];
+                }
+                value = (negative ? -v : v);
+            } else {
+                value = Double.parseDouble(decode(buffer, start, end));
+            }
+            hasDecimalPoint = decimalPoint;
+            return true;
+        }
+
+        private boolean scanString(ByteBuffer buffer, int start, int end) {
+            String token = decode(buffer, start, end);
+            if (!NumberUtils.isNumber(token)) {
+                return false;
+            }
+            try {
+                value = Double.parseDouble(token);
+            } catch (NumberFormatException nfe) {
+                return false;
+            }
+            hasDecimalPoint = NumberUtils.hasDecimalPoint(token);
+            return true;
+        }
+
+        double value;
+        boolean hasDecimalPoint;
+    }
+
+    private ProgressListener progressListener;
+    private final AtomicLong workDone = new AtomicLong(0);
+    private long totalWork = -1;
+    private volatile boolean aborted = false;
+
+    private FileChannel channel = null;
+    private int headerLineCount = 0;
+
+    private String[] traceNames;
+    private int rowCount = 0;
+    private long[] states;
+    private double[][] columns;
+    private TraceType[] traceTypes;
+    private List<Map<Integer, String>> categoryLabelMaps;
+    private String[][] labels;
+    private long firstState = -1;
+    private long secondState = -1;
+    private long lastState = -1;
+    private long stepSize = -1;
+
+    // where the previous parse finished, for parseAppended
+    private int previousRowCount = 0;
+    private long dataEnd = -1;
+    private long parsedLength = 0;
+    private boolean terminated = false;
+    private boolean lastRowIncomplete = false;
+    private long[] incompleteRowState;
+    private int replacedRowCount = 0;
+
+    // the rows kept by the parse (see setSampling), with the state range worked out as
+    // the rows from the start of the data that it covers
+    private long minState = Long.MIN_VALUE;
+    private long maxState = Long.MAX_VALUE;
+    private int thinning = 1;
+    private long firstSampledRow = 0;
+    // the spacing of the states in the file, if setSampledRows found it
+    private long fileStepSize = -1;
+    private long lastSampledRow = Long.MAX_VALUE;
+
+    // where each row starts if the file has been indexed rather than parsed
+    private long[] rowStarts = null;
+    // where every RowIndex.STRIDE-th row starts
+    private RowIndex rowIndex = null;
+}
@@ -0,0 +1,168 @@
+/*
+ * MinMaxPyramid.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package tracer.traces;
+
+/**
+ * The positions of the lowest and highest values in blocks of a column of values, for
+ * blocks of each power-of-two size from BASE_BLOCK_SIZE up, so that the extremes of a
+ * range of the values can be found by reading a few blocks rather than every value. The
+ * raw trace plot uses it to find the extremes in each pixel column of long traces (see
+ * JTraceChart), which then only takes time in proportion to the square root of the
+ * number of values in a column.
+ */
+final class MinMaxPyramid {
+
+    private static final int BASE_SHIFT = 6;
+    static final int BASE_BLOCK_SIZE = 1 << BASE_SHIFT;
+
+    MinMaxPyramid(DoubleColumn values) {
+        this.values = values.getArray();
+        this.offset = values.getOffset();
+        this.size = values.size();
+
+        int levelCount = 0;
+        for (int blockCount = size >> BASE_SHIFT; blockCount > 1; blockCount >>= 1) {
+            levelCount++;
+        }
+        minIndices = new int[levelCount][];
+        maxIndices = new int[levelCount][];
+
+        for (int level = 0; level < levelCount; level++) {
+            int blockCount = size >> (BASE_SHIFT + level);
+            int[] min = new int[blockCount];
+            int[] max = new int[blockCount];
+            if (level == 0) {
+                int[] extremes = new int[2];
+                for (int block = 0; block < blockCount; block++) {
+                    extremes[0] = -1;
+                    extremes[1] = -1;
+                    scan(block << BASE_SHIFT, (block + 1) << BASE_SHIFT, extremes);
+                    min[block] = extremes[0];
+                    max[block] = extremes[1];
+                }
+            } else {
+                int[] lowerMin = minIndices[level - 1];
+                int[] lowerMax = maxIndices[level - 1];
+                for (int block = 0; block < blockCount; block++) {
+                    min[block] = lower(lowerMin[2 * block], lowerMin[2 * block + 1]);
+                    max[block] = higher(lowerMax[2 * block], lowerMax[2 * block + 1]);
+                }
+            }
+            minIndices[level] = min;
+            maxIndices[level] = max;
+        }
+    }
+
+    /**
+     * @return the number of values the pyramid is for
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Finds the indices of the lowest and highest values from fromIndex (inclusive) to
+     * toIndex (exclusive). The blocks used are about the square root of the range long,
+     * so only the values at either end that are not in a whole block are read.
+     *
+     * @param extremes set to the index of the lowest value and of the highest value
+     */
+    void findExtremes(int fromIndex, int toIndex, int[] extremes) {
+        if (fromIndex < 0 || toIndex > size || fromIndex >= toIndex) {
+            throw new IndexOutOfBoundsException("From: " + fromIndex + ", To: " + toIndex + ", Size: " + size);
+        }
+
+        int level = -1;
+        for (long length = toIndex - fromIndex; level + 1 < minIndices.length &&
+                (1L << (2 * (BASE_SHIFT + level + 1))) <= length; ) {
+            level++;
+        }
+
+        extremes[0] = -1;
+        extremes[1] = -1;
+        if (level < 0) {
+            scan(fromIndex, toIndex, extremes);
+            return;
+        }
+
+        int shift = BASE_SHIFT + level;
+        int firstBlock = (fromIndex + (1 << shift) - 1) >> shift;
+        int lastBlock = Math.min(toIndex >> shift, minIndices[level].length);
+
+        scan(fromIndex, Math.min(toIndex, firstBlock << shift), extremes);
+        int[] min = minIndices[level];
+        int[] max = maxIndices[level];
+        for (int block = firstBlock; block < lastBlock; block++) {
+            extremes[0] = extremes[0] < 0 ? min[block] : lower(extremes[0], min[block]);
+            extremes[1] = extremes[1] < 0 ? max[block] : higher(extremes[1], max[block]);
+        }
+        scan(Math.max(fromIndex, lastBlock << shift), toIndex, extremes);
+    }
+
+    /**
+     * Takes the values from fromIndex to toIndex into the extremes found so far, an index
+     * of -1 meaning none have been found yet.
+     */
+    private void scan(int fromIndex, int toIndex, int[] extremes) {
+        if (fromIndex >= toIndex) {
+            return;
+        }
+        int min = extremes[0] < 0 ? fromIndex : extremes[0];
+        int max = extremes[1] < 0 ? fromIndex : extremes[1];
+        double minValue = values[offset + min];
+        double maxValue = values[offset + max];
+        for (int i = fromIndex; i < toIndex; i++) {
+            double value = values[offset + i];
+            if (value < minValue) {
+                minValue = value;
+                min = i;
+            } else if (value > maxValue) {
+                maxValue = value;
+                max = i;
+            }
+        }
+        extremes[0] = min;
+        extremes[1] = max;
+    }
+
+    private int lower(int index1, int index2) {
+        return values[offset + index2] < values[offset + index1] ? index2 : index1;
+    }
+
+    private int higher(int index1, int index2) {
+        return values[offset + index2] > values[offset + index1] ? index2 : index1;
+    }
+
+    private final double[] values;
+    private final int offset;
+    private final int size;
+
+    // the indices of the lowest and highest value in each block of each level, the blocks
+    // of level l being BASE_BLOCK_SIZE << l values long
+    private final int[][] minIndices;
+    private final int[][] maxIndices;
+}
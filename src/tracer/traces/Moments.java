@@ -0,0 +1,139 @@
+/*
+ * Moments.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package tracer.traces;
+
+/**
+ * Sums over a range of an array of values for the moments of a trace: the sums of the
+ * values' deviations from a reference, of their squares and of their logs. Each is
+ * summed into four sums at once, so the additions don't wait on each other and the JIT
+ * can keep them in registers (the JIT won't reorder floating point additions itself).
+ *
+ * The logs are summed by multiplying the values' mantissas, taking the log of the
+ * product only every so many values, and adding the exponents, as a log is much slower
+ * than a multiplication.
+ */
+final class Moments {
+
+    // the number of mantissas, each less than 2, multiplied before the product could overflow
+    private static final int PRODUCT_COUNT = 1000;
+
+    private Moments() {
+    }
+
+    /**
+     * Sums the deviations of x[from] to x[to - 1] from the reference and their squares.
+     *
+     * @param sums set to the sum of the deviations and the sum of their squares
+     */
+    static void sumDeviations(double[] x, int from, int to, double reference, double[] sums) {
+        double sum0 = 0.0;
+        double sum1 = 0.0;
+        double sum2 = 0.0;
+        double sum3 = 0.0;
+        double squareSum0 = 0.0;
+        double squareSum1 = 0.0;
+        double squareSum2 = 0.0;
+        double squareSum3 = 0.0;
+        int i = from;
+        for (; i + 3 < to; i += 4) {
+            double deviation0 = x[i] - reference;
+            double deviation1 = x[i + 1] - reference;
+            double deviation2 = x[i + 2] - reference;
+            double deviation3 = x[i + 3] - reference;
+            sum0 += deviation0;
+            sum1 += deviation1;
+            sum2 += deviation2;
+            sum3 += deviation3;
+            squareSum0 += deviation0 * deviation0;
+            squareSum1 += deviation1 * deviation1;
+            squareSum2 += deviation2 * deviation2;
+            squareSum3 += deviation3 * deviation3;
+        }
+        for (; i < to; i++) {
+            double deviation = x[i] - reference;
+            sum0 += deviation;
+            squareSum0 += deviation * deviation;
+        }
+        sums[0] = (sum0 + sum1) + (sum2 + sum3);
+        sums[1] = (squareSum0 + squareSum1) + (squareSum2 + squareSum3);
+    }
+
+    /**
+     * @return the sum of x[from] to x[to - 1]
+     */
+    static double sum(double[] x, int from, int to) {
+        double sum0 = 0.0;
+        double sum1 = 0.0;
+        double sum2 = 0.0;
+        double sum3 = 0.0;
+        int i = from;
+        for (; i + 3 < to; i += 4) {
+            sum0 += x[i];
+            sum1 += x[i + 1];
+            sum2 += x[i + 2];
+            sum3 += x[i + 3];
+        }
+        for (; i < to; i++) {
+            sum0 += x[i];
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    /**
+     * @return the sum of the logs of x[from] to x[to - 1], which is only a number if they
+     * are all positive
+     */
+    static double sumLogs(double[] x, int from, int to) {
+        double logSum = 0.0;
+        long exponentSum = 0;
+        double product = 1.0;
+        int productCount = 0;
+        for (int i = from; i < to; i++) {
+            double value = x[i];
+            if (!(value >= Double.MIN_NORMAL) || value == Double.POSITIVE_INFINITY) {
+                // zero, negative, subnormal, infinite or NaN values give the same log sum
+                // as Math.log
+                logSum += Math.log(value);
+                continue;
+            }
+            int exponent = Math.getExponent(value);
+            exponentSum += exponent;
+            // the mantissa, from 1 to 2
+            product *= Double.longBitsToDouble((Double.doubleToRawLongBits(value) & MANTISSA_BITS) | ONE_BITS);
+            if (++productCount == PRODUCT_COUNT) {
+                logSum += Math.log(product);
+                product = 1.0;
+                productCount = 0;
+            }
+        }
+        return logSum + Math.log(product) + exponentSum * LOG_2;
+    }
+
+    private static final long MANTISSA_BITS = 0x000fffffffffffffL;
+    private static final long ONE_BITS = 0x3ff0000000000000L;
+    private static final double LOG_2 = Math.log(2.0);
+}
@@ -0,0 +1,407 @@
+/*
+ * OrderStatistics.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package tracer.traces;
+
+import dr.inference.trace.TraceList;
+import dr.stats.Variate;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The values of a sample sorted, from which its quantiles and HPD intervals are read off
+ * without sorting it again. The quantiles and HPD intervals are as DiscreteStatistics
+ * (and so TraceDistribution) finds them.
+ *
+ * The order statistics of a trace after its burn-in are kept with the trace (see
+ * getOrderStatistics), so the panels and analyses that need the quantiles of the same
+ * trace only sort it once between them.
+ *
+ * The order statistics can also be approximate, from a QuantileSketch of the values:
+ * each value kept then stands for a number of values, and the cumulative counts of the
+ * values are kept with them. The quantiles and HPD intervals are then read off the
+ * counts, and are within the sketch's rank error of the exact ones. The minimum, maximum
+ * and mean are still exact.
+ */
+public class OrderStatistics {
+
+    public OrderStatistics(List<Double> values) {
+        this(DoubleColumn.valueOf(values));
+    }
+
+    public OrderStatistics(Variate.D values) {
+        this(new double[values.getCount()]);
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = values.get(i);
+        }
+        Arrays.sort(sorted);
+    }
+
+    public OrderStatistics(DoubleColumn values) {
+        this(values.toArray());
+        Arrays.sort(sorted);
+    }
+
+    /**
+     * @param sorted values that are already sorted, used as is (not copied)
+     */
+    private OrderStatistics(double[] sorted) {
+        if (sorted.length == 0) {
+            throw new IllegalArgumentException("There are no values to sort");
+        }
+        this.sorted = sorted;
+        ranks = null;
+        minimum = sorted[0];
+        maximum = sorted[sorted.length - 1];
+        sum = Double.NaN;
+    }
+
+    private OrderStatistics(double[] sorted, long[] ranks, double minimum, double maximum, double sum) {
+        if (sorted.length == 0) {
+            throw new IllegalArgumentException("There are no values to sort");
+        }
+        this.sorted = sorted;
+        this.ranks = ranks;
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.sum = sum;
+    }
+
+    static OrderStatistics wrapSorted(double[] sorted) {
+        return new OrderStatistics(sorted);
+    }
+
+    /**
+     * @param sorted  values that are already sorted, used as is (not copied)
+     * @param ranks   the number of values at or below each of them, used as is
+     * @param minimum the minimum of all the values
+     * @param maximum the maximum of all the values
+     * @param sum     the sum of all the values
+     */
+    static OrderStatistics wrapApproximate(double[] sorted, long[] ranks, double minimum, double maximum, double sum) {
+        return new OrderStatistics(sorted, ranks, minimum, maximum, sum);
+    }
+
+    /**
+     * @return the order statistics of the samples put together, their sorted values
+     * merged a pair at a time (in O(n log k) for n values in k parts) rather than sorted
+     * again, and approximate if any of them are
+     */
+    static OrderStatistics merge(OrderStatistics[] parts) {
+        for (OrderStatistics part : parts) {
+            if (part.isApproximate()) {
+                return mergeApproximate(parts);
+            }
+        }
+        double[][] runs = new double[parts.length][];
+        for (int i = 0; i < parts.length; i++) {
+            runs[i] = parts[i].sorted;
+        }
+        mergeRuns(runs, null);
+        return new OrderStatistics(runs[0]);
+    }
+
+    /**
+     * Merges the values of the parts with the number of values each stands for, and
+     * then sums the numbers into ranks.
+     */
+    private static OrderStatistics mergeApproximate(OrderStatistics[] parts) {
+        double[][] runs = new double[parts.length][];
+        long[][] weights = new long[parts.length][];
+        double minimum = Double.POSITIVE_INFINITY;
+        double maximum = Double.NEGATIVE_INFINITY;
+        double sum = 0.0;
+        for (int i = 0; i < parts.length; i++) {
+            runs[i] = parts[i].sorted;
+            weights[i] = parts[i].getWeights();
+            minimum = Math.min(minimum, parts[i].getMinimum());
+            maximum = Math.max(maximum, parts[i].getMaximum());
+            sum += parts[i].getSum();
+        }
+        mergeRuns(runs, weights);
+        long[] ranks = weights[0];
+        for (int i = 1; i < ranks.length; i++) {
+            ranks[i] += ranks[i - 1];
+        }
+        return new OrderStatistics(runs[0], ranks, minimum, maximum, sum);
+    }
+
+    /**
+     * Merges the sorted runs (and the weights of their values, if not null) in balanced
+     * pairs until there is one, which is left in the first element of each array.
+     */
+    private static void mergeRuns(double[][] runs, long[][] weights) {
+        int runCount = runs.length;
+        while (runCount > 1) {
+            int mergedCount = 0;
+            for (int run = 0; run < runCount; run += 2) {
+                if (run + 1 < runCount) {
+                    merge(runs, weights, run, run + 1, mergedCount);
+                } else {
+                    runs[mergedCount] = runs[run];
+                    if (weights != null) {
+                        weights[mergedCount] = weights[run];
+                    }
+                }
+                mergedCount++;
+            }
+            runCount = mergedCount;
+        }
+    }
+
+    /**
+     * Merges two sorted runs (and their weights) into the destination element, taking the
+     * first run's value when they are equal.
+     */
+    private static void merge(double[][] runs, long[][] weights, int first, int second, int destination) {
+        double[] a = runs[first];
+        double[] b = runs[second];
+        long[] aWeights = (weights != null ? weights[first] : null);
+        long[] bWeights = (weights != null ? weights[second] : null);
+        double[] merged = new double[a.length + b.length];
+        long[] mergedWeights = (weights != null ? new long[merged.length] : null);
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < a.length && j < b.length) {
+            if (b[j] < a[i]) {
+                if (mergedWeights != null) {
+                    mergedWeights[k] = bWeights[j];
+                }
+                merged[k++] = b[j++];
+            } else {
+                if (mergedWeights != null) {
+                    mergedWeights[k] = aWeights[i];
+                }
+                merged[k++] = a[i++];
+            }
+        }
+        if (mergedWeights != null) {
+            System.arraycopy(aWeights, i, mergedWeights, k, a.length - i);
+            System.arraycopy(bWeights, j, mergedWeights, k + a.length - i, b.length - j);
+        }
+        System.arraycopy(a, i, merged, k, a.length - i);
+        System.arraycopy(b, j, merged, k + a.length - i, b.length - j);
+        runs[destination] = merged;
+        if (weights != null) {
+            weights[destination] = mergedWeights;
+        }
+    }
+
+    /**
+     * Summarises the values by those at evenly spaced ranks, each standing for the values
+     * since the last, so the quantiles and HPD intervals of merged summaries are within
+     * about 1 / size of each summary's count of the exact ones. The minimum, maximum and
+     * sum are kept exactly.
+     *
+     * @return the summary, or these order statistics if they keep no more than size values
+     */
+    OrderStatistics getSummary(int size) {
+        if (sorted.length <= size) {
+            return this;
+        }
+        long count = getCount();
+        double[] values = new double[size];
+        long[] summaryRanks = new long[size];
+        for (int i = 0; i < size; i++) {
+            summaryRanks[i] = (long) Math.ceil((double) (i + 1) * count / size);
+            values[i] = getValueAtRank(summaryRanks[i]);
+        }
+        return new OrderStatistics(values, summaryRanks, minimum, maximum, getSum());
+    }
+
+    /**
+     * @return the number of values each value stands for
+     */
+    private long[] getWeights() {
+        long[] weights = new long[sorted.length];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = getRank(i) - (i > 0 ? getRank(i - 1) : 0);
+        }
+        return weights;
+    }
+
+    /**
+     * @return the values sorted, each of which stands for a number of values if the
+     * order statistics are approximate
+     */
+    double[] getSortedValues() {
+        return sorted;
+    }
+
+    /**
+     * @return the number of values at or below each of the sorted values, or null if the
+     * order statistics are exact
+     */
+    long[] getRanks() {
+        return ranks;
+    }
+
+    /**
+     * @return true if the order statistics are from a sketch of the values, so the
+     * quantiles and HPD intervals are approximate
+     */
+    public boolean isApproximate() {
+        return ranks != null;
+    }
+
+    /**
+     * Returns the order statistics of the values of a trace after the burn-in. Those of
+     * a trace in a ColumnarLogFileTraces without filters are shared.
+     */
+    public static OrderStatistics getOrderStatistics(TraceList traceList, int index) {
+        if (traceList instanceof ColumnarLogFileTraces) {
+            return ((ColumnarLogFileTraces) traceList).getOrderStatistics(index);
+        }
+        return new OrderStatistics(traceList.getValues(index));
+    }
+
+    public int getSize() {
+        return (int) getCount();
+    }
+
+    public double getMinimum() {
+        return minimum;
+    }
+
+    public double getMaximum() {
+        return maximum;
+    }
+
+    public double getMean() {
+        return getSum() / getCount();
+    }
+
+    private long getCount() {
+        return getRank(sorted.length - 1);
+    }
+
+    private double getSum() {
+        if (ranks != null) {
+            return sum;
+        }
+        double sum = 0.0;
+        for (double value : sorted) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    /**
+     * @return the number of values at or below the ith value kept
+     */
+    private long getRank(int i) {
+        return (ranks != null ? ranks[i] : i + 1);
+    }
+
+    public double getMedian() {
+        return getQuantile(0.5);
+    }
+
+    /**
+     * @param q the quantile, greater than 0 and at most 1
+     * @return the value with a proportion q of the values at or below it
+     */
+    public double getQuantile(double q) {
+        if (q <= 0.0 || q > 1.0) {
+            throw new IllegalArgumentException("Quantile out of range");
+        }
+        return getValueAtRank((long) Math.ceil(q * getCount()));
+    }
+
+    /**
+     * @return the value with the given number of values at or below it
+     */
+    private double getValueAtRank(long rank) {
+        if (ranks == null) {
+            return sorted[(int) rank - 1];
+        }
+        int index = Arrays.binarySearch(ranks, rank);
+        return sorted[index >= 0 ? index : -index - 1];
+    }
+
+    /**
+     * Slides a window of the proportion of the values along them to find the narrowest,
+     * the first if there are several. For approximate order statistics the window is of
+     * the values kept that stand for at least that proportion.
+     *
+     * @return the lower and upper bounds of the highest posterior density interval
+     */
+    public double[] getHPDInterval(double proportion) {
+        long diff = Math.round(proportion * getCount());
+        if (diff < 1) {
+            return new double[]{sorted[0], sorted[0]};
+        }
+        if (ranks == null) {
+            return getHPDInterval((int) diff);
+        }
+        int hpdLower = 0;
+        int hpdUpper = 0;
+        double minRange = Double.MAX_VALUE;
+        int j = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            long start = (i > 0 ? ranks[i - 1] : 0);
+            while (j < sorted.length && ranks[j] - start < diff) {
+                j++;
+            }
+            if (j == sorted.length) {
+                break;
+            }
+            double range = Math.abs(sorted[j] - sorted[i]);
+            if (range < minRange) {
+                minRange = range;
+                hpdLower = i;
+                hpdUpper = j;
+            }
+        }
+        return new double[]{sorted[hpdLower], sorted[hpdUpper]};
+    }
+
+    private double[] getHPDInterval(int diff) {
+        int hpdIndex = 0;
+        double minRange = Double.MAX_VALUE;
+        for (int i = 0; i <= sorted.length - diff; i++) {
+            double range = Math.abs(sorted[i + diff - 1] - sorted[i]);
+            if (range < minRange) {
+                minRange = range;
+                hpdIndex = i;
+            }
+        }
+        return new double[]{sorted[hpdIndex], sorted[hpdIndex + diff - 1]};
+    }
+
+    private final double[] sorted;
+
+    // the number of values at or below each of the sorted values, or null if each of
+    // them is a single value
+    private final long[] ranks;
+
+    // the extremes and sum of all the values, which a sketch keeps exactly
+    private final double minimum;
+    private final double maximum;
+    private final double sum;
+}
@@ -0,0 +1,308 @@
+/*
+ * QuantileSketch.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package tracer.traces;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A sketch of a sample from which its quantiles and HPD intervals can be found, in
+ * bounded memory, to within a given error in rank (the proportion of the values below
+ * the quantile found is within the rank error of that wanted). It is the KLL sketch of
+ * Karnin, Lang and Liberty (2016): the values are added to the lowest of a stack of
+ * compactors, and when a compactor is full its values are sorted and every other one
+ * (from a random first) is passed up to the compactor above, where each stands for twice
+ * as many values. The compactors get smaller by 2/3 down the stack, so the sketch keeps
+ * about 3k values however many are added, with k set by the rank error.
+ *
+ * Until the lowest compactor first fills, the sketch has all the values and its order
+ * statistics are exact. The count, minimum, maximum and mean are always exact.
+ *
+ * The rank error is given by the tracer.sketch.error system property and the traces
+ * that are sketched rather than sorted (see TraceSummary) by the number of values given
+ * by tracer.sketch.count.
+ */
+public class QuantileSketch {
+
+    public static final String RANK_ERROR_PROPERTY = "tracer.sketch.error";
+    public static final String SKETCH_COUNT_PROPERTY = "tracer.sketch.count";
+
+    private static final double DEFAULT_RANK_ERROR = 0.001;
+    private static final int DEFAULT_SKETCH_COUNT = 1 << 25;
+
+    private static final double CAPACITY_RATIO = 2.0 / 3.0;
+    private static final int MIN_CAPACITY = 2;
+
+    /**
+     * @return the rank error of the sketches made with the default constructor
+     */
+    public static double getDefaultRankError() {
+        String rankError = System.getProperty(RANK_ERROR_PROPERTY);
+        if (rankError != null) {
+            try {
+                double value = Double.parseDouble(rankError);
+                if (value > 0.0 && value < 1.0) {
+                    return value;
+                }
+            } catch (NumberFormatException nfe) {
+                // do nothing
+            }
+        }
+        return DEFAULT_RANK_ERROR;
+    }
+
+    /**
+     * @return true if there are enough values that they should be sketched rather than
+     * sorted
+     */
+    public static boolean isSketched(long count) {
+        return count >= Integer.getInteger(SKETCH_COUNT_PROPERTY, DEFAULT_SKETCH_COUNT);
+    }
+
+    public QuantileSketch() {
+        this(getDefaultRankError());
+    }
+
+    /**
+     * @param rankError the error in rank, greater than 0 and less than 1
+     */
+    public QuantileSketch(double rankError) {
+        if (!(rankError > 0.0 && rankError < 1.0)) {
+            throw new IllegalArgumentException("Rank error out of range");
+        }
+        this.rankError = rankError;
+        // the error found empirically for the sketches of Apache DataSketches, which are
+        // compacted in the same way
+        k = (int) Math.ceil(Math.pow(2.296 / rankError, 1.0 / 0.9723));
+        levels = new double[0][];
+        levelSizes = new int[0];
+        addLevel();
+    }
+
+    public void add(double value) {
+        if (count == 0 || value < minimum) {
+            minimum = value;
+        }
+        if (count == 0 || value > maximum) {
+            maximum = value;
+        }
+        count++;
+        sum += value;
+
+        if (levelSizes[0] == levels[0].length) {
+            levels[0] = Arrays.copyOf(levels[0], Math.max(levels[0].length + (levels[0].length >> 1), 16));
+        }
+        levels[0][levelSizes[0]++] = value;
+        size++;
+        if (size >= maxSize) {
+            compress();
+        }
+    }
+
+    /**
+     * Adds the values of a column.
+     */
+    public void add(DoubleColumn values) {
+        double[] x = values.getArray();
+        int offset = values.getOffset();
+        for (int i = 0; i < values.size(); i++) {
+            add(x[offset + i]);
+        }
+    }
+
+    /**
+     * Adds the values sketched by another sketch, which is left as it is.
+     */
+    public void merge(QuantileSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0 || other.minimum < minimum) {
+            minimum = other.minimum;
+        }
+        if (count == 0 || other.maximum > maximum) {
+            maximum = other.maximum;
+        }
+        count += other.count;
+        sum += other.sum;
+
+        while (levels.length < other.levels.length) {
+            addLevel();
+        }
+        for (int h = 0; h < other.levels.length; h++) {
+            append(h, other.levels[h], 0, other.levelSizes[h]);
+        }
+        size += other.size;
+        while (size >= maxSize) {
+            compress();
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMinimum() {
+        return minimum;
+    }
+
+    public double getMaximum() {
+        return maximum;
+    }
+
+    public double getMean() {
+        return sum / count;
+    }
+
+    public double getRankError() {
+        return rankError;
+    }
+
+    /**
+     * @return true if values have been compacted, so the order statistics are approximate
+     */
+    public boolean isApproximate() {
+        return levels.length > 1;
+    }
+
+    /**
+     * @return the order statistics of the values, exact if there have been too few to
+     * compact any
+     */
+    public OrderStatistics getOrderStatistics() {
+        if (count == 0) {
+            throw new IllegalArgumentException("There are no values to sort");
+        }
+        if (!isApproximate()) {
+            double[] sorted = Arrays.copyOf(levels[0], levelSizes[0]);
+            Arrays.sort(sorted);
+            return OrderStatistics.wrapSorted(sorted);
+        }
+
+        OrderStatistics[] parts = new OrderStatistics[levels.length];
+        int partCount = 0;
+        for (int h = 0; h < levels.length; h++) {
+            if (levelSizes[h] > 0) {
+                double[] sorted = Arrays.copyOf(levels[h], levelSizes[h]);
+                Arrays.sort(sorted);
+                long[] ranks = new long[sorted.length];
+                for (int i = 0; i < ranks.length; i++) {
+                    ranks[i] = (long) (i + 1) << h;
+                }
+                // the extremes and sum of a part are not used as those of all the values are known
+                parts[partCount++] = OrderStatistics.wrapApproximate(sorted, ranks, minimum, maximum, 0.0);
+            }
+        }
+        OrderStatistics merged = OrderStatistics.merge(Arrays.copyOf(parts, partCount));
+        return OrderStatistics.wrapApproximate(merged.getSortedValues(), merged.getRanks(), minimum, maximum, sum);
+    }
+
+    /**
+     * Compacts the first compactor that is full, and those above it that then are too,
+     * until the sketch is within its size.
+     */
+    private void compress() {
+        for (int h = 0; h < levels.length; h++) {
+            if (levelSizes[h] >= getCapacity(h)) {
+                if (h + 1 == levels.length) {
+                    addLevel();
+                }
+                compact(h);
+                if (size < maxSize) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorts the values of a compactor and passes every other one up to the compactor
+     * above. One is left behind if there is an odd number.
+     */
+    private void compact(int h) {
+        double[] level = levels[h];
+        int levelSize = levelSizes[h];
+        Arrays.sort(level, 0, levelSize);
+
+        int left = levelSize % 2;
+        int pairCount = levelSize / 2;
+        int first = left + (random.nextBoolean() ? 1 : 0);
+        double[] promoted = new double[pairCount];
+        for (int i = 0; i < pairCount; i++) {
+            promoted[i] = level[first + 2 * i];
+        }
+        append(h + 1, promoted, 0, pairCount);
+        levelSizes[h] = left;
+        size -= pairCount;
+    }
+
+    private void append(int h, double[] values, int from, int to) {
+        int length = to - from;
+        if (levelSizes[h] + length > levels[h].length) {
+            levels[h] = Arrays.copyOf(levels[h], Math.max(levelSizes[h] + length, levels[h].length + (levels[h].length >> 1)));
+        }
+        System.arraycopy(values, from, levels[h], levelSizes[h], length);
+        levelSizes[h] += length;
+    }
+
+    private void addLevel() {
+        int height = levels.length;
+        levels = Arrays.copyOf(levels, height + 1);
+        levelSizes = Arrays.copyOf(levelSizes, height + 1);
+        levels[height] = new double[0];
+        maxSize = 0;
+        for (int h = 0; h <= height; h++) {
+            maxSize += getCapacity(h);
+        }
+    }
+
+    /**
+     * @return the number of values a compactor holds before it is compacted, less the
+     * further it is below the top
+     */
+    private int getCapacity(int h) {
+        int depth = levels.length - h - 1;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_RATIO, depth)));
+    }
+
+    private final double rankError;
+    private final int k;
+
+    // the values of each compactor, each of which stands for 2^h values
+    private double[][] levels;
+    private int[] levelSizes;
+    // the number of values kept, and the number above which they are compacted
+    private int size = 0;
+    private int maxSize;
+
+    private long count = 0;
+    private double minimum = Double.NaN;
+    private double maximum = Double.NaN;
+    private double sum = 0.0;
+
+    private final Random random = new Random();
+}
@@ -184,7 +184,7 @@ public class RawTracePanel extends TraceChartPanel {
                                 }
                             }
                         }
-                        Double[][] valueArrays = new Double[n][];
+                        DoubleColumn[] valueArrays = new DoubleColumn[n];
                         int k = 0;
                         for (TraceList tl : getTraceLists()) {
                             for (String traceName : getTraceNames()) {
@@ -193,10 +193,7 @@ public class RawTracePanel extends TraceChartPanel {
                                 Trace trace = tl.getTrace(traceIndex);
                                 if (trace != null) {
                                     if (trace.getTraceType().isNumber()) {
-                                        List values = tl.getValues(traceIndex);
-                                        Double[] ar = new Double[values.size()];
-                                        values.toArray(ar);
-                                        valueArrays[k] = ar;
+                                        valueArrays[k] = DoubleColumn.getValues(tl, traceIndex);
                                         k++;
                                     }
                                 }
@@ -266,10 +263,10 @@ public class RawTracePanel extends TraceChartPanel {
                     categoryLabels.addAll(trace.getCategoryLabelMap().values());
                 }
 
-                List values = tl.getValues(traceIndex);
-                List burninValues = null;
+                DoubleColumn values = DoubleColumn.getValues(tl, traceIndex);
+                DoubleColumn burninValues = null;
                 if (burninCheckBox.isSelected() && tl.getBurninStateCount() > 0) {
-                    burninValues = tl.getBurninValues(traceIndex);
+                    burninValues = DoubleColumn.getBurninValues(tl, traceIndex);
                 }
                 double[] minMax;
                 if (trace.getTraceType().isNumber()) {
@@ -331,10 +328,10 @@ public class RawTracePanel extends TraceChartPanel {
 //        return chartPanel;
 //    }
 
-    public void toAudio(Double[][] values) {
+    public void toAudio(DoubleColumn[] values) {
         int volume = 128;
 
-        int count = values[0].length;
+        int count = values[0].size();
 //        float frequency = 44100;
         float frequency = 10000;
         float audioLength = 2; // 2 second clip
@@ -354,11 +351,11 @@ public class RawTracePanel extends TraceChartPanel {
             double minValue = Double.MAX_VALUE;
 
             for (int i = 0; i < values.length; i++) {
-                if (values[k][i] > maxValue) {
-                    maxValue = values[k][i];
+                if (values[k].get(i) > maxValue) {
+                    maxValue = values[k].get(i);
                 }
-                if (values[k][i] < minValue) {
-                    minValue = values[k][i];
+                if (values[k].get(i) < minValue) {
+                    minValue = values[k].get(i);
                 }
             }
             minValues[k] = minValue;
@@ -372,10 +369,10 @@ public class RawTracePanel extends TraceChartPanel {
             sdl.open(af);
             sdl.start();
 //            for(int i=0; i < msecs*frequency/1000; i++){
-            for (int i = 0; i < values[0].length; i++) {
+            for (int i = 0; i < values[0].size(); i++) {
 
                 for (int k = 0; k < values.length; k++) {
-                    double x = (values[k][i] - minValues[k]) / ranges[k];
+                    double x = (values[k].get(i) - minValues[k]) / ranges[k];
                     buf[k] = (byte) (x * volume);
                 }
 //                if(addHarmonic) {
@@ -405,8 +402,7 @@ public class RawTracePanel extends TraceChartPanel {
 
         //Plot plot = densityChart.getPlot(0);
 
-        ArrayList<ArrayList> traceStates = new ArrayList<ArrayList>();
-        ArrayList<ArrayList> traceValues = new ArrayList<ArrayList>();
+        List<DoubleColumn> traceValues = new ArrayList<DoubleColumn>();
         int maxLength = 0;
 
         for (int i = 0; i < getChart().getPlotCount(); i++) {
@@ -418,26 +414,25 @@ public class RawTracePanel extends TraceChartPanel {
             buffer.append("\t");
             buffer.append(plot.getName());
 
-            traceStates.add(i, new ArrayList(getChart().getTraceStates(i)));
-            traceValues.add(i, new ArrayList(getChart().getTraceValues(i)));
-            if (traceStates.get(i).size() > maxLength) {
-                maxLength = traceStates.get(i).size();
+            traceValues.add(i, getChart().getTraceValues(i));
+            if (traceValues.get(i).size() > maxLength) {
+                maxLength = traceValues.get(i).size();
             }
         }
         buffer.append("\n");
 
         for (int i = 0; i < maxLength; i++) {
-            if (traceStates.get(0).size() > i) {
-                buffer.append(traceStates.get(0).get(i));
+            if (traceValues.get(0).size() > i) {
+                buffer.append(getChart().getTraceState(0, i));
                 buffer.append("\t");
                 buffer.append(String.valueOf(traceValues.get(0).get(i)));
             } else {
                 buffer.append("\t");
             }
-            for (int j = 1; j < traceStates.size(); j++) {
-                if (traceStates.get(j).size() > i) {
+            for (int j = 1; j < traceValues.size(); j++) {
+                if (traceValues.get(j).size() > i) {
                     buffer.append("\t");
-                    buffer.append(traceStates.get(j).get(i));
+                    buffer.append(getChart().getTraceState(j, i));
                     buffer.append("\t");
                     buffer.append(String.valueOf(traceValues.get(j).get(i)));
                 } else {
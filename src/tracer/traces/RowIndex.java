@@ -0,0 +1,137 @@
+/*
+ * RowIndex.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package tracer.traces;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The positions of the rows of a log file, so that a row (and so the row of a state, as
+ * the states are evenly spaced) can be found without reading the file from the start.
+ * The position of every STRIDE-th row is kept and the rows in between are found by
+ * scanning forward for line breaks.
+ *
+ * The index is filled in by LogFileParser as it parses the file, each row being recorded
+ * by the thread that parses it.
+ */
+public class RowIndex {
+
+    public static final int STRIDE = 64;
+
+    // how much of the file is read at a time when scanning for a row
+    private static final int SCAN_SIZE = 1 << 16;
+
+    RowIndex() {
+        offsets = new long[16];
+    }
+
+    /**
+     * @return the number of rows in the index
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Finds the position of a row in the file by going to the nearest indexed row before
+     * it and scanning forward.
+     *
+     * @return the position of the first byte of the row
+     */
+    public long getRowOffset(FileChannel channel, int row) throws IOException {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + rowCount);
+        }
+        long position = offsets[row / STRIDE];
+        int rowsToSkip = row % STRIDE;
+
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_SIZE);
+        while (rowsToSkip > 0) {
+            buffer.clear();
+            int count = channel.read(buffer, position);
+            if (count <= 0) {
+                throw new IOException("Trace file is shorter than when it was indexed");
+            }
+            for (int i = 0; i < count && rowsToSkip > 0; i++) {
+                if (buffer.get(i) == '\n') {
+                    rowsToSkip--;
+                    if (rowsToSkip == 0) {
+                        return position + i + 1;
+                    }
+                }
+            }
+            position += count;
+        }
+        return position;
+    }
+
+    /**
+     * Makes room for the rows of a parse. Rows from before are kept.
+     */
+    void setRowCount(int rowCount) {
+        int size = rowCount / STRIDE + 1;
+        if (size > offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(size, offsets.length + (offsets.length >> 1)));
+        }
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * @return true if the position of the row should be recorded with setRowOffset
+     */
+    static boolean isIndexed(int row) {
+        return row % STRIDE == 0;
+    }
+
+    void setRowOffset(int row, long offset) {
+        offsets[row / STRIDE] = offset;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(rowCount);
+        int size = (rowCount + STRIDE - 1) / STRIDE;
+        for (int i = 0; i < size; i++) {
+            out.writeLong(offsets[i]);
+        }
+    }
+
+    static RowIndex read(DataInput in) throws IOException {
+        RowIndex rowIndex = new RowIndex();
+        rowIndex.setRowCount(in.readInt());
+        int size = (rowIndex.rowCount + STRIDE - 1) / STRIDE;
+        for (int i = 0; i < size; i++) {
+            rowIndex.offsets[i] = in.readLong();
+        }
+        return rowIndex;
+    }
+
+    private long[] offsets;
+    private int rowCount = 0;
+}
@@ -0,0 +1,133 @@
+/*
+ * SpillFile.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package tracer.traces;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A temporary file that the columns of a trace list are written to when they are
+ * spilled out of memory (see TraceMemoryManager) and read back from when they are next
+ * needed. Columns are only ever appended, so a column that is spilled again without
+ * having changed keeps its place, and the file is deleted when the trace list is
+ * removed (or when Tracer exits).
+ */
+class SpillFile {
+
+    // the number of doubles read or written at a time
+    private static final int BLOCK_SIZE = 1 << 17;
+
+    SpillFile() throws IOException {
+        file = File.createTempFile("tracer", ".spill");
+        file.deleteOnExit();
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+    }
+
+    /**
+     * Appends the first count values of an array.
+     *
+     * @return the position of the values in the file
+     */
+    synchronized long write(double[] values, int count) throws IOException {
+        long offset = length;
+        long position = length;
+        int index = 0;
+        while (index < count) {
+            int blockCount = Math.min(BLOCK_SIZE, count - index);
+            buffer.asDoubleBuffer().put(values, index, blockCount);
+            buffer.clear();
+            buffer.limit(blockCount * 8);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+            index += blockCount;
+        }
+        length = position;
+        return offset;
+    }
+
+    /**
+     * Reads values written by write.
+     *
+     * @param offset the position returned by write
+     * @param count  the number of values written
+     * @param size   the length of the array to return, at least count
+     */
+    synchronized double[] read(long offset, int count, int size) throws IOException {
+        double[] values = new double[size];
+        long position = offset;
+        int index = 0;
+        while (index < count) {
+            int blockCount = Math.min(BLOCK_SIZE, count - index);
+            buffer.clear();
+            buffer.limit(blockCount * 8);
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read < 0) {
+                    throw new IOException("Spill file " + file + " is shorter than expected");
+                }
+            }
+            buffer.clear();
+            DoubleBuffer doubles = buffer.asDoubleBuffer();
+            doubles.get(values, index, blockCount);
+            position += blockCount * 8L;
+            index += blockCount;
+        }
+        buffer.clear();
+        return values;
+    }
+
+    /**
+     * @return the number of bytes written to the file
+     */
+    synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * Closes and deletes the file. Columns that were spilled to it can't be read again.
+     */
+    synchronized void delete() {
+        try {
+            randomAccessFile.close();
+        } catch (IOException ioe) {
+            // do nothing
+        }
+        file.delete();
+    }
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE * 8);
+    private long length = 0;
+}
@@ -0,0 +1,125 @@
+/*
+ * StatisticsCache.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package tracer.traces;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The statistics of the traces in recently seen configurations, so that going back to a
+ * burn-in, a selection of files or filters that was used before shows the statistics
+ * without finding them again. The statistics of a trace are kept by the configuration of
+ * its trace list (which trace list, which version of its values, and its burn-in and
+ * filters; see ColumnarLogFileTraces.getStatisticsConfiguration) and the index of the
+ * trace, and the least recently used are dropped when there are more than the size.
+ *
+ * The size is given by the tracer.statistics.cache system property.
+ */
+public class StatisticsCache<V> {
+
+    public static final String CACHE_SIZE_PROPERTY = "tracer.statistics.cache";
+
+    private static final int DEFAULT_CACHE_SIZE = 1 << 14;
+
+    StatisticsCache() {
+        final int size = Integer.getInteger(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE);
+        entries = new LinkedHashMap<Key, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    /**
+     * @return the statistics of the trace in the configuration, or null if they aren't
+     * kept (or the configuration is null)
+     */
+    synchronized V get(String configuration, int index) {
+        V value = (configuration != null ? entries.get(new Key(configuration, index)) : null);
+        if (value != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return value;
+    }
+
+    synchronized void put(String configuration, int index, V value) {
+        if (configuration != null && value != null) {
+            entries.put(new Key(configuration, index), value);
+        }
+    }
+
+    /**
+     * @return the number of times statistics have been found in the cache
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of times statistics have been looked for and not found
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    private static final class Key {
+
+        Key(String configuration, int index) {
+            this.configuration = configuration;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) object;
+            return index == key.index && configuration.equals(key.configuration);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * configuration.hashCode() + index;
+        }
+
+        private final String configuration;
+        private final int index;
+    }
+
+    private final LinkedHashMap<Key, V> entries;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+}
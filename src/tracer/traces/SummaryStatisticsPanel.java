@@ -58,6 +58,8 @@ public class SummaryStatisticsPanel extends JPanel implements Exportable {
     static final String SUM_ESS_ROW = "effective sample size (sum of ESS)";
     static final String NUM_SAMPLES = "number of samples";
     static final String UNIQUE_VALUES = "unique values";
+    // an almost equal to sign before the quantiles and HPD intervals that are approximate
+    static final String APPROXIMATE_MARK = "\u2248 ";
     static final String MIN_MAX = "value range";
 
     TraceList[] traceLists = null;
@@ -96,7 +98,9 @@ public class SummaryStatisticsPanel extends JPanel implements Exportable {
                     try {
                         Object n = statisticsModel.getValueAt(row,0);
                         Object v = statisticsModel.getValueAt(row,1);
-                        if (!v.equals("-")) {
+                        if (v.toString().startsWith(APPROXIMATE_MARK)) {
+                            statisticsTable.setToolTipText(n + " : " + v + " (approximate, from a sketch of the values)");
+                        } else if (!v.equals("-")) {
                             statisticsTable.setToolTipText(n + " : " + v);
                         }
                     } catch (RuntimeException e1) {
@@ -299,8 +303,7 @@ public class SummaryStatisticsPanel extends JPanel implements Exportable {
                             value = tc.getVariance();
                             break;
                         case 4:
-                            value = tc.getMedian();
-                            break;
+                            return markApproximate(tc, TraceAnalysis.formattedNumber(tc.getMedian()));
                         case 5:
                             return "[" + TraceAnalysis.formattedNumber(tc.getMinimum()) + ", " + TraceAnalysis.formattedNumber(tc.getMaximum()) + "]";
                         case 6:
@@ -309,7 +312,7 @@ public class SummaryStatisticsPanel extends JPanel implements Exportable {
                             break;
                         case 7:
                             if (tc.isConstant()) return "n/a";
-                            return "[" + TraceAnalysis.formattedNumber(tc.getLowerHPD()) + ", " + TraceAnalysis.formattedNumber(tc.getUpperHPD()) + "]";
+                            return markApproximate(tc, "[" + TraceAnalysis.formattedNumber(tc.getLowerHPD()) + ", " + TraceAnalysis.formattedNumber(tc.getUpperHPD()) + "]");
                         case 8:
                             if (tc.isConstant()) return "n/a";
                             value = tc.getACT();
@@ -369,6 +372,14 @@ public class SummaryStatisticsPanel extends JPanel implements Exportable {
             return TraceAnalysis.formattedNumber(value);
         }
 
+        /**
+         * Marks a quantile or HPD interval found from a sketch of the values, which is
+         * only within the sketch's rank error.
+         */
+        private String markApproximate(TraceCorrelation tc, String value) {
+            return FFTTraceCorrelation.isApproximate(tc) ? APPROXIMATE_MARK + value : value;
+        }
+
         public String getColumnName(int column) {
             if (column == 0) return "Summary Statistic";
             if (traceLists != null && traceNames != null) {
@@ -0,0 +1,540 @@
+/*
+ * TraceCache.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package tracer.traces;
+
+import dr.inference.trace.TraceCorrelation;
+import dr.inference.trace.TraceType;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A binary cache of the parsed columns of log files, and of the statistics of their
+ * traces, so that a file can be opened again without parsing and analysing it.
+ *
+ * The caches are kept in a directory in the user's home directory (or the directory
+ * given by the tracer.cache.dir system property) and are only used if the path, length
+ * and modification time of the log file are the same as when the cache was written. The
+ * statistics are also only used for the burn-in they were calculated with. The cache
+ * files are written in the background and the least recently written are deleted when
+ * the directory gets bigger than MAX_CACHE_SIZE. Caching can be turned off by setting the
+ * tracer.cache.disable system property to true.
+ */
+public class TraceCache {
+
+    public static final String CACHE_DIRECTORY_PROPERTY = "tracer.cache.dir";
+    public static final String DISABLE_CACHE_PROPERTY = "tracer.cache.disable";
+
+    private static final long MAX_CACHE_SIZE = 8L << 30;
+
+    private static final int COLUMNS_MAGIC = 0x54524343; // "TRCC"
+    private static final int STATISTICS_MAGIC = 0x54524353; // "TRCS"
+    private static final int VERSION = 2;
+    // the ESS is found differently since version 2 of the statistics
+    private static final int STATISTICS_VERSION = 3;
+
+    private static final String COLUMNS_SUFFIX = ".columns";
+    private static final String STATISTICS_SUFFIX = ".statistics";
+
+    // the number of doubles mapped or written at a time
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "TraceCache");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /**
+     * Identifies the version of a log file that a cache was made from.
+     */
+    public static class Key {
+        public Key(File file, long length, long lastModified) throws IOException {
+            this.path = file.getCanonicalPath();
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        private void write(DataOutput out) throws IOException {
+            out.writeUTF(path);
+            out.writeLong(length);
+            out.writeLong(lastModified);
+        }
+
+        private boolean matches(DataInput in) throws IOException {
+            return in.readUTF().equals(path) && in.readLong() == length && in.readLong() == lastModified;
+        }
+
+        private final String path;
+        private final long length;
+        private final long lastModified;
+    }
+
+    /**
+     * The traces read from a cache along with the parser state needed to follow the file.
+     */
+    static class Columns {
+        final LogFileParser parser;
+        final List<ColumnTrace> traces;
+
+        Columns(LogFileParser parser, List<ColumnTrace> traces) {
+            this.parser = parser;
+            this.traces = traces;
+        }
+    }
+
+    /**
+     * @return false if caching has been turned off with the tracer.cache.disable property
+     */
+    public static boolean isEnabled() {
+        return !Boolean.getBoolean(DISABLE_CACHE_PROPERTY);
+    }
+
+    /**
+     * @return the key for the current version of a file
+     */
+    public static Key getKey(File file) throws IOException {
+        return new Key(file, file.length(), file.lastModified());
+    }
+
+    /**
+     * Reads the columns cached for the file, if the cache is there and the file has not
+     * changed since it was written.
+     *
+     * @return the columns or null
+     */
+    static Columns readColumns(File file) {
+        File cacheFile = getCacheFile(file, COLUMNS_SUFFIX);
+        if (cacheFile == null || !cacheFile.exists()) {
+            return null;
+        }
+
+        try {
+            Key key = getKey(file);
+            RandomAccessFile randomAccessFile = new RandomAccessFile(cacheFile, "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                if (in.readInt() != COLUMNS_MAGIC || in.readInt() != VERSION || !key.matches(in)) {
+                    return null;
+                }
+                long dataStart = in.readLong();
+                int rowCount = in.readInt();
+                LogFileParser parser = LogFileParser.readState(in);
+
+                String[] names = parser.getTraceNames();
+                List<ColumnTrace> traces = new ArrayList<ColumnTrace>();
+                for (int i = 0; i < names.length; i++) {
+                    TraceType traceType = TraceType.valueOf(in.readUTF());
+                    Map<Integer, String> categoryLabelMap = null;
+                    int categoryCount = in.readInt();
+                    if (categoryCount >= 0) {
+                        categoryLabelMap = new HashMap<Integer, String>();
+                        for (int j = 0; j < categoryCount; j++) {
+                            categoryLabelMap.put(j, in.readUTF());
+                        }
+                    }
+
+                    double[] values = new double[rowCount];
+                    readDoubles(channel, dataStart + (long) i * rowCount * 8, values);
+                    traces.add(new ColumnTrace(names[i], traceType, values, rowCount, categoryLabelMap));
+                }
+                return new Columns(parser, traces);
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException ioe) {
+            // an unreadable cache is just ignored
+            return null;
+        } catch (RuntimeException re) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the columns of a file to the cache in the background.
+     *
+     * A file whose last row is incomplete is still being written so is not cached (and
+     * the last value of its traces may be replaced while the cache is being written).
+     *
+     * @param key    the version of the file that was parsed
+     * @param parser the parser that read the file
+     * @param traces the traces read from the file
+     */
+    static void writeColumns(final File file, final Key key, LogFileParser parser, List<ColumnTrace> traces) {
+        if (parser.isLastRowIncomplete() || traces.isEmpty()) {
+            return;
+        }
+        final File cacheFile = getCacheFile(file, COLUMNS_SUFFIX);
+        if (cacheFile == null) {
+            return;
+        }
+
+        // take everything needed now as the traces may change after this returns
+        final int rowCount = traces.get(0).getValueCount();
+        final byte[] header;
+        final DoubleColumn[] columns = new DoubleColumn[traces.size()];
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            parser.writeState(out);
+            for (int i = 0; i < traces.size(); i++) {
+                ColumnTrace trace = traces.get(i);
+                out.writeUTF(trace.getTraceType().name());
+                Map<Integer, String> categoryLabelMap = trace.getCategoryLabelMap();
+                if (trace.getTraceType().isCategorical() && categoryLabelMap != null) {
+                    out.writeInt(categoryLabelMap.size());
+                    for (int j = 0; j < categoryLabelMap.size(); j++) {
+                        out.writeUTF(categoryLabelMap.get(j));
+                    }
+                } else {
+                    out.writeInt(-1);
+                }
+                columns[i] = trace.getColumn(0, rowCount, null);
+            }
+            out.flush();
+            header = bytes.toByteArray();
+        } catch (IOException ioe) {
+            return;
+        }
+
+        writer.execute(new Runnable() {
+            public void run() {
+                File tempFile = new File(cacheFile.getPath() + ".tmp");
+                try {
+                    RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "rw");
+                    try {
+                        FileChannel channel = randomAccessFile.getChannel();
+                        channel.truncate(0);
+
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        DataOutputStream out = new DataOutputStream(bytes);
+                        out.writeInt(COLUMNS_MAGIC);
+                        out.writeInt(VERSION);
+                        key.write(out);
+                        // the columns start at the first multiple of 8 after the header
+                        long dataStart = bytes.size() + 8 + 4 + header.length;
+                        dataStart = (dataStart + 7) & ~7L;
+                        out.writeLong(dataStart);
+                        out.writeInt(rowCount);
+                        out.write(header);
+                        out.flush();
+                        channel.write(ByteBuffer.wrap(bytes.toByteArray()));
+
+                        long position = dataStart;
+                        for (DoubleColumn column : columns) {
+                            position = writeDoubles(channel, position, column);
+                        }
+                        channel.force(false);
+                    } finally {
+                        randomAccessFile.close();
+                    }
+                    replace(tempFile, cacheFile);
+                    pruneCache();
+                } catch (IOException ioe) {
+                    tempFile.delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the statistics cached for the traces of a file.
+     *
+     * @return an array with the statistics of each trace (or null for those without
+     * statistics), or null if there is no valid cache for the file and burn-in.
+     */
+    static TraceCorrelation[] readStatistics(File file, Key key, long burnIn, long stepSize, int traceCount) {
+        File cacheFile = getCacheFile(file, STATISTICS_SUFFIX);
+        if (cacheFile == null || !cacheFile.exists()) {
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            try {
+                if (in.readInt() != STATISTICS_MAGIC || in.readInt() != STATISTICS_VERSION || !key.matches(in) ||
+                        in.readLong() != burnIn || in.readLong() != stepSize || in.readInt() != traceCount) {
+                    return null;
+                }
+                TraceCorrelation[] statistics = new TraceCorrelation[traceCount];
+                for (int i = 0; i < traceCount; i++) {
+                    if (in.readBoolean()) {
+                        statistics[i] = CachedTraceCorrelation.read(in);
+                    }
+                }
+                return statistics;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            return null;
+        } catch (RuntimeException re) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the statistics of the traces to the cache in the background. Only the
+     * statistics of continuous traces are kept, the others are analysed again when the
+     * file is opened.
+     */
+    static void writeStatistics(File file, final Key key, final long burnIn, final long stepSize,
+                                List<ColumnTrace> traces) {
+        final File cacheFile = getCacheFile(file, STATISTICS_SUFFIX);
+        if (cacheFile == null) {
+            return;
+        }
+
+        final TraceCorrelation[] statistics = new TraceCorrelation[traces.size()];
+        for (int i = 0; i < statistics.length; i++) {
+            ColumnTrace trace = traces.get(i);
+            if (trace.getTraceType().isContinuous()) {
+                statistics[i] = trace.getTraceStatistics();
+            }
+        }
+
+        writer.execute(new Runnable() {
+            public void run() {
+                File tempFile = new File(cacheFile.getPath() + ".tmp");
+                try {
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+                    try {
+                        out.writeInt(STATISTICS_MAGIC);
+                        out.writeInt(STATISTICS_VERSION);
+                        key.write(out);
+                        out.writeLong(burnIn);
+                        out.writeLong(stepSize);
+                        out.writeInt(statistics.length);
+                        for (TraceCorrelation statistic : statistics) {
+                            out.writeBoolean(statistic != null);
+                            if (statistic != null) {
+                                CachedTraceCorrelation.write(out, statistic);
+                            }
+                        }
+                    } finally {
+                        out.close();
+                    }
+                    replace(tempFile, cacheFile);
+                } catch (IOException ioe) {
+                    tempFile.delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the directory the caches are kept in
+     */
+    public static File getCacheDirectory() {
+        String path = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+        if (path != null) {
+            return new File(path);
+        }
+        return new File(new File(System.getProperty("user.home"), ".tracer"), "cache");
+    }
+
+    /**
+     * @return the cache file for a log file, or null if the cache directory can't be created
+     */
+    private static File getCacheFile(File file, String suffix) {
+        File directory = getCacheDirectory();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return null;
+        }
+        String path;
+        try {
+            path = file.getCanonicalPath();
+        } catch (IOException ioe) {
+            path = file.getAbsolutePath();
+        }
+        // the file name is followed by a hash of its path to tell apart files with the same name
+        String name = file.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+        return new File(directory, name + "-" + Integer.toHexString(path.hashCode()) + suffix);
+    }
+
+    private static void readDoubles(FileChannel channel, long position, double[] values) throws IOException {
+        int offset = 0;
+        while (offset < values.length) {
+            int count = Math.min(BLOCK_SIZE, values.length - offset);
+            DoubleBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * 8).asDoubleBuffer();
+            buffer.get(values, offset, count);
+            offset += count;
+            position += (long) count * 8;
+        }
+    }
+
+    private static long writeDoubles(FileChannel channel, long position, DoubleColumn column) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(BLOCK_SIZE * 8);
+        DoubleBuffer buffer = bytes.asDoubleBuffer();
+        int offset = 0;
+        while (offset < column.size()) {
+            int count = Math.min(BLOCK_SIZE, column.size() - offset);
+            buffer.clear();
+            buffer.put(column.getArray(), column.getOffset() + offset, count);
+            bytes.clear();
+            bytes.limit(count * 8);
+            while (bytes.hasRemaining()) {
+                position += channel.write(bytes, position);
+            }
+            offset += count;
+        }
+        return position;
+    }
+
+    private static void replace(File tempFile, File file) throws IOException {
+        if (!tempFile.renameTo(file)) {
+            // renameTo does not replace an existing file on some platforms
+            file.delete();
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently written caches until the cache directory is smaller
+     * than MAX_CACHE_SIZE.
+     */
+    private static void pruneCache() {
+        File[] files = getCacheDirectory().listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File file1, File file2) {
+                long modified1 = file1.lastModified();
+                long modified2 = file2.lastModified();
+                return modified1 < modified2 ? 1 : (modified1 > modified2 ? -1 : 0);
+            }
+        });
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+            if (size > MAX_CACHE_SIZE) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Statistics read from the cache. TraceCorrelation calculates its statistics when it
+     * is constructed so this is constructed with a single value and then has the cached
+     * statistics filled in.
+     */
+    private static class CachedTraceCorrelation extends TraceCorrelation {
+
+        private CachedTraceCorrelation(TraceType traceType) {
+            super(Collections.singletonList(0.0), traceType, 0, true);
+        }
+
+        static void write(DataOutput out, TraceCorrelation statistics) throws IOException {
+            out.writeUTF(statistics.getTraceType().name());
+            out.writeInt(statistics.getSize());
+            out.writeDouble(statistics.getMinimum());
+            out.writeDouble(statistics.getMaximum());
+            out.writeDouble(statistics.getMean());
+            out.writeDouble(statistics.getMedian());
+            out.writeDouble(statistics.getQ1());
+            out.writeDouble(statistics.getQ3());
+            out.writeBoolean(statistics.hasGeometricMean());
+            out.writeDouble(statistics.getGeometricMean());
+            out.writeDouble(statistics.getStdError());
+            out.writeDouble(statistics.getVariance());
+            out.writeDouble(statistics.getLowerCPD());
+            out.writeDouble(statistics.getUpperCPD());
+            out.writeDouble(statistics.getLowerHPD());
+            out.writeDouble(statistics.getUpperHPD());
+            out.writeDouble(statistics.getHpdLowerCustom());
+            out.writeDouble(statistics.getHpdUpperCustom());
+            out.writeBoolean(statistics.isConstant());
+            out.writeDouble(statistics.getStdErrorOfMean());
+            out.writeDouble(statistics.getACT());
+            out.writeDouble(statistics.getESS());
+        }
+
+        static CachedTraceCorrelation read(DataInput in) throws IOException {
+            CachedTraceCorrelation statistics = new CachedTraceCorrelation(TraceType.valueOf(in.readUTF()));
+            statistics.size = in.readInt();
+            statistics.minimum = in.readDouble();
+            statistics.maximum = in.readDouble();
+            statistics.mean = in.readDouble();
+            statistics.median = in.readDouble();
+            statistics.q1 = in.readDouble();
+            statistics.q3 = in.readDouble();
+            statistics.hasGeometricMean = in.readBoolean();
+            statistics.geometricMean = in.readDouble();
+            statistics.stdError = in.readDouble();
+            statistics.variance = in.readDouble();
+            statistics.cpdLower = in.readDouble();
+            statistics.cpdUpper = in.readDouble();
+            statistics.hpdLower = in.readDouble();
+            statistics.hpdUpper = in.readDouble();
+            statistics.hpdLowerCustom = in.readDouble();
+            statistics.hpdUpperCustom = in.readDouble();
+            statistics.isConstant = in.readBoolean();
+            statistics.stdErrorOfMean = in.readDouble();
+            statistics.ACT = in.readDouble();
+            statistics.ESS = in.readDouble();
+            return statistics;
+        }
+
+        @Override
+        public boolean isConstant() {
+            return isConstant;
+        }
+
+        @Override
+        public double getStdErrorOfMean() {
+            return stdErrorOfMean;
+        }
+
+        @Override
+        public double getACT() {
+            return ACT;
+        }
+
+        @Override
+        public double getESS() {
+            return ESS;
+        }
+
+        private boolean isConstant;
+        private double stdErrorOfMean;
+        private double ACT;
+        private double ESS;
+    }
+}
@@ -38,6 +38,10 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * A shared code for the panel that displays a plot of traces,
@@ -327,6 +331,36 @@ public abstract class TraceChartPanel extends JPanel implements Exportable {
 
     }
 
+    // traces with more values than this are first plotted from a sample of PREVIEW_VALUE_COUNT
+    // of them while the full plots are made in the background
+    protected static final int PREVIEW_VALUE_COUNT = 10000;
+
+    private static final ExecutorService plotExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "TracePlots");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Making plots that is too slow for the event thread. The plots are prepared in the
+     * background and then shown on the event thread, unless the panel has been set up
+     * again (another trace selected, say) in the meantime, in which case they are
+     * dropped.
+     */
+    protected abstract class PlotTask<T> {
+        /**
+         * Called in the background, so must not touch the chart.
+         */
+        protected abstract T prepare();
+
+        /**
+         * Called on the event thread with what prepare returned.
+         */
+        protected abstract void show(T prepared);
+    }
+
     //++++++ setup traces +++++++
     private TraceList[] traceLists = null;
     private java.util.List<String> traceNames = null;
@@ -334,6 +368,9 @@ public abstract class TraceChartPanel extends JPanel implements Exportable {
 
     private String message = null;
 
+    private volatile int plotTaskGeneration = 0;
+    private Future<?> plotTaskFuture = null;
+
     /**
      * main panel
      */
@@ -354,6 +391,7 @@ public abstract class TraceChartPanel extends JPanel implements Exportable {
     }
 
     protected final void setupMainPanel() {
+        cancelPlotTask();
         if (traceLists == null || traceLists[0] == null || traceNames == null || traceNames.size() == 0) {
             setMessage("No traces selected.");
         } else {
@@ -382,6 +420,76 @@ public abstract class TraceChartPanel extends JPanel implements Exportable {
 
     protected abstract void setupTraces();
 
+    /**
+     * Starts making plots in the background, dropping any that are still being made.
+     */
+    protected final <T> void startPlotTask(final PlotTask<T> task) {
+        cancelPlotTask();
+        final int generation = plotTaskGeneration;
+        plotTaskFuture = plotExecutor.submit(new Runnable() {
+            public void run() {
+                if (generation != plotTaskGeneration) {
+                    return;
+                }
+                final T prepared;
+                try {
+                    prepared = task.prepare();
+                } catch (RuntimeException re) {
+                    // the preview is left in place
+                    return;
+                }
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        if (generation == plotTaskGeneration) {
+                            plotTaskFuture = null;
+                            task.show(prepared);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Drops any plots being made in the background.
+     */
+    protected final void cancelPlotTask() {
+        plotTaskGeneration++;
+        if (plotTaskFuture != null) {
+            plotTaskFuture.cancel(true);
+            plotTaskFuture = null;
+        }
+    }
+
+    /**
+     * @return true if the full plots are still being made in the background
+     */
+    public boolean isPreview() {
+        return plotTaskFuture != null;
+    }
+
+    /**
+     * @return true if a plot of the values should be previewed from a sample of them
+     */
+    protected static boolean isPreviewed(java.util.List<?> values) {
+        return values.size() > PREVIEW_VALUE_COUNT;
+    }
+
+    /**
+     * @return PREVIEW_VALUE_COUNT values evenly spaced through the values, or the values
+     * themselves if there are not more than that
+     */
+    protected static java.util.List<Double> getPreviewValues(java.util.List<Double> values) {
+        if (!isPreviewed(values)) {
+            return values;
+        }
+        java.util.List<Double> preview = new ArrayList<Double>(PREVIEW_VALUE_COUNT);
+        for (int i = 0; i < PREVIEW_VALUE_COUNT; i++) {
+            preview.add(values.get((int) ((long) i * values.size() / PREVIEW_VALUE_COUNT)));
+        }
+        return preview;
+    }
+
     protected int getTraceCount() {
         return getTraceLists().length * getTraceNames().size();
     }
@@ -0,0 +1,125 @@
+/*
+ * TraceMemoryManager.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package tracer.traces;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Keeps the memory used by the columns of the loaded trace lists within a budget by
+ * spilling the trace lists that were least recently used to temporary files (see
+ * ColumnarLogFileTraces.spill). A spilled trace list reads its columns back when they
+ * are next used, so spilling is invisible other than in the time this takes.
+ *
+ * The budget is given in megabytes by the tracer.memory.budget system property and is
+ * half of the maximum heap by default.
+ */
+public class TraceMemoryManager {
+
+    public static final String MEMORY_BUDGET_PROPERTY = "tracer.memory.budget";
+
+    public TraceMemoryManager() {
+        long budget = Long.getLong(MEMORY_BUDGET_PROPERTY, -1);
+        this.budget = (budget > 0 ? budget << 20 : Runtime.getRuntime().maxMemory() / 2);
+    }
+
+    /**
+     * @return the number of bytes the trace lists may use before they are spilled
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the number of bytes used by the columns of the trace lists in memory
+     */
+    public synchronized long getFootprint() {
+        long footprint = 0;
+        for (ColumnarLogFileTraces traces : traceLists.keySet()) {
+            footprint += traces.getFootprint();
+        }
+        return footprint;
+    }
+
+    /**
+     * Adds a trace list as the most recently used.
+     */
+    public synchronized void add(ColumnarLogFileTraces traces) {
+        traceLists.put(traces, Boolean.TRUE);
+    }
+
+    /**
+     * Removes a trace list that has been closed and deletes its spill file.
+     */
+    public synchronized void remove(ColumnarLogFileTraces traces) {
+        traceLists.remove(traces);
+        traces.deleteSpillFile();
+    }
+
+    /**
+     * Marks trace lists as the most recently used, in the order given.
+     */
+    public synchronized void use(Collection<ColumnarLogFileTraces> used) {
+        for (ColumnarLogFileTraces traces : used) {
+            if (traceLists.containsKey(traces)) {
+                traceLists.get(traces);
+            }
+        }
+    }
+
+    /**
+     * Spills the least recently used trace lists until the footprint is within the
+     * budget. Trace lists that are in use are not spilled even if they are over it.
+     *
+     * @param inUse the trace lists that are being looked at or updated
+     * @return the number of bytes freed
+     */
+    public long balance(Collection<ColumnarLogFileTraces> inUse) throws IOException {
+        List<ColumnarLogFileTraces> leastRecentlyUsed;
+        long footprint;
+        synchronized (this) {
+            leastRecentlyUsed = new ArrayList<ColumnarLogFileTraces>(traceLists.keySet());
+            footprint = getFootprint();
+        }
+
+        long freed = 0;
+        for (ColumnarLogFileTraces traces : leastRecentlyUsed) {
+            if (footprint - freed <= budget) {
+                break;
+            }
+            if (!inUse.contains(traces) && traces.getFootprint() > 0) {
+                freed += traces.spill();
+            }
+        }
+        return freed;
+    }
+
+    private final long budget;
+
+    // in order of use, the least recently used first
+    private final Map<ColumnarLogFileTraces, Boolean> traceLists =
+            new LinkedHashMap<ColumnarLogFileTraces, Boolean>(16, 0.75f, true);
+}
@@ -0,0 +1,376 @@
+/*
+ * TraceSummary.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package tracer.traces;
+
+import java.util.Arrays;
+
+/**
+ * Summaries of the values of a continuous trace, block by block, from which the
+ * statistics of the values after any burn-in can be put together without going over all
+ * of them again (see FFTTraceCorrelation). Changing the burn-in then only means going
+ * over the rest of the block it falls in and merging the blocks after it.
+ *
+ * For each block there are the sums of the values' deviations from the mean of the whole
+ * trace, of their squares and of their logs, the values sorted, and the sums of the
+ * products of the deviations with those of the values each lag after them. The products
+ * are summed up to the lags needed so far and found again for more if a burn-in needs
+ * more.
+ *
+ * A summary takes as much memory again as the values, so ColumnTrace only keeps it
+ * softly reachable. Traces with NaN values aren't summarised as they can't be sorted in
+ * the same order as TraceDistribution sorts them.
+ *
+ * For traces with so many values that they are sketched (see QuantileSketch.isSketched)
+ * each block has a QuantileSketch of its values instead of their sorted copy, which takes
+ * a small and fixed amount of memory, and the quantiles and HPD intervals are then
+ * approximate.
+ */
+class TraceSummary {
+
+    private static final int BLOCK_COUNT = 64;
+
+    /**
+     * @return the summary of the values, or null if any of them are NaN
+     */
+    static TraceSummary create(DoubleColumn values) {
+        double[] x = values.getArray();
+        int offset = values.getOffset();
+        for (int i = 0; i < values.size(); i++) {
+            if (Double.isNaN(x[offset + i])) {
+                return null;
+            }
+        }
+        return new TraceSummary(values);
+    }
+
+    private TraceSummary(DoubleColumn values) {
+        count = values.size();
+        blockSize = Math.max(1, (count + BLOCK_COUNT - 1) / BLOCK_COUNT);
+        blockCount = (count + blockSize - 1) / blockSize;
+
+        double[] x = values.getArray();
+        int offset = values.getOffset();
+        reference = (count > 0 ? Moments.sum(x, offset, offset + count) / count : 0.0);
+
+        if (QuantileSketch.isSketched(count)) {
+            sortedValues = null;
+            blockSketches = new QuantileSketch[blockCount];
+        } else {
+            sortedValues = values.toArray();
+            blockSketches = null;
+        }
+        blockSums = new double[blockCount];
+        blockSquareSums = new double[blockCount];
+        blockLogSums = new double[blockCount];
+        double[] sums = new double[2];
+        for (int block = 0; block < blockCount; block++) {
+            int from = getBlockStart(block);
+            int to = getBlockStart(block + 1);
+            Moments.sumDeviations(x, offset + from, offset + to, reference, sums);
+            blockSums[block] = sums[0];
+            blockSquareSums[block] = sums[1];
+            blockLogSums[block] = sumLogs(values, from, to);
+            if (sortedValues != null) {
+                Arrays.sort(sortedValues, from, to);
+            } else {
+                blockSketches[block] = new QuantileSketch();
+                blockSketches[block].add(values.slice(from, to));
+            }
+        }
+    }
+
+    /**
+     * @return the number of values summarised
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @param values   the values summarised
+     * @param fromRow  the first value after the burn-in
+     * @return the mean of the values after the burn-in
+     */
+    double getMean(DoubleColumn values, int fromRow) {
+        return reference + getDeviationSum(values, fromRow) / (count - fromRow);
+    }
+
+    /**
+     * @return the variance of the values after the burn-in, dividing by one less than
+     * the number of values as DiscreteStatistics.variance
+     */
+    double getVariance(DoubleColumn values, int fromRow, double mean) {
+        int n = count - fromRow;
+        int firstBlock = getFirstBlock(fromRow);
+        double squareSum = sumSquaredDeviations(values, fromRow, getBlockStart(firstBlock));
+        for (int block = firstBlock; block < blockCount; block++) {
+            squareSum += blockSquareSums[block];
+        }
+        // the squares are of the deviations from the mean of the whole trace
+        double shift = mean - reference;
+        double variance = (squareSum - n * shift * shift) / (n < 2 ? 1 : n - 1);
+        return Math.max(variance, 0.0);
+    }
+
+    /**
+     * @return the mean of the logs of the values after the burn-in, which is only a
+     * number if they are all positive
+     */
+    double getLogMean(DoubleColumn values, int fromRow) {
+        int firstBlock = getFirstBlock(fromRow);
+        double logSum = sumLogs(values, fromRow, getBlockStart(firstBlock));
+        for (int block = firstBlock; block < blockCount; block++) {
+            logSum += blockLogSums[block];
+        }
+        return logSum / (count - fromRow);
+    }
+
+    /**
+     * @return the order statistics of the values after the burn-in, approximate if the
+     * blocks are sketched, in which case the rest of the block the burn-in falls in is
+     * still sorted exactly
+     */
+    OrderStatistics getOrderStatistics(DoubleColumn values, int fromRow) {
+        if (sortedValues != null) {
+            return OrderStatistics.wrapSorted(getSortedValues(values, fromRow));
+        }
+        int firstBlock = getFirstBlock(fromRow);
+        int partialCount = getBlockStart(firstBlock) - fromRow;
+
+        OrderStatistics[] parts = new OrderStatistics[blockCount - firstBlock + 1];
+        int partCount = 0;
+        if (partialCount > 0) {
+            parts[partCount++] = new OrderStatistics(values.slice(fromRow, fromRow + partialCount));
+        }
+        for (int block = firstBlock; block < blockCount; block++) {
+            parts[partCount++] = blockSketches[block].getOrderStatistics();
+        }
+        return OrderStatistics.merge(Arrays.copyOf(parts, partCount));
+    }
+
+    /**
+     * @return the values after the burn-in, sorted by merging those of the blocks
+     */
+    private double[] getSortedValues(DoubleColumn values, int fromRow) {
+        int firstBlock = getFirstBlock(fromRow);
+        int partialCount = getBlockStart(firstBlock) - fromRow;
+
+        // the rest of the block the burn-in falls in and then the blocks after it, each a
+        // sorted run to be merged with the next
+        double[] sorted = new double[count - fromRow];
+        values.slice(fromRow, fromRow + partialCount).copyTo(sorted, 0);
+        Arrays.sort(sorted, 0, partialCount);
+        System.arraycopy(sortedValues, fromRow + partialCount, sorted, partialCount, sorted.length - partialCount);
+
+        int[] runStarts = new int[blockCount - firstBlock + 2];
+        int runCount = 0;
+        if (partialCount > 0) {
+            runStarts[runCount++] = 0;
+        }
+        for (int block = firstBlock; block < blockCount; block++) {
+            runStarts[runCount++] = getBlockStart(block) - fromRow;
+        }
+        runStarts[runCount] = sorted.length;
+
+        double[] buffer = new double[sorted.length];
+        while (runCount > 1) {
+            int mergedCount = 0;
+            for (int run = 0; run < runCount; run += 2) {
+                int start = runStarts[run];
+                int middle = runStarts[Math.min(run + 1, runCount)];
+                int end = runStarts[Math.min(run + 2, runCount)];
+                merge(sorted, start, middle, end, buffer);
+                runStarts[mergedCount++] = start;
+            }
+            runStarts[mergedCount] = sorted.length;
+            runCount = mergedCount;
+
+            double[] merged = buffer;
+            buffer = sorted;
+            sorted = merged;
+        }
+        return sorted;
+    }
+
+    /**
+     * Finds the ACT and ESS of the values after the burn-in from the sums of the products
+     * of the blocks, finding the sums for more lags if the window doesn't close within
+     * those found so far. Lags longer than the blocks are quicker found from the values
+     * themselves.
+     */
+    AutoCorrelation getAutoCorrelation(DoubleColumn values, int fromRow, double mean) {
+        int n = count - fromRow;
+        AutoCorrelation autoCorrelation = new AutoCorrelation(n);
+
+        int lagCount = AutoCorrelation.DIRECT_LAG_COUNT;
+        while (!autoCorrelation.sumAutoCovariances(getAutoCovariances(values, fromRow, mean, lagCount), lagCount)
+                && lagCount < n - 1 && lagCount < AutoCorrelation.MAX_LAG_COUNT) {
+            lagCount = AutoCorrelation.getNextLagCount(lagCount);
+            if (lagCount > blockSize) {
+                return new AutoCorrelation(values.slice(fromRow, count), mean);
+            }
+        }
+        return autoCorrelation;
+    }
+
+    /**
+     * @return the autocovariances of the values after the burn-in about their own mean,
+     * each divided by the number of pairs of values at that lag
+     */
+    private double[] getAutoCovariances(DoubleColumn values, int fromRow, double mean, int lagCount) {
+        int n = count - fromRow;
+        int firstBlock = getFirstBlock(fromRow);
+        double[][] blockProducts = getBlockProducts(values, lagCount);
+
+        double[] products = AutoCorrelation.sumProducts(values, reference, fromRow, getBlockStart(firstBlock), lagCount);
+        for (int block = firstBlock; block < blockCount; block++) {
+            for (int lag = 0; lag < lagCount; lag++) {
+                products[lag] += blockProducts[block][lag];
+            }
+        }
+
+        // the products are of the deviations from the mean of the whole trace so they are
+        // moved to the mean after the burn-in: for each lag, the sum of (y_i - s)(y_i+k - s)
+        // is the sum of the products less s times the sums of the first and the last n - k
+        // deviations, plus (n - k) s^2
+        double[] x = values.getArray();
+        int offset = values.getOffset();
+        double shift = mean - reference;
+        double deviationSum = getDeviationSum(values, fromRow);
+        // the sums of the first and of the last lag deviations
+        double firstSum = 0.0;
+        double lastSum = 0.0;
+
+        double[] autoCovariances = new double[Math.min(lagCount, n)];
+        for (int lag = 0; lag < autoCovariances.length; lag++) {
+            if (lag > 0) {
+                firstSum += x[offset + fromRow + lag - 1] - reference;
+                lastSum += x[offset + count - lag] - reference;
+            }
+            double sum = products[lag] - shift * ((deviationSum - lastSum) + (deviationSum - firstSum))
+                    + (n - lag) * shift * shift;
+            autoCovariances[lag] = sum / (n - lag);
+        }
+        return autoCovariances;
+    }
+
+    /**
+     * @return the sums of the products of each block for at least lagCount lags, found
+     * again if they haven't been found for that many
+     */
+    private synchronized double[][] getBlockProducts(DoubleColumn values, int lagCount) {
+        if (blockProducts == null || blockProducts[0].length < lagCount) {
+            double[][] blockProducts = new double[blockCount][];
+            for (int block = 0; block < blockCount; block++) {
+                blockProducts[block] = AutoCorrelation.sumProducts(values, reference,
+                        getBlockStart(block), getBlockStart(block + 1), lagCount);
+            }
+            this.blockProducts = blockProducts;
+        }
+        return blockProducts;
+    }
+
+    /**
+     * @return the sum of the deviations of the values after the burn-in
+     */
+    private double getDeviationSum(DoubleColumn values, int fromRow) {
+        int firstBlock = getFirstBlock(fromRow);
+        double sum = sumDeviations(values, fromRow, getBlockStart(firstBlock));
+        for (int block = firstBlock; block < blockCount; block++) {
+            sum += blockSums[block];
+        }
+        return sum;
+    }
+
+    /**
+     * @return the first block that is entirely after the burn-in
+     */
+    private int getFirstBlock(int fromRow) {
+        if (fromRow < 0 || fromRow >= count) {
+            throw new IndexOutOfBoundsException("Row: " + fromRow + ", Size: " + count);
+        }
+        return (fromRow + blockSize - 1) / blockSize;
+    }
+
+    private int getBlockStart(int block) {
+        return Math.min(block * blockSize, count);
+    }
+
+    private double sumDeviations(DoubleColumn values, int from, int to) {
+        double[] sums = new double[2];
+        Moments.sumDeviations(values.getArray(), values.getOffset() + from, values.getOffset() + to, reference, sums);
+        return sums[0];
+    }
+
+    private double sumSquaredDeviations(DoubleColumn values, int from, int to) {
+        double[] sums = new double[2];
+        Moments.sumDeviations(values.getArray(), values.getOffset() + from, values.getOffset() + to, reference, sums);
+        return sums[1];
+    }
+
+    private static double sumLogs(DoubleColumn values, int from, int to) {
+        return Moments.sumLogs(values.getArray(), values.getOffset() + from, values.getOffset() + to);
+    }
+
+    /**
+     * Merges the sorted runs from start to middle and middle to end into the same range of
+     * the destination.
+     */
+    private static void merge(double[] source, int start, int middle, int end, double[] destination) {
+        int i = start;
+        int j = middle;
+        int k = start;
+        while (i < middle && j < end) {
+            if (source[j] < source[i]) {
+                destination[k++] = source[j++];
+            } else {
+                destination[k++] = source[i++];
+            }
+        }
+        System.arraycopy(source, i, destination, k, middle - i);
+        k += middle - i;
+        System.arraycopy(source, j, destination, k, end - j);
+    }
+
+    private final int count;
+    private final int blockSize;
+    private final int blockCount;
+
+    // the mean of the whole trace, from which the deviations are taken
+    private final double reference;
+
+    private final double[] blockSums;
+    private final double[] blockSquareSums;
+    private final double[] blockLogSums;
+
+    // the values with those of each block sorted, or null if the blocks are sketched
+    private final double[] sortedValues;
+    private final QuantileSketch[] blockSketches;
+
+    // the sums of the products of each block by lag, for the most lags needed so far
+    private volatile double[][] blockProducts = null;
+}